@@ -0,0 +1,325 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Columnar storage of numerical features for objects identified by a dense,
+ * non-negative <code>int</code> index.
+ * <p>
+ * There is one primitive <code>double</code> column per feature, created on
+ * the fly the first time a value is stored for this feature. Missing values
+ * are stored as {@link #MISSING}, a <code>NaN</code> with a dedicated
+ * payload, so that a <code>NaN</code> feature value can be stored and read
+ * back like any other value.
+ * <p>
+ * Columns are made of fixed-size chunks that are never moved once allocated,
+ * so that values at different indices can be written concurrently without
+ * locking.
+ */
+public final class FeatureColumns
+{
+
+	/**
+	 * The value of missing features. It is a <code>NaN</code>, and is
+	 * distinguished from other <code>NaN</code>s by its bit pattern only.
+	 */
+	public static final double MISSING = Double.longBitsToDouble( 0x7ff80000000007a2L );
+
+	private static final long MISSING_BITS = Double.doubleToRawLongBits( MISSING );
+
+	private static final int CHUNK_BITS = 12;
+
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private final Map< String, Column > columns = new ConcurrentHashMap<>();
+
+	/**
+	 * Returns <code>true</code> if the specified value is the marker of a
+	 * missing value.
+	 */
+	public static boolean isMissing( final double value )
+	{
+		return Double.doubleToRawLongBits( value ) == MISSING_BITS;
+	}
+
+	/**
+	 * Returns the value of the specified feature at the specified index, or
+	 * {@link #MISSING} if it is missing.
+	 */
+	public double get( final int index, final String feature )
+	{
+		final Column column = columns.get( feature );
+		if ( null == column )
+			return MISSING;
+		return column.get( index );
+	}
+
+	/**
+	 * Returns the value of the specified feature at the specified index, or
+	 * <code>null</code> if it is missing.
+	 */
+	Double getFeature( final int index, final String feature )
+	{
+		final double val = get( index, feature );
+		return isMissing( val ) ? null : Double.valueOf( val );
+	}
+
+	/**
+	 * Stores the value of the specified feature at the specified index.
+	 */
+	public void put( final int index, final String feature, final double value )
+	{
+		Column column = columns.get( feature );
+		if ( null == column )
+		{
+			if ( isMissing( value ) )
+				return;
+			column = columns.computeIfAbsent( feature, k -> new Column() );
+		}
+		column.set( index, value );
+	}
+
+	/**
+	 * Removes the value of the specified feature at the specified index.
+	 */
+	void remove( final int index, final String feature )
+	{
+		final Column column = columns.get( feature );
+		if ( null != column && !isMissing( column.get( index ) ) )
+			column.set( index, MISSING );
+	}
+
+	/**
+	 * Removes all the values stored at the specified index.
+	 */
+	void clear( final int index )
+	{
+		for ( final Column column : columns.values() )
+			if ( !isMissing( column.get( index ) ) )
+				column.set( index, MISSING );
+	}
+
+	/**
+	 * Returns a copy of the values of the specified feature, for indices 0 to
+	 * <code>size - 1</code>. Missing values are {@link #MISSING}, which is a
+	 * <code>NaN</code>.
+	 */
+	public double[] getValues( final String feature, final int size )
+	{
+		final double[] values = new double[ size ];
+		final Column column = columns.get( feature );
+		if ( null == column )
+		{
+			Arrays.fill( values, MISSING );
+			return values;
+		}
+		column.copyTo( values );
+		return values;
+	}
+
+	/**
+	 * Exposes the features stored at the specified index as a map. The map is
+	 * a view backed by this store.
+	 */
+	Map< String, Double > asMap( final int index )
+	{
+		return new FeatureMapView( index );
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	private static final class Column
+	{
+
+		private volatile double[][] chunks = new double[ 0 ][];
+
+		private double get( final int index )
+		{
+			final double[][] c = chunks;
+			final int ci = index >>> CHUNK_BITS;
+			if ( ci >= c.length || null == c[ ci ] )
+				return MISSING;
+			return c[ ci ][ index & CHUNK_MASK ];
+		}
+
+		private void set( final int index, final double value )
+		{
+			chunk( index >>> CHUNK_BITS )[ index & CHUNK_MASK ] = value;
+		}
+
+		private double[] chunk( final int ci )
+		{
+			double[][] c = chunks;
+			if ( ci < c.length && null != c[ ci ] )
+				return c[ ci ];
+
+			synchronized ( this )
+			{
+				c = chunks;
+				if ( ci >= c.length )
+					c = Arrays.copyOf( c, Math.max( ci + 1, 2 * c.length ) );
+				if ( null == c[ ci ] )
+				{
+					final double[] chunk = new double[ CHUNK_SIZE ];
+					Arrays.fill( chunk, MISSING );
+					c[ ci ] = chunk;
+				}
+				chunks = c;
+				return c[ ci ];
+			}
+		}
+
+		private void copyTo( final double[] values )
+		{
+			final double[][] c = chunks;
+			for ( int start = 0; start < values.length; start += CHUNK_SIZE )
+			{
+				final int ci = start >>> CHUNK_BITS;
+				final int length = Math.min( CHUNK_SIZE, values.length - start );
+				if ( ci >= c.length || null == c[ ci ] )
+					Arrays.fill( values, start, start + length, MISSING );
+				else
+					System.arraycopy( c[ ci ], 0, values, start, length );
+			}
+		}
+	}
+
+	private final class FeatureMapView extends AbstractMap< String, Double >
+	{
+
+		private final int index;
+
+		private FeatureMapView( final int index )
+		{
+			this.index = index;
+		}
+
+		@Override
+		public Double get( final Object key )
+		{
+			if ( !( key instanceof String ) )
+				return null;
+			return getFeature( index, ( String ) key );
+		}
+
+		@Override
+		public boolean containsKey( final Object key )
+		{
+			return null != get( key );
+		}
+
+		@Override
+		public Double put( final String key, final Double value )
+		{
+			final Double previous = getFeature( index, key );
+			if ( null == value )
+				FeatureColumns.this.remove( index, key );
+			else
+				FeatureColumns.this.put( index, key, value.doubleValue() );
+			return previous;
+		}
+
+		@Override
+		public Double remove( final Object key )
+		{
+			final Double previous = get( key );
+			if ( null != previous )
+				FeatureColumns.this.remove( index, ( String ) key );
+			return previous;
+		}
+
+		@Override
+		public Set< Entry< String, Double > > entrySet()
+		{
+			return new AbstractSet< Entry< String, Double > >()
+			{
+
+				@Override
+				public Iterator< Entry< String, Double > > iterator()
+				{
+					final List< Entry< String, Double > > entries = new ArrayList<>();
+					for ( final Entry< String, Column > entry : columns.entrySet() )
+					{
+						final double val = entry.getValue().get( index );
+						if ( !isMissing( val ) )
+							entries.add( new SimpleImmutableEntry<>( entry.getKey(), Double.valueOf( val ) ) );
+					}
+					final Iterator< Entry< String, Double > > it = entries.iterator();
+					return new Iterator< Entry< String, Double > >()
+					{
+
+						private Entry< String, Double > current;
+
+						@Override
+						public boolean hasNext()
+						{
+							return it.hasNext();
+						}
+
+						@Override
+						public Entry< String, Double > next()
+						{
+							if ( !it.hasNext() )
+								throw new NoSuchElementException();
+							current = it.next();
+							return current;
+						}
+
+						@Override
+						public void remove()
+						{
+							if ( null == current )
+								throw new IllegalStateException();
+							FeatureColumns.this.remove( index, current.getKey() );
+							current = null;
+						}
+					};
+				}
+
+				@Override
+				public int size()
+				{
+					int n = 0;
+					for ( final Column column : columns.values() )
+						if ( !isMissing( column.get( index ) ) )
+							n++;
+					return n;
+				}
+			};
+		}
+	}
+}
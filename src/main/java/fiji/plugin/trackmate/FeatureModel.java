@@ -21,11 +21,17 @@
  */
 package fiji.plugin.trackmate;
 
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 
@@ -57,16 +63,28 @@ public class FeatureModel
 	private final Map< String, Boolean > trackFeatureIsInt = new HashMap<>();
 
 	/**
-	 * Feature storage. We use a Map of Map as a 2D Map. The list maps each
-	 * track to its feature map. The feature map maps each feature to the double
-	 * value for the specified feature.
+	 * Feature storage for tracks. One primitive column per feature, indexed by
+	 * the slot of the track in {@link #trackSlots}.
 	 */
-	Map< Integer, Map< String, Double > > trackFeatureValues = new ConcurrentHashMap<>();
+	private final FeatureColumns trackFeatureValues = new FeatureColumns();
 
 	/**
-	 * Feature storage for edges.
+	 * Dense slots of the tracks in the track feature columns. Track IDs keep
+	 * growing as tracks are split and merged, so slots are assigned on demand
+	 * and recycled when tracks are removed from the model.
 	 */
-	private final ConcurrentHashMap< DefaultWeightedEdge, ConcurrentHashMap< String, Double > > edgeFeatureValues = new ConcurrentHashMap<>();
+	private final Map< Integer, Integer > trackSlots = new ConcurrentHashMap<>();
+
+	/** Slots released by removed tracks, reused first. */
+	private final ArrayDeque< Integer > freeTrackSlots = new ArrayDeque<>();
+
+	private final AtomicInteger trackSlotCounter = new AtomicInteger( 0 );
+
+	/**
+	 * Feature storage for edges. One primitive column per feature, indexed by
+	 * the edge index given by {@link TrackModel#edgeIndex(DefaultWeightedEdge)}.
+	 */
+	private final FeatureColumns edgeFeatureValues = new FeatureColumns();
 
 	private final Collection< String > edgeFeatures = new LinkedHashSet<>();
 
@@ -136,31 +154,53 @@ public class FeatureModel
 	 * Note that no checks are made to ensures that the edge exists in the
 	 * {@link TrackModel}, and that the feature is declared in this
 	 * {@link FeatureModel}.
+	 * <p>
+	 * This method does not lock: values for different edges can be stored
+	 * concurrently.
 	 *
 	 * @param edge
 	 *            the edge whose features to update.
 	 * @param feature
 	 *            the feature.
 	 * @param value
-	 *            the feature value
+	 *            the feature value. <code>null</code> removes the value.
 	 */
-	public synchronized void putEdgeFeature( final DefaultWeightedEdge edge, final String feature, final Double value )
+	public void putEdgeFeature( final DefaultWeightedEdge edge, final String feature, final Double value )
 	{
-		ConcurrentHashMap< String, Double > map = edgeFeatureValues.get( edge );
-		if ( null == map )
+		if ( null == value )
 		{
-			map = new ConcurrentHashMap<>();
-			edgeFeatureValues.put( edge, map );
+			removeEdgeFeature( edge, feature );
+			return;
 		}
-		map.put( feature, value );
+		final int index = model.getTrackModel().acquireEdgeIndex( edge, edgeFeatureValues::clear );
+		if ( index < 0 )
+			// Removed from the model.
+			return;
+		edgeFeatureValues.put( index, feature, value.doubleValue() );
 	}
 
 	public Double getEdgeFeature( final DefaultWeightedEdge edge, final String featureName )
 	{
-		final ConcurrentHashMap< String, Double > map = edgeFeatureValues.get( edge );
-		if ( null == map )
+		final int index = model.getTrackModel().edgeIndex( edge );
+		if ( index < 0 )
 			return null;
-		return map.get( featureName );
+		return edgeFeatureValues.getFeature( index, featureName );
+	}
+
+	/**
+	 * Returns a copy of the values of the specified edge feature, indexed by
+	 * edge index (see {@link TrackModel#edgeIndex(DefaultWeightedEdge)}).
+	 * Missing values are {@link Double#NaN}. Values at indices that are not
+	 * assigned to an edge of the model are unspecified.
+	 *
+	 * @param feature
+	 *            the edge feature.
+	 * @return a new <code>double[]</code> array, of length
+	 *         {@link TrackModel#nEdgeIndices()}.
+	 */
+	public double[] getEdgeFeatureColumn( final String feature )
+	{
+		return edgeFeatureValues.getValues( feature, model.getTrackModel().nEdgeIndices() );
 	}
 
 	/**
@@ -173,10 +213,10 @@ public class FeatureModel
 	 */
 	public void removeEdgeFeature( final DefaultWeightedEdge edge, final String feature )
 	{
-		final ConcurrentHashMap< String, Double > map = edgeFeatureValues.get( edge );
-		if ( null == map )
+		final int index = model.getTrackModel().edgeIndex( edge );
+		if ( index < 0 )
 			return;
-		map.remove( feature );
+		edgeFeatureValues.remove( index, feature );
 	}
 
 	/**
@@ -388,23 +428,23 @@ public class FeatureModel
 	 * Note that no checks are made to ensures that the track ID exists in the
 	 * {@link TrackModel}, and that the feature is declared in this
 	 * {@link FeatureModel}.
+	 * <p>
+	 * This method does not lock: values for different tracks can be stored
+	 * concurrently.
 	 *
 	 * @param trackID
 	 *            the ID of the track. It must be an existing track ID.
 	 * @param feature
 	 *            the feature.
 	 * @param value
-	 *            the feature value.
+	 *            the feature value. <code>null</code> removes the value.
 	 */
-	public synchronized void putTrackFeature( final Integer trackID, final String feature, final Double value )
+	public void putTrackFeature( final Integer trackID, final String feature, final Double value )
 	{
-		Map< String, Double > trackFeatureMap = trackFeatureValues.get( trackID );
-		if ( null == trackFeatureMap )
-		{
-			trackFeatureMap = new HashMap<>( trackFeatures.size() );
-			trackFeatureValues.put( trackID, trackFeatureMap );
-		}
-		trackFeatureMap.put( feature, value );
+		if ( null == value )
+			removeTrackFeature( trackID, feature );
+		else
+			trackFeatureValues.put( acquireTrackSlot( trackID ), feature, value.doubleValue() );
 	}
 
 	/**
@@ -418,10 +458,9 @@ public class FeatureModel
 	 */
 	public void removeTrackFeature( final Integer trackID, final String feature )
 	{
-		final Map< String, Double > map = trackFeatureValues.get( trackID );
-		if ( null == map )
-			return;
-		map.remove( feature );
+		final int slot = trackSlot( trackID );
+		if ( slot >= 0 )
+			trackFeatureValues.remove( slot, feature );
 	}
 
 	/**
@@ -436,39 +475,85 @@ public class FeatureModel
 	 */
 	public Double getTrackFeature( final Integer trackID, final String feature )
 	{
-		final Map< String, Double > valueMap = trackFeatureValues.get( trackID );
-		return valueMap == null ? null : valueMap.get( feature );
+		final int slot = trackSlot( trackID );
+		if ( slot < 0 )
+			return null;
+		return trackFeatureValues.getFeature( slot, feature );
+	}
+
+	/**
+	 * Discards the feature values of the specified tracks, removed from the
+	 * model, and recycles their slots.
+	 *
+	 * @param trackIDs
+	 *            the IDs of the removed tracks.
+	 */
+	void releaseTrackFeatures( final Collection< Integer > trackIDs )
+	{
+		for ( final Integer trackID : trackIDs )
+		{
+			final Integer slot = trackSlots.remove( trackID );
+			if ( null == slot )
+				continue;
+			trackFeatureValues.clear( slot.intValue() );
+			synchronized ( freeTrackSlots )
+			{
+				freeTrackSlots.push( slot );
+			}
+		}
+	}
+
+	private int trackSlot( final Integer trackID )
+	{
+		final Integer slot = trackSlots.get( trackID );
+		return ( null == slot ) ? -1 : slot.intValue();
+	}
+
+	private int acquireTrackSlot( final Integer trackID )
+	{
+		final Integer slot = trackSlots.get( trackID );
+		if ( null != slot )
+			return slot.intValue();
+		return trackSlots.computeIfAbsent( trackID, id -> {
+			Integer s;
+			synchronized ( freeTrackSlots )
+			{
+				s = freeTrackSlots.poll();
+			}
+			return ( null == s ) ? Integer.valueOf( trackSlotCounter.getAndIncrement() ) : s;
+		} ).intValue();
 	}
 
 	/**
 	 * Returns the map of all track features declared for all tracks of the
-	 * model.
+	 * model. Tracks for which a feature value is missing are skipped.
 	 *
 	 * @return a new mapping of feature vs its numerical values.
 	 */
 	public Map< String, double[] > getTrackFeatureValues()
 	{
 		final Map< String, double[] > featureValues = new HashMap<>();
-		Double val;
-		final int nTracks = model.getTrackModel().nTracks( false );
+		final Set< Integer > trackIDs = model.getTrackModel().trackIDs( false );
+		final int nSlots = trackSlotCounter.get();
+
 		for ( final String feature : trackFeatures )
 		{
 			// Make a double array to comply to JFreeChart histograms
-			boolean noDataFlag = true;
-			final double[] values = new double[ nTracks ];
+			final double[] column = trackFeatureValues.getValues( feature, nSlots );
+			final double[] values = new double[ trackIDs.size() ];
 			int index = 0;
-			for ( final Integer trackID : model.getTrackModel().trackIDs( false ) )
+			for ( final Integer trackID : trackIDs )
 			{
-				val = getTrackFeature( trackID, feature );
-				if ( null == val )
+				final int slot = trackSlot( trackID );
+				if ( slot < 0 || slot >= nSlots )
+					continue;
+				final double val = column[ slot ];
+				if ( FeatureColumns.isMissing( val ) )
 					continue;
 
 				values[ index++ ] = val;
-				noDataFlag = false;
 			}
-
-			if ( noDataFlag )
-				featureValues.put( feature, noDataFlag ? new double[ 0 ] : values );
+			featureValues.put( feature, ( index == values.length ) ? values : Arrays.copyOf( values, index ) );
 		}
 		return featureValues;
 	}
@@ -623,7 +708,14 @@ public class FeatureModel
 		appendFeatureDeclarations( str, edgeFeatures, edgeFeatureNames, edgeFeatureShortNames, edgeFeatureDimensions, edgeFeatureIsInt );
 		str.append( '\n' );
 		str.append( " - Values:\n" );
-		appendFeatureValues( str, edgeFeatureValues );
+		final Map< DefaultWeightedEdge, Map< String, Double > > edgeValues = new LinkedHashMap<>();
+		for ( final DefaultWeightedEdge edge : model.getTrackModel().edgeSet() )
+		{
+			final int index = model.getTrackModel().edgeIndex( edge );
+			if ( index >= 0 )
+				edgeValues.put( edge, edgeFeatureValues.asMap( index ) );
+		}
+		appendFeatureValues( str, edgeValues );
 
 		// Track
 		str.append( "Track features:\n" );
@@ -631,7 +723,13 @@ public class FeatureModel
 		appendFeatureDeclarations( str, trackFeatures, trackFeatureNames, trackFeatureShortNames, trackFeatureDimensions, trackFeatureIsInt );
 		str.append( '\n' );
 		str.append( " - Values:\n" );
-		appendFeatureValues( str, trackFeatureValues );
+		final Map< Integer, Map< String, Double > > trackValues = new LinkedHashMap<>();
+		for ( final Integer trackID : model.getTrackModel().trackIDs( false ) )
+		{
+			final int slot = trackSlot( trackID );
+			trackValues.put( trackID, ( slot < 0 ) ? Collections.emptyMap() : trackFeatureValues.asMap( slot ) );
+		}
+		appendFeatureValues( str, trackValues );
 
 		return str.toString();
 	}
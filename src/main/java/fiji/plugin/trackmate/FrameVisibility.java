@@ -0,0 +1,258 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The visibility of the spots of one frame of a {@link SpotCollection}, stored
+ * as a bitmap over an array of the spots of this frame, with the number of
+ * visible spots. Counting visible spots is <code>O(1)</code> and iterating
+ * over them is a bit scan, with no feature lookup.
+ * <p>
+ * Instances do not observe the frame content nor the
+ * {@link SpotCollection#VISIBILITY} feature of the spots: their owner updates
+ * them with {@link #add(Spot, boolean)} and {@link #remove(Spot)} when spots
+ * are added to or removed from the frame. They record the visibility
+ * revision of the {@link SpotCollection} they were built at, so that their
+ * owner can tell when they are outdated.
+ */
+final class FrameVisibility implements Iterable< Spot >
+{
+
+	private Spot[] spots;
+
+	private long[] bits;
+
+	private int size;
+
+	private int nVisible;
+
+	/**
+	 * The position of each spot in {@link #spots}. Built on the first
+	 * removal, and maintained afterwards, so that removing is
+	 * <code>O(1)</code>. <code>null</code> until then.
+	 */
+	private IdentityHashMap< Spot, Integer > slots;
+
+	final int revision;
+
+	/**
+	 * Creates a bitmap over the specified spots, all invisible.
+	 *
+	 * @param spots
+	 *            the spots of the frame.
+	 * @param revision
+	 *            the visibility revision this bitmap is built at.
+	 */
+	FrameVisibility( final Spot[] spots, final int revision )
+	{
+		this.spots = spots;
+		this.size = spots.length;
+		this.bits = new long[ ( spots.length + 63 ) >>> 6 ];
+		this.revision = revision;
+	}
+
+	/**
+	 * Creates a bitmap over the specified frame content, reading the
+	 * visibility of the spots from their {@link SpotCollection#VISIBILITY}
+	 * feature.
+	 *
+	 * @param frameContent
+	 *            the spots of the frame.
+	 * @param revision
+	 *            the visibility revision, read before this call.
+	 * @return a new instance.
+	 */
+	static FrameVisibility of( final Collection< Spot > frameContent, final int revision )
+	{
+		final FrameVisibility fv = new FrameVisibility( frameContent.toArray( new Spot[ 0 ] ), revision );
+		for ( int i = 0; i < fv.size; i++ )
+		{
+			final Double val = fv.spots[ i ].getFeature( SpotCollection.VISIBILITY );
+			if ( null != val && val.doubleValue() > 0. )
+				fv.set( i, true );
+		}
+		return fv;
+	}
+
+	/**
+	 * Returns the number of spots in the frame, visible or not.
+	 *
+	 * @return the number of spots.
+	 */
+	int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Returns the spot at the specified position in the frame.
+	 *
+	 * @param i
+	 *            the position.
+	 * @return the spot.
+	 */
+	Spot get( final int i )
+	{
+		return spots[ i ];
+	}
+
+	/**
+	 * Returns the number of visible spots in the frame.
+	 *
+	 * @return the number of visible spots.
+	 */
+	int nVisible()
+	{
+		return nVisible;
+	}
+
+	boolean isVisible( final int i )
+	{
+		return ( bits[ i >>> 6 ] & ( 1L << i ) ) != 0;
+	}
+
+	/**
+	 * Sets the visibility of the spot at the specified position. Does not
+	 * change the {@link SpotCollection#VISIBILITY} feature of the spot.
+	 *
+	 * @param i
+	 *            the position.
+	 * @param visible
+	 *            the visibility.
+	 */
+	void set( final int i, final boolean visible )
+	{
+		final int word = i >>> 6;
+		final long mask = 1L << i;
+		final boolean was = ( bits[ word ] & mask ) != 0;
+		if ( was == visible )
+			return;
+		if ( visible )
+		{
+			bits[ word ] |= mask;
+			nVisible++;
+		}
+		else
+		{
+			bits[ word ] &= ~mask;
+			nVisible--;
+		}
+	}
+
+	/**
+	 * Appends a spot to the frame.
+	 *
+	 * @param spot
+	 *            the spot to add.
+	 * @param visible
+	 *            its visibility.
+	 */
+	void add( final Spot spot, final boolean visible )
+	{
+		if ( size == spots.length )
+			spots = Arrays.copyOf( spots, Math.max( 8, 2 * size ) );
+		if ( ( size >>> 6 ) >= bits.length )
+			bits = Arrays.copyOf( bits, Math.max( 1, 2 * bits.length ) );
+		spots[ size ] = spot;
+		if ( null != slots )
+			slots.put( spot, Integer.valueOf( size ) );
+		set( size++, visible );
+	}
+
+	/**
+	 * Removes a spot from the frame. The last spot of the frame takes its
+	 * position.
+	 *
+	 * @param spot
+	 *            the spot to remove.
+	 * @return <code>true</code> if the spot was in the frame.
+	 */
+	boolean remove( final Spot spot )
+	{
+		if ( null == slots )
+		{
+			slots = new IdentityHashMap<>( 2 * size );
+			for ( int i = 0; i < size; i++ )
+				slots.put( spots[ i ], Integer.valueOf( i ) );
+		}
+		final Integer slot = slots.remove( spot );
+		if ( null == slot )
+			return false;
+
+		final int i = slot.intValue();
+		final int last = size - 1;
+		final boolean lastVisible = isVisible( last );
+		set( last, false );
+		if ( i != last )
+		{
+			spots[ i ] = spots[ last ];
+			slots.put( spots[ i ], slot );
+			set( i, lastVisible );
+		}
+		spots[ last ] = null;
+		size--;
+		return true;
+	}
+
+	/**
+	 * Iterates over the visible spots of the frame.
+	 */
+	@Override
+	public Iterator< Spot > iterator()
+	{
+		return new Iterator< Spot >()
+		{
+
+			private int word = 0;
+
+			private long current = ( bits.length > 0 ) ? bits[ 0 ] : 0L;
+
+			@Override
+			public boolean hasNext()
+			{
+				while ( current == 0L )
+				{
+					if ( ++word >= bits.length )
+						return false;
+					current = bits[ word ];
+				}
+				return true;
+			}
+
+			@Override
+			public Spot next()
+			{
+				if ( !hasNext() )
+					throw new NoSuchElementException();
+				final int i = ( word << 6 ) + Long.numberOfTrailingZeros( current );
+				current &= current - 1;
+				return spots[ i ];
+			}
+		};
+	}
+}
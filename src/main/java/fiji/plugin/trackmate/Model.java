@@ -21,11 +21,13 @@
  */
 package fiji.plugin.trackmate;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import org.jgrapht.Graphs;
 import org.jgrapht.graph.DefaultWeightedEdge;
@@ -118,9 +120,17 @@ public class Model
 	// LISTENERS
 
 	/**
-	 * The list of listeners listening to model content change.
+	 * The list of listeners listening to model content change. Copy-on-write,
+	 * so that the delivery thread can iterate over it while listeners are
+	 * added or removed.
 	 */
-	Set< ModelChangeListener > modelChangeListeners = new LinkedHashSet< >();
+	Set< ModelChangeListener > modelChangeListeners = new CopyOnWriteArraySet< >();
+
+	/**
+	 * The dispatcher used to deliver events asynchronously. If
+	 * <code>null</code>, events are delivered on the thread that fires them.
+	 */
+	private volatile ModelChangeDispatcher dispatcher;
 
 	/*
 	 * CONSTRUCTOR
@@ -235,6 +245,118 @@ public class Model
 		return modelChangeListeners;
 	}
 
+	/**
+	 * Sets whether model change events are delivered asynchronously.
+	 * <p>
+	 * By default, listeners are notified on the thread that modifies the model,
+	 * when the transaction closes. In asynchronous mode, the events are queued
+	 * and delivered on a dedicated thread, and consecutive
+	 * {@link ModelChangeEvent#MODEL_MODIFIED} events waiting in the queue are
+	 * merged in one. This avoids blocking bulk edits on feature recomputation
+	 * and display refresh. Call {@link #flushModelChangeEvents()} to wait for
+	 * the listeners to be up to date.
+	 * <p>
+	 * Switching back to synchronous mode delivers the pending events first.
+	 * Events fired concurrently with the switch are delivered in order,
+	 * either asynchronously or on the thread that fires them.
+	 * <p>
+	 * In asynchronous mode, listeners are notified while the model may
+	 * already have been modified further. They must only rely on the content
+	 * of the event: the spots, edges and tracks it lists, and their flags.
+	 * What they read from this model, its track model or its feature model
+	 * is not a snapshot of the state the event describes, and is not
+	 * synchronized with the threads that modify the model.
+	 *
+	 * @param asynchronous
+	 *            whether events are delivered asynchronously.
+	 */
+	public synchronized void setAsynchronousModelChangeEvents( final boolean asynchronous )
+	{
+		if ( asynchronous == ( null != dispatcher ) )
+			return;
+
+		if ( asynchronous )
+		{
+			dispatcher = new ModelChangeDispatcher( event -> {
+				for ( final ModelChangeListener listener : modelChangeListeners )
+					listener.modelChanged( event );
+			} );
+		}
+		else
+		{
+			final ModelChangeDispatcher d = dispatcher;
+			dispatcher = null;
+			d.close();
+		}
+	}
+
+	/**
+	 * Returns whether model change events are delivered asynchronously.
+	 *
+	 * @return <code>true</code> if events are delivered asynchronously.
+	 * @see #setAsynchronousModelChangeEvents(boolean)
+	 */
+	public boolean isAsynchronousModelChangeEvents()
+	{
+		return null != dispatcher;
+	}
+
+	/**
+	 * Blocks until all the model change events fired so far have been
+	 * delivered to the listeners. Returns immediately in synchronous mode.
+	 */
+	public void flushModelChangeEvents()
+	{
+		final ModelChangeDispatcher d = dispatcher;
+		if ( null != d )
+			d.flush();
+	}
+
+	/**
+	 * Releases the indices of removed edges once the listeners were notified
+	 * of their removal, so that listeners can still read their features.
+	 */
+	private void releaseEdgeIndices( final List< DefaultWeightedEdge > removedEdges )
+	{
+		if ( removedEdges.isEmpty() )
+			return;
+		final ModelChangeDispatcher d = dispatcher;
+		if ( null == d )
+			trackModel.releaseEdgeIndices( removedEdges );
+		else
+			d.runAfterDelivery( () -> trackModel.releaseEdgeIndices( removedEdges ) );
+	}
+
+	/**
+	 * Releases the feature values of removed tracks once the listeners were
+	 * notified, unless the track IDs were reassigned meanwhile.
+	 */
+	private void releaseTrackFeatures( final List< Integer > removedTrackIDs )
+	{
+		if ( removedTrackIDs.isEmpty() )
+			return;
+		final int generation = trackModel.idGeneration();
+		final Runnable release = () -> {
+			if ( trackModel.idGeneration() == generation )
+				featureModel.releaseTrackFeatures( removedTrackIDs );
+		};
+		final ModelChangeDispatcher d = dispatcher;
+		if ( null == d )
+			release.run();
+		else
+			d.runAfterDelivery( release );
+	}
+
+	private void fireModelChanged( final ModelChangeEvent event )
+	{
+		final ModelChangeDispatcher d = dispatcher;
+		// A closed dispatcher leaves the delivery to the firing thread.
+		if ( null != d && d.fire( event ) )
+			return;
+		for ( final ModelChangeListener listener : modelChangeListeners )
+			listener.modelChanged( event );
+	}
+
 	/*
 	 * PHYSICAL UNITS
 	 */
@@ -314,8 +436,7 @@ public class Model
 		if ( doNotify )
 		{
 			final ModelChangeEvent event = new ModelChangeEvent( this, ModelChangeEvent.TRACKS_COMPUTED );
-			for ( final ModelChangeListener listener : modelChangeListeners )
-				listener.modelChanged( event );
+			fireModelChanged( event );
 		}
 	}
 
@@ -349,8 +470,7 @@ public class Model
 		if ( doNotify )
 		{
 			final ModelChangeEvent event = new ModelChangeEvent( this, ModelChangeEvent.TRACKS_COMPUTED );
-			for ( final ModelChangeListener listener : modelChangeListeners )
-				listener.modelChanged( event );
+			fireModelChanged( event );
 		}
 	}
 
@@ -381,8 +501,7 @@ public class Model
 		if ( doNotify )
 		{
 			final ModelChangeEvent event = new ModelChangeEvent( this, ModelChangeEvent.SPOTS_COMPUTED );
-			for ( final ModelChangeListener listener : modelChangeListeners )
-				listener.modelChanged( event );
+			fireModelChanged( event );
 		}
 	}
 
@@ -401,8 +520,7 @@ public class Model
 		if ( doNotify )
 		{
 			final ModelChangeEvent event = new ModelChangeEvent( this, ModelChangeEvent.SPOTS_COMPUTED );
-			for ( final ModelChangeListener listener : modelChangeListeners )
-				listener.modelChanged( event );
+			fireModelChanged( event );
 		}
 	}
 
@@ -422,8 +540,7 @@ public class Model
 		if ( doNotify )
 		{
 			final ModelChangeEvent event = new ModelChangeEvent( this, ModelChangeEvent.SPOTS_FILTERED );
-			for ( final ModelChangeListener listener : modelChangeListeners )
-				listener.modelChanged( event );
+			fireModelChanged( event );
 		}
 
 	}
@@ -435,9 +552,9 @@ public class Model
 	 */
 	public void notifyFeaturesComputed()
 	{
+		spots.invalidateFilterIndex();
 		final ModelChangeEvent event = new ModelChangeEvent( this, ModelChangeEvent.FEATURES_COMPUTED );
-		for ( final ModelChangeListener listener : modelChangeListeners )
-			listener.modelChanged( event );
+		fireModelChanged( event );
 	}
 
 	/*
@@ -923,10 +1040,7 @@ public class Model
 					System.out.println( "[TrackMateModel] to " + modelChangeListeners );
 
 				}
-				for ( final ModelChangeListener listener : modelChangeListeners )
-				{
-					listener.modelChanged( event );
-				}
+				fireModelChanged( event );
 			}
 
 			// Fire events stored in the event cache
@@ -937,20 +1051,23 @@ public class Model
 					System.out.println( "[TrackMateModel] #flushUpdate(): firing event with ID " + eventID );
 				}
 				final ModelChangeEvent cachedEvent = new ModelChangeEvent( this, eventID );
-				for ( final ModelChangeListener listener : modelChangeListeners )
-				{
-					listener.modelChanged( cachedEvent );
-				}
+				fireModelChanged( cachedEvent );
 			}
 
 		}
 		finally
 		{
+			// Updated spots may have new feature values.
+			if ( !spotsUpdated.isEmpty() )
+				spots.invalidateFilterIndex();
 			spotsAdded.clear();
 			spotsRemoved.clear();
 			spotsMoved.clear();
 			spotsUpdated.clear();
 			trackModel.edgesAdded.clear();
+			releaseEdgeIndices( trackModel.getRemovedEdges() );
+			releaseTrackFeatures( new ArrayList<>( trackModel.tracksRemoved ) );
+			trackModel.tracksRemoved.clear();
 			trackModel.edgesRemoved.clear();
 			trackModel.edgesModified.clear();
 			trackModel.tracksUpdated.clear();
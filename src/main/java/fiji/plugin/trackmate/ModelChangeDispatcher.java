@@ -0,0 +1,480 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+/**
+ * Delivers {@link ModelChangeEvent}s asynchronously, on a dedicated thread.
+ * <p>
+ * Events are queued in the order they are fired. When a
+ * {@link ModelChangeEvent#MODEL_MODIFIED} event is fired while the last queued
+ * event is also a {@link ModelChangeEvent#MODEL_MODIFIED} event not yet
+ * delivered, the two are merged into one event. Other event types are not
+ * queued twice in a row. The queue is bounded: when it is full,
+ * {@link #fire(ModelChangeEvent)} blocks until the delivery thread catches
+ * up.
+ * <p>
+ * Headless scripts that need the listeners to be up to date before they
+ * proceed should call {@link #flush()}.
+ * <p>
+ * Events are delivered while the model may be modified by other threads. The
+ * listeners must only rely on the content of the event they receive: the
+ * model they read from is not a snapshot, and may be in a later state.
+ */
+public class ModelChangeDispatcher
+{
+
+	/** The default maximal number of events waiting to be delivered. */
+	public static final int DEFAULT_CAPACITY = 64;
+
+	private final Consumer< ModelChangeEvent > sink;
+
+	private final int capacity;
+
+	private final ExecutorService executor;
+
+	private final ArrayDeque< Pending > pending = new ArrayDeque<>();
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition notFull = lock.newCondition();
+
+	private final Condition idle = lock.newCondition();
+
+	/** Whether a drain task is scheduled or running. */
+	private boolean draining = false;
+
+	/** Whether {@link #close()} was called. Guarded by the lock. */
+	private boolean closed = false;
+
+	private volatile Thread deliveryThread;
+
+	/**
+	 * Creates a new dispatcher.
+	 *
+	 * @param sink
+	 *            the consumer that delivers one event to the listeners. Called
+	 *            on the delivery thread.
+	 * @param capacity
+	 *            the maximal number of events waiting to be delivered.
+	 */
+	public ModelChangeDispatcher( final Consumer< ModelChangeEvent > sink, final int capacity )
+	{
+		if ( capacity < 1 )
+			throw new IllegalArgumentException( "Capacity must be at least 1, was " + capacity + "." );
+		this.sink = sink;
+		this.capacity = capacity;
+		this.executor = Executors.newSingleThreadExecutor( r -> {
+			final Thread thread = new Thread( r, "TrackMate model change dispatcher" );
+			thread.setDaemon( true );
+			return thread;
+		} );
+	}
+
+	public ModelChangeDispatcher( final Consumer< ModelChangeEvent > sink )
+	{
+		this( sink, DEFAULT_CAPACITY );
+	}
+
+	/**
+	 * Queues the specified event for delivery. Blocks if the queue is full,
+	 * unless called from the delivery thread itself.
+	 * <p>
+	 * If this dispatcher is closed, the event is not queued: this method waits
+	 * for the events still pending to be delivered, and returns
+	 * <code>false</code>. The caller must then deliver the event itself.
+	 *
+	 * @param event
+	 *            the event to deliver.
+	 * @return <code>true</code> if the event was queued or merged with a
+	 *         pending one, <code>false</code> if this dispatcher is closed.
+	 */
+	public boolean fire( final ModelChangeEvent event )
+	{
+		lock.lock();
+		try
+		{
+			// Listeners firing events while closing are still served.
+			if ( closed && Thread.currentThread() != deliveryThread )
+			{
+				while ( draining )
+					idle.awaitUninterruptibly();
+				return false;
+			}
+
+			final Pending last = pending.peekLast();
+			if ( null != last && null != last.event && last.event.getEventID() == event.getEventID() )
+			{
+				if ( event.getEventID() != ModelChangeEvent.MODEL_MODIFIED )
+					// Duplicate of the last one.
+					return true;
+
+				final ModelChangeEvent merged = merge( last.event, event );
+				if ( null != merged )
+				{
+					last.event = merged;
+					return true;
+				}
+			}
+
+			// Listeners firing events must not wait for themselves.
+			if ( Thread.currentThread() != deliveryThread )
+				while ( pending.size() >= capacity )
+					notFull.awaitUninterruptibly();
+
+			enqueue( new Pending( event ) );
+			return true;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Runs the specified task on the delivery thread, once all the events
+	 * fired so far have been delivered. Runs it immediately on the calling
+	 * thread if there is no event to wait for.
+	 *
+	 * @param task
+	 *            the task to run.
+	 */
+	public void runAfterDelivery( final Runnable task )
+	{
+		lock.lock();
+		try
+		{
+			// The drain task runs until the queue is empty, even if closed.
+			if ( draining )
+			{
+				Pending last = pending.peekLast();
+				if ( null == last )
+				{
+					// The last event is being delivered.
+					last = new Pending( null );
+					pending.addLast( last );
+				}
+				last.after.add( task );
+				return;
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		task.run();
+	}
+
+	/**
+	 * Queues an item and makes sure a drain task is scheduled. Must be called
+	 * while holding the lock. Once closed, only called from the delivery
+	 * thread, while draining, so that no task is submitted to the executor
+	 * after it is shut down.
+	 */
+	private void enqueue( final Pending item )
+	{
+		pending.addLast( item );
+		if ( !draining )
+		{
+			executor.execute( this::drain );
+			draining = true;
+		}
+	}
+
+	/**
+	 * Blocks until all the events fired so far have been delivered. Returns
+	 * immediately if called from the delivery thread.
+	 */
+	public void flush()
+	{
+		if ( Thread.currentThread() == deliveryThread )
+			return;
+
+		lock.lock();
+		try
+		{
+			while ( draining )
+				idle.awaitUninterruptibly();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Delivers the pending events and stops the delivery thread. Events fired
+	 * afterwards are not queued, see {@link #fire(ModelChangeEvent)}. When
+	 * called from the delivery thread, by a listener, returns without
+	 * waiting; the events still pending are delivered after the listener
+	 * returns.
+	 */
+	public void close()
+	{
+		lock.lock();
+		try
+		{
+			closed = true;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+
+		if ( Thread.currentThread() == deliveryThread )
+		{
+			executor.shutdown();
+			return;
+		}
+
+		flush();
+		executor.shutdown();
+		try
+		{
+			executor.awaitTermination( 1, TimeUnit.MINUTES );
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void drain()
+	{
+		deliveryThread = Thread.currentThread();
+		try
+		{
+			while ( true )
+			{
+				final Pending item;
+				lock.lock();
+				try
+				{
+					item = pending.pollFirst();
+					if ( null == item )
+					{
+						draining = false;
+						idle.signalAll();
+						return;
+					}
+					notFull.signalAll();
+				}
+				finally
+				{
+					lock.unlock();
+				}
+
+				try
+				{
+					if ( null != item.event )
+						sink.accept( item.event );
+				}
+				catch ( final RuntimeException e )
+				{
+					e.printStackTrace();
+				}
+				for ( final Runnable task : item.after )
+				{
+					try
+					{
+						task.run();
+					}
+					catch ( final RuntimeException e )
+					{
+						e.printStackTrace();
+					}
+				}
+			}
+		}
+		finally
+		{
+			deliveryThread = null;
+		}
+	}
+
+	/**
+	 * An event waiting to be delivered, and the tasks to run after it.
+	 */
+	private static final class Pending
+	{
+
+		/** The event, or <code>null</code> if there are only tasks to run. */
+		private ModelChangeEvent event;
+
+		private final List< Runnable > after = new ArrayList<>( 1 );
+
+		private Pending( final ModelChangeEvent event )
+		{
+			this.event = event;
+		}
+	}
+
+	/*
+	 * STATIC UTILS
+	 */
+
+	/**
+	 * Merges two {@link ModelChangeEvent#MODEL_MODIFIED} events into a new one,
+	 * equivalent to receiving the first then the second. Spots and edges added
+	 * then removed are discarded.
+	 * <p>
+	 * A spot or an edge removed then added again cannot be expressed by a
+	 * single flag: listeners must see the removal then the addition. In that
+	 * case the events are not merged and this method returns
+	 * <code>null</code>.
+	 *
+	 * @param first
+	 *            the earlier event.
+	 * @param second
+	 *            the later event.
+	 * @return a new event, or <code>null</code> if the two events cannot be
+	 *         merged.
+	 */
+	static ModelChangeEvent merge( final ModelChangeEvent first, final ModelChangeEvent second )
+	{
+		for ( final Spot spot : second.getSpots() )
+			if ( Integer.valueOf( ModelChangeEvent.FLAG_SPOT_ADDED ).equals( second.getSpotFlag( spot ) )
+					&& first.getSpots().contains( spot )
+					&& Integer.valueOf( ModelChangeEvent.FLAG_SPOT_REMOVED ).equals( first.getSpotFlag( spot ) ) )
+				return null;
+		for ( final DefaultWeightedEdge edge : second.getEdges() )
+			if ( Integer.valueOf( ModelChangeEvent.FLAG_EDGE_ADDED ).equals( second.getEdgeFlag( edge ) )
+					&& first.getEdges().contains( edge )
+					&& Integer.valueOf( ModelChangeEvent.FLAG_EDGE_REMOVED ).equals( first.getEdgeFlag( edge ) ) )
+				return null;
+
+		final ModelChangeEvent event = new ModelChangeEvent( first.getSource(), ModelChangeEvent.MODEL_MODIFIED );
+
+		for ( final Spot spot : first.getSpots() )
+		{
+			final Integer flag = second.getSpots().contains( spot )
+					? mergeSpotFlags( first.getSpotFlag( spot ), second.getSpotFlag( spot ) )
+					: first.getSpotFlag( spot );
+			if ( null == flag )
+				continue;
+			event.addSpot( spot );
+			event.putSpotFlag( spot, flag );
+			copyFrames( spot, first, second, event );
+		}
+		for ( final Spot spot : second.getSpots() )
+		{
+			if ( first.getSpots().contains( spot ) )
+				continue;
+			event.addSpot( spot );
+			event.putSpotFlag( spot, second.getSpotFlag( spot ) );
+			copyFrames( spot, first, second, event );
+		}
+
+		for ( final DefaultWeightedEdge edge : first.getEdges() )
+		{
+			final Integer flag = second.getEdges().contains( edge )
+					? mergeEdgeFlags( first.getEdgeFlag( edge ), second.getEdgeFlag( edge ) )
+					: first.getEdgeFlag( edge );
+			if ( null == flag )
+				continue;
+			event.addEdge( edge );
+			event.putEdgeFlag( edge, flag );
+		}
+		for ( final DefaultWeightedEdge edge : second.getEdges() )
+		{
+			if ( first.getEdges().contains( edge ) )
+				continue;
+			event.addEdge( edge );
+			event.putEdgeFlag( edge, second.getEdgeFlag( edge ) );
+		}
+
+		final Set< Integer > tracks = new HashSet<>();
+		if ( null != first.getTrackUpdated() )
+			tracks.addAll( first.getTrackUpdated() );
+		if ( null != second.getTrackUpdated() )
+			tracks.addAll( second.getTrackUpdated() );
+		event.setTracksUpdated( tracks );
+		return event;
+	}
+
+	private static void copyFrames( final Spot spot, final ModelChangeEvent first, final ModelChangeEvent second, final ModelChangeEvent target )
+	{
+		final Integer from = null != first.getFromFrame( spot ) ? first.getFromFrame( spot ) : second.getFromFrame( spot );
+		final Integer to = null != second.getToFrame( spot ) ? second.getToFrame( spot ) : first.getToFrame( spot );
+		if ( null != from )
+			target.putFromFrame( spot, from );
+		if ( null != to )
+			target.putToFrame( spot, to );
+	}
+
+	/**
+	 * Returns the flag of a spot affected by two consecutive events, or
+	 * <code>null</code> if the two changes cancel out.
+	 */
+	static Integer mergeSpotFlags( final Integer first, final Integer second )
+	{
+		if ( null == first )
+			return second;
+		if ( null == second )
+			return first;
+
+		final int f = first.intValue();
+		final int s = second.intValue();
+		if ( s == ModelChangeEvent.FLAG_SPOT_REMOVED )
+			return ( f == ModelChangeEvent.FLAG_SPOT_ADDED ) ? null : second;
+		if ( s == ModelChangeEvent.FLAG_SPOT_ADDED )
+			return second;
+		if ( f == ModelChangeEvent.FLAG_SPOT_ADDED || f == ModelChangeEvent.FLAG_SPOT_FRAME_CHANGED )
+			return first;
+		return second;
+	}
+
+	/**
+	 * Returns the flag of an edge affected by two consecutive events, or
+	 * <code>null</code> if the two changes cancel out.
+	 */
+	static Integer mergeEdgeFlags( final Integer first, final Integer second )
+	{
+		if ( null == first )
+			return second;
+		if ( null == second )
+			return first;
+
+		final int f = first.intValue();
+		final int s = second.intValue();
+		if ( s == ModelChangeEvent.FLAG_EDGE_REMOVED )
+			return ( f == ModelChangeEvent.FLAG_EDGE_ADDED ) ? null : second;
+		if ( s == ModelChangeEvent.FLAG_EDGE_ADDED )
+			return second;
+		if ( f == ModelChangeEvent.FLAG_EDGE_ADDED )
+			return first;
+		return second;
+	}
+}
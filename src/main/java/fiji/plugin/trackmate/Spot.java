@@ -64,8 +64,29 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable, Com
 
 	public static AtomicInteger IDcounter = new AtomicInteger( -1 );
 
-	/** Store the individual features, and their values. */
-	private final ConcurrentHashMap< String, Double > features = new ConcurrentHashMap<>();
+	/**
+	 * Counts the writes of the {@link SpotCollection#VISIBILITY} feature made
+	 * with {@link #putFeature(String, Double)}. Spot collections compare it to
+	 * the value they built their visibility bitmaps at, to detect that the
+	 * visibility of spots was changed behind their back.
+	 */
+	private static final AtomicInteger visibilityWrites = new AtomicInteger( 0 );
+
+	/**
+	 * Store the individual features, and their values. Is <code>null</code>
+	 * if this spot is attached to a {@link SpotFeatureStore}.
+	 */
+	private ConcurrentHashMap< String, Double > features = new ConcurrentHashMap<>();
+
+	/**
+	 * The columnar store of the features of this spot, if any. If not
+	 * <code>null</code>, feature values are stored there instead of in the
+	 * {@link #features} map.
+	 */
+	private SpotFeatureStore store;
+
+	/** The index of this spot in the {@link #store}. */
+	private int storeIndex = -1;
 
 	/** A user-supplied name for this spot. */
 	private String name;
@@ -306,6 +327,7 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable, Com
 		s.append( "Position: " + Util.printCoordinates( coordinates ) + "\n" );
 
 		// Feature list
+		final Map< String, Double > features = getFeatures();
 		if ( null == features || features.size() < 1 )
 			s.append( "No features calculated\n" );
 		else
@@ -333,14 +355,93 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable, Com
 	/**
 	 * Exposes the storage map of features for this spot. Altering the returned
 	 * map will alter the spot.
+	 * <p>
+	 * If this spot is attached to a {@link SpotFeatureStore}, the returned map
+	 * is a view backed by the store.
 	 *
 	 * @return a map of {@link String}s to {@link Double}s.
 	 */
 	public Map< String, Double > getFeatures()
 	{
+		if ( null != store )
+			return store.asMap( storeIndex );
 		return features;
 	}
 
+	/**
+	 * Moves the feature values of this spot to the specified columnar store.
+	 * After this call, feature values are read from and written to the store,
+	 * and the individual feature map of this spot is discarded. This method
+	 * must not be called while other threads read or write the features of
+	 * this spot.
+	 * <p>
+	 * Does nothing if this spot is already attached to the specified store.
+	 *
+	 * @param store
+	 *            the store to attach this spot to.
+	 */
+	public void attachTo( final SpotFeatureStore store )
+	{
+		if ( store == this.store )
+			return;
+
+		final Map< String, Double > values = new HashMap<>( getFeatures() );
+		final int index = store.newIndex();
+		for ( final Map.Entry< String, Double > entry : values.entrySet() )
+			store.put( index, entry.getKey(), entry.getValue().doubleValue() );
+
+		if ( null != this.store )
+			this.store.release( storeIndex );
+		this.store = store;
+		this.storeIndex = index;
+		this.features = null;
+	}
+
+	/**
+	 * Moves the feature values of this spot back to its own feature map, if it
+	 * is attached to the specified columnar store. Its index in the store is
+	 * released and can be reused for another spot. This method must not be
+	 * called while other threads read or write the features of this spot.
+	 * <p>
+	 * Does nothing if this spot is not attached to the specified store.
+	 *
+	 * @param store
+	 *            the store to detach this spot from.
+	 */
+	public void detachFrom( final SpotFeatureStore store )
+	{
+		if ( null == store || store != this.store )
+			return;
+
+		final ConcurrentHashMap< String, Double > values = new ConcurrentHashMap<>( getFeatures() );
+		this.features = values;
+		this.store = null;
+		store.release( storeIndex );
+		this.storeIndex = -1;
+	}
+
+	/**
+	 * Returns the columnar store this spot is attached to, or
+	 * <code>null</code> if it stores its features in its own map.
+	 *
+	 * @return the feature store, or <code>null</code>.
+	 */
+	public SpotFeatureStore getFeatureStore()
+	{
+		return store;
+	}
+
+	/**
+	 * Returns the index of this spot in the columnar store it is attached to,
+	 * or -1 if it is not attached to a store.
+	 *
+	 * @return the index of this spot in its feature store.
+	 */
+	public int getFeatureStoreIndex()
+	{
+		return storeIndex;
+	}
+
 	/**
 	 * Returns the value corresponding to the specified spot feature.
 	 *
@@ -351,6 +452,8 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable, Com
 	 */
 	public Double getFeature( final String feature )
 	{
+		if ( null != store )
+			return store.getFeature( storeIndex, feature );
 		return features.get( feature );
 	}
 
@@ -365,7 +468,43 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable, Com
 	 */
 	public void putFeature( final String feature, final Double value )
 	{
-		features.put( feature, value );
+		if ( VISIBILITY.equals( feature ) )
+			visibilityWrites.incrementAndGet();
+		put( feature, value );
+	}
+
+	/**
+	 * Stores the {@link SpotCollection#VISIBILITY} feature value for this
+	 * spot, without counting it as a write made behind the back of the spot
+	 * collection. Only for the spot collection and its filter index, which
+	 * keep their visibility bitmaps up to date themselves.
+	 *
+	 * @param value
+	 *            the visibility value.
+	 */
+	void putVisibility( final Double value )
+	{
+		put( VISIBILITY, value );
+	}
+
+	/**
+	 * Returns the number of writes of the {@link SpotCollection#VISIBILITY}
+	 * feature made with {@link #putFeature(String, Double)} so far, by all
+	 * spots.
+	 *
+	 * @return the visibility write count.
+	 */
+	static int visibilityWrites()
+	{
+		return visibilityWrites.get();
+	}
+
+	private void put( final String feature, final Double value )
+	{
+		if ( null != store )
+			store.put( storeIndex, feature, value.doubleValue() );
+		else
+			features.put( feature, value );
 	}
 
 	/**
@@ -397,7 +536,7 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable, Com
 	 */
 	public double diffTo( final Spot s, final String feature )
 	{
-		final double f1 = features.get( feature ).doubleValue();
+		final double f1 = getFeature( feature ).doubleValue();
 		final double f2 = s.getFeature( feature ).doubleValue();
 		return f1 - f2;
 	}
@@ -425,7 +564,7 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable, Com
 	 */
 	public double normalizeDiffTo( final Spot s, final String feature )
 	{
-		final double a = features.get( feature ).doubleValue();
+		final double a = getFeature( feature ).doubleValue();
 		final double b = s.getFeature( feature ).doubleValue();
 		if ( a == -b )
 			return 0d;
@@ -576,6 +715,8 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable, Com
 	@Override
 	public double getDoublePosition( final int d )
 	{
+		if ( null != store )
+			return store.get( storeIndex, POSITION_FEATURES[ d ] );
 		return getFeature( POSITION_FEATURES[ d ] );
 	}
 
@@ -29,9 +29,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import fiji.plugin.trackmate.features.FeatureFilter;
 import fiji.plugin.trackmate.util.Threads;
@@ -45,8 +47,14 @@ import net.imglib2.algorithm.MultiThreaded;
  * without clashes.
  * <p>
  * This class is {@link MultiThreaded}. There are a few processes that can
- * benefit from multithreaded computation ({@link #filter(Collection)},
- * {@link #filter(FeatureFilter)}
+ * benefit from multithreaded computation ({@link #filter(FeatureFilter)},
+ * {@link #setVisible(boolean)}). Filtering with {@link #filter(Collection)}
+ * is incremental instead.
+ * <p>
+ * The collection keeps track of the visibility of its spots. Setting the
+ * {@link #VISIBILITY} feature of spots directly with
+ * {@link Spot#putFeature(String, Double)} is detected, and makes the
+ * collection rescan the visibility of its spots the next time it is queried.
  *
  * @author Jean-Yves Tinevez - Feb 2011 -2013. Revised December 2020.
  */
@@ -76,6 +84,37 @@ public class SpotCollection implements MultiThreaded
 
 	private int numThreads;
 
+	/**
+	 * The columnar store in which the spots of this collection store their
+	 * features. Can be <code>null</code>, in which case each spot stores its
+	 * features in its own map.
+	 */
+	private SpotFeatureStore featureStore;
+
+	/**
+	 * The index used to filter spots incrementally, and to count visible spots
+	 * without iterating. Created by {@link #filter(Collection)}, and discarded
+	 * when the content of this collection changes. Can be <code>null</code>.
+	 */
+	private volatile SpotFilterIndex filterIndex;
+
+	/**
+	 * The visibility bitmaps of the frames, built on demand when there is no
+	 * filter index, and updated when spots are added to or removed from a
+	 * frame.
+	 */
+	private final ConcurrentHashMap< Integer, FrameVisibility > visibilities = new ConcurrentHashMap<>();
+
+	/**
+	 * Incremented every time the {@link #VISIBILITY} feature of the spots of
+	 * this collection is set in bulk by other means than the filter index.
+	 * Added to the count of {@link #VISIBILITY} writes made with
+	 * {@link Spot#putFeature(String, Double)} to give the revision of the
+	 * visibility: the visibility bitmaps and the filter index built at a
+	 * previous revision are outdated.
+	 */
+	private final AtomicInteger visibilityRevision = new AtomicInteger( 0 );
+
 	/*
 	 * CONSTRUCTORS
 	 */
@@ -151,9 +190,23 @@ public class SpotCollection implements MultiThreaded
 			spots = new HashSet<>();
 			content.put( frame, spots );
 		}
-		spots.add( spot );
+		if ( null != featureStore )
+			spot.attachTo( featureStore );
 		spot.putFeature( Spot.FRAME, Double.valueOf( frame ) );
-		spot.putFeature( VISIBILITY, ONE );
+		spot.putVisibility( ONE );
+		if ( !spots.add( spot ) )
+		{
+			// Already there, maybe invisible.
+			invalidateVisibility( frame );
+			return;
+		}
+
+		releaseFilterIndex();
+		final FrameVisibility fv = visibilities.get( frame );
+		if ( null != fv && fv.revision == revision() )
+			fv.add( spot, true );
+		else
+			visibilities.remove( frame );
 	}
 
 	/**
@@ -174,7 +227,17 @@ public class SpotCollection implements MultiThreaded
 		final Set< Spot > spots = content.get( frame );
 		if ( null == spots )
 			return false;
-		return spots.remove( spot );
+		if ( !spots.remove( spot ) )
+			return false;
+		spot.detachFrom( featureStore );
+
+		releaseFilterIndex();
+		final FrameVisibility fv = visibilities.get( frame );
+		if ( null != fv && fv.revision == revision() )
+			fv.remove( spot );
+		else
+			visibilities.remove( frame );
+		return true;
 	}
 
 	/**
@@ -200,7 +263,7 @@ public class SpotCollection implements MultiThreaded
 
 					final Set< Spot > spots = content.get( frame );
 					for ( final Spot spot : spots )
-						spot.putFeature( VISIBILITY, val );
+						spot.putVisibility( val );
 				}
 			};
 			executors.execute( command );
@@ -217,6 +280,7 @@ public class SpotCollection implements MultiThreaded
 		{
 			e.printStackTrace();
 		}
+		visibilityChanged();
 	}
 
 	/**
@@ -229,7 +293,6 @@ public class SpotCollection implements MultiThreaded
 	 */
 	public final void filter( final FeatureFilter featurefilter )
 	{
-
 		final Collection< Integer > frames = content.keySet();
 		final ExecutorService executors = Threads.newFixedThreadPool( numThreads );
 
@@ -249,7 +312,7 @@ public class SpotCollection implements MultiThreaded
 						for ( final Spot spot : spots )
 						{
 							final Double val = spot.getFeature( featurefilter.feature );
-							spot.putFeature( VISIBILITY, val.compareTo( tval ) < 0 ? ZERO : ONE );
+							spot.putVisibility( val.compareTo( tval ) < 0 ? ZERO : ONE );
 						}
 
 					}
@@ -258,7 +321,7 @@ public class SpotCollection implements MultiThreaded
 						for ( final Spot spot : spots )
 						{
 							final Double val = spot.getFeature( featurefilter.feature );
-							spot.putFeature( VISIBILITY, val.compareTo( tval ) > 0 ? ZERO : ONE );
+							spot.putVisibility( val.compareTo( tval ) > 0 ? ZERO : ONE );
 						}
 					}
 				}
@@ -277,6 +340,7 @@ public class SpotCollection implements MultiThreaded
 		{
 			e.printStackTrace();
 		}
+		visibilityChanged();
 	}
 
 	/**
@@ -284,66 +348,106 @@ public class SpotCollection implements MultiThreaded
 	 * {@link FeatureFilter} collection. Spots that are filtered out are marked
 	 * as invisible, and visible otherwise. To be marked as visible, a spot must
 	 * pass <b>all</b> of the specified filters (AND chaining).
+	 * <p>
+	 * Filtering is incremental: when called again with the same filters, but
+	 * with some thresholds moved, only the spots with a value between the old
+	 * and the new threshold are updated. Calling this method twice with the
+	 * same filters re-evaluates all the spots, which is needed after their
+	 * feature values changed (see also {@link #invalidateFilterIndex()}).
 	 *
 	 * @param filters
 	 *            the filter collection to use.
 	 */
 	public final void filter( final Collection< FeatureFilter > filters )
 	{
-
-		final Collection< Integer > frames = content.keySet();
-		final ExecutorService executors = Threads.newFixedThreadPool( numThreads );
-
-		for ( final Integer frame : frames )
+		final int revision = revision();
+		SpotFilterIndex index = filterIndex;
+		if ( null == index || index.revision != revision || index.hasFilters( filters ) )
 		{
-			final Runnable command = new Runnable()
-			{
-				@Override
-				public void run()
-				{
-					final Set< Spot > spots = content.get( frame );
-					for ( final Spot spot : spots )
-					{
+			index = new SpotFilterIndex( content, revision );
+			filterIndex = index;
+		}
+		index.filter( filters );
+		// The index now maintains the visibility bitmaps.
+		visibilities.clear();
+	}
 
-						boolean shouldNotBeVisible = false;
-						for ( final FeatureFilter featureFilter : filters )
-						{
+	/**
+	 * Discards the index used by {@link #filter(Collection)} to filter
+	 * incrementally. Must be called when the feature values of the spots of
+	 * this collection change without their being re-filtered with the same
+	 * filters.
+	 */
+	public void invalidateFilterIndex()
+	{
+		releaseFilterIndex();
+	}
+
+	/**
+	 * Signals that the {@link #VISIBILITY} feature of some spots of this
+	 * collection was changed directly, rather than with the methods of this
+	 * collection. This collection keeps track of the visibility of its spots
+	 * to count and iterate over the visible ones quickly. Changes made with
+	 * {@link Spot#putFeature(String, Double)} are detected; changes made
+	 * through the map returned by {@link Spot#getFeatures()} are not, and must
+	 * be signaled with this method.
+	 */
+	public void visibilityChanged()
+	{
+		visibilityRevision.incrementAndGet();
+	}
 
-							final Double val = spot.getFeature( featureFilter.feature );
-							final double tval = featureFilter.value;
-							final boolean isAbove = featureFilter.isAbove;
+	/**
+	 * Returns the current visibility revision. Must be read before scanning
+	 * the {@link #VISIBILITY} feature of the spots, so that a concurrent write
+	 * outdates what is built from the scan.
+	 */
+	private int revision()
+	{
+		return visibilityRevision.get() + Spot.visibilityWrites();
+	}
 
-							if (isSpotVisible(val, tval, isAbove))
-							{
-								shouldNotBeVisible = true;
-								break;
-							}
-						} // loop over filters
-						spot.putFeature( VISIBILITY, shouldNotBeVisible ? ZERO : ONE );
+	/**
+	 * Discards the filter index and the visibility bitmaps of all frames.
+	 */
+	private void invalidateVisibility()
+	{
+		filterIndex = null;
+		visibilities.clear();
+	}
 
-					} // loop over spots
-				}
-			};
-			executors.execute( command );
-		}
+	/**
+	 * Discards the filter index and the visibility bitmap of the specified
+	 * frame.
+	 */
+	private void invalidateVisibility( final Integer frame )
+	{
+		releaseFilterIndex();
+		visibilities.remove( frame );
+	}
 
-		executors.shutdown();
-		try
-		{
-			final boolean ok = executors.awaitTermination( TIME_OUT_DELAY, TIME_OUT_UNITS );
-			if ( !ok )
-				System.err.println( "[SpotCollection.filter()] Timeout of " + TIME_OUT_DELAY + " " + TIME_OUT_UNITS + " reached while filtering." );
-		}
-		catch ( final InterruptedException e )
+	/**
+	 * Discards the filter index, keeping its visibility bitmaps if they are
+	 * up to date, so that they can be updated incrementally.
+	 */
+	private void releaseFilterIndex()
+	{
+		final SpotFilterIndex index = filterIndex;
+		if ( null == index )
+			return;
+		filterIndex = null;
+		if ( index.revision != revision() )
+			return;
+		for ( final Integer frame : content.keySet() )
 		{
-			e.printStackTrace();
+			final FrameVisibility fv = index.getFrameVisibility( frame.intValue() );
+			if ( null == fv )
+				visibilities.remove( frame );
+			else
+				visibilities.put( frame, fv );
 		}
 	}
 
-	private boolean isSpotVisible(Double val, double tval, boolean isAbove){
-		return (null == val || isAbove && val.compareTo( tval ) < 0 || !isAbove && val.compareTo( tval ) > 0);
-	}
-
 	/**
 	 * Returns the closest {@link Spot} to the given location (encoded as a
 	 * Spot), contained in the frame <code>frame</code>. If the frame has no
@@ -436,13 +540,16 @@ public class SpotCollection implements MultiThreaded
 		int nspots = 0;
 		if ( visibleSpotsOnly )
 		{
-			final Iterator< Spot > it = iterator( true );
-			while ( it.hasNext() )
+			final SpotFilterIndex index = filterIndex;
+			if ( null != index && index.revision == revision() )
+				return index.getNVisible();
+
+			for ( final Integer frame : content.keySet() )
 			{
-				it.next();
-				nspots++;
+				final FrameVisibility fv = getFrameVisibility( frame );
+				if ( null != fv )
+					nspots += fv.nVisible();
 			}
-
 		}
 		else
 		{
@@ -466,14 +573,8 @@ public class SpotCollection implements MultiThreaded
 	{
 		if ( visibleSpotsOnly )
 		{
-			final Iterator< Spot > it = iterator( frame, true );
-			int nspots = 0;
-			while ( it.hasNext() )
-			{
-				it.next();
-				nspots++;
-			}
-			return nspots;
+			final FrameVisibility fv = getFrameVisibility( frame );
+			return ( null == fv ) ? 0 : fv.nVisible();
 		}
 
 		final Set< Spot > spots = content.get( frame );
@@ -517,13 +618,16 @@ public class SpotCollection implements MultiThreaded
 	 */
 	public Iterator< Spot > iterator( final Integer frame, final boolean visibleSpotsOnly )
 	{
+		if ( visibleSpotsOnly )
+		{
+			final FrameVisibility fv = getFrameVisibility( frame );
+			return ( null == fv ) ? EMPTY_ITERATOR : fv.iterator();
+		}
+
 		final Set< Spot > frameContent = content.get( frame );
 		if ( null == frameContent )
 			return EMPTY_ITERATOR;
 
-		if ( visibleSpotsOnly )
-			return new VisibleSpotsFrameIterator( frameContent );
-
 		return frameContent.iterator();
 	}
 
@@ -583,10 +687,20 @@ public class SpotCollection implements MultiThreaded
 		final Set< Spot > value = new HashSet<>( spots );
 		for ( final Spot spot : value )
 		{
+			if ( null != featureStore )
+				spot.attachTo( featureStore );
 			spot.putFeature( Spot.FRAME, Double.valueOf( frame ) );
-			spot.putFeature( VISIBILITY, ZERO );
+			spot.putVisibility( ZERO );
 		}
-		content.put( frame, value );
+		final Set< Spot > previous = content.put( frame, value );
+		if ( null != previous && null != featureStore )
+			for ( final Spot spot : previous )
+				if ( !value.contains( spot ) )
+					spot.detachFrom( featureStore );
+
+		// All the spots of the frame are invisible.
+		releaseFilterIndex();
+		visibilities.put( frame, new FrameVisibility( value.toArray( new Spot[ 0 ] ), revision() ) );
 	}
 
 	/**
@@ -635,11 +749,54 @@ public class SpotCollection implements MultiThreaded
 		return content.keySet();
 	}
 
+	/**
+	 * Sets the columnar store in which the spots of this collection store
+	 * their features. All the spots currently in this collection, and the
+	 * ones added later via {@link #add(Spot, Integer)} or
+	 * {@link #put(int, Collection)}, are attached to this store. This lowers
+	 * the memory footprint of large collections, and allows for bulk access to
+	 * feature values via {@link SpotFeatureStore#getValues(String)}. Spots
+	 * removed from this collection are detached from the store, and get their
+	 * own feature map back.
+	 * <p>
+	 * Must not be called while spot features are being computed.
+	 *
+	 * @param featureStore
+	 *            the store to use. If <code>null</code>, spots added later
+	 *            will store their features in their own map.
+	 * @see Spot#attachTo(SpotFeatureStore)
+	 */
+	public void setFeatureStore( final SpotFeatureStore featureStore )
+	{
+		this.featureStore = featureStore;
+		invalidateVisibility();
+		if ( null == featureStore )
+			return;
+		for ( final Spot spot : iterable( false ) )
+			spot.attachTo( featureStore );
+	}
+
+	/**
+	 * Returns the columnar store in which the spots of this collection store
+	 * their features, or <code>null</code> if they store them in their own
+	 * map.
+	 *
+	 * @return the feature store, or <code>null</code>.
+	 */
+	public SpotFeatureStore getFeatureStore()
+	{
+		return featureStore;
+	}
+
 	/**
 	 * Removes all the content from this collection.
 	 */
 	public void clear()
 	{
+		invalidateVisibility();
+		if ( null != featureStore )
+			for ( final Spot spot : iterable( false ) )
+				spot.detachFrom( featureStore );
 		content.clear();
 	}
 
@@ -665,6 +822,31 @@ public class SpotCollection implements MultiThreaded
 		return numThreads;
 	}
 
+	/**
+	 * Returns the visibility bitmap of the specified frame, or
+	 * <code>null</code> if the frame has no spot. The bitmap is taken from the
+	 * filter index if there is one, and built and cached otherwise.
+	 */
+	private FrameVisibility getFrameVisibility( final int frame )
+	{
+		final int revision = revision();
+		final SpotFilterIndex index = filterIndex;
+		if ( null != index && index.revision == revision )
+			return index.getFrameVisibility( frame );
+
+		final Set< Spot > frameContent = content.get( frame );
+		if ( null == frameContent )
+			return null;
+
+		FrameVisibility fv = visibilities.get( frame );
+		if ( null == fv || fv.revision != revision )
+		{
+			fv = FrameVisibility.of( frameContent, revision );
+			visibilities.put( frame, fv );
+		}
+		return fv;
+	}
+
 	/*
 	 * PRIVATE CLASSES
 	 */
@@ -743,131 +925,33 @@ public class SpotCollection implements MultiThreaded
 	private class VisibleSpotsIterator implements Iterator< Spot >
 	{
 
-		private boolean hasNext = true;
-
 		private final Iterator< Integer > frameIterator;
 
-		private Iterator< Spot > contentIterator;
-
-		private Spot next = null;
-
-		private Set< Spot > currentFrameContent;
+		private Iterator< Spot > contentIterator = EMPTY_ITERATOR;
 
 		public VisibleSpotsIterator()
 		{
 			this.frameIterator = content.keySet().iterator();
-			if ( !frameIterator.hasNext() )
-			{
-				hasNext = false;
-				return;
-			}
-			currentFrameContent = content.get( frameIterator.next() );
-			contentIterator = currentFrameContent.iterator();
-			iterate();
-		}
-
-		private void iterate()
-		{
-
-			while ( true )
-			{
-				// Is there still spots in current content?
-				if ( !contentIterator.hasNext() )
-				{
-					// No. Then move to next frame.
-					// Is there still frames to iterate over?
-					if ( !frameIterator.hasNext() )
-					{
-						// No. Then we are done
-						hasNext = false;
-						next = null;
-						return;
-					}
-
-					// Yes. Then start iterating over the next frame.
-					currentFrameContent = content.get( frameIterator.next() );
-					contentIterator = currentFrameContent.iterator();
-					continue;
-				}
-				next = contentIterator.next();
-				// Is it visible?
-				if ( next.getFeature( VISIBILITY ).compareTo( ZERO ) > 0 )
-				{
-					// Yes! Be happy and return
-					return;
-				}
-			}
 		}
 
 		@Override
 		public boolean hasNext()
 		{
-			return hasNext;
-		}
-
-		@Override
-		public Spot next()
-		{
-			final Spot toReturn = next;
-			iterate();
-			return toReturn;
-		}
-
-		@Override
-		public void remove()
-		{
-			throw new UnsupportedOperationException( "Remove operation is not supported for SpotCollection iterators." );
-		}
-	}
-
-	private class VisibleSpotsFrameIterator implements Iterator< Spot >
-	{
-
-		private boolean hasNext = true;
-
-		private Spot next = null;
-
-		private final Iterator< Spot > contentIterator;
-
-		public VisibleSpotsFrameIterator( final Set< Spot > frameContent )
-		{
-			this.contentIterator = ( null == frameContent ) ? EMPTY_ITERATOR : frameContent.iterator();
-			iterate();
-		}
-
-		private void iterate()
-		{
-			while ( true )
+			while ( !contentIterator.hasNext() )
 			{
-				if ( !contentIterator.hasNext() )
-				{
-					// No. Then we are done
-					hasNext = false;
-					next = null;
-					return;
-				}
-				next = contentIterator.next();
-				// Is it visible?
-				if ( next.getFeature( VISIBILITY ).compareTo( ZERO ) > 0 )
-				{
-					// Yes. Be happy, and return.
-					return;
-				}
+				if ( !frameIterator.hasNext() )
+					return false;
+				contentIterator = iterator( frameIterator.next(), true );
 			}
-		}
-
-		@Override
-		public boolean hasNext()
-		{
-			return hasNext;
+			return true;
 		}
 
 		@Override
 		public Spot next()
 		{
-			final Spot toReturn = next;
-			iterate();
-			return toReturn;
+			if ( !hasNext() )
+				return null;
+			return contentIterator.next();
 		}
 
 		@Override
@@ -882,6 +966,7 @@ public class SpotCollection implements MultiThreaded
 	 */
 	public void crop()
 	{
+		invalidateVisibility();
 		final Collection< Integer > frames = content.keySet();
 		for ( final Integer frame : frames )
 		{
@@ -892,6 +977,8 @@ public class SpotCollection implements MultiThreaded
 					toRemove.add( spot );
 
 			fc.removeAll( toRemove );
+			for ( final Spot spot : toRemove )
+				spot.detachFrom( featureStore );
 		}
 	}
 
@@ -936,7 +1023,7 @@ public class SpotCollection implements MultiThreaded
 		@Override
 		public Iterator< Spot > iterator()
 		{
-			return new VisibleSpotsFrameIterator( content.get( frame ) );
+			return SpotCollection.this.iterator( frame, true );
 		}
 	}
 
@@ -0,0 +1,174 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A columnar storage for spot features.
+ * <p>
+ * By default, each {@link Spot} stores its features in its own map, which
+ * costs a hash table, boxed values and key references per spot. Spots that
+ * are attached to a {@link SpotFeatureStore} (see
+ * {@link Spot#attachTo(SpotFeatureStore)}) instead receive a dense
+ * <code>int</code> index, and their feature values are stored in one
+ * primitive <code>double</code> column per feature, shared by all the spots of
+ * the store. This lowers the memory footprint per spot and allows for bulk
+ * reading of the values of a feature with {@link #getValues(String)}.
+ * <p>
+ * Columns are created on the fly, the first time a value is stored for a
+ * feature. Missing values are marked with a dedicated <code>NaN</code>, so
+ * that a spot can still store a <code>NaN</code> feature value. Spots with
+ * different indices can be written concurrently without locking.
+ * <p>
+ * The indices of the spots that leave the collection using this store are
+ * released (see {@link Spot#detachFrom(SpotFeatureStore)}) and reused for new
+ * spots.
+ */
+public class SpotFeatureStore
+{
+
+	private final FeatureColumns columns = new FeatureColumns();
+
+	private final AtomicInteger size = new AtomicInteger( 0 );
+
+	/** Released indices, reused first. */
+	private final ArrayDeque< Integer > freeIndices = new ArrayDeque<>();
+
+	/**
+	 * Returns a new index in this store. Values stored at this index are all
+	 * missing initially.
+	 *
+	 * @return a new index.
+	 */
+	int newIndex()
+	{
+		synchronized ( freeIndices )
+		{
+			final Integer index = freeIndices.poll();
+			if ( null != index )
+				return index.intValue();
+		}
+		return size.getAndIncrement();
+	}
+
+	/**
+	 * Removes all the values stored at the specified index, and makes it
+	 * available for a new spot.
+	 *
+	 * @param index
+	 *            the index to release.
+	 */
+	void release( final int index )
+	{
+		columns.clear( index );
+		synchronized ( freeIndices )
+		{
+			freeIndices.push( Integer.valueOf( index ) );
+		}
+	}
+
+	/**
+	 * Returns the number of indices allocated in this store, including the
+	 * released ones.
+	 *
+	 * @return the number of indices.
+	 */
+	public int size()
+	{
+		return size.get();
+	}
+
+	/**
+	 * Returns the value of the specified feature at the specified index, or
+	 * {@link Double#NaN} if it is missing.
+	 *
+	 * @param index
+	 *            the index.
+	 * @param feature
+	 *            the feature.
+	 * @return the feature value, as a primitive <code>double</code>.
+	 */
+	public double get( final int index, final String feature )
+	{
+		return columns.get( index, feature );
+	}
+
+	/**
+	 * Returns the value of the specified feature at the specified index, or
+	 * <code>null</code> if it is missing.
+	 *
+	 * @param index
+	 *            the index.
+	 * @param feature
+	 *            the feature.
+	 * @return the feature value, or <code>null</code>.
+	 */
+	Double getFeature( final int index, final String feature )
+	{
+		return columns.getFeature( index, feature );
+	}
+
+	/**
+	 * Stores the value of the specified feature at the specified index.
+	 *
+	 * @param index
+	 *            the index.
+	 * @param feature
+	 *            the feature.
+	 * @param value
+	 *            the value.
+	 */
+	public void put( final int index, final String feature, final double value )
+	{
+		columns.put( index, feature, value );
+	}
+
+	/**
+	 * Returns a copy of all the values of the specified feature, indexed by
+	 * spot index. Missing values, and values at released indices, are
+	 * {@link Double#NaN}.
+	 *
+	 * @param feature
+	 *            the feature.
+	 * @return a new <code>double[]</code> array, of length {@link #size()}.
+	 */
+	public double[] getValues( final String feature )
+	{
+		return columns.getValues( feature, size() );
+	}
+
+	/**
+	 * Exposes the features stored at the specified index as a map. The map is
+	 * a view backed by this store.
+	 *
+	 * @param index
+	 *            the index.
+	 * @return a map view of the features at this index.
+	 */
+	Map< String, Double > asMap( final int index )
+	{
+		return columns.asMap( index );
+	}
+}
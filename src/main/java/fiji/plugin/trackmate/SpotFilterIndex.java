@@ -0,0 +1,513 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+
+import fiji.plugin.trackmate.features.FeatureFilter;
+
+/**
+ * Incremental spot filtering for a {@link SpotCollection}.
+ * <p>
+ * The index takes a snapshot of the spots of the collection, and stores for
+ * each spot the number of filters it currently fails. A spot is visible when
+ * it fails no filter. When the threshold of a filter is moved, only the spots
+ * whose value lies between the old and the new threshold are updated. To
+ * find them, the values of the feature are sorted once, the first time the
+ * threshold of a filter on this feature moves. The visibility of the spots
+ * is also maintained as a {@link FrameVisibility} bitmap per frame.
+ * <p>
+ * Values are compared with {@link Double#compare(double, double)}, as
+ * {@link Double#compareTo(Double)} does for non-incremental filtering: a
+ * <code>NaN</code> value is greater than any threshold, so it passes the
+ * filters that keep values above a threshold and fails the others. Spots
+ * that miss the feature fail the filter.
+ * <p>
+ * The {@link SpotCollection#VISIBILITY} feature of the spots is only written
+ * at the end of {@link #filter(Collection)}, and only for the spots whose
+ * visibility differs from the value they hold.
+ * <p>
+ * The index does not observe the spots: it must be discarded when the
+ * content of the collection or the feature values of its spots change. It
+ * records the visibility revision it was built at, so that it can be
+ * discarded when the visibility of spots was changed by someone else.
+ */
+final class SpotFilterIndex
+{
+
+	/** For each spot, the index of its frame in {@link #frames}. */
+	private final int[] frameIndex;
+
+	/** For each frame, the slot of its first spot. */
+	private final int[] frameStart;
+
+	/** The frames of the collection, sorted. */
+	private final int[] frames;
+
+	private final FrameVisibility[] visibilities;
+
+	private int nVisible;
+
+	/** For each spot, the number of filters it fails. */
+	private final int[] nFailed;
+
+	/**
+	 * The spots whose visibility may differ from their
+	 * {@link SpotCollection#VISIBILITY} feature.
+	 */
+	private final BitSet unsynced = new BitSet();
+
+	private final Map< String, FeatureIndex > features = new HashMap<>();
+
+	/** The filters currently applied. */
+	private List< FeatureFilter > filters = new ArrayList<>();
+
+	final int revision;
+
+	/**
+	 * Creates an index over the specified content, with no filter applied.
+	 * All the spots are marked as visible in the bitmaps. Their
+	 * {@link SpotCollection#VISIBILITY} feature is left untouched until
+	 * {@link #filter(Collection)} is called.
+	 *
+	 * @param content
+	 *            the frame-by-frame content of a spot collection.
+	 * @param revision
+	 *            the visibility revision, read before this call.
+	 */
+	SpotFilterIndex( final NavigableMap< Integer, Set< Spot > > content, final int revision )
+	{
+		this.revision = revision;
+		final List< Map.Entry< Integer, Set< Spot > > > entries = new ArrayList<>( content.entrySet() );
+		int n = 0;
+		for ( final Map.Entry< Integer, Set< Spot > > entry : entries )
+			n += entry.getValue().size();
+
+		this.frameIndex = new int[ n ];
+		this.frameStart = new int[ entries.size() ];
+		this.frames = new int[ entries.size() ];
+		this.visibilities = new FrameVisibility[ entries.size() ];
+
+		int slot = 0;
+		int f = 0;
+		for ( final Map.Entry< Integer, Set< Spot > > entry : entries )
+		{
+			frames[ f ] = entry.getKey().intValue();
+			frameStart[ f ] = slot;
+			final Spot[] frameSpots = entry.getValue().toArray( new Spot[ 0 ] );
+			final FrameVisibility fv = new FrameVisibility( frameSpots, revision );
+			for ( int i = 0; i < frameSpots.length && slot < n; i++ )
+			{
+				frameIndex[ slot++ ] = f;
+				fv.set( i, true );
+			}
+			visibilities[ f ] = fv;
+			f++;
+		}
+		this.nFailed = new int[ slot ];
+		this.nVisible = slot;
+		unsynced.set( 0, slot );
+	}
+
+	/**
+	 * Returns <code>true</code> if the specified filters are exactly the ones
+	 * currently applied.
+	 *
+	 * @param other
+	 *            the filters to compare.
+	 * @return whether the filters are the same.
+	 */
+	synchronized boolean hasFilters( final Collection< FeatureFilter > other )
+	{
+		if ( other.size() != filters.size() )
+			return false;
+		int i = 0;
+		for ( final FeatureFilter filter : other )
+		{
+			final FeatureFilter current = filters.get( i++ );
+			if ( !sameTarget( filter, current ) || Double.compare( filter.value, current.value ) != 0 )
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Applies the specified filters, replacing the ones currently applied.
+	 * Filters are matched to the current ones by position: a filter on the
+	 * same feature and in the same direction as the current one only has its
+	 * threshold moved. The others are removed or added as a whole.
+	 *
+	 * @param newFilters
+	 *            the filters to apply.
+	 */
+	synchronized void filter( final Collection< FeatureFilter > newFilters )
+	{
+		final List< FeatureFilter > next = new ArrayList<>( newFilters );
+		final int n = Math.max( filters.size(), next.size() );
+		for ( int i = 0; i < n; i++ )
+		{
+			final FeatureFilter current = ( i < filters.size() ) ? filters.get( i ) : null;
+			final FeatureFilter filter = ( i < next.size() ) ? next.get( i ) : null;
+			if ( null != current && null != filter && sameTarget( current, filter ) )
+			{
+				if ( Double.compare( current.value, filter.value ) != 0 )
+					moveThreshold( current, filter.value );
+				continue;
+			}
+			if ( null != current )
+				apply( current, -1 );
+			if ( null != filter )
+				apply( filter, +1 );
+		}
+		filters = next;
+		syncVisibility();
+	}
+
+	/**
+	 * Returns the number of visible spots in the specified frame.
+	 *
+	 * @param frame
+	 *            the frame.
+	 * @return the number of visible spots.
+	 */
+	synchronized int getNVisible( final int frame )
+	{
+		final FrameVisibility fv = getFrameVisibility( frame );
+		return ( null == fv ) ? 0 : fv.nVisible();
+	}
+
+	/**
+	 * Returns the visibility bitmap of the specified frame, maintained by this
+	 * index, or <code>null</code> if the frame has no spot.
+	 *
+	 * @param frame
+	 *            the frame.
+	 * @return the visibility bitmap, or <code>null</code>.
+	 */
+	FrameVisibility getFrameVisibility( final int frame )
+	{
+		final int f = Arrays.binarySearch( frames, frame );
+		if ( f < 0 )
+			return null;
+		return visibilities[ f ];
+	}
+
+	/**
+	 * Returns the total number of visible spots.
+	 *
+	 * @return the number of visible spots.
+	 */
+	synchronized int getNVisible()
+	{
+		return nVisible;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private static boolean sameTarget( final FeatureFilter f1, final FeatureFilter f2 )
+	{
+		return f1.isAbove == f2.isAbove && f1.feature.equals( f2.feature );
+	}
+
+	private FeatureIndex featureIndex( final String feature )
+	{
+		FeatureIndex index = features.get( feature );
+		if ( null == index )
+		{
+			index = new FeatureIndex( feature );
+			features.put( feature, index );
+		}
+		return index;
+	}
+
+	/**
+	 * Adds <code>delta</code> to the failed count of all the spots failing the
+	 * specified filter.
+	 */
+	private void apply( final FeatureFilter filter, final int delta )
+	{
+		final FeatureIndex index = featureIndex( filter.feature );
+		if ( null == index.sortedSlots )
+		{
+			// Not sorted yet: a linear scan is cheaper than sorting.
+			final double[] values = index.values;
+			final double t = filter.value;
+			for ( int slot = 0; slot < values.length; slot++ )
+			{
+				final double v = values[ slot ];
+				if ( FeatureColumns.isMissing( v ) || ( filter.isAbove ? Double.compare( v, t ) < 0 : Double.compare( v, t ) > 0 ) )
+					adjust( slot, delta );
+			}
+			return;
+		}
+
+		// Missing values always fail.
+		adjustRange( index.sortedSlots, index.nValid, index.sortedSlots.length, delta );
+		if ( filter.isAbove )
+			adjustRange( index.sortedSlots, 0, index.lowerBound( filter.value ), delta );
+		else
+			adjustRange( index.sortedSlots, index.upperBound( filter.value ), index.nValid, delta );
+	}
+
+	/**
+	 * Moves the threshold of the specified filter, and updates the failed
+	 * count of the spots whose value lies between the old and new threshold.
+	 */
+	private void moveThreshold( final FeatureFilter filter, final double newThreshold )
+	{
+		final FeatureIndex index = featureIndex( filter.feature );
+		index.sort();
+		final int[] sorted = index.sortedSlots;
+		final double oldThreshold = filter.value;
+		if ( filter.isAbove )
+		{
+			// Failing spots: sorted[ 0 .. lowerBound( t ) ).
+			final int from = index.lowerBound( oldThreshold );
+			final int to = index.lowerBound( newThreshold );
+			if ( to > from )
+				adjustRange( sorted, from, to, +1 );
+			else
+				adjustRange( sorted, to, from, -1 );
+		}
+		else
+		{
+			// Failing spots: sorted[ upperBound( t ) .. nValid ).
+			final int from = index.upperBound( oldThreshold );
+			final int to = index.upperBound( newThreshold );
+			if ( to > from )
+				adjustRange( sorted, from, to, -1 );
+			else
+				adjustRange( sorted, to, from, +1 );
+		}
+	}
+
+	private void adjustRange( final int[] sortedSlots, final int from, final int to, final int delta )
+	{
+		for ( int i = from; i < to; i++ )
+			adjust( sortedSlots[ i ], delta );
+	}
+
+	private Spot spot( final int slot )
+	{
+		final int f = frameIndex[ slot ];
+		return visibilities[ f ].get( slot - frameStart[ f ] );
+	}
+
+	private void adjust( final int slot, final int delta )
+	{
+		final int before = nFailed[ slot ];
+		final int after = before + delta;
+		nFailed[ slot ] = after;
+		if ( ( before == 0 ) == ( after == 0 ) )
+			return;
+
+		final boolean visible = ( after == 0 );
+		final int f = frameIndex[ slot ];
+		final int i = slot - frameStart[ f ];
+		visibilities[ f ].set( i, visible );
+		unsynced.set( slot );
+		nVisible += visible ? 1 : -1;
+	}
+
+	/**
+	 * Writes the {@link SpotCollection#VISIBILITY} feature of the spots whose
+	 * visibility changed, if it differs from the value they hold.
+	 */
+	private void syncVisibility()
+	{
+		for ( int slot = unsynced.nextSetBit( 0 ); slot >= 0; slot = unsynced.nextSetBit( slot + 1 ) )
+		{
+			final Spot spot = spot( slot );
+			final Double visibility = ( nFailed[ slot ] == 0 ) ? SpotCollection.ONE : SpotCollection.ZERO;
+			if ( !visibility.equals( spot.getFeature( SpotCollection.VISIBILITY ) ) )
+				spot.putVisibility( visibility );
+		}
+		unsynced.clear();
+	}
+
+	/**
+	 * The values of one feature for all the spots of the index. Missing
+	 * values are stored as {@link FeatureColumns#MISSING}.
+	 */
+	private final class FeatureIndex
+	{
+
+		/** Values per slot. Discarded once sorted. */
+		private double[] values;
+
+		/**
+		 * Slots sorted by increasing value, in the order of
+		 * {@link Double#compare(double, double)}, missing values last.
+		 */
+		private int[] sortedSlots;
+
+		/** Values sorted by increasing value, matching {@link #sortedSlots}. */
+		private double[] sortedValues;
+
+		/** The number of non-missing values. */
+		private int nValid;
+
+		private FeatureIndex( final String feature )
+		{
+			values = new double[ nFailed.length ];
+			for ( int slot = 0; slot < values.length; slot++ )
+			{
+				final Double val = spot( slot ).getFeature( feature );
+				values[ slot ] = ( null == val ) ? FeatureColumns.MISSING : val.doubleValue();
+			}
+		}
+
+		private void sort()
+		{
+			if ( null != sortedSlots )
+				return;
+
+			final int n = values.length;
+			final int[] slots = new int[ n ];
+			int head = 0;
+			int tail = n;
+			for ( int slot = 0; slot < n; slot++ )
+			{
+				if ( FeatureColumns.isMissing( values[ slot ] ) )
+					slots[ --tail ] = slot;
+				else
+					slots[ head++ ] = slot;
+			}
+			nValid = head;
+			sortSlots( slots, values, 0, nValid - 1 );
+
+			sortedValues = new double[ nValid ];
+			for ( int i = 0; i < nValid; i++ )
+				sortedValues[ i ] = values[ slots[ i ] ];
+			sortedSlots = slots;
+			values = null;
+		}
+
+		/** Index of the first sorted value &ge; t. */
+		private int lowerBound( final double t )
+		{
+			int lo = 0;
+			int hi = nValid;
+			while ( lo < hi )
+			{
+				final int mid = ( lo + hi ) >>> 1;
+				if ( Double.compare( sortedValues[ mid ], t ) < 0 )
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			return lo;
+		}
+
+		/** Index of the first sorted value &gt; t. */
+		private int upperBound( final double t )
+		{
+			int lo = 0;
+			int hi = nValid;
+			while ( lo < hi )
+			{
+				final int mid = ( lo + hi ) >>> 1;
+				if ( Double.compare( sortedValues[ mid ], t ) <= 0 )
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			return lo;
+		}
+	}
+
+	/**
+	 * Sorts the slots between <code>lo</code> and <code>hi</code> (inclusive)
+	 * by increasing value, in the order of
+	 * {@link Double#compare(double, double)}, with a three-way quicksort that
+	 * copes with many equal values.
+	 */
+	static void sortSlots( final int[] slots, final double[] values, int lo, int hi )
+	{
+		while ( hi - lo > 16 )
+		{
+			final double pivot = median( values[ slots[ lo ] ], values[ slots[ ( lo + hi ) >>> 1 ] ], values[ slots[ hi ] ] );
+			int lt = lo;
+			int gt = hi;
+			int i = lo;
+			while ( i <= gt )
+			{
+				final int c = Double.compare( values[ slots[ i ] ], pivot );
+				if ( c < 0 )
+					swap( slots, lt++, i++ );
+				else if ( c > 0 )
+					swap( slots, i, gt-- );
+				else
+					i++;
+			}
+			// Recurse on the smaller part, loop on the larger one.
+			if ( lt - lo < hi - gt )
+			{
+				sortSlots( slots, values, lo, lt - 1 );
+				lo = gt + 1;
+			}
+			else
+			{
+				sortSlots( slots, values, gt + 1, hi );
+				hi = lt - 1;
+			}
+		}
+
+		// Insertion sort for small ranges.
+		for ( int i = lo + 1; i <= hi; i++ )
+		{
+			final int slot = slots[ i ];
+			final double v = values[ slot ];
+			int j = i - 1;
+			while ( j >= lo && Double.compare( values[ slots[ j ] ], v ) > 0 )
+			{
+				slots[ j + 1 ] = slots[ j ];
+				j--;
+			}
+			slots[ j + 1 ] = slot;
+		}
+	}
+
+	private static double median( final double a, final double b, final double c )
+	{
+		if ( Double.compare( a, b ) < 0 )
+			return ( Double.compare( b, c ) < 0 ) ? b : ( Double.compare( a, c ) < 0 ? c : a );
+		return ( Double.compare( a, c ) < 0 ) ? a : ( Double.compare( b, c ) < 0 ? c : b );
+	}
+
+	private static void swap( final int[] arr, final int i, final int j )
+	{
+		final int tmp = arr[ i ];
+		arr[ i ] = arr[ j ];
+		arr[ j ] = tmp;
+	}
+}
@@ -24,7 +24,10 @@ package fiji.plugin.trackmate;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
@@ -46,6 +49,7 @@ import fiji.plugin.trackmate.features.FeatureFilter;
 import fiji.plugin.trackmate.features.SpotFeatureCalculator;
 import fiji.plugin.trackmate.features.TrackFeatureCalculator;
 import fiji.plugin.trackmate.tracking.SpotTracker;
+import fiji.plugin.trackmate.util.ExecutionRuntime;
 import fiji.plugin.trackmate.util.Threads;
 import fiji.plugin.trackmate.util.TMUtils;
 import ij.gui.Roi;
@@ -99,6 +103,19 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm, Named, Ca
 
 	private final List< Cancelable > cancelables = Collections.synchronizedList( new ArrayList<>() );
 
+	/**
+	 * If <code>true</code>, {@link #process()} runs detection, initial
+	 * filtering and spot feature calculation as a per-frame pipeline. See
+	 * {@link #execStreamingDetection()}.
+	 */
+	private boolean streaming = false;
+
+	/**
+	 * Sentinel signaling the end of the detected frames in the streaming
+	 * pipeline.
+	 */
+	private static final FrameSpots END_OF_FRAMES = new FrameSpots( -1, Collections.emptyList() );
+
 	/*
 	 * CONSTRUCTORS
 	 */
@@ -137,6 +154,31 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm, Named, Ca
 		return settings;
 	}
 
+	/**
+	 * Sets whether {@link #process()} should run detection, initial spot
+	 * filtering and spot feature calculation as a per-frame pipeline rather
+	 * than as three steps over the whole movie.
+	 *
+	 * @param streaming
+	 *            whether to use the streaming pipeline.
+	 * @see #execStreamingDetection()
+	 */
+	public void setStreaming( final boolean streaming )
+	{
+		this.streaming = streaming;
+	}
+
+	/**
+	 * Returns whether {@link #process()} runs the per-frame streaming
+	 * pipeline.
+	 *
+	 * @return whether the streaming pipeline is used.
+	 */
+	public boolean isStreaming()
+	{
+		return streaming;
+	}
+
 	/*
 	 * PROCESSES
 	 */
@@ -436,6 +478,7 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm, Named, Ca
 			{
 				spots = rawSpots;
 			}
+			spots.setFeatureStore( new SpotFeatureStore() );
 
 			// Add detection feature other than position
 			for ( final Spot spot : spots.iterable( false ) )
@@ -461,11 +504,11 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm, Named, Ca
 	private boolean processFrameByFrame( final SpotDetectorFactory factory, final ImgPlus img, final Logger logger )
 	{
 		final Interval interval = TMUtils.getInterval( img, settings );
-		final int zindex = img.dimensionIndex( Axes.Z );
 		final int numFrames = settings.tend - settings.tstart + 1;
 		// Final results holder, for all frames
 		final SpotCollection spots = new SpotCollection();
 		spots.setNumThreads( numThreads );
+		spots.setFeatureStore( new SpotFeatureStore() );
 		// To report progress
 		final AtomicInteger spotFound = new AtomicInteger( 0 );
 		final AtomicInteger progress = new AtomicInteger( 0 );
@@ -489,7 +532,8 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm, Named, Ca
 				+ ( ( threadsPerFrame > 1 ) ? ( threadsPerFrame + " threads" ) : "1 thread" )
 				+ " per frame.\n" );
 
-		final ExecutorService executorService = Threads.newFixedThreadPool( nSimultaneousFrames );
+		// Frames not started yet are skipped when canceled.
+		final ExecutorService executorService = Threads.newFixedThreadPool( nSimultaneousFrames, this );
 		final List< Future< Boolean > > tasks = new ArrayList<>( numFrames );
 		for ( int i = settings.tstart; i <= settings.tend; i++ )
 		{
@@ -503,75 +547,15 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm, Named, Ca
 					if ( isCanceled() )
 						return Boolean.TRUE; // ok to be canceled.
 
-					// Yield detector for target frame
-					final SpotDetector< ? > detector = factory.getDetector( interval, frame );
-					if ( detector instanceof MultiThreaded )
-					{
-						final MultiThreaded md = ( MultiThreaded ) detector;
-						md.setNumThreads( threadsPerFrame );
-					}
-
-					if ( detector instanceof Cancelable )
-						cancelables.add( ( Cancelable ) detector );
-
-					// Execute detection
-					if ( detector.checkInput() && detector.process() )
-					{
-						// On success, get results.
-						final List< Spot > spotsThisFrame = detector.getResult();
-
-						/*
-						 * Special case: if we have a single column image, then
-						 * the detectors internally dealt with a single line
-						 * image. We need to permute back the X & Y coordinates
-						 * if it's the case.
-						 */
-						if ( img.dimension( 0 ) < 2 && zindex < 0 )
-						{
-							for ( final Spot spot : spotsThisFrame )
-							{
-								spot.putFeature( Spot.POSITION_Y, spot.getDoublePosition( 0 ) );
-								spot.putFeature( Spot.POSITION_X, 0d );
-							}
-						}
-
-						List< Spot > prunedSpots;
-						final Roi roi = settings.getRoi();
-						if ( roi != null )
-						{
-							prunedSpots = new ArrayList<>();
-							for ( final Spot spot : spotsThisFrame )
-							{
-								if ( roi.contains(
-										( int ) Math.round( spot.getFeature( Spot.POSITION_X ) / calibration[ 0 ] ),
-										( int ) Math.round( spot.getFeature( Spot.POSITION_Y ) / calibration[ 1 ] ) ) )
-									prunedSpots.add( spot );
-							}
-						}
-						else
-						{
-							prunedSpots = spotsThisFrame;
-						}
-						// Add detection feature other than position
-						for ( final Spot spot : prunedSpots )
-						{
-							// FRAME will be set upon adding to
-							// SpotCollection.
-							spot.putFeature( Spot.POSITION_T, frame * settings.dt );
-						}
-						// Store final results for this frame
-						spots.put( frame, prunedSpots );
-						// Report
-						spotFound.addAndGet( prunedSpots.size() );
-						logger.setProgress( progress.incrementAndGet() / ( double ) numFrames );
-
-					}
-					else
-					{
-						// Fail: exit and report error.
-						errorMessage = detector.getErrorMessage();
+					final List< Spot > prunedSpots = detectFrame( factory, img, interval, frame, threadsPerFrame, calibration );
+					if ( null == prunedSpots )
 						return Boolean.FALSE;
-					}
+
+					// Store final results for this frame
+					spots.put( frame, prunedSpots );
+					// Report
+					spotFound.addAndGet( prunedSpots.size() );
+					logger.setProgress( progress.incrementAndGet() / ( double ) numFrames );
 					return Boolean.TRUE;
 				}
 			};
@@ -587,7 +571,15 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm, Named, Ca
 		{
 			for ( final Future< Boolean > task : tasks )
 			{
-				final Boolean ok = task.get();
+				final Boolean ok;
+				try
+				{
+					ok = task.get();
+				}
+				catch ( final CancellationException e )
+				{
+					continue;
+				}
 				if ( !ok )
 				{
 					reportOk.set( false );
@@ -620,6 +612,335 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm, Named, Ca
 		return reportOk.get();
 	}
 
+	/**
+	 * Execute the detection, initial spot filtering and spot feature
+	 * calculation as a per-frame pipeline.
+	 * <p>
+	 * Frames do not wait for the whole movie to be detected: as soon as a
+	 * frame is detected, its spots are pruned with the
+	 * {@link Settings#initialSpotFilterValue} and handed over through a bounded
+	 * queue to the feature stage, which computes their features while other
+	 * frames are still being detected. The detection stage blocks when the
+	 * feature stage lags behind, so that only a few frames of unfiltered spots
+	 * are held in memory at once.
+	 * <p>
+	 * Only detection streams into the spot features. Spot filtering, tracking
+	 * and the edge and track features start once all the frames have gone
+	 * through this pipeline, so the spots kept after the initial filtering
+	 * are still all held in memory; only the unfiltered spots are bounded.
+	 * <p>
+	 * This gives the same spots, with the same features and visibility, as
+	 * calling {@link #execDetection()}, {@link #execInitialSpotFiltering()}
+	 * and {@link #computeSpotFeatures(boolean)} in sequence, to which this
+	 * method falls back for detectors that do not work frame by frame.
+	 *
+	 * @return <code>true</code> if the pipeline completed without errors.
+	 */
+	@SuppressWarnings( { "rawtypes", "unchecked" } )
+	public boolean execStreamingDetection()
+	{
+		final SpotDetectorFactoryBase< ? > factory = settings.detectorFactory;
+		if ( !( factory instanceof SpotDetectorFactory ) || factory instanceof ManualDetectorFactory )
+			return execDetection() && execInitialSpotFiltering() && computeSpotFeatures( true );
+
+		isCanceled = false;
+		cancelReason = null;
+		cancelables.clear();
+
+		final Logger logger = model.getLogger();
+		logger.log( "Starting streaming detection and spot feature calculation using "
+				+ ( ( numThreads > 1 ) ? ( numThreads + " threads" ) : "1 thread" )
+				+ ".\n", Logger.BLUE_COLOR );
+
+		if ( null == settings.detectorSettings )
+		{
+			errorMessage = "Detector settings is null.\n";
+			return false;
+		}
+
+		final ImgPlus img = TMUtils.rawWraps( settings.imp );
+		if ( !factory.setTarget( img, settings.detectorSettings ) )
+		{
+			errorMessage = factory.getErrorMessage();
+			return false;
+		}
+
+		final SpotDetectorFactory detectorFactory = ( SpotDetectorFactory ) factory;
+		final Interval interval = TMUtils.getInterval( img, settings );
+		final int numFrames = settings.tend - settings.tstart + 1;
+		final double[] calibration = TMUtils.getSpatialCalibration( settings.imp );
+		final double qualityThreshold = ( null == settings.initialSpotFilterValue )
+				? Double.NEGATIVE_INFINITY
+				: settings.initialSpotFilterValue.doubleValue();
+
+		final SpotCollection spots = new SpotCollection();
+		spots.setNumThreads( numThreads );
+		spots.setFeatureStore( new SpotFeatureStore() );
+
+		final SpotFeatureCalculator calculator = new SpotFeatureCalculator( model, settings, false );
+		cancelables.add( calculator );
+		calculator.declareFeatures();
+
+		/*
+		 * Same multi-threading tuning as for the detection alone. The feature
+		 * stage gets as many workers as the detection stage.
+		 */
+		final int nSimultaneousFrames = ( detectorFactory.forbidMultithreading() )
+				? 1
+				: Math.max( 1, Math.min( numThreads, numFrames ) );
+		final int threadsPerFrame = Math.max( 1, numThreads / nSimultaneousFrames );
+
+		final BlockingQueue< FrameSpots > queue = new ArrayBlockingQueue<>( nSimultaneousFrames );
+		final AtomicBoolean failed = new AtomicBoolean( false );
+		final AtomicInteger spotFound = new AtomicInteger( 0 );
+		final AtomicInteger progress = new AtomicInteger( 0 );
+
+		// Feature stage: drains the queue until it receives the sentinel.
+		final ExecutorService featureService = Threads.newFixedThreadPool( nSimultaneousFrames );
+		final List< Future< ? > > featureTasks = new ArrayList<>( nSimultaneousFrames );
+		for ( int i = 0; i < nSimultaneousFrames; i++ )
+		{
+			featureTasks.add( featureService.submit( () -> {
+				while ( true )
+				{
+					final FrameSpots frameSpots = ExecutionRuntime.take( queue );
+					if ( frameSpots == END_OF_FRAMES )
+						return null;
+					// Keep draining on failure so that the detection stage
+					// never blocks.
+					if ( failed.get() || isCanceled() )
+						continue;
+
+					try
+					{
+						spots.put( frameSpots.frame, frameSpots.spots );
+						calculator.computeSpotFeatures( spots.iterable( frameSpots.frame, false ), frameSpots.frame, threadsPerFrame );
+					}
+					catch ( final Throwable e )
+					{
+						// Errors too: a dead worker would block the
+						// detection stage forever.
+						if ( failed.compareAndSet( false, true ) )
+							errorMessage = "Problem during spot feature calculation in frame " + frameSpots.frame + ": " + e;
+						continue;
+					}
+					spotFound.addAndGet( frameSpots.spots.size() );
+					logger.setProgress( progress.incrementAndGet() / ( double ) numFrames );
+				}
+			} ) );
+		}
+
+		// Detection stage.
+		final ExecutorService detectionService = Threads.newFixedThreadPool( nSimultaneousFrames, this );
+		final List< Future< Boolean > > detectionTasks = new ArrayList<>( numFrames );
+		for ( int i = settings.tstart; i <= settings.tend; i++ )
+		{
+			final int frame = i;
+			detectionTasks.add( detectionService.submit( () -> {
+				if ( failed.get() || isCanceled() )
+					return Boolean.TRUE;
+
+				final List< Spot > detected;
+				try
+				{
+					detected = detectFrame( detectorFactory, img, interval, frame, threadsPerFrame, calibration );
+				}
+				catch ( final Throwable e )
+				{
+					if ( failed.compareAndSet( false, true ) )
+						errorMessage = "Problem during detection in frame " + frame + ": " + e;
+					return Boolean.FALSE;
+				}
+				if ( null == detected )
+				{
+					failed.set( true );
+					return Boolean.FALSE;
+				}
+
+				// Initial filtering.
+				final List< Spot > kept = new ArrayList<>( detected.size() );
+				for ( final Spot spot : detected )
+				{
+					final Double quality = spot.getFeature( Spot.QUALITY );
+					if ( null != quality && quality.doubleValue() >= qualityThreshold )
+						kept.add( spot );
+				}
+				ExecutionRuntime.put( queue, new FrameSpots( frame, kept ) );
+				return Boolean.TRUE;
+			} ) );
+		}
+		detectionService.shutdown();
+		logger.setStatus( "Detection and spot features..." );
+		logger.setProgress( 0 );
+
+		/*
+		 * Wait for all the detection tasks, even after a failure, so that no
+		 * frame is put in the queue after the end sentinels.
+		 */
+		boolean ok = true;
+		boolean interrupted = false;
+		for ( int i = 0; i < detectionTasks.size(); i++ )
+		{
+			try
+			{
+				ok = detectionTasks.get( i ).get().booleanValue() && ok;
+			}
+			catch ( final CancellationException e )
+			{
+				// Not started before cancellation.
+			}
+			catch ( final ExecutionException e )
+			{
+				if ( failed.compareAndSet( false, true ) )
+					errorMessage = "Problem during detection: " + e.getCause();
+				ok = false;
+			}
+			catch ( final InterruptedException e )
+			{
+				// Cancel the remaining frames and wait again for this one.
+				interrupted = true;
+				cancel( "Interrupted." );
+				i--;
+			}
+		}
+
+		try
+		{
+			for ( int i = 0; i < nSimultaneousFrames; i++ )
+				ExecutionRuntime.put( queue, END_OF_FRAMES );
+			for ( final Future< ? > task : featureTasks )
+				task.get();
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			if ( failed.compareAndSet( false, true ) )
+				errorMessage = "Interrupted during spot feature calculation.";
+		}
+		catch ( final ExecutionException e )
+		{
+			if ( failed.compareAndSet( false, true ) )
+				errorMessage = "Problem during spot feature calculation: " + e.getCause();
+		}
+		featureService.shutdownNow();
+		if ( interrupted )
+			Thread.currentThread().interrupt();
+		ok = ok && !failed.get();
+
+		// Like after the initial filtering, the spots kept are all visible.
+		spots.setVisible( true );
+		model.setSpots( spots, true );
+
+		if ( ok )
+		{
+			if ( isCanceled() )
+				logger.log( "Detection canceled after " + progress.get() + " frames. Reason:\n" + getCancelReason() + "\n" );
+			logger.log( "Found " + spotFound.get() + " spots after initial filtering.\n" );
+			model.notifyFeaturesComputed();
+		}
+		else
+		{
+			logger.error( "Detection failed after " + progress.get() + " frames:\n" + errorMessage );
+			logger.log( "Found " + spotFound.get() + " spots prior failure.\n" );
+		}
+		logger.setProgress( 1 );
+		logger.setStatus( "" );
+		return ok;
+	}
+
+	/**
+	 * Executes the detection on a single frame. The spots found are prepared
+	 * with {@link #prepareDetectedSpots(List, ImgPlus, Roi, double[], int, double)}.
+	 *
+	 * @return the spots found in the frame, or <code>null</code> if the
+	 *         detector failed. In that case the error message is set.
+	 */
+	@SuppressWarnings( "rawtypes" )
+	private List< Spot > detectFrame( final SpotDetectorFactory factory, final ImgPlus img, final Interval interval, final int frame, final int nThreads, final double[] calibration )
+	{
+		// Yield detector for target frame
+		final SpotDetector< ? > detector = factory.getDetector( interval, frame );
+		if ( detector instanceof MultiThreaded )
+		{
+			final MultiThreaded md = ( MultiThreaded ) detector;
+			md.setNumThreads( nThreads );
+		}
+
+		if ( detector instanceof Cancelable )
+			cancelables.add( ( Cancelable ) detector );
+
+		// Execute detection
+		if ( !detector.checkInput() || !detector.process() )
+		{
+			// Fail: exit and report error.
+			errorMessage = detector.getErrorMessage();
+			return null;
+		}
+
+		// On success, get results.
+		return prepareDetectedSpots( detector.getResult(), img, settings.getRoi(), calibration, frame, settings.dt );
+	}
+
+	/**
+	 * Prepares the spots found by a detector on a single frame for addition to
+	 * the model. Spots are translated back for single-column images, pruned
+	 * against the ROI and receive their {@link Spot#POSITION_T} feature.
+	 *
+	 * @param spotsThisFrame
+	 *            the spots found by the detector.
+	 * @param img
+	 *            the image the detector ran on.
+	 * @param roi
+	 *            the ROI to prune spots with, may be <code>null</code>.
+	 * @param calibration
+	 *            the spatial calibration of the image.
+	 * @param frame
+	 *            the frame the spots were found in.
+	 * @param dt
+	 *            the frame interval.
+	 * @return the spots to add to the model.
+	 */
+	public static List< Spot > prepareDetectedSpots( final List< Spot > spotsThisFrame, final ImgPlus< ? > img, final Roi roi, final double[] calibration, final int frame, final double dt )
+	{
+		/*
+		 * Special case: if we have a single column image, then the detectors
+		 * internally dealt with a single line image. We need to permute back
+		 * the X & Y coordinates if it's the case.
+		 */
+		if ( img.dimension( 0 ) < 2 && img.dimensionIndex( Axes.Z ) < 0 )
+		{
+			for ( final Spot spot : spotsThisFrame )
+			{
+				spot.putFeature( Spot.POSITION_Y, spot.getDoublePosition( 0 ) );
+				spot.putFeature( Spot.POSITION_X, 0d );
+			}
+		}
+
+		final List< Spot > prunedSpots;
+		if ( roi != null )
+		{
+			prunedSpots = new ArrayList<>();
+			for ( final Spot spot : spotsThisFrame )
+			{
+				if ( roi.contains(
+						( int ) Math.round( spot.getFeature( Spot.POSITION_X ) / calibration[ 0 ] ),
+						( int ) Math.round( spot.getFeature( Spot.POSITION_Y ) / calibration[ 1 ] ) ) )
+					prunedSpots.add( spot );
+			}
+		}
+		else
+		{
+			prunedSpots = spotsThisFrame;
+		}
+		// Add detection feature other than position
+		for ( final Spot spot : prunedSpots )
+		{
+			// FRAME will be set upon adding to SpotCollection.
+			spot.putFeature( Spot.POSITION_T, frame * dt );
+		}
+		return prunedSpots;
+	}
+
 	/**
 	 * Execute the initial spot filtering part.
 	 * <p>
@@ -780,20 +1101,30 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm, Named, Ca
 	@Override
 	public boolean process()
 	{
-		if ( !execDetection() )
-			return false;
-		if ( isCanceled() )
-			return true;
+		if ( streaming )
+		{
+			if ( !execStreamingDetection() )
+				return false;
+			if ( isCanceled() )
+				return true;
+		}
+		else
+		{
+			if ( !execDetection() )
+				return false;
+			if ( isCanceled() )
+				return true;
 
-		if ( !execInitialSpotFiltering() )
-			return false;
-		if ( isCanceled() )
-			return true;
+			if ( !execInitialSpotFiltering() )
+				return false;
+			if ( isCanceled() )
+				return true;
 
-		if ( !computeSpotFeatures( true ) )
-			return false;
-		if ( isCanceled() )
-			return true;
+			if ( !computeSpotFeatures( true ) )
+				return false;
+			if ( isCanceled() )
+				return true;
+		}
 
 		if ( !execSpotFiltering( true ) )
 			return false;
@@ -881,4 +1212,22 @@ public class TrackMate implements Benchmark, MultiThreaded, Algorithm, Named, Ca
 	{
 		return cancelReason;
 	}
+
+	/**
+	 * The spots of a frame, in transit between the detection and feature
+	 * stages of the streaming pipeline.
+	 */
+	private static final class FrameSpots
+	{
+
+		private final int frame;
+
+		private final List< Spot > spots;
+
+		private FrameSpots( final int frame, final List< Spot > spots )
+		{
+			this.frame = frame;
+			this.spots = spots;
+		}
+	}
 }
@@ -21,6 +21,9 @@
  */
 package fiji.plugin.trackmate;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -30,10 +33,15 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
 import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
 import org.jgrapht.Graph;
+import org.jgrapht.Graphs;
 import org.jgrapht.alg.shortestpath.DijkstraShortestPath;
 import org.jgrapht.event.ConnectedComponentTraversalEvent;
 import org.jgrapht.event.EdgeTraversalEvent;
@@ -123,6 +131,16 @@ public class TrackModel
 	 */
 	final Set< Integer > tracksUpdated = new HashSet<>();
 
+	/**
+	 * The track IDs that were <b>removed</b> from this model, because their
+	 * track was deleted or merged into another one. Their features can be
+	 * released once the listeners were notified of the change.
+	 * <p>
+	 * It is the parent instance responsibility to clear this field when it is
+	 * fit to do so.
+	 */
+	final Set< Integer > tracksRemoved = new HashSet<>();
+
 	private static final Boolean DEFAULT_VISIBILITY = Boolean.TRUE;
 
 	// ~ Instance fields
@@ -130,6 +148,13 @@ public class TrackModel
 
 	private int IDcounter = 0;
 
+	/**
+	 * Incremented every time track IDs are reassigned from 0, when the tracks
+	 * are rebuilt from a new graph. A track ID recorded at an earlier
+	 * generation may designate another track now.
+	 */
+	private volatile int idGeneration = 0;
+
 	Map< Integer, Set< DefaultWeightedEdge > > connectedEdgeSets;
 
 	Map< DefaultWeightedEdge, Integer > edgeToID;
@@ -142,6 +167,49 @@ public class TrackModel
 
 	Map< Integer, String > names;
 
+	/**
+	 * Incremented whenever the track names or IDs change. A cached snapshot of
+	 * the sorted track IDs built at an earlier revision is outdated.
+	 */
+	private final AtomicInteger trackIDsRevision = new AtomicInteger( 0 );
+
+	/**
+	 * Incremented whenever the track names, IDs or visibility change.
+	 */
+	private final AtomicInteger visibleTrackIDsRevision = new AtomicInteger( 0 );
+
+	/**
+	 * Cached snapshot of the track IDs sorted by name. <code>null</code> until
+	 * first computed.
+	 */
+	private volatile TrackIDs sortedTrackIDs;
+
+	/**
+	 * Cached snapshot of the visible track IDs sorted by name.
+	 * <code>null</code> until first computed.
+	 */
+	private volatile TrackIDs sortedVisibleTrackIDs;
+
+	/**
+	 * Dense indices of the edges of this model, used to store edge features
+	 * in columns. Indices are assigned on demand, and recycled when edges are
+	 * removed from the model.
+	 */
+	private final Map< DefaultWeightedEdge, Integer > edgeIndices = new ConcurrentHashMap<>();
+
+	/** Indices released by removed edges, reused first. */
+	private final ArrayDeque< Integer > freeEdgeIndices = new ArrayDeque<>();
+
+	private final AtomicInteger edgeIndexCounter = new AtomicInteger( 0 );
+
+	/**
+	 * Edges whose index was released because they were removed from this
+	 * model. They do not get a new index, so that a late feature write for a
+	 * removed edge, for instance by a listener notified asynchronously, does
+	 * not take an index that is never released.
+	 */
+	private final Set< DefaultWeightedEdge > retiredEdges = Collections.synchronizedSet( Collections.newSetFromMap( new WeakHashMap<>() ) );
+
 	private final Iterator< String > nameGenerator = new DefaultNameGenerator();
 
 	/*
@@ -226,9 +294,13 @@ public class TrackModel
 		edgesModified.clear();
 		edgesRemoved.clear();
 		tracksUpdated.clear();
+		tracksRemoved.clear();
+		idGeneration++;
+		pruneEdgeIndices();
 
 		visibility = trackVisibility;
 		names = trackNames;
+		invalidateTrackIDs();
 		connectedVertexSets = trackSpots;
 		connectedEdgeSets = trackEdges;
 
@@ -314,7 +386,10 @@ public class TrackModel
 
 	Boolean setVisibility( final Integer trackID, final boolean visible )
 	{
-		return visibility.put( trackID, Boolean.valueOf( visible ) );
+		final Boolean previous = visibility.put( trackID, Boolean.valueOf( visible ) );
+		if ( !Boolean.valueOf( visible ).equals( previous ) )
+			visibleTrackIDsRevision.incrementAndGet();
+		return previous;
 	}
 
 	/*
@@ -497,6 +572,144 @@ public class TrackModel
 		return graph.getEdgeWeight( edge );
 	}
 
+	/**
+	 * Returns the dense index of the specified edge, or -1 if no index was
+	 * assigned to it. Indices are non-negative, and are used to store edge
+	 * features in primitive columns. They are assigned by
+	 * {@link #acquireEdgeIndex(DefaultWeightedEdge, IntConsumer)} and released
+	 * when the edge is removed from this model, after which they can be reused
+	 * for another edge.
+	 * <p>
+	 * This method is thread-safe.
+	 *
+	 * @param edge
+	 *            the edge.
+	 * @return the edge index, or -1.
+	 * @see #nEdgeIndices()
+	 */
+	public int edgeIndex( final DefaultWeightedEdge edge )
+	{
+		final Integer index = edgeIndices.get( edge );
+		return ( null == index ) ? -1 : index.intValue();
+	}
+
+	/**
+	 * Returns the dense index of the specified edge, assigning one to it if it
+	 * has none yet. Released indices are reused first. The specified callback
+	 * is called with the index when it is assigned, before it is returned to
+	 * any caller, so that values stored at this index for a former edge can be
+	 * discarded. Edges removed from this model, whose index was released, do
+	 * not get a new one.
+	 * <p>
+	 * This method is thread-safe.
+	 *
+	 * @param edge
+	 *            the edge.
+	 * @param onAssigned
+	 *            called with the index when it is assigned to the edge.
+	 * @return the edge index, or -1 if the edge was removed from this model.
+	 */
+	int acquireEdgeIndex( final DefaultWeightedEdge edge, final IntConsumer onAssigned )
+	{
+		final Integer index = edgeIndices.get( edge );
+		if ( null != index )
+			return index.intValue();
+		final Integer assigned = edgeIndices.computeIfAbsent( edge, e -> {
+			// Checked under the map lock: edges are retired before release.
+			if ( retiredEdges.contains( e ) )
+				return null;
+			Integer i;
+			synchronized ( freeEdgeIndices )
+			{
+				i = freeEdgeIndices.poll();
+			}
+			if ( null == i )
+				i = Integer.valueOf( edgeIndexCounter.getAndIncrement() );
+			onAssigned.accept( i.intValue() );
+			return i;
+		} );
+		return ( null == assigned ) ? -1 : assigned.intValue();
+	}
+
+	/**
+	 * Returns the number of edge indices assigned so far by this model. All
+	 * edge indices are strictly lower than this number.
+	 *
+	 * @return the number of edge indices.
+	 * @see #edgeIndex(DefaultWeightedEdge)
+	 */
+	public int nEdgeIndices()
+	{
+		return edgeIndexCounter.get();
+	}
+
+	/**
+	 * Returns the edges removed since the last model update that are not in
+	 * the graph anymore. Their indices must be released with
+	 * {@link #releaseEdgeIndices(Collection)} once the listeners were notified
+	 * of the removal.
+	 *
+	 * @return a new list of edges.
+	 */
+	List< DefaultWeightedEdge > getRemovedEdges()
+	{
+		final List< DefaultWeightedEdge > removed = new ArrayList<>( edgesRemoved.size() );
+		for ( final DefaultWeightedEdge edge : edgesRemoved )
+			if ( !graph.containsEdge( edge ) )
+				removed.add( edge );
+		return removed;
+	}
+
+	/**
+	 * Returns the generation of the track IDs of this model. It changes when
+	 * track IDs are reassigned from 0, so that a track ID recorded at an
+	 * earlier generation may designate another track.
+	 * <p>
+	 * This method is thread-safe.
+	 *
+	 * @return the track ID generation.
+	 */
+	int idGeneration()
+	{
+		return idGeneration;
+	}
+
+	/**
+	 * Releases the indices of the specified removed edges, so that they can
+	 * be reused. Called by the {@link Model} once the listeners were notified
+	 * of the removal, possibly on the thread that delivers the events.
+	 *
+	 * @param edges
+	 *            the removed edges.
+	 */
+	void releaseEdgeIndices( final Collection< DefaultWeightedEdge > edges )
+	{
+		for ( final DefaultWeightedEdge edge : edges )
+			releaseEdgeIndex( edge );
+	}
+
+	/**
+	 * Releases the indices of all the edges that are not in the current graph.
+	 */
+	private void pruneEdgeIndices()
+	{
+		for ( final DefaultWeightedEdge edge : edgeIndices.keySet() )
+			if ( !graph.containsEdge( edge ) )
+				releaseEdgeIndex( edge );
+	}
+
+	private void releaseEdgeIndex( final DefaultWeightedEdge edge )
+	{
+		retiredEdges.add( edge );
+		final Integer index = edgeIndices.remove( edge );
+		if ( null == index )
+			return;
+		synchronized ( freeEdgeIndices )
+		{
+			freeEdgeIndices.push( index );
+		}
+	}
+
 	/*
 	 * TRACKS
 	 */
@@ -519,22 +732,54 @@ public class TrackModel
 	 * Returns the set of track IDs managed by this model, ordered by track
 	 * names (alpha-numerically sorted).
 	 *
+	 * <p>
+	 * The returned set is an unmodifiable snapshot: it is not affected by later
+	 * changes to the model. It is cached and only recomputed after track
+	 * names, visibility or membership change.
+	 *
 	 * @param visibleOnly
 	 *            if <code>true</code>, only visible track IDs will be returned.
-	 * @return a new set of track IDs.
+	 * @return an unmodifiable set of track IDs.
 	 */
 	public Set< Integer > trackIDs( final boolean visibleOnly )
 	{
-		final Set< Integer > ids = TMUtils.sortByValue( names, AlphanumComparator.instance ).keySet();
+		/*
+		 * Revisions are read before computing. A snapshot computed while the
+		 * model changes is stored with the old revision, and recomputed on
+		 * the next call.
+		 */
+		final int visibleRevision = visibleTrackIDsRevision.get();
+		final int revision = trackIDsRevision.get();
+		TrackIDs ids = sortedTrackIDs;
+		if ( null == ids || ids.revision != revision )
+		{
+			ids = new TrackIDs( revision, Collections.unmodifiableSet( TMUtils.sortByValue( names, AlphanumComparator.instance ).keySet() ) );
+			sortedTrackIDs = ids;
+		}
 		if ( !visibleOnly )
-			return ids;
+			return ids.ids;
 
-		final Set< Integer > vids = new LinkedHashSet<>( ids.size() );
-		for ( final Integer id : ids )
-			if ( visibility.get( id ) )
-				vids.add( id );
+		TrackIDs vids = sortedVisibleTrackIDs;
+		if ( null == vids || vids.revision != visibleRevision )
+		{
+			final Set< Integer > set = new LinkedHashSet<>( ids.ids.size() );
+			for ( final Integer id : ids.ids )
+				if ( Boolean.TRUE.equals( visibility.get( id ) ) )
+					set.add( id );
+			vids = new TrackIDs( visibleRevision, Collections.unmodifiableSet( set ) );
+			sortedVisibleTrackIDs = vids;
+		}
+		return vids.ids;
+	}
 
-		return vids;
+	/**
+	 * Outdates the cached sorted track IDs. Must be called whenever the track
+	 * names or IDs change.
+	 */
+	private void invalidateTrackIDs()
+	{
+		trackIDsRevision.incrementAndGet();
+		visibleTrackIDsRevision.incrementAndGet();
 	}
 
 	/**
@@ -582,6 +827,7 @@ public class TrackModel
 	public void setName( final Integer id, final String name )
 	{
 		names.put( id, name );
+		invalidateTrackIDs();
 	}
 
 	/**
@@ -666,6 +912,7 @@ public class TrackModel
 		IDcounter = 0;
 		visibility = new HashMap<>();
 		names = new HashMap<>();
+		invalidateTrackIDs();
 		connectedVertexSets = new HashMap<>();
 		connectedEdgeSets = new HashMap<>();
 
@@ -673,6 +920,9 @@ public class TrackModel
 		edgesModified.clear();
 		edgesRemoved.clear();
 		tracksUpdated.clear();
+		tracksRemoved.clear();
+		idGeneration++;
+		pruneEdgeIndices();
 
 		final Set< Spot > vertexSet = lGraph.vertexSet();
 		if ( vertexSet.size() > 0 )
@@ -849,6 +1099,7 @@ public class TrackModel
 			connectedEdgeSets.put( ID, currentConnectedEdgeSet );
 			visibility.put( ID, DEFAULT_VISIBILITY );
 			names.put( ID, nameGenerator.next() );
+			invalidateTrackIDs();
 		}
 
 		@Override
@@ -950,6 +1201,8 @@ public class TrackModel
 					connectedVertexSets.remove( id );
 					names.remove( id );
 					visibility.remove( id );
+					tracksRemoved.add( id );
+					invalidateTrackIDs();
 				}
 			}
 		}
@@ -959,6 +1212,7 @@ public class TrackModel
 		{
 			// To signal to ModelChangeListener
 			edgesAdded.add( event.getEdge() );
+			retiredEdges.remove( event.getEdge() );
 
 			// To maintain connected sets coherence:
 			/*
@@ -995,52 +1249,38 @@ public class TrackModel
 				else
 				{
 					// They come from different sets.
-
-					// Edges:
-					final Set< DefaultWeightedEdge > ses = connectedEdgeSets.get( sid );
-					final Set< DefaultWeightedEdge > tes = connectedEdgeSets.get( tid );
-					final HashSet< DefaultWeightedEdge > nes = new HashSet<>( ses.size() + tes.size() + 1 );
-					nes.addAll( ses );
-					nes.addAll( tes );
-					nes.add( e );
-
-					// Vertices:
 					final Set< Spot > svs = connectedVertexSets.get( sid );
 					final Set< Spot > tvs = connectedVertexSets.get( tid );
-					final HashSet< Spot > nvs = new HashSet<>( ses.size() + tes.size() );
-					nvs.addAll( svs );
-					nvs.addAll( tvs );
 
-					Integer nid, rid;
-					if ( nvs.size() > tvs.size() )
+					/*
+					 * The largest set (in vertices) keeps its id and absorbs
+					 * the smallest one, so that we only touch the elements of
+					 * the smallest set.
+					 */
+					final Integer nid, rid;
+					if ( svs.size() >= tvs.size() )
 					{
 						nid = sid;
 						rid = tid;
-						for ( final Spot v : tvs )
-						{
-							// Vertices of target set change id
-							vertexToID.put( v, nid );
-						}
-						for ( final DefaultWeightedEdge te : tes )
-							edgeToID.put( te, nid );
 					}
 					else
 					{
 						nid = tid;
 						rid = sid;
-						for ( final Spot v : svs )
-						{
-							// Vertices of source set change id
-							vertexToID.put( v, nid );
-						}
-						for ( final DefaultWeightedEdge se : ses )
-							edgeToID.put( se, nid );
 					}
+
+					final Set< Spot > nvs = connectedVertexSets.get( nid );
+					final Set< DefaultWeightedEdge > nes = connectedEdgeSets.get( nid );
+					final Set< Spot > rvs = connectedVertexSets.remove( rid );
+					final Set< DefaultWeightedEdge > res = connectedEdgeSets.remove( rid );
+					for ( final Spot v : rvs )
+						vertexToID.put( v, nid );
+					for ( final DefaultWeightedEdge re : res )
+						edgeToID.put( re, nid );
+					nvs.addAll( rvs );
+					nes.addAll( res );
+					nes.add( e );
 					edgeToID.put( e, nid );
-					connectedVertexSets.put( nid, nvs );
-					connectedVertexSets.remove( rid );
-					connectedEdgeSets.put( nid, nes );
-					connectedEdgeSets.remove( rid );
 
 					// Transaction: we signal that the large id is to be
 					// updated, and forget about the small one
@@ -1055,6 +1295,8 @@ public class TrackModel
 
 					// Name: the new set gets the name of the largest one.
 					names.remove( rid ); // 'nid' already has the right name.
+					tracksRemoved.add( rid );
+					invalidateTrackIDs();
 				}
 
 			}
@@ -1080,6 +1322,7 @@ public class TrackModel
 				visibility.put( nid, Boolean.TRUE );
 				// and a default name.
 				names.put( nid, nameGenerator.next() );
+				invalidateTrackIDs();
 				// Transaction: we mark the new track as updated
 				tracksUpdated.add( nid );
 
@@ -1152,6 +1395,8 @@ public class TrackModel
 				connectedEdgeSets.remove( id );
 				names.remove( id );
 				visibility.remove( id );
+				tracksRemoved.add( id );
+				invalidateTrackIDs();
 				/* We need to remove also the vertices */
 				final Set< Spot > vertexSet = connectedVertexSets.get( id );
 				// Forget the vertices were in a set
@@ -1172,156 +1417,183 @@ public class TrackModel
 			else
 			{
 				// So there are some edges remaining in the set.
-				// Look at the connected component of its source and target.
-				// Source
-				final HashSet< Spot > sourceVCS = new HashSet<>();
-				final HashSet< DefaultWeightedEdge > sourceECS = new HashSet<>();
+				splitAfterRemoval( id, graph.getEdgeSource( e ), graph.getEdgeTarget( e ) );
+			}
+		}
+
+		/**
+		 * Updates the connected sets after the removal of an edge between the
+		 * specified vertices, that belonged to the set with the specified id.
+		 * <p>
+		 * Two breadth-first searches are run in lockstep from the source and
+		 * target of the removed edge. If they meet, the track was not split.
+		 * Otherwise, once a search is exhausted, the other one is run just far
+		 * enough to know which part is the largest. The smallest part gets a
+		 * new id while the largest part keeps the old one. Either way, the
+		 * cost is proportional to the size of the smallest part, not to the
+		 * size of the track.
+		 */
+		private void splitAfterRemoval( final Integer id, final Spot source, final Spot target )
+		{
+			final ComponentSearch sourceSearch = new ComponentSearch( source );
+			final ComponentSearch targetSearch = new ComponentSearch( target );
+
+			final ComponentSearch small;
+			while ( true )
+			{
+				if ( !sourceSearch.step( targetSearch.visited ) )
 				{
-					final Spot source = graph.getEdgeSource( e );
-					// Get its connected set
-					final BreadthFirstIterator< Spot, DefaultWeightedEdge > i = new BreadthFirstIterator<>( graph, source );
-					while ( i.hasNext() )
-					{
-						final Spot sv = i.next();
-						sourceVCS.add( sv );
-						sourceECS.addAll( graph.edgesOf( sv ) );
-					}
+					// Source part complete. Is the target part larger?
+					final int size = sourceSearch.visited.size();
+					while ( targetSearch.visited.size() <= size && targetSearch.step( null ) )
+					{}
+					final boolean targetIsLarger = targetSearch.visited.size() > size;
+					small = targetIsLarger ? sourceSearch : targetSearch;
+					break;
 				}
-				// Target
-				final HashSet< Spot > targetVCS = new HashSet<>();
-				final HashSet< DefaultWeightedEdge > targetECS = new HashSet<>();
+				if ( sourceSearch.met )
 				{
-					final Spot target = graph.getEdgeTarget( e );
-					// Get its connected set
-					final BreadthFirstIterator< Spot, DefaultWeightedEdge > i = new BreadthFirstIterator<>( graph, target );
-					while ( i.hasNext() )
-					{
-						final Spot sv = i.next();
-						targetVCS.add( sv );
-						targetECS.addAll( graph.edgesOf( sv ) );
-					}
+					// Another path connects source and target: no split.
+					tracksUpdated.add( id );
+					return;
 				}
 
-				/*
-				 * If the two connected components are the same, it means that
-				 * the edge was an "internal" edge: Because there is another
-				 * path that connect its source and target, removing it did NOT
-				 * split the track in 2. We therefore need not to re-attribute
-				 * it.
-				 */
-				if ( targetVCS.equals( sourceVCS ) )
+				if ( !targetSearch.step( sourceSearch.visited ) )
+				{
+					// Target part complete. Ties go to the source.
+					final int size = targetSearch.visited.size();
+					while ( sourceSearch.visited.size() < size && sourceSearch.step( null ) )
+					{}
+					final boolean targetIsLarger = sourceSearch.visited.size() < size;
+					small = targetIsLarger ? sourceSearch : targetSearch;
+					break;
+				}
+				if ( targetSearch.met )
 				{
 					tracksUpdated.add( id );
-					connectedEdgeSets.get( id ).remove( e );
 					return;
 				}
+			}
 
+			/*
+			 * Detach the smallest part from the set. The largest part keeps
+			 * the id and its name. The vertices of the largest part already
+			 * have the right id in #vertexToId.
+			 */
+			final Set< Spot > vertexSet = connectedVertexSets.get( id );
+			final Set< DefaultWeightedEdge > edgeSet = connectedEdgeSets.get( id );
+			vertexSet.removeAll( small.visited );
+			final Set< DefaultWeightedEdge > smallEdges = small.edges();
+			edgeSet.removeAll( smallEdges );
+			tracksUpdated.add( id ); // old track has changed
+
+			if ( smallEdges.isEmpty() )
+			{
 				/*
-				 * Re-attribute the found connected sets to the model. The
-				 * largest one (in vertices) gets the original id, the other
-				 * gets a new id. As for names: the largest one keeps its name,
-				 * the small one gets a new name.
+				 * Nothing remains from the smallest part. The remaining
+				 * solitary vertex has no right to be called a track.
 				 */
+				for ( final Spot solitary : small.visited )
+					vertexToID.remove( solitary );
+				return;
+			}
 
-				if ( targetVCS.size() > sourceVCS.size() )
-				{
+			// The smaller part is still a track.
+			final int newid = IDcounter++;
+			connectedEdgeSets.put( newid, smallEdges );
+			for ( final DefaultWeightedEdge te : smallEdges )
+				edgeToID.put( te, newid );
 
-					connectedEdgeSets.put( id, targetECS );
-					connectedVertexSets.put( id, targetVCS ); // they already
-																// have the
-																// right id in
-																// #vertexToId
-					tracksUpdated.add( id ); // old track has changed
+			connectedVertexSets.put( newid, small.visited );
+			for ( final Spot v : small.visited )
+				vertexToID.put( v, newid );
 
-					if ( sourceECS.size() > 0 )
-					{
-						// the smaller part is still a track
-						final int newid = IDcounter++;
-						connectedEdgeSets.put( newid, sourceECS ); // otherwise
-																	// forget it
-						for ( final DefaultWeightedEdge te : sourceECS )
-							edgeToID.put( te, newid );
-
-						connectedVertexSets.put( newid, sourceVCS );
-						for ( final Spot tv : sourceVCS )
-							vertexToID.put( tv, newid );
-
-						final Boolean targetVisibility = visibility.get( id );
-						visibility.put( newid, targetVisibility );
-						names.put( newid, nameGenerator.next() );
-						// Transaction: both children tracks are marked for
-						// update.
-						tracksUpdated.add( newid );
+			final Boolean targetVisibility = visibility.get( id );
+			visibility.put( newid, targetVisibility );
+			names.put( newid, nameGenerator.next() );
+			invalidateTrackIDs();
+			// Transaction: both children tracks are marked for update.
+			tracksUpdated.add( newid );
 
-					}
-					else
-					{
-						/*
-						 * Nothing remains from the smallest part. The remaining
-						 * solitary vertex has no right to be called a track.
-						 */
-						final Spot solitary = sourceVCS.iterator().next();
-						vertexToID.remove( solitary );
-					}
+		}
+	}
 
-				}
-				else
-				{
+	/**
+	 * A snapshot of sorted track IDs, with the revision it was computed at.
+	 */
+	private static final class TrackIDs
+	{
 
-					if ( sourceECS.size() > 0 )
-					{
-						// There are still some pieces left. It is worth noting
-						// it.
-						connectedEdgeSets.put( id, sourceECS );
-						connectedVertexSets.put( id, sourceVCS );
-						tracksUpdated.add( id );
-
-						if ( targetECS.size() > 0 )
-						{
-							// the small part is still a track
-							final int newid = IDcounter++;
-							connectedEdgeSets.put( newid, targetECS );
-							for ( final DefaultWeightedEdge te : targetECS )
-								edgeToID.put( te, newid );
-
-							connectedVertexSets.put( newid, targetVCS );
-							for ( final Spot v : targetVCS )
-								vertexToID.put( v, newid );
-
-							final Boolean targetVisibility = visibility.get( id );
-							visibility.put( newid, targetVisibility );
-							names.put( newid, nameGenerator.next() );
-							// Transaction: both children tracks are marked for
-							// update.
-							tracksUpdated.add( newid );
-						}
-						else
-						{
-							/*
-							 * Nothing remains from the smallest part. The
-							 * remaining solitary vertex has no right to be
-							 * called a track.
-							 */
-							final Spot solitary = targetVCS.iterator().next();
-							vertexToID.remove( solitary );
-						}
+		private final int revision;
 
-					}
-					else
+		private final Set< Integer > ids;
+
+		private TrackIDs( final int revision, final Set< Integer > ids )
+		{
+			this.revision = revision;
+			this.ids = ids;
+		}
+	}
+
+	/**
+	 * A breadth-first search over the graph that can be advanced one vertex
+	 * at a time.
+	 */
+	private final class ComponentSearch
+	{
+
+		private final HashSet< Spot > visited = new HashSet<>();
+
+		private final ArrayDeque< Spot > queue = new ArrayDeque<>();
+
+		/**
+		 * Whether the last step reached a vertex of the stop set.
+		 */
+		private boolean met = false;
+
+		private ComponentSearch( final Spot start )
+		{
+			visited.add( start );
+			queue.add( start );
+		}
+
+		/**
+		 * Visits the neighbors of the next vertex in the queue.
+		 *
+		 * @param stopSet
+		 *            if not <code>null</code>, the step sets {@link #met} and
+		 *            stops as soon as it reaches a vertex of this set.
+		 * @return <code>false</code> if the search was already exhausted.
+		 */
+		private boolean step( final Set< Spot > stopSet )
+		{
+			final Spot v = queue.poll();
+			if ( null == v )
+				return false;
+
+			for ( final DefaultWeightedEdge edge : graph.edgesOf( v ) )
+			{
+				final Spot other = Graphs.getOppositeVertex( graph, edge, v );
+				if ( visited.add( other ) )
+				{
+					queue.add( other );
+					if ( null != stopSet && stopSet.contains( other ) )
 					{
-						// Nothing remains (maybe a solitary vertex) -> forget
-						// about it all.
-						connectedEdgeSets.remove( id );
-						connectedVertexSets.remove( id );
-						names.remove( id );
-						visibility.remove( id );
-						tracksUpdated.remove( id );
+						met = true;
+						return true;
 					}
-
 				}
 			}
+			return true;
 		}
 
+		private HashSet< DefaultWeightedEdge > edges()
+		{
+			final HashSet< DefaultWeightedEdge > edges = new HashSet<>();
+			for ( final Spot v : visited )
+				edges.addAll( graph.edgesOf( v ) );
+			return edges;
+		}
 	}
 
 	private static class DefaultNameGenerator implements Iterator< String >
@@ -30,21 +30,22 @@ import java.io.OutputStreamWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.function.Function;
 
-import org.jgrapht.Graphs;
-import org.jgrapht.graph.DefaultEdge;
-import org.jgrapht.graph.DefaultWeightedEdge;
-import org.jgrapht.graph.SimpleDirectedGraph;
-import org.jgrapht.traverse.BreadthFirstIterator;
-
 import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Settings;
@@ -53,12 +54,11 @@ import fiji.plugin.trackmate.SpotCollection;
 import fiji.plugin.trackmate.TrackMate;
 import fiji.plugin.trackmate.TrackModel;
 import fiji.plugin.trackmate.action.LabelImgExporter.SpotRoiWriter;
-import fiji.plugin.trackmate.graph.ConvexBranchesDecomposition;
-import fiji.plugin.trackmate.graph.ConvexBranchesDecomposition.TrackBranchDecomposition;
 import fiji.plugin.trackmate.graph.GraphUtils;
 import fiji.plugin.trackmate.graph.TimeDirectedNeighborIndex;
 import fiji.plugin.trackmate.io.TmXmlWriter;
 import fiji.plugin.trackmate.util.TMUtils;
+import fiji.plugin.trackmate.util.Threads;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.plugin.Duplicator;
@@ -286,87 +286,78 @@ public class CTCExporter
 	 */
 	public static void exportSegmentationData( final String exportRootFolder, final int saveId, final ExportType exportType, final TrackMate trackmate, final Logger logger ) throws IOException
 	{
-		// Create image holder to write labels in.
-		final ImagePlus imp = trackmate.getSettings().imp;
-		final long[] dims;
-		if ( imp != null )
-		{
-			final int[] dimensions = imp.getDimensions();
-			dims = new long[] { dimensions[ 0 ], dimensions[ 1 ], dimensions[ 3 ], dimensions[ 4 ] };
-		}
-		else
-		{
-			final Settings s = trackmate.getSettings();
-			dims = new long[] { s.width, s.height, s.nslices, s.nframes };
-		}
-		final double[] calibration = new double[] {
-				imp.getCalibration().pixelWidth,
-				imp.getCalibration().pixelHeight,
-				imp.getCalibration().pixelDepth,
-				imp.getCalibration().frameInterval
-		};
-		final ImgPlus< UnsignedShortType > labelImg = createLabelImg( dims, calibration );
-
-		// Write labels in.
+		final FrameBuffers buffers = new FrameBuffers( trackmate.getSettings(), Math.max( 1, trackmate.getNumThreads() ) );
 		final Model model = trackmate.getModel();
-		final AtomicInteger idGen = new AtomicInteger( 1 );
-		final Set< Integer > framesToWrite = new HashSet<>();
-		for ( int frame = 0; frame < dims[ 3 ]; frame++ )
-		{
-			final ImgPlus< UnsignedShortType > imgCT = TMUtils.hyperSlice( labelImg, 0, frame );
-			final SpotRoiWriter spotWriter = new SpotRoiWriter( imgCT );
-
-			for ( final Spot spot : model.getSpots().iterable( frame, true ) )
-			{
-				if ( spot.getRoi() == null )
-					continue;
-				final int id = idGen.getAndIncrement();
-				spotWriter.write( spot, id );
-				framesToWrite.add( Integer.valueOf( frame ) );
-			}
-		}
 
 		/*
-		 * Now export the label image.
+		 * Labels are numbered across the movie, in frame order. Compute the
+		 * first label of each frame so that frames can be processed
+		 * independently.
 		 */
+		final int nFrames = ( int ) buffers.nFrames;
+		final int[] firstLabels = new int[ nFrames ];
+		int nLabels = 1;
+		for ( int frame = 0; frame < nFrames; frame++ )
+		{
+			firstLabels[ frame ] = nLabels;
+			for ( final Spot spot : model.getSpots().iterable( frame, true ) )
+				if ( spot.getRoi() != null )
+					nLabels++;
+		}
 
 		final Path path = Paths.get( exportRootFolder, nameGen.apply( saveId ) + exportType.suffix(), "SEG" );
 		Files.createDirectories( path );
 		logger.log( "Exporting segmentation mask files to " + path.toString() );
 
-		final int nFrames = imp.getNFrames();
-		final Function< Long, String > tifNameGen = nFrames > 999
+		final Function< Long, String > tifNameGen = trackmate.getSettings().imp.getNFrames() > 999
 				? i -> String.format( "man_seg%04d.tif", i )
 				: i -> String.format( "man_seg%03d.tif", i );
-				
+
 		// Only save frames with spots in.
-		for ( final int frame : framesToWrite )
+		final ExecutorService executor = Threads.newIOExecutor();
+		final List< Future< ? > > futures = new ArrayList<>();
+		for ( int f = 0; f < nFrames; f++ )
 		{
-			final ImgPlus< UnsignedShortType > imgCT = TMUtils.hyperSlice( labelImg, 0, frame );
-			final String name = tifNameGen.apply( ( long ) frame );
-			final ImagePlus tp = ImageJFunctions.wrapUnsignedShort( imgCT, name );
+			final int frame = f;
+			final int nextFirstLabel = ( frame + 1 < nFrames ) ? firstLabels[ frame + 1 ] : nLabels;
+			if ( firstLabels[ frame ] == nextFirstLabel )
+				continue;
+
+			final ImgPlus< UnsignedShortType > buffer = buffers.acquire( executor );
+			futures.add( executor.submit( () -> {
+				try
+				{
+					final ImgPlus< UnsignedShortType > imgCT = TMUtils.hyperSlice( buffer, 0, 0 );
+					final SpotRoiWriter spotWriter = new SpotRoiWriter( imgCT );
+					int id = firstLabels[ frame ];
+					for ( final Spot spot : model.getSpots().iterable( frame, true ) )
+					{
+						if ( spot.getRoi() == null )
+							continue;
+						spotWriter.write( spot, id++ );
+					}
 
-			final Path pathTif = Paths.get( exportRootFolder, nameGen.apply( saveId ) + exportType.suffix(), "SEG", name );
-			IJ.saveAsTiff( tp, pathTif.toString() );
+					final String name = tifNameGen.apply( ( long ) frame );
+					final ImagePlus tp = ImageJFunctions.wrapUnsignedShort( imgCT, name );
+					IJ.saveAsTiff( tp, path.resolve( name ).toString() );
+				}
+				finally
+				{
+					buffers.release( buffer );
+				}
+				return null;
+			} ) );
 		}
+		awaitAll( futures, executor );
 		logger.log( ". Done.\n" );
 	}
 
 	public static String exportTrackingData( final String exportRootFolder, final int saveId, final ExportType exportType, final TrackMate trackmate, final Logger logger ) throws FileNotFoundException, IOException
 	{
-		/*
-		 * Check for future consistency errors. It is possible that 2 spots are
-		 * so close than the mask of one completely erase the other. This will
-		 * trigger an error in the CTC metrics calculation so we have to protect
-		 * ourselves from it. This solution consists in check whether that is
-		 * the case, and if yes, removing the erased spot from the smallest
-		 * track.
-		 */
-		final Model model2 = sanitizeAndCopy( trackmate.getModel() );
-
-		// What we need to decompose tracks in branches.
-		final TrackModel trackModel = model2.getTrackModel();
-		final TimeDirectedNeighborIndex neighborIndex = model2.getTrackModel().getDirectedNeighborIndex();
+		final Model model = trackmate.getModel();
+		final TrackModel trackModel = model.getTrackModel();
+		final TimeDirectedNeighborIndex neighborIndex = trackModel.getDirectedNeighborIndex();
+		final int numThreads = Math.max( 1, trackmate.getNumThreads() );
 
 		// Sanity check.
 		if ( !GraphUtils.isTree( trackModel, neighborIndex ) )
@@ -376,34 +367,26 @@ public class CTCExporter
 			return null;
 		}
 
-		// Create image holder to write labels in.
-		final ImagePlus imp = trackmate.getSettings().imp;
-		final long[] dims;
-		if ( imp != null )
-		{
-			final int[] dimensions = imp.getDimensions();
-			dims = new long[] { dimensions[ 0 ], dimensions[ 1 ], dimensions[ 3 ], dimensions[ 4 ] };
-		}
-		else
-		{
-			final Settings s = trackmate.getSettings();
-			dims = new long[] { s.width, s.height, s.nslices, s.nframes };
-		}
-		final double[] calibration = new double[] {
-				imp.getCalibration().pixelWidth,
-				imp.getCalibration().pixelHeight,
-				imp.getCalibration().pixelDepth,
-				imp.getCalibration().frameInterval
-		};
-		final ImgPlus< UnsignedShortType > labelImg = createLabelImg( dims, calibration );
-
-		// Configure the convex branch decomposition.
-		final boolean forbidMiddleLinks = true;
-		final boolean forbidGaps = true;
-		final AtomicInteger branchIDGen = new AtomicInteger( 1 );
-
-		// Map of vertex to their ID in the file. Initially empty.
-		final Map< List< Spot >, Integer > branchID = new HashMap<>();
+		/*
+		 * Check for future consistency errors. It is possible that 2 spots are
+		 * so close than the mask of one completely erase the other. This will
+		 * trigger an error in the CTC metrics calculation so we have to protect
+		 * ourselves from it. This solution consists in check whether that is
+		 * the case, and if yes, skipping the erased spot of the smallest track
+		 * and linking its neighbors directly.
+		 */
+		final Set< Spot > erased = findErasedSpots( model, numThreads );
+
+		/*
+		 * Text file. Tracks are decomposed in branches where spots follow each
+		 * other frame after frame without splitting, as in a convex branch
+		 * decomposition forbidding middle links and gaps. Branches are numbered
+		 * in breadth-first order and written as they are found.
+		 */
+
+		// Label of each exported spot.
+		final Map< Spot, Integer > labels = new HashMap<>();
+		int nextLabel = 1;
 
 		final Path path = exportType.getTrackTextFilePath( exportRootFolder, saveId );
 		Files.createDirectories( path.getParent() );
@@ -412,65 +395,53 @@ public class CTCExporter
 		try (FileOutputStream fos = new FileOutputStream( path.toFile() );
 				BufferedWriter bw = new BufferedWriter( new OutputStreamWriter( fos ) ))
 		{
-
+			final List< Spot > neighbors = new ArrayList<>();
 			for ( final Integer trackID : trackModel.trackIDs( true ) )
 			{
-				// Decompose the track.
-				final TrackBranchDecomposition decomposition = ConvexBranchesDecomposition.processTrack( trackID, trackModel, neighborIndex, forbidMiddleLinks, forbidGaps );
-				final SimpleDirectedGraph< List< Spot >, DefaultEdge > branchGraph = ConvexBranchesDecomposition.buildBranchGraph( decomposition );
-
-				// Find the first branch (the one with no parent).
-				List< Spot > start = null;
-				for ( final List< Spot > vertex : branchGraph.vertexSet() )
+				// Find the first spot of the track (no parent).
+				final List< Spot > roots = new ArrayList<>();
+				for ( final Spot spot : trackModel.trackSpots( trackID ) )
 				{
-					if ( branchGraph.incomingEdgesOf( vertex ).isEmpty() )
-					{
-						start = vertex;
-						break;
-					}
+					if ( erased.contains( spot ) )
+						continue;
+					predecessorsOf( spot, neighborIndex, erased, neighbors );
+					if ( neighbors.isEmpty() )
+						roots.add( spot );
 				}
+				roots.sort( Spot.frameComparator );
 
-				// Iterate from the start.
-				final BreadthFirstIterator< List< Spot >, DefaultEdge > bfi = new BreadthFirstIterator<>( branchGraph, start );
-				while ( bfi.hasNext() )
-				{
-					final List< Spot > current = bfi.next();
-					final int currentID = branchIDGen.getAndIncrement();
-					branchID.put( current, Integer.valueOf( currentID ) );
-
-					/*
-					 * Write spot label into output image.
-					 */
-
-					for ( final Spot spot : current )
-					{
-						final long frame = spot.getFeature( Spot.FRAME ).longValue();
-						final ImgPlus< UnsignedShortType > imgCT = TMUtils.hyperSlice( labelImg, 0, frame );
-						final SpotRoiWriter spotRoiWriter = new SpotRoiWriter( imgCT );
-						spotRoiWriter.write( spot, currentID );
-					}
+				// Start spots of branches to visit, with the label of their parent.
+				final ArrayDeque< Spot > starts = new ArrayDeque<>( roots );
+				final ArrayDeque< Integer > parents = new ArrayDeque<>();
+				for ( int i = 0; i < roots.size(); i++ )
+					parents.add( Integer.valueOf( 0 ) );
 
-					/*
-					 * Text file.
-					 */
-
-					// Get parent ID, if any.
-					int parentID;
-					if ( branchGraph.incomingEdgesOf( current ).isEmpty() )
+				while ( !starts.isEmpty() )
+				{
+					final Spot start = starts.poll();
+					final int parentID = parents.poll().intValue();
+					final int currentID = nextLabel++;
+					final Integer label = Integer.valueOf( currentID );
+
+					// Walk the branch.
+					Spot current = start;
+					while ( true )
 					{
-						parentID = 0;
+						labels.put( current, label );
+						successorsOf( current, neighborIndex, erased, neighbors );
+						if ( neighbors.size() != 1 || Math.abs( neighbors.get( 0 ).diffTo( current, Spot.FRAME ) ) > 1 )
+							break;
+						current = neighbors.get( 0 );
 					}
-					else
+					for ( final Spot child : neighbors )
 					{
-						final DefaultEdge edge = branchGraph.incomingEdgesOf( current ).iterator().next();
-						final List< Spot > parent = Graphs.getOppositeVertex( branchGraph, edge, current );
-						final Integer obj = branchID.get( parent );
-						parentID = ( obj == null ) ? 0 : obj.intValue();
+						starts.add( child );
+						parents.add( label );
 					}
 
 					// Start and finish frame.
-					final int startFrame = current.get( 0 ).getFeature( Spot.FRAME ).intValue();
-					final int endFrame = current.get( current.size() - 1 ).getFeature( Spot.FRAME ).intValue();
+					final int startFrame = start.getFeature( Spot.FRAME ).intValue();
+					final int endFrame = current.getFeature( Spot.FRAME ).intValue();
 
 					// Write it down.
 					final int L = currentID; // track label
@@ -485,21 +456,48 @@ public class CTCExporter
 		logger.log( ". Done.\n" );
 
 		/*
-		 * Now export the label image.
+		 * Now export the label image, one frame at a time.
 		 */
 
-		final int nFrames = imp.getNFrames();
+		final FrameBuffers buffers = new FrameBuffers( trackmate.getSettings(), numThreads );
+		final int nFrames = trackmate.getSettings().imp.getNFrames();
 		final Path pathTif0 = exportType.getTrackTifFilePath( exportRootFolder, saveId, 0, nFrames );
 		logger.log( "Exporting tracking mask files to " + pathTif0.getParent().toString() );
 
-		for ( long frame = 0; frame < dims[ 3 ]; frame++ )
+		final ExecutorService executor = Threads.newIOExecutor();
+		final List< Future< ? > > futures = new ArrayList<>();
+		for ( long f = 0; f < buffers.nFrames; f++ )
 		{
-			final ImgPlus< UnsignedShortType > imgCT = TMUtils.hyperSlice( labelImg, 0, frame );
-			final Path pathTif = exportType.getTrackTifFilePath( exportRootFolder, saveId, frame, nFrames );
-			final String name = pathTif.getFileName().toString();
-			final ImagePlus tp = ImageJFunctions.wrapUnsignedShort( imgCT, name );
-			IJ.saveAsTiff( tp, pathTif.toString() );
+			final long frame = f;
+			final ImgPlus< UnsignedShortType > buffer = buffers.acquire( executor );
+			futures.add( executor.submit( () -> {
+				try
+				{
+					// Write spots in label order, as branches were found.
+					final List< Spot > spots = new ArrayList<>();
+					for ( final Spot spot : model.getSpots().iterable( ( int ) frame, false ) )
+						if ( labels.containsKey( spot ) )
+							spots.add( spot );
+					spots.sort( Comparator.comparingInt( spot -> labels.get( spot ).intValue() ) );
+
+					final ImgPlus< UnsignedShortType > imgCT = TMUtils.hyperSlice( buffer, 0, 0 );
+					final SpotRoiWriter spotRoiWriter = new SpotRoiWriter( imgCT );
+					for ( final Spot spot : spots )
+						spotRoiWriter.write( spot, labels.get( spot ).intValue() );
+
+					final Path pathTif = exportType.getTrackTifFilePath( exportRootFolder, saveId, frame, nFrames );
+					final String name = pathTif.getFileName().toString();
+					final ImagePlus tp = ImageJFunctions.wrapUnsignedShort( imgCT, name );
+					IJ.saveAsTiff( tp, pathTif.toString() );
+				}
+				finally
+				{
+					buffers.release( buffer );
+				}
+				return null;
+			} ) );
 		}
+		awaitAll( futures, executor );
 		logger.log( ". Done.\n" );
 
 		// Return the results folder.
@@ -531,103 +529,231 @@ public class CTCExporter
 	 * <p>
 	 * It is possible that 2 spots are so close than the mask of one completely
 	 * erase the other. This will trigger an error in the CTC metrics
-	 * calculation so we have to protect ourselves from it. This solution
-	 * consists in check whether that is the case, and if yes, removing the
-	 * erased spot from the smallest track.
+	 * calculation so we have to protect ourselves from it. This method finds
+	 * the spots for which this is the case, picking in each pair the spot of
+	 * the smallest track. The model is not modified.
 	 * <p>
 	 * This fix is approximate: the calculus for complete overlap assume the
 	 * spots are spherical with a fudge factor.
+	 *
+	 * @return the spots to skip in the export.
 	 */
-	private static final Model sanitizeAndCopy( final Model model )
+	private static final Set< Spot > findErasedSpots( final Model model, final int numThreads ) throws IOException
 	{
 		final double fudgeFactor = 1.2; // 20%
-		final Model copy = model.copy();
+		final SpotCollection allSpots = model.getSpots();
+		final TrackModel trackModel = model.getTrackModel();
 
-		final SpotCollection allSpots = copy.getSpots();
-		final TrackModel trackModel = copy.getTrackModel();
+		// Frames are independent.
+		final Set< Spot > erased = ConcurrentHashMap.newKeySet();
+		final ExecutorService executor = Threads.newFixedThreadPool( numThreads );
+		final List< Future< ? > > futures = new ArrayList<>();
 		for ( final Integer frame : allSpots.keySet() )
 		{
-			final List< Spot > spots = new ArrayList<>();
-			allSpots.iterable( frame, true ).forEach( spots::add );
-			final int nSpots = spots.size();
-			for ( int i = 0; i < nSpots; i++ )
-			{
-				final Spot s1 = spots.get( i );
-				final double r1 = s1.getFeature( Spot.RADIUS ).doubleValue();
-				for ( int j = i + 1; j < nSpots; j++ )
+			futures.add( executor.submit( () -> {
+				final List< Spot > spots = new ArrayList<>();
+				allSpots.iterable( frame, true ).forEach( spots::add );
+				final int nSpots = spots.size();
+				final double[] radius = new double[ nSpots ];
+				double maxRadius = 0.;
+				for ( int i = 0; i < nSpots; i++ )
+				{
+					radius[ i ] = spots.get( i ).getFeature( Spot.RADIUS ).doubleValue();
+					maxRadius = Math.max( maxRadius, radius[ i ] );
+				}
+
+				/*
+				 * Two spots can only erase each other if they are closer than
+				 * fudgeFactor x maxRadius. Sweep over the spots sorted by X to
+				 * only test these pairs.
+				 */
+				final Integer[] order = new Integer[ nSpots ];
+				for ( int i = 0; i < nSpots; i++ )
+					order[ i ] = Integer.valueOf( i );
+				Arrays.sort( order, Comparator.comparingDouble( i -> spots.get( i ).getDoublePosition( 0 ) ) );
+				final double maxDistance = fudgeFactor * maxRadius;
+
+				for ( int a = 0; a < nSpots; a++ )
 				{
-					final Spot s2 = spots.get( j );
-					final double r2 = s2.getFeature( Spot.RADIUS ).doubleValue();
-					final double d = Math.sqrt( s1.squareDistanceTo( s2 ) );
-					
-					if ( fudgeFactor * r1 > ( d + r2 ) || fudgeFactor * r2 > ( d + r1 ) )
+					final int ia = order[ a ].intValue();
+					final double xa = spots.get( ia ).getDoublePosition( 0 );
+					for ( int b = a + 1; b < nSpots; b++ )
 					{
-						// They overlap too much. We must fix this.
-						final Integer id1 = trackModel.trackIDOf( s1 );
-						final Set< Spot > track1 = trackModel.trackSpots( id1 );
-						if ( track1 == null )
+						final int ib = order[ b ].intValue();
+						if ( spots.get( ib ).getDoublePosition( 0 ) - xa > maxDistance )
+							break;
+
+						// Keep the order of the spots in the frame for ties.
+						final int i = Math.min( ia, ib );
+						final int j = Math.max( ia, ib );
+						final Spot s1 = spots.get( i );
+						final Spot s2 = spots.get( j );
+						final double r1 = radius[ i ];
+						final double r2 = radius[ j ];
+						final double d = Math.sqrt( s1.squareDistanceTo( s2 ) );
+
+						if ( fudgeFactor * r1 > ( d + r2 ) || fudgeFactor * r2 > ( d + r1 ) )
 						{
-							try
+							// They overlap too much. We must fix this.
+							final Integer id1 = trackModel.trackIDOf( s1 );
+							final Set< Spot > track1 = ( id1 == null ) ? null : trackModel.trackSpots( id1 );
+							if ( track1 == null )
 							{
-								model.removeSpot( s1 );
+								erased.add( s1 );
+								continue;
 							}
-							finally
-							{
-								model.endUpdate();
-							}
-							continue;
-						}
-						final int n1 = track1.size();
+							final int n1 = track1.size();
 
-						final Integer id2 = trackModel.trackIDOf( s2 );
-						final Set< Spot > track2 = trackModel.trackSpots( id2 );
-						if ( track2 == null )
-						{
-							try
+							final Integer id2 = trackModel.trackIDOf( s2 );
+							final Set< Spot > track2 = ( id2 == null ) ? null : trackModel.trackSpots( id2 );
+							if ( track2 == null )
 							{
-								model.removeSpot( s2 );
+								erased.add( s2 );
+								continue;
 							}
-							finally
-							{
-								model.endUpdate();
-							}
-							continue;
-						}
-						final int n2 = track2.size();
+							final int n2 = track2.size();
 
-						final Spot toRemove = ( n2 > n1 ) ? s1 : s2;
-
-						// To mend the edges later.
-						final List< Spot > sources = new ArrayList<>();
-						final List< Spot > targets = new ArrayList<>();
-						final Set< DefaultWeightedEdge > edges = trackModel.edgesOf( toRemove );
-						for ( final DefaultWeightedEdge edge : edges )
-						{
-							final Spot source = trackModel.getEdgeSource( edge );
-							if ( source == toRemove )
-								targets.add( trackModel.getEdgeTarget( edge ) );
-							else
-								sources.add( trackModel.getEdgeSource( edge ) );
-						}
-						
-						model.beginUpdate();
-						try
-						{
-							for ( final Spot source : sources )
-								for ( final Spot target : targets )
-									model.addEdge( source, target, -1. );
-
-							model.removeSpot( toRemove );
-						}
-						finally
-						{
-							model.endUpdate();
+							erased.add( ( n2 > n1 ) ? s1 : s2 );
 						}
 					}
 				}
+				return null;
+			} ) );
+		}
+		awaitAll( futures, executor );
+		return erased;
+	}
+
+	/**
+	 * Collects the successors of a spot, skipping erased spots: the successors
+	 * of an erased spot are taken instead.
+	 */
+	private static void successorsOf( final Spot spot, final TimeDirectedNeighborIndex neighborIndex, final Set< Spot > erased, final List< Spot > out )
+	{
+		out.clear();
+		final ArrayDeque< Spot > toVisit = new ArrayDeque<>( neighborIndex.successorsOf( spot ) );
+		while ( !toVisit.isEmpty() )
+		{
+			final Spot next = toVisit.poll();
+			if ( erased.contains( next ) )
+				toVisit.addAll( neighborIndex.successorsOf( next ) );
+			else
+				out.add( next );
+		}
+	}
+
+	/**
+	 * Collects the predecessors of a spot, skipping erased spots.
+	 */
+	private static void predecessorsOf( final Spot spot, final TimeDirectedNeighborIndex neighborIndex, final Set< Spot > erased, final List< Spot > out )
+	{
+		out.clear();
+		final ArrayDeque< Spot > toVisit = new ArrayDeque<>( neighborIndex.predecessorsOf( spot ) );
+		while ( !toVisit.isEmpty() )
+		{
+			final Spot previous = toVisit.poll();
+			if ( erased.contains( previous ) )
+				toVisit.addAll( neighborIndex.predecessorsOf( previous ) );
+			else
+				out.add( previous );
+		}
+	}
+
+	/**
+	 * Waits for the specified tasks and shuts down their executor.
+	 */
+	private static void awaitAll( final List< Future< ? > > futures, final ExecutorService executor ) throws IOException
+	{
+		try
+		{
+			for ( final Future< ? > future : futures )
+				future.get();
+		}
+		catch ( final InterruptedException | ExecutionException e )
+		{
+			throw new IOException( "Problem during CTC export: " + e.getMessage(), e );
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Label images of a single frame, reused from one frame to the next. The
+	 * frames are written by an I/O executor that does not bound the number of
+	 * running tasks, so the buffers do: a frame task is only submitted once a
+	 * buffer is available, and releases it when the frame is saved.
+	 */
+	private static final class FrameBuffers
+	{
+
+		private final long[] dims;
+
+		private final double[] calibration;
+
+		private final long nFrames;
+
+		private final ConcurrentLinkedQueue< ImgPlus< UnsignedShortType > > pool = new ConcurrentLinkedQueue<>();
+
+		private final Semaphore available;
+
+		private FrameBuffers( final Settings settings, final int maxBuffers )
+		{
+			this.available = new Semaphore( maxBuffers );
+			final ImagePlus imp = settings.imp;
+			if ( imp != null )
+			{
+				final int[] dimensions = imp.getDimensions();
+				this.dims = new long[] { dimensions[ 0 ], dimensions[ 1 ], dimensions[ 3 ], 1 };
+				this.nFrames = dimensions[ 4 ];
+			}
+			else
+			{
+				this.dims = new long[] { settings.width, settings.height, settings.nslices, 1 };
+				this.nFrames = settings.nframes;
 			}
+			this.calibration = new double[] {
+					imp.getCalibration().pixelWidth,
+					imp.getCalibration().pixelHeight,
+					imp.getCalibration().pixelDepth,
+					imp.getCalibration().frameInterval
+			};
+		}
+
+		/**
+		 * Returns an empty label image for one frame, waiting for one to be
+		 * released if needed. If interrupted, shuts down the specified
+		 * executor and throws an {@link IOException}.
+		 */
+		private ImgPlus< UnsignedShortType > acquire( final ExecutorService executor ) throws IOException
+		{
+			try
+			{
+				available.acquire();
+			}
+			catch ( final InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+				executor.shutdownNow();
+				throw new IOException( "Interrupted during CTC export.", e );
+			}
+			final ImgPlus< UnsignedShortType > buffer = pool.poll();
+			if ( buffer == null )
+				return createLabelImg( dims, calibration );
+			return buffer;
+		}
+
+		/**
+		 * Clears the specified buffer and makes it available again.
+		 */
+		private void release( final ImgPlus< UnsignedShortType > buffer )
+		{
+			for ( final UnsignedShortType pixel : buffer )
+				pixel.setZero();
+			pool.offer( buffer );
+			available.release();
 		}
-		return copy;
 	}
 
 	/**
@@ -22,9 +22,13 @@
 package fiji.plugin.trackmate.action.closegaps;
 
 import java.io.File;
-import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 
@@ -36,15 +40,24 @@ import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.TrackMate;
 import fiji.plugin.trackmate.TrackModel;
 import fiji.plugin.trackmate.detection.DetectorKeys;
+import fiji.plugin.trackmate.detection.ManualDetectorFactory;
+import fiji.plugin.trackmate.detection.SpotDetector;
+import fiji.plugin.trackmate.detection.SpotDetectorFactory;
+import fiji.plugin.trackmate.detection.SpotDetectorFactoryBase;
 import fiji.plugin.trackmate.features.track.TrackIndexAnalyzer;
 import fiji.plugin.trackmate.gui.displaysettings.DisplaySettings;
 import fiji.plugin.trackmate.gui.displaysettings.DisplaySettings.TrackMateObject;
 import fiji.plugin.trackmate.gui.displaysettings.DisplaySettingsIO;
 import fiji.plugin.trackmate.io.TmXmlReader;
+import fiji.plugin.trackmate.util.TMUtils;
+import fiji.plugin.trackmate.util.Threads;
 import fiji.plugin.trackmate.visualization.hyperstack.HyperStackDisplayer;
 import fiji.plugin.trackmate.visualization.trackscheme.TrackScheme;
 import ij.ImageJ;
 import ij.ImagePlus;
+import net.imagej.ImgPlus;
+import net.imglib2.Interval;
+import net.imglib2.algorithm.MultiThreaded;
 import net.imglib2.util.Util;
 
 /**
@@ -88,54 +101,88 @@ public class CloseGapsByDetection implements GapClosingMethod
 		return Collections.singletonList( radiusFactor );
 	}
 
+	/**
+	 * Closes the gaps in rounds. In each round, the detection is executed
+	 * around the next interpolated spot of every gap still open, in parallel
+	 * and grouped by frame. The results are then applied to the model in a
+	 * single pass, and gaps that are still open, or new shorter gaps, go to
+	 * the next round. Each gap is processed exactly as if it was closed on its
+	 * own: interpolated spots are tried in time order, and once a spot is
+	 * found the remaining gap is re-interpolated from it.
+	 */
 	@Override
 	public void execute( final TrackMate trackmate, final Logger logger )
 	{
 		final Model model = trackmate.getModel();
 		final TrackModel trackModel = model.getTrackModel();
 
-		// Copy settings & make a new TrackMate.
+		final LocalDetector detector = createDetector( trackmate.getSettings(), radiusFactor.value, trackmate.getNumThreads(), logger );
+		if ( detector == null )
+			return;
 
+		final ExecutorService executor = Threads.newFixedThreadPool( detector.parallelism );
 		model.beginUpdate();
 		try
 		{
-			final ArrayDeque< DefaultWeightedEdge > gaps = new ArrayDeque<>( GapClosingMethod.getAllGaps( model ) );
+			List< PendingGap > pending = new ArrayList<>();
+			for ( final DefaultWeightedEdge gap : GapClosingMethod.getAllGaps( model ) )
+				pending.add( new PendingGap( gap, GapClosingMethod.interpolate( model, gap ) ) );
 
 			int progress = 0;
-			final int nTasks = GapClosingMethod.countMissingSpots( gaps, model );
+			int nTasks = 0;
+			for ( final PendingGap p : pending )
+				nTasks += p.spots.size();
 
-			while ( !gaps.isEmpty() )
+			while ( !pending.isEmpty() )
 			{
-				final DefaultWeightedEdge gap = gaps.poll();
+				// Detect around the next spot of each gap, grouped by frame.
+				pending.sort( Comparator.comparingInt( p -> p.current().getFeature( Spot.FRAME ).intValue() ) );
+				final List< Future< LocalDetection > > futures = new ArrayList<>( pending.size() );
+				for ( final PendingGap p : pending )
+				{
+					final Spot spot = p.current();
+					futures.add( executor.submit( () -> detector.detect( spot ) ) );
+				}
 
-				// Interpolate position.
-				final List< Spot > spots = GapClosingMethod.interpolate( model, gap );
-				final Spot source = trackModel.getEdgeSource( gap );
-				for ( final Spot spot : spots )
+				// Apply results.
+				final List< PendingGap > next = new ArrayList<>();
+				for ( int i = 0; i < pending.size(); i++ )
 				{
 					logger.setProgress( ( double ) ( progress++ ) / nTasks );
 
+					final PendingGap p = pending.get( i );
+					final DefaultWeightedEdge gap = p.gap;
+					final Spot spot = p.current();
+					final Spot source = trackModel.getEdgeSource( gap );
 					final int t = spot.getFeature( Spot.FRAME ).intValue();
 
-					// Re-execute detection.
-					final Settings settings = GapClosingMethod.makeSettingsForRoiAround(
-							spot,
-							radiusFactor.value,
-							trackmate.getSettings() );
-					final TrackMate localTM = new TrackMate( settings );
-					localTM.getModel().setLogger( Logger.VOID_LOGGER );
-					localTM.setNumThreads( trackmate.getNumThreads() );
-					if ( !localTM.execDetection() )
+					LocalDetection detection;
+					try
+					{
+						detection = futures.get( i ).get();
+					}
+					catch ( final InterruptedException e )
+					{
+						Thread.currentThread().interrupt();
+						detection = new LocalDetection( null, e.getMessage() );
+					}
+					catch ( final ExecutionException e )
+					{
+						detection = new LocalDetection( null, e.getMessage() );
+					}
+					if ( detection.spots == null )
 					{
 						logger.error( "Error detecting spots around position " + Util.printCoordinates( source )
 								+ " at frame " + t + ":\n"
-								+ localTM.getErrorMessage() );
+								+ detection.errorMessage );
+						if ( p.advance() )
+							next.add( p );
 						continue;
 					}
 
 					// Did we find something?
 					Spot candidate = null;
-					for ( final Spot s : localTM.getModel().getSpots().iterable( t, false ) )
+					for ( final Spot s : detection.spots )
 					{
 						if ( candidate == null || s.diffTo( candidate, Spot.QUALITY ) > 0 )
 							candidate = s;
@@ -144,6 +191,8 @@ public class CloseGapsByDetection implements GapClosingMethod
 					{
 						logger.log( "Could not find a suitable spot around position " + Util.printCoordinates( spot )
 								+ " at frame " + t + ".\n" );
+						if ( p.advance() )
+							next.add( p );
 						continue;
 					}
 
@@ -159,24 +208,214 @@ public class CloseGapsByDetection implements GapClosingMethod
 
 					// Remove old edge.
 					model.removeEdge( gap );
-					
+
 					// Should we re-add the new edges?
 					if ( GapClosingMethod.countMissingSpots( sourceCandidateEdge, model ) > 1 )
-						gaps.push( sourceCandidateEdge );
+						next.add( new PendingGap( sourceCandidateEdge, GapClosingMethod.interpolate( model, sourceCandidateEdge ) ) );
 					if ( GapClosingMethod.countMissingSpots( candidateTargetEdge, model ) > 1 )
-						gaps.push( candidateTargetEdge );
-
-					// Reiterate.
-					break;
+						next.add( new PendingGap( candidateTargetEdge, GapClosingMethod.interpolate( model, candidateTargetEdge ) ) );
 				}
+				pending = next;
 			}
 		}
 		finally
 		{
+			executor.shutdown();
 			model.endUpdate();
 		}
 	}
 
+	/**
+	 * Returns the detector to use around interpolated spots. For frame-by-frame
+	 * detectors, the detector factory is configured once on the whole image
+	 * and asked for a detector on each small region. Other detectors go
+	 * through a full {@link TrackMate} detection on a restricted
+	 * {@link Settings}.
+	 *
+	 * @return a new detector, or <code>null</code> if the detector factory
+	 *         could not be configured. The error is then logged.
+	 */
+	@SuppressWarnings( { "rawtypes", "unchecked" } )
+	private static LocalDetector createDetector( final Settings settings, final double radiusFactor, final int numThreads, final Logger logger )
+	{
+		final SpotDetectorFactoryBase< ? > factory = settings.detectorFactory;
+		// Same allocation as in TrackMate: regions or threads.
+		final int parallelism = ( factory == null || factory.forbidMultithreading() ) ? 1 : Math.max( 1, numThreads );
+		final int threadsPerDetection = Math.max( 1, numThreads / parallelism );
+
+		if ( !( factory instanceof SpotDetectorFactory ) || factory instanceof ManualDetectorFactory || null == settings.detectorSettings )
+			return new TrackMateDetector( settings, radiusFactor, parallelism, threadsPerDetection );
+
+		final SpotDetectorFactory localFactory = ( SpotDetectorFactory ) factory.copy();
+		final ImgPlus img = TMUtils.rawWraps( settings.imp );
+		if ( !localFactory.setTarget( img, settings.detectorSettings ) )
+		{
+			logger.error( "Error configuring the detector:\n" + localFactory.getErrorMessage() );
+			return null;
+		}
+		return new FrameByFrameDetector( settings, radiusFactor, parallelism, threadsPerDetection, localFactory, img );
+	}
+
+	/**
+	 * A gap being closed, with the interpolated spots of its missing frames
+	 * and the index of the one to try next.
+	 */
+	private static final class PendingGap
+	{
+
+		private final DefaultWeightedEdge gap;
+
+		private final List< Spot > spots;
+
+		private int index;
+
+		private PendingGap( final DefaultWeightedEdge gap, final List< Spot > spots )
+		{
+			this.gap = gap;
+			this.spots = spots;
+		}
+
+		private Spot current()
+		{
+			return spots.get( index );
+		}
+
+		/**
+		 * Moves to the next interpolated spot.
+		 *
+		 * @return <code>false</code> if there is no more spot to try.
+		 */
+		private boolean advance()
+		{
+			index++;
+			return index < spots.size();
+		}
+	}
+
+	private static final class LocalDetection
+	{
+
+		/**
+		 * The spots found, or <code>null</code> if the detection failed.
+		 */
+		private final List< Spot > spots;
+
+		private final String errorMessage;
+
+		private LocalDetection( final List< Spot > spots, final String errorMessage )
+		{
+			this.spots = spots;
+			this.errorMessage = errorMessage;
+		}
+	}
+
+	/**
+	 * Executes the detection in the vicinity of an interpolated spot. Instances
+	 * are called concurrently.
+	 */
+	private static abstract class LocalDetector
+	{
+
+		protected final Settings settings;
+
+		protected final double radiusFactor;
+
+		/**
+		 * How many detections can run at once.
+		 */
+		private final int parallelism;
+
+		/**
+		 * How many threads each detection may use.
+		 */
+		protected final int numThreads;
+
+		private LocalDetector( final Settings settings, final double radiusFactor, final int parallelism, final int numThreads )
+		{
+			this.settings = settings;
+			this.radiusFactor = radiusFactor;
+			this.parallelism = parallelism;
+			this.numThreads = numThreads;
+		}
+
+		protected abstract LocalDetection detect( Spot spot );
+	}
+
+	/**
+	 * Runs a detector yielded by a factory configured once, on the small
+	 * region around each spot. This does the same work as
+	 * {@link TrackMate#execDetection()} on a restricted {@link Settings}, but
+	 * without copying the settings and configuring a new factory for every
+	 * spot.
+	 */
+	@SuppressWarnings( "rawtypes" )
+	private static final class FrameByFrameDetector extends LocalDetector
+	{
+
+		private final SpotDetectorFactory factory;
+
+		private final ImgPlus img;
+
+		private final double[] calibration;
+
+		private FrameByFrameDetector( final Settings settings, final double radiusFactor, final int parallelism, final int numThreads, final SpotDetectorFactory factory, final ImgPlus img )
+		{
+			super( settings, radiusFactor, parallelism, numThreads );
+			this.factory = factory;
+			this.img = img;
+			this.calibration = TMUtils.getSpatialCalibration( settings.imp );
+		}
+
+		@Override
+		protected LocalDetection detect( final Spot spot )
+		{
+			final Settings local = new Settings( settings.imp );
+			GapClosingMethod.restrictToRoiAround( local, spot, radiusFactor );
+			final int frame = local.tstart;
+			final Interval interval = TMUtils.getInterval( img, local );
+
+			final SpotDetector< ? > detector = factory.getDetector( interval, frame );
+			if ( detector instanceof MultiThreaded )
+				( ( MultiThreaded ) detector ).setNumThreads( numThreads );
+			if ( !detector.checkInput() || !detector.process() )
+				return new LocalDetection( null, detector.getErrorMessage() );
+
+			final List< Spot > spots = TrackMate.prepareDetectedSpots( detector.getResult(), img, local.getRoi(), calibration, frame, local.dt );
+			return new LocalDetection( spots, null );
+		}
+	}
+
+	/**
+	 * Runs a full {@link TrackMate} detection on a copy of the settings
+	 * restricted to the region around each spot. Used for detectors that do
+	 * not work frame by frame.
+	 */
+	private static final class TrackMateDetector extends LocalDetector
+	{
+
+		private TrackMateDetector( final Settings settings, final double radiusFactor, final int parallelism, final int numThreads )
+		{
+			super( settings, radiusFactor, parallelism, numThreads );
+		}
+
+		@Override
+		protected LocalDetection detect( final Spot spot )
+		{
+			final Settings local = GapClosingMethod.makeSettingsForRoiAround( spot, radiusFactor, settings );
+			final TrackMate localTM = new TrackMate( local );
+			localTM.getModel().setLogger( Logger.VOID_LOGGER );
+			localTM.setNumThreads( numThreads );
+			if ( !localTM.execDetection() )
+				return new LocalDetection( null, localTM.getErrorMessage() );
+
+			final int t = spot.getFeature( Spot.FRAME ).intValue();
+			final List< Spot > spots = new ArrayList<>();
+			for ( final Spot s : localTM.getModel().getSpots().iterable( t, false ) )
+				spots.add( s );
+			return new LocalDetection( spots, null );
+		}
+	}
+
 	@Override
 	public String getInfoText()
 	{
@@ -212,6 +212,32 @@ public interface GapClosingMethod
 	 * @return a new {@link Settings} object.
 	 */
 	public static Settings makeSettingsForRoiAround( final Spot spot, final double neighborhoodFactor, final Settings settings )
+	{
+		final Settings settingsCopy = settings.copyOn( settings.imp );
+		restrictToRoiAround( settingsCopy, spot, neighborhoodFactor );
+		return settingsCopy;
+	}
+
+	/**
+	 * Configures the specified {@link Settings} object with a small ROI
+	 * centered on the specified spot, with a radius proportional to the radius
+	 * of the specified spot, and to operate only on the frame in which the
+	 * specified spot is.
+	 * <p>
+	 * Unlike {@link #makeSettingsForRoiAround(Spot, double, Settings)}, this
+	 * does not copy anything, and can be used on a bare {@link Settings}
+	 * object when only the detection interval is needed.
+	 *
+	 * @param settings
+	 *            the settings to configure. Its {@link Settings#imp} field must
+	 *            not be <code>null</code>.
+	 * @param spot
+	 *            the spot to read the coordinates and the frame from.
+	 * @param neighborhoodFactor
+	 *            the ROI proportionality factor. The ROI radius will be equal
+	 *            to the spot radius times this factor.
+	 */
+	public static void restrictToRoiAround( final Settings settings, final Spot spot, final double neighborhoodFactor )
 	{
 		// Extract scales.
 		final double[] cal = TMUtils.getSpatialCalibration( settings.imp );
@@ -238,13 +264,12 @@ public interface GapClosingMethod
 		final long x1 = Math.min( width - 1, x + r );
 		final long y1 = Math.min( height - 1, y + r );
 
-		// Make a new settings with a smaller ROI.
-		final Settings settingsCopy = settings.copyOn( settings.imp );
-		settingsCopy.setRoi( new Roi( x0, y0, x1 - x0, y1 - y0 ) );
+		// Smaller ROI.
+		settings.setRoi( new Roi( x0, y0, x1 - x0, y1 - y0 ) );
 		// Time.
 		final int t = spot.getFeature( Spot.FRAME ).intValue();
-		settingsCopy.tstart = t;
-		settingsCopy.tend = t;
+		settings.tstart = t;
+		settings.tend = t;
 
 		if ( !DetectionUtils.is2D( settings.imp ) )
 		{
@@ -252,10 +277,9 @@ public interface GapClosingMethod
 			final long depth = settings.imp.getNSlices();
 			final long z0 = Math.max( 0, z - rz );
 			final long z1 = Math.min( depth - 1, z + rz );
-			settingsCopy.zstart = ( int ) z0;
-			settingsCopy.zend = ( int ) z1;
+			settings.zstart = ( int ) z0;
+			settings.zend = ( int ) z1;
 		}
-		return settingsCopy;
 	}
 
 	public static int countMissingSpots( final Collection< DefaultWeightedEdge > gaps, final Model model )
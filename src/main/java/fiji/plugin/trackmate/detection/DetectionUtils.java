@@ -147,6 +147,7 @@ public class DetectionUtils
 				// Make them visible
 				for ( final Spot spot : spotsToCopy )
 					spot.putFeature( SpotCollection.VISIBILITY, SpotCollection.ONE );
+				model.getSpots().visibilityChanged();
 
 				// Generate event for listener to reflect changes.
 				model.setSpots( model.getSpots(), true );
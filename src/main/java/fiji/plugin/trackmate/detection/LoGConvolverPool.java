@@ -0,0 +1,151 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.detection;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import net.imglib2.Interval;
+import net.imglib2.algorithm.fft2.FFTConvolution;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+
+/**
+ * A pool of {@link FFTConvolution}s that share a single LoG kernel, for
+ * images of identical size.
+ * <p>
+ * A convolver computes the Fourier transform of the kernel on its first use,
+ * and keeps it when it is handed a new image. Pooling the convolvers therefore
+ * lets the detection of successive frames of a movie reuse the kernel and its
+ * spectrum instead of rebuilding them for every frame. A convolver is used by
+ * one detector at a time: it is borrowed with {@link #acquire(Img)} and must
+ * be given back with {@link #release(FFTConvolution)}.
+ */
+public class LoGConvolverPool
+{
+
+	private final long[] dimensions;
+
+	private final double radius;
+
+	private final double[] calibration;
+
+	private final Img< FloatType > kernel;
+
+	private final ImgFactory< ComplexFloatType > fftImgFactory;
+
+	private final ConcurrentLinkedQueue< FFTConvolution< FloatType > > convolvers = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Creates a pool for the specified interval and LoG kernel parameters.
+	 *
+	 * @param interval
+	 *            the interval of the images to convolve, singleton dimensions
+	 *            squeezed.
+	 * @param radius
+	 *            the blob radius, in image units.
+	 * @param calibration
+	 *            the pixel sizes.
+	 */
+	public LoGConvolverPool( final Interval interval, final double radius, final double[] calibration )
+	{
+		this.dimensions = Intervals.dimensionsAsLongArray( interval );
+		this.radius = radius;
+		this.calibration = calibration.clone();
+
+		// Squeeze singleton dimensions
+		int ndims = interval.numDimensions();
+		for ( int d = 0; d < interval.numDimensions(); d++ )
+			if ( interval.dimension( d ) <= 1 )
+				ndims--;
+		this.kernel = DetectionUtils.createLoGKernel( radius, ndims, calibration );
+
+		/*
+		 * Determine the right img factory for FFT calculation.
+		 */
+		Interval fftinterval = interval;
+		for ( int d = 0; d < kernel.numDimensions(); d++ )
+			fftinterval = Intervals.expand( fftinterval, kernel.dimension( d ), d );
+		this.fftImgFactory = Util.getArrayOrCellImgFactory( fftinterval, new ComplexFloatType() );
+	}
+
+	/**
+	 * Returns <code>true</code> if this pool can convolve images with the
+	 * specified interval and kernel parameters.
+	 *
+	 * @param interval
+	 *            the interval of the images to convolve, singleton dimensions
+	 *            squeezed.
+	 * @param radius
+	 *            the blob radius.
+	 * @param calibration
+	 *            the pixel sizes.
+	 * @return <code>true</code> if the convolvers of this pool can be used.
+	 */
+	public boolean isCompatible( final Interval interval, final double radius, final double[] calibration )
+	{
+		return this.radius == radius
+				&& Arrays.equals( this.calibration, calibration )
+				&& Arrays.equals( dimensions, Intervals.dimensionsAsLongArray( interval ) );
+	}
+
+	/**
+	 * Borrows a convolver from this pool, set to convolve the specified image
+	 * in place.
+	 *
+	 * @param img
+	 *            the image to convolve. Must have the dimensions this pool was
+	 *            created for.
+	 * @return a convolver.
+	 */
+	public FFTConvolution< FloatType > acquire( final Img< FloatType > img )
+	{
+		final FFTConvolution< FloatType > convolver = convolvers.poll();
+		if ( null == convolver )
+			return new FFTConvolution<>( img, kernel, fftImgFactory );
+
+		// Keeps the kernel FFT.
+		convolver.setImg( img );
+		convolver.setOutput( img );
+		return convolver;
+	}
+
+	/**
+	 * Gives back a convolver borrowed from this pool. The convolver forgets
+	 * the last image it convolved and its Fourier transform, so that they
+	 * are not kept in memory while the convolver is idle.
+	 *
+	 * @param convolver
+	 *            the convolver.
+	 */
+	public void release( final FFTConvolution< FloatType > convolver )
+	{
+		convolver.setImg( null, null );
+		convolver.setOutput( null );
+		convolver.setExecutorService( null );
+		convolvers.offer( convolver );
+	}
+}
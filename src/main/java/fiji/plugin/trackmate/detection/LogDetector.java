@@ -34,9 +34,7 @@ import net.imglib2.img.Img;
 import net.imglib2.img.ImgFactory;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.type.numeric.complex.ComplexFloatType;
 import net.imglib2.type.numeric.real.FloatType;
-import net.imglib2.util.Intervals;
 import net.imglib2.util.Util;
 import net.imglib2.view.IntervalView;
 import net.imglib2.view.Views;
@@ -77,11 +75,26 @@ public class LogDetector< T extends RealType< T > & NativeType< T > > implements
 
 	protected final double[] calibration;
 
+	/**
+	 * The pool of convolvers sharing the LoG kernel FFT across frames. If
+	 * <code>null</code>, the kernel is created for this detector only.
+	 */
+	protected final LoGConvolverPool convolverPool;
+
 	/*
 	 * CONSTRUCTORS
 	 */
 
 	public LogDetector( final RandomAccessible< T > img, final Interval interval, final double[] calibration, final double radius, final double threshold, final boolean doSubPixelLocalization, final boolean doMedianFilter )
+	{
+		this( img, interval, calibration, radius, threshold, doSubPixelLocalization, doMedianFilter, null );
+	}
+
+	/**
+	 * Creates a LoG detector that borrows its convolver, and the kernel FFT it
+	 * holds, from the specified pool.
+	 */
+	public LogDetector( final RandomAccessible< T > img, final Interval interval, final double[] calibration, final double radius, final double threshold, final boolean doSubPixelLocalization, final boolean doMedianFilter, final LoGConvolverPool convolverPool )
 	{
 		this.img = img;
 		this.interval = DetectionUtils.squeeze( interval );
@@ -91,6 +104,7 @@ public class LogDetector< T extends RealType< T > & NativeType< T > > implements
 		this.doSubPixelLocalization = doSubPixelLocalization;
 		this.doMedianFilter = doMedianFilter;
 		this.baseErrorMessage = BASE_ERROR_MESSAGE;
+		this.convolverPool = convolverPool;
 		setNumThreads();
 	}
 
@@ -140,29 +154,21 @@ public class LogDetector< T extends RealType< T > & NativeType< T > > implements
 			}
 		}
 
-		// Squeeze singleton dimensions
-		int ndims = interval.numDimensions();
-		for ( int d = 0; d < interval.numDimensions(); d++ )
-			if ( interval.dimension( d ) <= 1 )
-				ndims--;
-
-		final Img< FloatType > kernel = DetectionUtils.createLoGKernel( radius, ndims, calibration );
-		final FFTConvolution< FloatType > fftconv = new FFTConvolution<>( floatImg, kernel );
-
-		/*
-		 * Determine the right img factory for FFT calculation.
-		 */
-		Interval fftinterval = floatImg;
-		for ( int d = 0; d < kernel.numDimensions(); d++ )
-			fftinterval = Intervals.expand( fftinterval, kernel.dimension( d ), d );
-		final ImgFactory< ComplexFloatType > imgFactory = Util.getArrayOrCellImgFactory( fftinterval, new ComplexFloatType() );
-		fftconv.setFFTImgFactory( imgFactory );
-
+		final LoGConvolverPool pool = ( null == convolverPool )
+				? new LoGConvolverPool( floatImg, radius, calibration )
+				: convolverPool;
+		final FFTConvolution< FloatType > fftconv = pool.acquire( floatImg );
 		final ExecutorService service = Threads.newFixedThreadPool( numThreads );
-		fftconv.setExecutorService( service );
-
-		fftconv.convolve();
-		service.shutdown();
+		try
+		{
+			fftconv.setExecutorService( service );
+			fftconv.convolve();
+		}
+		finally
+		{
+			service.shutdown();
+			pool.release( fftconv );
+		}
 
 		final long[] minopposite = new long[ interval.numDimensions() ];
 		interval.min( minopposite );
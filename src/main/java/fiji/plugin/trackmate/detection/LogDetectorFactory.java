@@ -44,6 +44,7 @@ import static fiji.plugin.trackmate.util.TMUtils.checkParameter;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -101,6 +102,30 @@ public class LogDetectorFactory< T extends RealType< T > & NativeType< T >> impl
 
 	protected String errorMessage;
 
+	/**
+	 * Maximal number of convolver pools kept by a factory.
+	 */
+	private static final int MAX_CONVOLVER_POOLS = 8;
+
+	/**
+	 * Convolvers sharing the LoG kernel FFT across the frames of the target
+	 * image, keyed on the dimensions of the detection interval. Detecting in
+	 * regions of several sizes, as when closing gaps by detection, keeps one
+	 * pool per size instead of rebuilding the kernel at every size change.
+	 * The least recently used pool is dropped when there are more than
+	 * {@value #MAX_CONVOLVER_POOLS}. Cleared when the target changes.
+	 */
+	private final Map< List< Long >, LoGConvolverPool > convolverPools = new LinkedHashMap< List< Long >, LoGConvolverPool >( 16, 0.75f, true )
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry( final Map.Entry< List< Long >, LoGConvolverPool > eldest )
+		{
+			return size() > MAX_CONVOLVER_POOLS;
+		}
+	};
+
 	/*
 	 * METHODS
 	 */
@@ -110,10 +135,42 @@ public class LogDetectorFactory< T extends RealType< T > & NativeType< T >> impl
 	{
 		this.img = img;
 		this.settings = settings;
+		synchronized ( this )
+		{
+			convolverPools.clear();
+		}
 		return checkSettings( settings );
 	}
-	
-	
+
+	/**
+	 * Returns a convolver pool suited to the specified detection parameters.
+	 * The pool is shared by all the detections with the same parameters and
+	 * interval dimensions, so that the LoG kernel and its FFT are computed
+	 * only once per movie and region size.
+	 *
+	 * @param interval
+	 *            the detection interval, singleton dimensions squeezed.
+	 * @param radius
+	 *            the blob radius.
+	 * @param calibration
+	 *            the pixel sizes.
+	 * @return a convolver pool.
+	 */
+	protected synchronized LoGConvolverPool getConvolverPool( final Interval interval, final double radius, final double[] calibration )
+	{
+		final List< Long > key = new ArrayList<>( interval.numDimensions() );
+		for ( int d = 0; d < interval.numDimensions(); d++ )
+			key.add( interval.dimension( d ) );
+
+		LoGConvolverPool pool = convolverPools.get( key );
+		if ( null == pool || !pool.isCompatible( interval, radius, calibration ) )
+		{
+			pool = new LoGConvolverPool( interval, radius, calibration );
+			convolverPools.put( key, pool );
+		}
+		return pool;
+	}
+
 	protected RandomAccessibleInterval< T > prepareFrameImg( final int frame )
 	{
 		final double[] calibration = TMUtils.getSpatialCalibration( img );
@@ -164,7 +221,9 @@ public class LogDetectorFactory< T extends RealType< T > & NativeType< T >> impl
 		final double[] calibration = TMUtils.getSpatialCalibration( img );
 		final RandomAccessible< T > imFrame = prepareFrameImg( frame );
 
-		final LogDetector< T > detector = new LogDetector<>( imFrame, interval, calibration, radius, threshold, doSubpixel, doMedian );
+		final LoGConvolverPool pool = getConvolverPool( DetectionUtils.squeeze( interval ), radius, calibration );
+
+		final LogDetector< T > detector = new LogDetector<>( imFrame, interval, calibration, radius, threshold, doSubpixel, doMedian, pool );
 		detector.setNumThreads( 1 );
 		return detector;
 	}
@@ -104,6 +104,8 @@ public class ModelFeatureUpdater implements ModelChangeListener, MultiThreaded
 
 		// Update spot features
 		spotFeatureCalculator.computeSpotFeatures( sc, false );
+		if ( !spots.isEmpty() )
+			model.getSpots().invalidateFilterIndex();
 
 		// Update edge features
 		edgeFeatureCalculator.computeEdgesFeatures( edges, false );
@@ -26,6 +26,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
@@ -37,7 +38,9 @@ import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.features.spot.FusedSpotAnalyzer;
 import fiji.plugin.trackmate.features.spot.SpotAnalyzer;
 import fiji.plugin.trackmate.features.spot.SpotAnalyzerFactoryBase;
 import fiji.plugin.trackmate.util.Threads;
@@ -106,8 +109,20 @@ public class SpotFeatureCalculator extends MultiThreadedBenchmarkAlgorithm imple
 	@Override
 	public boolean process()
 	{
-
 		// Declare what you do.
+		declareFeatures();
+
+		// Do it.
+		computeSpotFeaturesAgent( model.getSpots(), settings.getSpotAnalyzerFactories(), doLogIt );
+		return true;
+	}
+
+	/**
+	 * Declares the features of the spot analyzers configured in the
+	 * {@link Settings} object to the feature model.
+	 */
+	public void declareFeatures()
+	{
 		for ( final SpotAnalyzerFactoryBase< ? > factory : settings.getSpotAnalyzerFactories() )
 		{
 			final Collection< String > features = factory.getFeatures();
@@ -117,10 +132,56 @@ public class SpotFeatureCalculator extends MultiThreadedBenchmarkAlgorithm imple
 			final Map< String, Boolean > isIntFeature = factory.getIsIntFeature();
 			model.getFeatureModel().declareSpotFeatures( features, featureNames, featureShortNames, featureDimensions, isIntFeature );
 		}
+	}
 
-		// Do it.
-		computeSpotFeaturesAgent( model.getSpots(), settings.getSpotAnalyzerFactories(), doLogIt );
-		return true;
+	/**
+	 * Calculates all the spot features configured in the {@link Settings}
+	 * object for the specified spots, that must all belong to the specified
+	 * frame. This is used to compute features frame by frame, as soon as the
+	 * spots of a frame are available, without logging nor progress report.
+	 *
+	 * @param spots
+	 *            the spots to compute, all in the same frame.
+	 * @param frame
+	 *            the frame of the spots.
+	 * @param nThreads
+	 *            the number of threads the analyzers may use.
+	 */
+	public void computeSpotFeatures( final Iterable< Spot > spots, final int frame, final int nThreads )
+	{
+		// Can't compute any spot feature without an image to compute on.
+		if ( settings.imp == null )
+			return;
+
+		@SuppressWarnings( "rawtypes" )
+		final ImgPlus img = TMUtils.rawWraps( settings.imp );
+		for ( final SpotAnalyzer< ? > analyzer : createAnalyzers( img, frame, settings.getSpotAnalyzerFactories() ) )
+		{
+			if ( isCanceled() )
+				return;
+
+			if ( analyzer instanceof MultiThreaded )
+				( ( MultiThreaded ) analyzer ).setNumThreads( nThreads );
+
+			analyzer.process( spots );
+		}
+	}
+
+	/**
+	 * Instantiates the analyzers of the specified factories for all channels
+	 * of the specified frame, in the order they must be run. Consecutive
+	 * per-spot analyzers are fused so that all of them are run in a single
+	 * pass over the spots.
+	 */
+	@SuppressWarnings( { "rawtypes", "unchecked" } )
+	private List< SpotAnalyzer< ? > > createAnalyzers( final ImgPlus img, final int frame, final List< SpotAnalyzerFactoryBase< ? > > analyzerFactories )
+	{
+		final List< SpotAnalyzer< ? > > analyzers = new ArrayList<>( settings.imp.getNChannels() * analyzerFactories.size() );
+		for ( int channel = 0; channel < settings.imp.getNChannels(); channel++ )
+			for ( final SpotAnalyzerFactoryBase< ? > factory : analyzerFactories )
+				analyzers.add( factory.getAnalyzer( img, frame, channel ) );
+
+		return FusedSpotAnalyzer.fuse( analyzers );
 	}
 
 	/**
@@ -197,25 +258,20 @@ public class SpotFeatureCalculator extends MultiThreadedBenchmarkAlgorithm imple
 				{
 					final int frame = frameSet.get( index );
 
-					for ( int channel = 0; channel < settings.imp.getNChannels(); channel++ )
+					for ( final SpotAnalyzer< ? > analyzer : createAnalyzers( img, frame, analyzerFactories ) )
 					{
-						for ( final SpotAnalyzerFactoryBase< ? > factory : analyzerFactories )
-						{
-							if ( isCanceled() )
-								return null;
-
+						if ( isCanceled() )
+							return null;
 
-							@SuppressWarnings( "unchecked" )
-							final SpotAnalyzer< ? > analyzer = factory.getAnalyzer( img, frame, channel );
-							// Fine-tune multithreading if we can.
-							if ( analyzer instanceof MultiThreaded )
-								( ( MultiThreaded ) analyzer ).setNumThreads( threadsPerFrame );
+						// Fine-tune multithreading if we can.
+						if ( analyzer instanceof MultiThreaded )
+							( ( MultiThreaded ) analyzer ).setNumThreads( threadsPerFrame );
 
-							analyzer.process( toCompute.iterable( frame, false ) );
+						analyzer.process( toCompute.iterable( frame, false ) );
 
-							logger.setProgress( progress.incrementAndGet() / ( double ) workToDo );
-						} // Finished looping over analyzers
-					} // Finished looping over channels
+						final int work = ( analyzer instanceof FusedSpotAnalyzer ) ? ( ( FusedSpotAnalyzer ) analyzer ).size() : 1;
+						logger.setProgress( progress.addAndGet( work ) / ( double ) workToDo );
+					} // Finished looping over analyzers
 
 					return null;
 				}
@@ -223,13 +279,22 @@ public class SpotFeatureCalculator extends MultiThreadedBenchmarkAlgorithm imple
 			tasks.add( frameTask );
 		}
 
-		final ExecutorService executorService = Threads.newFixedThreadPool( nSimultaneousFrames );
+		final ExecutorService executorService = Threads.newFixedThreadPool( nSimultaneousFrames, this );
 		List< Future< Void > > futures;
 		try
 		{
 			futures = executorService.invokeAll( tasks );
 			for ( final Future< Void > future : futures )
-				future.get();
+			{
+				try
+				{
+					future.get();
+				}
+				catch ( final CancellationException e )
+				{
+					// Not started before cancellation.
+				}
+			}
 		}
 		catch ( InterruptedException | ExecutionException e )
 		{
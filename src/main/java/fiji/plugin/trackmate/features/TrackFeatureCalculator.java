@@ -31,6 +31,7 @@ import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.features.track.FusedTrackAnalyzer;
 import fiji.plugin.trackmate.features.track.TrackAnalyzer;
 import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
 
@@ -126,7 +127,9 @@ public class TrackFeatureCalculator extends MultiThreadedBenchmarkAlgorithm impl
 	 */
 
 	/**
-	 * Calculate all features for the tracks with the given IDs.
+	 * Calculate all features for the tracks with the given IDs. Consecutive
+	 * local analyzers are fused, so that all of them are fed from a single
+	 * view of each track.
 	 */
 	private void computeTrackFeaturesAgent( final Collection< Integer > trackIDs, final List< TrackAnalyzer > analyzers, final boolean doLogIt )
 	{
@@ -139,7 +142,7 @@ public class TrackFeatureCalculator extends MultiThreadedBenchmarkAlgorithm impl
 			logger.log( "Computing track features:\n", Logger.BLUE_COLOR );
 		}
 
-		for ( final TrackAnalyzer analyzer : analyzers )
+		for ( final TrackAnalyzer analyzer : FusedTrackAnalyzer.fuse( analyzers ) )
 		{
 			if ( isCanceled() )
 				return;
@@ -160,6 +163,13 @@ public class TrackFeatureCalculator extends MultiThreadedBenchmarkAlgorithm impl
 				analyzer.process( model.getTrackModel().trackIDs( false ), model );
 			}
 
+			if ( analyzer instanceof FusedTrackAnalyzer )
+			{
+				final String error = ( ( FusedTrackAnalyzer ) analyzer ).getErrorMessage();
+				if ( null != error )
+					logger.error( error + '\n' );
+			}
+
 			if ( doLogIt )
 				logger.log( "  - " + analyzer.getName() + " in " + analyzer.getProcessingTime() + " ms.\n" );
 
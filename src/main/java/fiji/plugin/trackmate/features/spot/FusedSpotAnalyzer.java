@@ -0,0 +1,174 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features.spot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.util.Threads;
+import net.imglib2.algorithm.MultiThreaded;
+
+/**
+ * A {@link SpotAnalyzer} that runs several per-spot analyzers in a single loop
+ * over the spots.
+ * <p>
+ * Each spot is handed to all the analyzers in turn before moving to the next
+ * spot, and there is a single task list and thread pool for all the analyzers
+ * instead of one per analyzer. The analyzers are called in the order they are
+ * given, so an analyzer that relies on the features of another one (like the
+ * contrast analyzer on the intensity analyzer) can be grouped with it.
+ * <p>
+ * Pixels are not shared between analyzers: each analyzer still iterates over
+ * its own neighborhood of the spot. The intensity analyzer iterates over the
+ * rasterized disc or sphere of the spot radius, while the contrast analyzer
+ * selects the pixels of its ring by their calibrated distance within a
+ * neighborhood of twice the radius. These pixel sets do not nest exactly, so
+ * feeding both from a single iteration would change the feature values.
+ */
+public class FusedSpotAnalyzer implements SpotAnalyzer< Object >, MultiThreaded
+{
+
+	private final List< AbstractSpotFeatureAnalyzer< ? > > analyzers;
+
+	private int numThreads;
+
+	public FusedSpotAnalyzer( final List< AbstractSpotFeatureAnalyzer< ? > > analyzers )
+	{
+		this.analyzers = analyzers;
+		setNumThreads();
+	}
+
+	/**
+	 * Returns the number of analyzers fused in this analyzer.
+	 *
+	 * @return the number of analyzers.
+	 */
+	public int size()
+	{
+		return analyzers.size();
+	}
+
+	@Override
+	public void process( final Iterable< Spot > spots )
+	{
+		if ( numThreads <= 1 )
+		{
+			for ( final Spot spot : spots )
+				process( spot );
+			return;
+		}
+
+		final List< Callable< Void > > tasks = new ArrayList<>();
+		for ( final Spot spot : spots )
+		{
+			tasks.add( () -> {
+				process( spot );
+				return null;
+			} );
+		}
+
+		final ExecutorService executorService = Threads.newFixedThreadPool( numThreads );
+		try
+		{
+			final List< Future< Void > > futures = executorService.invokeAll( tasks );
+			for ( final Future< Void > future : futures )
+				future.get();
+		}
+		catch ( final InterruptedException | ExecutionException e )
+		{
+			e.printStackTrace();
+		}
+		executorService.shutdown();
+	}
+
+	private void process( final Spot spot )
+	{
+		for ( final AbstractSpotFeatureAnalyzer< ? > analyzer : analyzers )
+		{
+			try
+			{
+				analyzer.process( spot );
+			}
+			catch ( final Exception e )
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	@Override
+	public void setNumThreads()
+	{
+		setNumThreads( Runtime.getRuntime().availableProcessors() / 2 );
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * Fuses the consecutive per-spot analyzers of the specified list. Other
+	 * analyzers are left untouched, and the order in which analyzers are run
+	 * is preserved.
+	 *
+	 * @param analyzers
+	 *            the analyzers to run, in order.
+	 * @return a new list of analyzers, where each run of consecutive
+	 *         {@link AbstractSpotFeatureAnalyzer}s is replaced by a
+	 *         {@link FusedSpotAnalyzer}.
+	 */
+	public static List< SpotAnalyzer< ? > > fuse( final List< SpotAnalyzer< ? > > analyzers )
+	{
+		final List< SpotAnalyzer< ? > > fused = new ArrayList<>();
+		List< AbstractSpotFeatureAnalyzer< ? > > run = new ArrayList<>();
+		for ( final SpotAnalyzer< ? > analyzer : analyzers )
+		{
+			if ( analyzer instanceof AbstractSpotFeatureAnalyzer )
+			{
+				run.add( ( AbstractSpotFeatureAnalyzer< ? > ) analyzer );
+				continue;
+			}
+			if ( !run.isEmpty() )
+			{
+				fused.add( new FusedSpotAnalyzer( run ) );
+				run = new ArrayList<>();
+			}
+			fused.add( analyzer );
+		}
+		if ( !run.isEmpty() )
+			fused.add( new FusedSpotAnalyzer( run ) );
+		return fused;
+	}
+}
@@ -28,44 +28,145 @@ import static fiji.plugin.trackmate.features.spot.SpotIntensityMultiCAnalyzerFac
 import static fiji.plugin.trackmate.features.spot.SpotIntensityMultiCAnalyzerFactory.STD_INTENSITY;
 import static fiji.plugin.trackmate.features.spot.SpotIntensityMultiCAnalyzerFactory.TOTAL_INTENSITY;
 
-import org.scijava.util.DoubleArray;
+import java.util.Arrays;
 
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.util.SpotUtil;
-import fiji.plugin.trackmate.util.TMUtils;
 import net.imagej.ImgPlus;
 import net.imglib2.IterableInterval;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.util.Util;
 
 public class SpotIntensityMultiCAnalyzer< T extends RealType< T > > extends AbstractSpotFeatureAnalyzer< T >
 {
 
-	private final int channel;
+	/**
+	 * Per-thread buffer for the pixel values of a spot, grown as needed and
+	 * reused across spots.
+	 */
+	private static final ThreadLocal< double[] > BUFFER = ThreadLocal.withInitial( () -> new double[ 256 ] );
 
 	private final ImgPlus< T > imgCT;
 
+	private final String meanKey;
+
+	private final String medianKey;
+
+	private final String minKey;
+
+	private final String maxKey;
+
+	private final String totalKey;
+
+	private final String stdKey;
+
 	public SpotIntensityMultiCAnalyzer( final ImgPlus< T > imgCT, final int channel )
 	{
 		this.imgCT = imgCT;
-		this.channel = channel;
+		this.meanKey = SpotIntensityMultiCAnalyzerFactory.makeFeatureKey( MEAN_INTENSITY, channel );
+		this.medianKey = SpotIntensityMultiCAnalyzerFactory.makeFeatureKey( MEDIAN_INTENSITY, channel );
+		this.minKey = SpotIntensityMultiCAnalyzerFactory.makeFeatureKey( MIN_INTENSITY, channel );
+		this.maxKey = SpotIntensityMultiCAnalyzerFactory.makeFeatureKey( MAX_INTENSITY, channel );
+		this.totalKey = SpotIntensityMultiCAnalyzerFactory.makeFeatureKey( TOTAL_INTENSITY, channel );
+		this.stdKey = SpotIntensityMultiCAnalyzerFactory.makeFeatureKey( STD_INTENSITY, channel );
 	}
 
 	@Override
 	public void process( final Spot spot )
 	{
 		final IterableInterval< T > neighborhood = SpotUtil.iterable( spot, imgCT );
-		final DoubleArray intensities = new DoubleArray();
+		double[] values = BUFFER.get();
 
+		// Single pass: sum, min, max and Welford moments.
+		int n = 0;
+		double sum = 0.;
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		double mean = 0.;
+		double m2 = 0.;
 		for ( final T pixel : neighborhood )
-			intensities.addValue( pixel.getRealDouble() );
-
-		Util.quicksort( intensities.getArray(), 0, intensities.size() - 1 );
-		spot.putFeature( SpotIntensityMultiCAnalyzerFactory.makeFeatureKey( MEAN_INTENSITY, channel ), Double.valueOf( TMUtils.average( intensities ) ) );
-		spot.putFeature( SpotIntensityMultiCAnalyzerFactory.makeFeatureKey( MEDIAN_INTENSITY, channel ), Double.valueOf( intensities.getArray()[ intensities.size() / 2 ] ) );
-		spot.putFeature( SpotIntensityMultiCAnalyzerFactory.makeFeatureKey( MIN_INTENSITY, channel ), Double.valueOf( intensities.getArray()[ 0 ] ) );
-		spot.putFeature( SpotIntensityMultiCAnalyzerFactory.makeFeatureKey( MAX_INTENSITY, channel ), Double.valueOf( intensities.getArray()[ intensities.size() - 1 ] ) );
-		spot.putFeature( SpotIntensityMultiCAnalyzerFactory.makeFeatureKey( TOTAL_INTENSITY, channel ), Double.valueOf( TMUtils.sum( intensities ) ) );
-		spot.putFeature( SpotIntensityMultiCAnalyzerFactory.makeFeatureKey( STD_INTENSITY, channel ), Double.valueOf( TMUtils.standardDeviation( intensities ) ) );
+		{
+			final double val = pixel.getRealDouble();
+			if ( n == values.length )
+			{
+				values = Arrays.copyOf( values, 2 * values.length );
+				BUFFER.set( values );
+			}
+			values[ n++ ] = val;
+			sum += val;
+			if ( val < min )
+				min = val;
+			if ( val > max )
+				max = val;
+			final double delta = val - mean;
+			mean += delta / n;
+			m2 += delta * ( val - mean );
+		}
+
+		spot.putFeature( meanKey, Double.valueOf( sum / n ) );
+		spot.putFeature( medianKey, Double.valueOf( ( n == 0 ) ? Double.NaN : select( values, n, n / 2 ) ) );
+		spot.putFeature( minKey, Double.valueOf( min ) );
+		spot.putFeature( maxKey, Double.valueOf( max ) );
+		spot.putFeature( totalKey, Double.valueOf( sum ) );
+		spot.putFeature( stdKey, Double.valueOf( Math.sqrt( m2 / ( n - 1 ) ) ) );
+	}
+
+	/**
+	 * Returns the k-th smallest value of the first <code>n</code> elements of
+	 * the specified array, using quickselect. The array is partially reordered.
+	 *
+	 * @param values
+	 *            the values.
+	 * @param n
+	 *            the number of values to consider, starting from 0.
+	 * @param k
+	 *            the rank of the value to return, in <code>[0, n)</code>.
+	 * @return the k-th smallest value.
+	 */
+	static double select( final double[] values, final int n, final int k )
+	{
+		int left = 0;
+		int right = n - 1;
+		while ( left < right )
+		{
+			// Median of three as pivot.
+			final int mid = ( left + right ) >>> 1;
+			if ( values[ mid ] < values[ left ] )
+				swap( values, left, mid );
+			if ( values[ right ] < values[ left ] )
+				swap( values, left, right );
+			if ( values[ right ] < values[ mid ] )
+				swap( values, mid, right );
+			final double pivot = values[ mid ];
+
+			int i = left;
+			int j = right;
+			while ( i <= j )
+			{
+				while ( values[ i ] < pivot )
+					i++;
+				while ( values[ j ] > pivot )
+					j--;
+				if ( i <= j )
+				{
+					swap( values, i, j );
+					i++;
+					j--;
+				}
+			}
+			if ( k <= j )
+				right = j;
+			else if ( k >= i )
+				left = i;
+			else
+				return values[ k ];
+		}
+		return values[ k ];
+	}
+
+	private static void swap( final double[] values, final int i, final int j )
+	{
+		final double tmp = values[ i ];
+		values[ i ] = values[ j ];
+		values[ j ] = tmp;
 	}
 }
@@ -217,4 +217,19 @@ public abstract class AbstractTrackAnalyzer implements TrackAnalyzer
 	}
 
 	protected abstract void analyze( final Integer trackID, final Model model );
+
+	/**
+	 * Computes the features of the specified track, from a view of its spots
+	 * and edges shared with the other analyzers run on this track. Called by
+	 * {@link FusedTrackAnalyzer}. By default, delegates to
+	 * {@link #analyze(Integer, Model)}; analyzers should override it to use
+	 * the shared view instead of querying the track model.
+	 *
+	 * @param track
+	 *            the track to analyze.
+	 */
+	protected void analyze( final TrackData track )
+	{
+		analyze( track.getTrackID(), track.getModel() );
+	}
 }
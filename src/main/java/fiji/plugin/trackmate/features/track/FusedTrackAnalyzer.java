@@ -0,0 +1,344 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features.track;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import javax.swing.ImageIcon;
+
+import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.util.Threads;
+
+/**
+ * A {@link TrackAnalyzer} that runs several local track analyzers in a single
+ * pass over the tracks.
+ * <p>
+ * For each track, the spots and edges are pulled once from the track model in
+ * a {@link TrackData} view, sorted in time, and this view is handed to all the
+ * analyzers in turn. Tracks are distributed over a single work-stealing pool,
+ * largest tracks first, instead of one pool per analyzer. The analyzers are
+ * called in the order they are given, so an analyzer that relies on the
+ * features of another one (like the motility analyzer on the duration and
+ * speed analyzers) can be fused with it.
+ * <p>
+ * Errors raised by an analyzer on a track do not stop the other analyzers nor
+ * the other tracks. They are reported by {@link #getErrorMessage()}.
+ */
+public class FusedTrackAnalyzer implements TrackAnalyzer
+{
+
+	private static final String KEY = "Fused track analyzers";
+
+	private final List< AbstractTrackAnalyzer > analyzers;
+
+	private int numThreads;
+
+	private long processingTime;
+
+	private volatile String errorMessage;
+
+	public FusedTrackAnalyzer( final List< AbstractTrackAnalyzer > analyzers )
+	{
+		this.analyzers = analyzers;
+		setNumThreads();
+	}
+
+	/**
+	 * Returns the number of analyzers fused in this analyzer.
+	 *
+	 * @return the number of analyzers.
+	 */
+	public int size()
+	{
+		return analyzers.size();
+	}
+
+	@Override
+	public void process( final Collection< Integer > trackIDs, final Model model )
+	{
+		if ( trackIDs.isEmpty() )
+			return;
+
+		final long start = System.currentTimeMillis();
+		errorMessage = null;
+
+		if ( numThreads <= 1 )
+		{
+			for ( final Integer trackID : trackIDs )
+				process( new TrackData( trackID, model ) );
+		}
+		else
+		{
+			// Largest tracks first, so that they do not end up last.
+			final List< Integer > sorted = new ArrayList<>( trackIDs );
+			final Map< Integer, Integer > sizes = new HashMap<>( sorted.size() );
+			for ( final Integer trackID : sorted )
+			{
+				final Set< Spot > spots = model.getTrackModel().trackSpots( trackID );
+				sizes.put( trackID, ( null == spots ) ? 0 : spots.size() );
+			}
+			sorted.sort( Comparator.comparing( sizes::get, Comparator.reverseOrder() ) );
+
+			final List< Callable< Void > > tasks = new ArrayList<>( sorted.size() );
+			for ( final Integer trackID : sorted )
+			{
+				tasks.add( () -> {
+					process( new TrackData( trackID, model ) );
+					return null;
+				} );
+			}
+
+			final ExecutorService executorService = Threads.newWorkStealingPool( numThreads );
+			try
+			{
+				final List< Future< Void > > futures = executorService.invokeAll( tasks );
+				for ( final Future< Void > future : futures )
+					future.get();
+			}
+			catch ( final InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+				reportError( "Interrupted while computing track features." );
+			}
+			catch ( final ExecutionException e )
+			{
+				reportError( "Error while computing track features: " + e.getCause() );
+			}
+			executorService.shutdown();
+		}
+
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
+	}
+
+	private void process( final TrackData track )
+	{
+		for ( final AbstractTrackAnalyzer analyzer : analyzers )
+		{
+			try
+			{
+				analyzer.analyze( track );
+			}
+			catch ( final Exception e )
+			{
+				reportError( analyzer.getName() + " failed on track " + track.getTrackID() + ": " + e );
+			}
+		}
+	}
+
+	/**
+	 * Keeps the first error message.
+	 */
+	private synchronized void reportError( final String message )
+	{
+		if ( null == errorMessage )
+			errorMessage = message;
+	}
+
+	/**
+	 * Returns a message describing the first error raised during the last call
+	 * to {@link #process(Collection, Model)}, or <code>null</code> if there
+	 * was none.
+	 *
+	 * @return the error message, or <code>null</code>.
+	 */
+	public String getErrorMessage()
+	{
+		return errorMessage;
+	}
+
+	@Override
+	public boolean isLocal()
+	{
+		return true;
+	}
+
+	@Override
+	public long getProcessingTime()
+	{
+		return processingTime;
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	@Override
+	public void setNumThreads()
+	{
+		setNumThreads( Runtime.getRuntime().availableProcessors() / 2 );
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = numThreads;
+	}
+
+	@Override
+	public String getKey()
+	{
+		return KEY;
+	}
+
+	/**
+	 * Returns the names of the fused analyzers.
+	 */
+	@Override
+	public String getName()
+	{
+		return analyzers.stream()
+				.map( AbstractTrackAnalyzer::getName )
+				.collect( Collectors.joining( ", " ) );
+	}
+
+	@Override
+	public String getInfoText()
+	{
+		return null;
+	}
+
+	@Override
+	public ImageIcon getIcon()
+	{
+		return null;
+	}
+
+	@Override
+	public List< String > getFeatures()
+	{
+		final List< String > features = new ArrayList<>();
+		for ( final AbstractTrackAnalyzer analyzer : analyzers )
+			features.addAll( analyzer.getFeatures() );
+		return features;
+	}
+
+	@Override
+	public Map< String, String > getFeatureShortNames()
+	{
+		final Map< String, String > map = new HashMap<>();
+		for ( final AbstractTrackAnalyzer analyzer : analyzers )
+			map.putAll( analyzer.getFeatureShortNames() );
+		return map;
+	}
+
+	@Override
+	public Map< String, String > getFeatureNames()
+	{
+		final Map< String, String > map = new HashMap<>();
+		for ( final AbstractTrackAnalyzer analyzer : analyzers )
+			map.putAll( analyzer.getFeatureNames() );
+		return map;
+	}
+
+	@Override
+	public Map< String, Dimension > getFeatureDimensions()
+	{
+		final Map< String, Dimension > map = new HashMap<>();
+		for ( final AbstractTrackAnalyzer analyzer : analyzers )
+			map.putAll( analyzer.getFeatureDimensions() );
+		return map;
+	}
+
+	@Override
+	public Map< String, Boolean > getIsIntFeature()
+	{
+		final Map< String, Boolean > map = new HashMap<>();
+		for ( final AbstractTrackAnalyzer analyzer : analyzers )
+			map.putAll( analyzer.getIsIntFeature() );
+		return map;
+	}
+
+	@Override
+	public boolean isManualFeature()
+	{
+		return false;
+	}
+
+	/**
+	 * Fuses the consecutive local track analyzers of the specified list. Other
+	 * analyzers are left untouched, and the order in which analyzers are run
+	 * is preserved.
+	 * <p>
+	 * Only the {@link AbstractTrackAnalyzer}s that do not override
+	 * {@link AbstractTrackAnalyzer#process(Collection, Model)} are fused: the
+	 * fused analyzer only calls {@link AbstractTrackAnalyzer#analyze(TrackData)}
+	 * and would skip what an overriding method does.
+	 *
+	 * @param analyzers
+	 *            the analyzers to run, in order.
+	 * @return a new list of analyzers, where each run of consecutive fusable
+	 *         {@link AbstractTrackAnalyzer}s is replaced by a
+	 *         {@link FusedTrackAnalyzer}.
+	 */
+	public static List< TrackAnalyzer > fuse( final List< TrackAnalyzer > analyzers )
+	{
+		final List< TrackAnalyzer > fused = new ArrayList<>();
+		List< AbstractTrackAnalyzer > run = new ArrayList<>();
+		for ( final TrackAnalyzer analyzer : analyzers )
+		{
+			if ( isFusable( analyzer ) )
+			{
+				run.add( ( AbstractTrackAnalyzer ) analyzer );
+				continue;
+			}
+			if ( !run.isEmpty() )
+			{
+				fused.add( new FusedTrackAnalyzer( run ) );
+				run = new ArrayList<>();
+			}
+			fused.add( analyzer );
+		}
+		if ( !run.isEmpty() )
+			fused.add( new FusedTrackAnalyzer( run ) );
+		return fused;
+	}
+
+	private static boolean isFusable( final TrackAnalyzer analyzer )
+	{
+		if ( !( analyzer instanceof AbstractTrackAnalyzer ) )
+			return false;
+		try
+		{
+			return analyzer.getClass().getMethod( "process", Collection.class, Model.class ).getDeclaringClass() == AbstractTrackAnalyzer.class;
+		}
+		catch ( final NoSuchMethodException e )
+		{
+			return false;
+		}
+	}
+}
@@ -23,15 +23,13 @@ package fiji.plugin.trackmate.features.track;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
-import org.jgrapht.graph.DefaultWeightedEdge;
 import org.scijava.plugin.Plugin;
 
 import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.FeatureModel;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Spot;
 
@@ -99,69 +97,74 @@ public class TrackBranchingAnalyzer extends AbstractTrackAnalyzer
 	@Override
 	protected void analyze( final Integer trackID, final Model model )
 	{
-		final Set< Spot > track = model.getTrackModel().trackSpots( trackID );
+		analyze( new TrackData( trackID, model ) );
+	}
 
-		int nmerges = 0;
-		int nsplits = 0;
-		int ncomplex = 0;
-		for ( final Spot spot : track )
+	@Override
+	protected void analyze( final TrackData track )
+	{
+		final Integer trackID = track.getTrackID();
+		final int nSpots = track.getNSpots();
+
+		/*
+		 * Count, for each spot, its neighbors before it in time and the
+		 * others, and the gaps.
+		 */
+		final int[] earlier = new int[ nSpots ];
+		final int[] later = new int[ nSpots ];
+		int ngaps = 0, longestgap = 0;
+		for ( int i = 0; i < track.getNEdges(); i++ )
 		{
-			final Set< DefaultWeightedEdge > edges = model.getTrackModel().edgesOf( spot );
-
-			// get neighbors
-			final Set< Spot > neighbors = new HashSet<>();
-			for ( final DefaultWeightedEdge edge : edges )
-			{
-				neighbors.add( model.getTrackModel().getEdgeSource( edge ) );
-				neighbors.add( model.getTrackModel().getEdgeTarget( edge ) );
-			}
-			neighbors.remove( spot );
-
-			// inspect neighbors relative time position
-			int earlier = 0;
-			int later = 0;
-			for ( final Spot neighbor : neighbors )
+			final int s = track.getEdgeSourceIndex( i );
+			final int t = track.getEdgeTargetIndex( i );
+			final Spot source = track.getSpot( s );
+			final Spot target = track.getSpot( t );
+			final double df = source.diffTo( target, Spot.FRAME );
+
+			// Target is before source in time?
+			if ( df > 0 )
+				earlier[ s ]++;
+			else
+				later[ s ]++;
+			if ( -df > 0 )
+				earlier[ t ]++;
+			else
+				later[ t ]++;
+
+			final int gaplength = ( int ) Math.abs( df ) - 1;
+			if ( gaplength > 0 )
 			{
-				if ( spot.diffTo( neighbor, Spot.FRAME ) > 0 )
-					earlier++; // neighbor is before in time
-				else
-					later++;
+				ngaps++;
+				if ( longestgap < gaplength )
+					longestgap = gaplength;
 			}
+		}
 
+		int nmerges = 0;
+		int nsplits = 0;
+		int ncomplex = 0;
+		for ( int i = 0; i < nSpots; i++ )
+		{
 			// Test for classical spot
-			if ( earlier == 1 && later == 1 )
+			if ( earlier[ i ] == 1 && later[ i ] == 1 )
 				continue;
 
 			// classify spot
-			if ( earlier <= 1 && later > 1 )
+			if ( earlier[ i ] <= 1 && later[ i ] > 1 )
 				nsplits++;
-			else if ( later <= 1 && earlier > 1 )
+			else if ( later[ i ] <= 1 && earlier[ i ] > 1 )
 				nmerges++;
-			else if ( later > 1 && earlier > 1 )
+			else if ( later[ i ] > 1 && earlier[ i ] > 1 )
 				ncomplex++;
 		}
 
-		int ngaps = 0, longestgap = 0;
-		for ( final DefaultWeightedEdge edge : model.getTrackModel().trackEdges( trackID ) )
-		{
-			final Spot source = model.getTrackModel().getEdgeSource( edge );
-			final Spot target = model.getTrackModel().getEdgeTarget( edge );
-			final int gaplength = ( int ) Math.abs( target.diffTo( source, Spot.FRAME ) ) - 1;
-			if ( gaplength > 0 )
-			{
-				ngaps++;
-				if ( longestgap < gaplength )
-					longestgap = gaplength;
-			}
-		}
-
 		// Put feature data
-		model.getFeatureModel().putTrackFeature( trackID, NUMBER_GAPS, Double.valueOf( ngaps ) );
-		model.getFeatureModel().putTrackFeature( trackID, LONGEST_GAP, Double.valueOf( longestgap ) );
-		model.getFeatureModel().putTrackFeature( trackID, NUMBER_SPLITS, Double.valueOf( nsplits ) );
-		model.getFeatureModel().putTrackFeature( trackID, NUMBER_MERGES, Double.valueOf( nmerges ) );
-		model.getFeatureModel().putTrackFeature( trackID, NUMBER_COMPLEX, Double.valueOf( ncomplex ) );
-		model.getFeatureModel().putTrackFeature( trackID, NUMBER_SPOTS, Double.valueOf( track.size() ) );
-
+		final FeatureModel fm = track.getModel().getFeatureModel();
+		fm.putTrackFeature( trackID, NUMBER_GAPS, Double.valueOf( ngaps ) );
+		fm.putTrackFeature( trackID, LONGEST_GAP, Double.valueOf( longestgap ) );
+		fm.putTrackFeature( trackID, NUMBER_SPLITS, Double.valueOf( nsplits ) );
+		fm.putTrackFeature( trackID, NUMBER_MERGES, Double.valueOf( nmerges ) );
+		fm.putTrackFeature( trackID, NUMBER_COMPLEX, Double.valueOf( ncomplex ) );
+		fm.putTrackFeature( trackID, NUMBER_SPOTS, Double.valueOf( nSpots ) );
 	}
 }
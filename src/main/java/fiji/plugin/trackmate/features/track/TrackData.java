@@ -0,0 +1,219 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features.track;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * A read-only view over the spots and edges of one track, pulled once from
+ * the {@link TrackModel} and shared by all the track analyzers run on this
+ * track.
+ * <p>
+ * Spots are sorted by frame. Edges are sorted by the frame of their earliest
+ * spot, and their source and target spots are given as indices in the spot
+ * array, so that analyzers do not need to query the track model.
+ */
+public final class TrackData
+{
+
+	private final Integer trackID;
+
+	private final Model model;
+
+	private final Spot[] spots;
+
+	private final DefaultWeightedEdge[] edges;
+
+	private final int[] sources;
+
+	private final int[] targets;
+
+	/**
+	 * Pulls the spots and edges of the specified track from the specified
+	 * model.
+	 *
+	 * @param trackID
+	 *            the track ID.
+	 * @param model
+	 *            the model.
+	 */
+	public TrackData( final Integer trackID, final Model model )
+	{
+		this.trackID = trackID;
+		this.model = model;
+		final TrackModel trackModel = model.getTrackModel();
+
+		final Set< Spot > trackSpots = trackModel.trackSpots( trackID );
+		this.spots = trackSpots.toArray( new Spot[ trackSpots.size() ] );
+		Arrays.sort( spots, Spot.frameComparator );
+		final TObjectIntHashMap< Spot > index = new TObjectIntHashMap<>( 2 * spots.length, 0.5f, -1 );
+		for ( int i = 0; i < spots.length; i++ )
+			index.put( spots[ i ], i );
+
+		// Sort edges by their earliest spot, packed with the edge position.
+		final Set< DefaultWeightedEdge > trackEdges = trackModel.trackEdges( trackID );
+		final DefaultWeightedEdge[] unsorted = trackEdges.toArray( new DefaultWeightedEdge[ trackEdges.size() ] );
+		final int[] s = new int[ unsorted.length ];
+		final int[] t = new int[ unsorted.length ];
+		final long[] order = new long[ unsorted.length ];
+		for ( int e = 0; e < unsorted.length; e++ )
+		{
+			s[ e ] = index.get( trackModel.getEdgeSource( unsorted[ e ] ) );
+			t[ e ] = index.get( trackModel.getEdgeTarget( unsorted[ e ] ) );
+			order[ e ] = ( ( long ) Math.min( s[ e ], t[ e ] ) << 32 ) | e;
+		}
+		Arrays.sort( order );
+
+		this.edges = new DefaultWeightedEdge[ unsorted.length ];
+		this.sources = new int[ unsorted.length ];
+		this.targets = new int[ unsorted.length ];
+		for ( int i = 0; i < order.length; i++ )
+		{
+			final int e = ( int ) order[ i ];
+			edges[ i ] = unsorted[ e ];
+			sources[ i ] = s[ e ];
+			targets[ i ] = t[ e ];
+		}
+	}
+
+	/**
+	 * Returns the ID of this track.
+	 *
+	 * @return the track ID.
+	 */
+	public Integer getTrackID()
+	{
+		return trackID;
+	}
+
+	/**
+	 * Returns the model this track belongs to.
+	 *
+	 * @return the model.
+	 */
+	public Model getModel()
+	{
+		return model;
+	}
+
+	/**
+	 * Returns the number of spots in this track.
+	 *
+	 * @return the number of spots.
+	 */
+	public int getNSpots()
+	{
+		return spots.length;
+	}
+
+	/**
+	 * Returns the spot at the specified index, in frame order.
+	 *
+	 * @param index
+	 *            the spot index, from 0 to {@link #getNSpots()} - 1.
+	 * @return the spot.
+	 */
+	public Spot getSpot( final int index )
+	{
+		return spots[ index ];
+	}
+
+	/**
+	 * Returns the number of edges in this track.
+	 *
+	 * @return the number of edges.
+	 */
+	public int getNEdges()
+	{
+		return edges.length;
+	}
+
+	/**
+	 * Returns the edge at the specified index.
+	 *
+	 * @param index
+	 *            the edge index, from 0 to {@link #getNEdges()} - 1.
+	 * @return the edge.
+	 */
+	public DefaultWeightedEdge getEdge( final int index )
+	{
+		return edges[ index ];
+	}
+
+	/**
+	 * Returns the index of the source spot of the edge at the specified
+	 * index.
+	 *
+	 * @param index
+	 *            the edge index.
+	 * @return the spot index, to be used with {@link #getSpot(int)}.
+	 */
+	public int getEdgeSourceIndex( final int index )
+	{
+		return sources[ index ];
+	}
+
+	/**
+	 * Returns the index of the target spot of the edge at the specified
+	 * index.
+	 *
+	 * @param index
+	 *            the edge index.
+	 * @return the spot index, to be used with {@link #getSpot(int)}.
+	 */
+	public int getEdgeTargetIndex( final int index )
+	{
+		return targets[ index ];
+	}
+
+	/**
+	 * Returns the source spot of the edge at the specified index.
+	 *
+	 * @param index
+	 *            the edge index.
+	 * @return the source spot.
+	 */
+	public Spot getEdgeSource( final int index )
+	{
+		return spots[ sources[ index ] ];
+	}
+
+	/**
+	 * Returns the target spot of the edge at the specified index.
+	 *
+	 * @param index
+	 *            the edge index.
+	 * @return the target spot.
+	 */
+	public Spot getEdgeTarget( final int index )
+	{
+		return spots[ targets[ index ] ];
+	}
+}
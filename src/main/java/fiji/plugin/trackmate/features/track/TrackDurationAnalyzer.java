@@ -25,7 +25,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import org.scijava.plugin.Plugin;
 
@@ -86,18 +85,23 @@ public class TrackDurationAnalyzer extends AbstractTrackAnalyzer
 	@Override
 	protected void analyze( final Integer trackID, final Model model )
 	{
-		final FeatureModel fm = model.getFeatureModel();
+		analyze( new TrackData( trackID, model ) );
+	}
+
+	@Override
+	protected void analyze( final TrackData track )
+	{
+		final FeatureModel fm = track.getModel().getFeatureModel();
+		final Integer trackID = track.getTrackID();
 
-		// I love brute force.
-		final Set< Spot > track = model.getTrackModel().trackSpots( trackID );
 		double minT = Double.POSITIVE_INFINITY;
 		double maxT = Double.NEGATIVE_INFINITY;
-		Double t;
 		Spot startSpot = null;
 		Spot endSpot = null;
-		for ( final Spot spot : track )
+		for ( int i = 0; i < track.getNSpots(); i++ )
 		{
-			t = spot.getFeature( Spot.POSITION_T );
+			final Spot spot = track.getSpot( i );
+			final double t = spot.getFeature( Spot.POSITION_T ).doubleValue();
 			if ( t < minT )
 			{
 				minT = t;
@@ -25,7 +25,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import org.scijava.plugin.Plugin;
 
@@ -80,20 +79,27 @@ public class TrackLocationAnalyzer extends AbstractTrackAnalyzer
 	@Override
 	protected void analyze( final Integer trackID, final Model model )
 	{
-		final FeatureModel fm = model.getFeatureModel();
-		final Set< Spot > track = model.getTrackModel().trackSpots( trackID );
+		analyze( new TrackData( trackID, model ) );
+	}
+
+	@Override
+	protected void analyze( final TrackData track )
+	{
+		final FeatureModel fm = track.getModel().getFeatureModel();
+		final Integer trackID = track.getTrackID();
 
 		double x = 0.;
 		double y = 0.;
 		double z = 0.;
 
-		for ( final Spot spot : track )
+		final int nspots = track.getNSpots();
+		for ( int i = 0; i < nspots; i++ )
 		{
+			final Spot spot = track.getSpot( i );
 			x += spot.getFeature( Spot.POSITION_X );
 			y += spot.getFeature( Spot.POSITION_Y );
 			z += spot.getFeature( Spot.POSITION_Z );
 		}
-		final int nspots = track.size();
 		x /= nspots;
 		y /= nspots;
 		z /= nspots;
@@ -22,20 +22,10 @@
 package fiji.plugin.trackmate.features.track;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
 
-import javax.swing.ImageIcon;
-
-import org.jgrapht.graph.DefaultWeightedEdge;
 import org.scijava.Priority;
 import org.scijava.plugin.Plugin;
 
@@ -44,10 +34,9 @@ import fiji.plugin.trackmate.FeatureModel;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.features.edges.DirectionalChangeAnalyzer;
-import fiji.plugin.trackmate.util.Threads;
 
 @Plugin( type = TrackAnalyzer.class, priority = Priority.LOW )
-public class TrackMotilityAnalyzer implements TrackAnalyzer
+public class TrackMotilityAnalyzer extends AbstractTrackAnalyzer
 {
 
 	public static final String KEY = "Track motility analysis";
@@ -112,178 +101,50 @@ public class TrackMotilityAnalyzer implements TrackAnalyzer
 		IS_INT.put( TRACK_MEAN_DIRECTIONAL_CHANGE_RATE, Boolean.FALSE );
 	}
 
-	private int numThreads;
-
-	private long processingTime;
-
 	public TrackMotilityAnalyzer()
 	{
-		setNumThreads();
-	}
-
-	@Override
-	public long getProcessingTime()
-	{
-		return processingTime;
-	}
-
-	@Override
-	public Map< String, Dimension > getFeatureDimensions()
-	{
-		return FEATURE_DIMENSIONS;
-	}
-
-	@Override
-	public Map< String, String > getFeatureNames()
-	{
-		return FEATURE_NAMES;
-	}
-
-	@Override
-	public Map< String, String > getFeatureShortNames()
-	{
-		return FEATURE_SHORT_NAMES;
-	}
-
-	@Override
-	public List< String > getFeatures()
-	{
-		return FEATURES;
-	}
-
-	@Override
-	public Map< String, Boolean > getIsIntFeature()
-	{
-		return IS_INT;
-	}
-
-	@Override
-	public boolean isManualFeature()
-	{
-		return false;
-	}
-
-	@Override
-	public ImageIcon getIcon()
-	{
-		return null;
-	}
-
-	@Override
-	public String getInfoText()
-	{
-		return null;
-	}
-
-	@Override
-	public String getKey()
-	{
-		return KEY;
-	}
-
-	@Override
-	public String getName()
-	{
-		return KEY;
-	}
-
-	@Override
-	public int getNumThreads()
-	{
-		return numThreads;
+		super( KEY, KEY, FEATURES, FEATURE_NAMES, FEATURE_SHORT_NAMES, FEATURE_DIMENSIONS, IS_INT );
 	}
 
 	@Override
 	public void setNumThreads()
 	{
-		this.numThreads = Runtime.getRuntime().availableProcessors();
-	}
-
-	@Override
-	public void setNumThreads( final int numThreads )
-	{
-		this.numThreads = numThreads;
-
+		setNumThreads( Runtime.getRuntime().availableProcessors() );
 	}
 
 	@Override
-	public boolean isLocal()
+	protected void analyze( final Integer trackID, final Model model )
 	{
-		return true;
+		analyze( new TrackData( trackID, model ) );
 	}
 
 	@Override
-	public void process( final Collection< Integer > trackIDs, final Model model )
-	{
-		if ( trackIDs.isEmpty() )
-			return;
-
-		final long start = System.currentTimeMillis();
-
-		// Create tasks.
-		final List< Callable< Void > > tasks = new ArrayList<>( trackIDs.size() );
-		for ( final Integer trackID : trackIDs )
-		{
-			final Callable< Void > task = new Callable< Void >()
-			{
-
-				@Override
-				public Void call() throws Exception
-				{
-					analyze( trackID, model );
-					return null;
-				}
-			};
-			tasks.add( task );
-		}
-
-		final ExecutorService executorService = Threads.newFixedThreadPool( numThreads );
-		List< Future< Void > > futures;
-		try
-		{
-			futures = executorService.invokeAll( tasks );
-			for ( final Future< Void > future : futures )
-				future.get();
-		}
-		catch ( InterruptedException | ExecutionException e )
-		{
-			e.printStackTrace();
-		}
-		executorService.shutdown();
-
-		final long end = System.currentTimeMillis();
-		processingTime = end - start;
-	}
-
-	private static final void analyze( final Integer trackID, final Model model )
+	protected void analyze( final TrackData track )
 	{
-		final FeatureModel fm = model.getFeatureModel();
+		final FeatureModel fm = track.getModel().getFeatureModel();
+		final Integer trackID = track.getTrackID();
 
 		/*
 		 * Get the first spot (lowest FRAME).
 		 */
 
-		final List< Spot > spots = new ArrayList<>( model.getTrackModel().trackSpots( trackID ) );
-		Collections.sort( spots, Spot.frameComparator );
-		final Spot first = spots.get( 0 );
+		final Spot first = track.getSpot( 0 );
 
 		/*
 		 * Iterate over edges.
 		 */
 
-		final Set< DefaultWeightedEdge > edges = model.getTrackModel().trackEdges( trackID );
-
 		double totalDistance = 0.;
 		double maxDistanceSq = Double.NEGATIVE_INFINITY;
 		double maxDistance = 0.;
 		double sumAngleSpeed = 0.;
 		int nAngleSpeed = 0;
 
-		for ( final DefaultWeightedEdge edge : edges )
+		for ( int i = 0; i < track.getNEdges(); i++ )
 		{
 			// Total distance traveled.
-			final Spot source = model.getTrackModel().getEdgeSource( edge );
-			final Spot target = model.getTrackModel().getEdgeTarget( edge );
+			final Spot source = track.getEdgeSource( i );
+			final Spot target = track.getEdgeTarget( i );
 			final double d = Math.sqrt( source.squareDistanceTo( target ) );
 			totalDistance += d;
 
@@ -299,7 +160,7 @@ public class TrackMotilityAnalyzer implements TrackAnalyzer
 			 * Mean rate of directional change. We depend on the edge feature
 			 */
 
-			final Double val = fm.getEdgeFeature( edge, DirectionalChangeAnalyzer.DIRECTIONAL_CHANGE_RATE );
+			final Double val = fm.getEdgeFeature( track.getEdge( i ), DirectionalChangeAnalyzer.DIRECTIONAL_CHANGE_RATE );
 			if ( null != val && !val.isNaN() )
 			{
 				sumAngleSpeed += val.doubleValue();
@@ -25,9 +25,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
-import org.jgrapht.graph.DefaultWeightedEdge;
 import org.scijava.plugin.Plugin;
 
 import fiji.plugin.trackmate.Dimension;
@@ -95,24 +93,29 @@ public class TrackSpeedStatisticsAnalyzer extends AbstractTrackAnalyzer
 	@Override
 	protected void analyze( final Integer trackID, final Model model )
 	{
-		final FeatureModel fm = model.getFeatureModel();
-		final Set< DefaultWeightedEdge > track = model.getTrackModel().trackEdges( trackID );
-		final double[] speeds = new double[ track.size() ];
-		int n = 0;
-		for ( final DefaultWeightedEdge edge : track )
+		analyze( new TrackData( trackID, model ) );
+	}
+
+	@Override
+	protected void analyze( final TrackData track )
+	{
+		final FeatureModel fm = track.getModel().getFeatureModel();
+		final Integer trackID = track.getTrackID();
+		final int nEdges = track.getNEdges();
+		final double[] speeds = new double[ nEdges ];
+		for ( int i = 0; i < nEdges; i++ )
 		{
-			final Spot source = model.getTrackModel().getEdgeSource( edge );
-			final Spot target = model.getTrackModel().getEdgeTarget( edge );
+			final Spot source = track.getEdgeSource( i );
+			final Spot target = track.getEdgeTarget( i );
 			final double d2 = source.squareDistanceTo( target );
 			final double dt = source.diffTo( target, Spot.POSITION_T );
-			final double val = Math.sqrt( d2 ) / Math.abs( dt );
-			speeds[ n++ ] = val;
+			speeds[ i ] = Math.sqrt( d2 ) / Math.abs( dt );
 		}
 
-		Util.quicksort( speeds, 0, track.size() - 1 );
-		final double median = speeds[ track.size() / 2 ];
+		Util.quicksort( speeds, 0, nEdges - 1 );
+		final double median = speeds[ nEdges / 2 ];
 		final double min = speeds[ 0 ];
-		final double max = speeds[ track.size() - 1 ];
+		final double max = speeds[ nEdges - 1 ];
 		final double mean = Util.average( speeds );
 		final double std = TMUtils.standardDeviation( speeds );
 
@@ -24,8 +24,6 @@ package fiji.plugin.trackmate.features.track;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
-import java.util.Set;
 
 import org.scijava.plugin.Plugin;
 
@@ -55,14 +53,17 @@ public class TrackSpotQualityFeatureAnalyzer extends AbstractTrackAnalyzer
 	@Override
 	protected void analyze( final Integer trackID, final Model model )
 	{
-		final FeatureModel fm = model.getFeatureModel();
-		final Set< Spot > track = model.getTrackModel().trackSpots( trackID );
-		final double mean = track
-				.stream()
-				.filter( Objects::nonNull )
-				.mapToDouble( s -> s.getFeature( Spot.QUALITY ).doubleValue() )
-				.average()
-				.getAsDouble();
-		fm.putTrackFeature( trackID, TRACK_MEAN_QUALITY, Double.valueOf( mean ) );
+		analyze( new TrackData( trackID, model ) );
+	}
+
+	@Override
+	protected void analyze( final TrackData track )
+	{
+		final FeatureModel fm = track.getModel().getFeatureModel();
+		double sum = 0.;
+		for ( int i = 0; i < track.getNSpots(); i++ )
+			sum += track.getSpot( i ).getFeature( Spot.QUALITY ).doubleValue();
+		final double mean = sum / track.getNSpots();
+		fm.putTrackFeature( track.getTrackID(), TRACK_MEAN_QUALITY, Double.valueOf( mean ) );
 	}
 }
@@ -0,0 +1,761 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.io;
+
+import static fiji.plugin.trackmate.io.TmXmlKeys.EDGE_FEATURES_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_ATTRIBUTE;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_DECLARATIONS_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FILTERED_TRACK_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FRAME_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.ROI_N_POINTS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_FRAME_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ID_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_NAME_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_EDGE_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ID_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_NAME_ATTRIBUTE_NAME;
+import static javax.xml.stream.XMLStreamConstants.CDATA;
+import static javax.xml.stream.XMLStreamConstants.CHARACTERS;
+import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
+import static javax.xml.stream.XMLStreamConstants.SPACE;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jdom2.Element;
+import org.jdom2.Text;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.SpotRoi;
+import fiji.plugin.trackmate.features.edges.EdgeTargetAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackIndexAnalyzer;
+import fiji.plugin.trackmate.util.Threads;
+
+/**
+ * Streaming parser for the model section of a TrackMate XML file.
+ * <p>
+ * The spots, the edges, the track features and the filtered track IDs are
+ * read directly from a {@link XMLStreamReader}, without building a DOM for
+ * them. The attributes of the spots in each frame are collected in chunks
+ * that are converted to {@link Spot}s on a thread pool while the stream is
+ * being scanned further. The small sections of the model, such as the
+ * feature declarations, are still returned as JDOM elements so that they can
+ * be read like the rest of the file.
+ * <p>
+ * The parser does not build a model itself: the {@link TmXmlReader} assembles
+ * it from the content exposed here.
+ */
+class TmXmlModelParser
+{
+
+	/**
+	 * How many spots are converted in a single task.
+	 */
+	private static final int CHUNK_SIZE = 1024;
+
+	private final Logger logger;
+
+	private final int numThreads;
+
+	private volatile boolean ok = true;
+
+	private String[] edgeFeatures = new String[ 0 ];
+
+	private SpotCollection spots = new SpotCollection();
+
+	private ConcurrentHashMap< Integer, Spot > cache = new ConcurrentHashMap<>();
+
+	private final List< TrackContent > tracks = new ArrayList<>();
+
+	private Set< Integer > filteredTrackIDs;
+
+	TmXmlModelParser( final Logger logger, final int numThreads )
+	{
+		this.logger = logger;
+		this.numThreads = Math.max( 1, numThreads );
+	}
+
+	/*
+	 * ACCESSORS.
+	 */
+
+	boolean isOk()
+	{
+		return ok;
+	}
+
+	/**
+	 * Returns the spot collection read from the file.
+	 */
+	SpotCollection getSpots()
+	{
+		return spots;
+	}
+
+	/**
+	 * Returns the map of the spots read from the file, indexed by their ID.
+	 */
+	ConcurrentHashMap< Integer, Spot > getCache()
+	{
+		return cache;
+	}
+
+	/**
+	 * Returns the edge features whose values are stored in the
+	 * {@link TrackContent}s, in the order of their index.
+	 */
+	String[] getEdgeFeatures()
+	{
+		return edgeFeatures;
+	}
+
+	/**
+	 * Returns the tracks read from the file, in the order they appear in it.
+	 */
+	List< TrackContent > getTracks()
+	{
+		return tracks;
+	}
+
+	/**
+	 * Returns the IDs of the filtered tracks, or <code>null</code> if the file
+	 * does not have a filtered track section.
+	 */
+	Set< Integer > getFilteredTrackIDs()
+	{
+		return filteredTrackIDs;
+	}
+
+	/*
+	 * PARSING.
+	 */
+
+	/**
+	 * Reads the model element the specified reader is positioned on, up to
+	 * its end tag. Children of the model that are not streamed are appended
+	 * to the specified element.
+	 *
+	 * @param reader
+	 *            the reader, positioned on the start tag of the model element.
+	 * @param modelElement
+	 *            the element to which the small model sections are added.
+	 * @throws XMLStreamException
+	 *             if the stream cannot be read.
+	 */
+	void parse( final XMLStreamReader reader, final Element modelElement ) throws XMLStreamException
+	{
+		while ( reader.hasNext() )
+		{
+			final int event = reader.next();
+			if ( event == END_ELEMENT )
+				return;
+			if ( event != START_ELEMENT )
+				continue;
+
+			final String name = reader.getLocalName();
+			if ( SPOT_COLLECTION_ELEMENT_KEY.equals( name ) )
+			{
+				readSpots( reader );
+			}
+			else if ( TRACK_COLLECTION_ELEMENT_KEY.equals( name ) )
+			{
+				readTracks( reader );
+			}
+			else if ( FILTERED_TRACK_ELEMENT_KEY.equals( name ) )
+			{
+				readFilteredTracks( reader );
+			}
+			else
+			{
+				final Element element = readElement( reader );
+				modelElement.addContent( element );
+				if ( FEATURE_DECLARATIONS_ELEMENT_KEY.equals( name ) )
+					edgeFeatures = readEdgeFeatures( element );
+			}
+		}
+	}
+
+	private void readSpots( final XMLStreamReader reader ) throws XMLStreamException
+	{
+		final int nspots = readInt( reader, SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME, 0, false );
+		cache = new ConcurrentHashMap<>( Math.max( 16, nspots ) );
+
+		/*
+		 * Each frame receives the futures of the chunks of spots it contains.
+		 * We bound the number of chunks in flight so that the raw attributes
+		 * do not pile up if the parser is faster than the conversion.
+		 */
+		final Map< Integer, List< Future< List< Spot > > > > chunks = new LinkedHashMap<>();
+		final ExecutorService executor = Threads.newFixedThreadPool( numThreads );
+		final Semaphore inFlight = new Semaphore( 4 * numThreads );
+		try
+		{
+			List< Future< List< Spot > > > frameChunks = null;
+			List< String[] > chunk = null;
+			while ( reader.hasNext() )
+			{
+				final int event = reader.next();
+				if ( event == START_ELEMENT )
+				{
+					final String name = reader.getLocalName();
+					if ( SPOT_FRAME_COLLECTION_ELEMENT_KEY.equals( name ) )
+					{
+						final int frame = readInt( reader, FRAME_ATTRIBUTE_NAME, 0, true );
+						frameChunks = chunks.computeIfAbsent( Integer.valueOf( frame ), f -> new ArrayList<>() );
+						chunk = new ArrayList<>( CHUNK_SIZE );
+					}
+					else if ( SPOT_ELEMENT_KEY.equals( name ) && null != chunk )
+					{
+						chunk.add( readRawSpot( reader ) );
+						if ( chunk.size() >= CHUNK_SIZE )
+						{
+							frameChunks.add( submit( chunk, executor, inFlight ) );
+							chunk = new ArrayList<>( CHUNK_SIZE );
+						}
+					}
+					else
+					{
+						skipElement( reader );
+					}
+				}
+				else if ( event == END_ELEMENT )
+				{
+					final String name = reader.getLocalName();
+					if ( SPOT_FRAME_COLLECTION_ELEMENT_KEY.equals( name ) )
+					{
+						if ( !chunk.isEmpty() )
+							frameChunks.add( submit( chunk, executor, inFlight ) );
+						chunk = null;
+						frameChunks = null;
+					}
+					else if ( SPOT_COLLECTION_ELEMENT_KEY.equals( name ) )
+					{
+						break;
+					}
+				}
+			}
+
+			final Map< Integer, Set< Spot > > content = new HashMap<>( chunks.size() );
+			for ( final Map.Entry< Integer, List< Future< List< Spot > > > > entry : chunks.entrySet() )
+			{
+				final Set< Spot > spotSet = new HashSet<>();
+				for ( final Future< List< Spot > > future : entry.getValue() )
+					spotSet.addAll( future.get() );
+				content.put( entry.getKey(), spotSet );
+			}
+			spots = SpotCollection.fromMap( content );
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			error( "Reading spots was interrupted.\n" );
+		}
+		catch ( final ExecutionException e )
+		{
+			error( "Problem reading spots:\n" + e.getCause().getMessage() + '\n' );
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	private Future< List< Spot > > submit( final List< String[] > chunk, final ExecutorService executor, final Semaphore inFlight ) throws InterruptedException
+	{
+		inFlight.acquire();
+		return executor.submit( () -> {
+			try
+			{
+				final List< Spot > list = new ArrayList<>( chunk.size() );
+				for ( final String[] raw : chunk )
+				{
+					final Spot spot = createSpot( raw );
+					cache.put( Integer.valueOf( spot.ID() ), spot );
+					list.add( spot );
+				}
+				return list;
+			}
+			finally
+			{
+				inFlight.release();
+			}
+		} );
+	}
+
+	/**
+	 * Copies the attributes and the text of a spot element. The array stores
+	 * attribute names and values in alternance, and the element text last.
+	 */
+	private static String[] readRawSpot( final XMLStreamReader reader ) throws XMLStreamException
+	{
+		final int n = reader.getAttributeCount();
+		final String[] raw = new String[ 2 * n + 1 ];
+		for ( int i = 0; i < n; i++ )
+		{
+			raw[ 2 * i ] = reader.getAttributeLocalName( i );
+			raw[ 2 * i + 1 ] = reader.getAttributeValue( i );
+		}
+		raw[ 2 * n ] = reader.getElementText();
+		return raw;
+	}
+
+	private Spot createSpot( final String[] raw )
+	{
+		final int n = ( raw.length - 1 ) / 2;
+
+		// Read id.
+		int ID = 0;
+		boolean foundID = false;
+		for ( int i = 0; i < n; i++ )
+		{
+			if ( SPOT_ID_ATTRIBUTE_NAME.equals( raw[ 2 * i ] ) )
+			{
+				ID = parseInt( raw[ 2 * i + 1 ], SPOT_ID_ATTRIBUTE_NAME, SPOT_ELEMENT_KEY, 0, true );
+				foundID = true;
+				break;
+			}
+		}
+		if ( !foundID )
+			error( "Could not find attribute " + SPOT_ID_ATTRIBUTE_NAME + " for element " + SPOT_ELEMENT_KEY + ", substituting default value: 0.\n" );
+		final Spot spot = new Spot( ID );
+
+		// Name, ROI and features.
+		String name = null;
+		int roiNPoints = 0;
+		for ( int i = 0; i < n; i++ )
+		{
+			final String att = raw[ 2 * i ];
+			final String value = raw[ 2 * i + 1 ];
+			if ( SPOT_ID_ATTRIBUTE_NAME.equals( att ) )
+				continue;
+			else if ( SPOT_NAME_ATTRIBUTE_NAME.equals( att ) )
+				name = value;
+			else if ( ROI_N_POINTS_ATTRIBUTE_NAME.equals( att ) )
+				roiNPoints = parseInt( value, att, SPOT_ELEMENT_KEY, 0, false );
+			else
+				spot.putFeature( att, Double.valueOf( value ) );
+		}
+
+		if ( null == name || name.equals( "" ) )
+			name = "ID" + ID;
+		spot.setName( name );
+
+		if ( roiNPoints > 2 )
+		{
+			final double[] xrois = new double[ roiNPoints ];
+			final double[] yrois = new double[ roiNPoints ];
+			final String[] vals = raw[ 2 * n ].trim().split( "\\s+" );
+			int index = 0;
+			for ( int i = 0; i < roiNPoints; i++ )
+			{
+				xrois[ i ] = Double.parseDouble( vals[ index++ ] );
+				yrois[ i ] = Double.parseDouble( vals[ index++ ] );
+			}
+			spot.setRoi( new SpotRoi( xrois, yrois ) );
+		}
+		return spot;
+	}
+
+	private void readTracks( final XMLStreamReader reader ) throws XMLStreamException
+	{
+		final Map< String, Integer > edgeFeatureIndex = new HashMap<>( edgeFeatures.length );
+		for ( int i = 0; i < edgeFeatures.length; i++ )
+			edgeFeatureIndex.put( edgeFeatures[ i ], Integer.valueOf( i ) );
+
+		TrackContent track = null;
+		while ( reader.hasNext() )
+		{
+			final int event = reader.next();
+			if ( event == START_ELEMENT )
+			{
+				final String name = reader.getLocalName();
+				if ( TRACK_ELEMENT_KEY.equals( name ) )
+				{
+					track = readTrack( reader );
+				}
+				else if ( TRACK_EDGE_ELEMENT_KEY.equals( name ) && null != track )
+				{
+					readEdge( reader, track, edgeFeatureIndex );
+					skipElement( reader );
+				}
+				else
+				{
+					skipElement( reader );
+				}
+			}
+			else if ( event == END_ELEMENT )
+			{
+				final String name = reader.getLocalName();
+				if ( TRACK_ELEMENT_KEY.equals( name ) )
+				{
+					tracks.add( track );
+					track = null;
+				}
+				else if ( TRACK_COLLECTION_ELEMENT_KEY.equals( name ) )
+				{
+					return;
+				}
+			}
+		}
+	}
+
+	private TrackContent readTrack( final XMLStreamReader reader )
+	{
+		final String idStr = reader.getAttributeValue( null, TrackIndexAnalyzer.TRACK_ID );
+		int trackID = 0;
+		boolean validID = false;
+		if ( null == idStr )
+		{
+			error( "Could not find attribute " + TrackIndexAnalyzer.TRACK_ID + " for element " + TRACK_ELEMENT_KEY + ", substituting default value: 0.\n" );
+		}
+		else
+		{
+			try
+			{
+				trackID = Integer.parseInt( idStr.trim() );
+				validID = true;
+			}
+			catch ( final NumberFormatException e )
+			{
+				error( "Cannot read the attribute " + TrackIndexAnalyzer.TRACK_ID + " of the element " + TRACK_ELEMENT_KEY + ", substituting default value: 0.\n" );
+			}
+		}
+
+		String trackName = reader.getAttributeValue( null, TRACK_NAME_ATTRIBUTE_NAME );
+		if ( null == trackName )
+			trackName = "Unnamed";
+
+		Map< String, Double > features = null;
+		if ( validID )
+		{
+			final int n = reader.getAttributeCount();
+			features = new HashMap<>( n );
+			for ( int i = 0; i < n; i++ )
+			{
+				final String att = reader.getAttributeLocalName( i );
+				if ( att.equals( TRACK_NAME_ATTRIBUTE_NAME ) )
+					continue;
+
+				try
+				{
+					features.put( att, Double.valueOf( parseDouble( reader.getAttributeValue( i ) ) ) );
+				}
+				catch ( final NumberFormatException e )
+				{
+					error( "Track " + trackID + ": Cannot read the feature " + att + " value. Skipping.\n" );
+				}
+			}
+		}
+		else
+		{
+			error( "Found a track with invalid trackID. Skipping its features.\n" );
+		}
+		return new TrackContent( trackID, trackName, features, edgeFeatures.length );
+	}
+
+	private void readEdge( final XMLStreamReader reader, final TrackContent track, final Map< String, Integer > edgeFeatureIndex )
+	{
+		final int sourceID = readInt( reader, EdgeTargetAnalyzer.SPOT_SOURCE_ID, 0, true );
+		final int targetID = readInt( reader, EdgeTargetAnalyzer.SPOT_TARGET_ID, 0, true );
+		double cost = 0.;
+		final int edge = track.addEdge( sourceID, targetID );
+		final int n = reader.getAttributeCount();
+		for ( int i = 0; i < n; i++ )
+		{
+			final String att = reader.getAttributeLocalName( i );
+			final boolean isCost = EdgeTargetAnalyzer.EDGE_COST.equals( att );
+			final Integer index = edgeFeatureIndex.get( att );
+			if ( !isCost && null == index )
+				continue;
+
+			double val = 0.;
+			try
+			{
+				val = parseDouble( reader.getAttributeValue( i ) );
+			}
+			catch ( final NumberFormatException e )
+			{
+				error( "Cannot read the attribute " + att + " of the element " + TRACK_EDGE_ELEMENT_KEY + ", substituting default value.\n" );
+			}
+			if ( isCost )
+				cost = val;
+			if ( null != index )
+				track.setEdgeFeature( edge, index.intValue(), val );
+		}
+		track.costs[ edge ] = cost;
+	}
+
+	private void readFilteredTracks( final XMLStreamReader reader ) throws XMLStreamException
+	{
+		filteredTrackIDs = new HashSet<>();
+		while ( reader.hasNext() )
+		{
+			final int event = reader.next();
+			if ( event == START_ELEMENT )
+			{
+				if ( TRACK_ID_ELEMENT_KEY.equals( reader.getLocalName() ) )
+					filteredTrackIDs.add( Integer.valueOf( readInt( reader, TrackIndexAnalyzer.TRACK_ID, 0, true ) ) );
+				skipElement( reader );
+			}
+			else if ( event == END_ELEMENT )
+			{
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the keys of the edge features declared in the specified feature
+	 * declarations element.
+	 */
+	private static String[] readEdgeFeatures( final Element featuresElement )
+	{
+		final Element edgeFeaturesElement = featuresElement.getChild( EDGE_FEATURES_ELEMENT_KEY );
+		if ( null == edgeFeaturesElement )
+			return new String[ 0 ];
+
+		final List< String > features = new ArrayList<>();
+		for ( final Element child : edgeFeaturesElement.getChildren( FEATURE_ELEMENT_KEY ) )
+		{
+			final String feature = child.getAttributeValue( FEATURE_ATTRIBUTE );
+			if ( null != feature )
+				features.add( feature );
+		}
+		return features.toArray( new String[ features.size() ] );
+	}
+
+	/*
+	 * STREAM UTILITIES.
+	 */
+
+	/**
+	 * Builds a JDOM element from the element the specified reader is
+	 * positioned on. The reader is left on the matching end tag.
+	 *
+	 * @param reader
+	 *            the reader, positioned on a start tag.
+	 * @return a new JDOM element.
+	 * @throws XMLStreamException
+	 *             if the stream cannot be read.
+	 */
+	static Element readElement( final XMLStreamReader reader ) throws XMLStreamException
+	{
+		final Element element = new Element( reader.getLocalName() );
+		for ( int i = 0; i < reader.getAttributeCount(); i++ )
+			element.setAttribute( reader.getAttributeLocalName( i ), reader.getAttributeValue( i ) );
+
+		while ( reader.hasNext() )
+		{
+			switch ( reader.next() )
+			{
+			case START_ELEMENT:
+				element.addContent( readElement( reader ) );
+				break;
+			case CHARACTERS:
+			case CDATA:
+			case SPACE:
+				element.addContent( new Text( reader.getText() ) );
+				break;
+			case END_ELEMENT:
+				return element;
+			default:
+				break;
+			}
+		}
+		return element;
+	}
+
+	/**
+	 * Moves the specified reader, positioned on a start tag, to the matching
+	 * end tag.
+	 */
+	static void skipElement( final XMLStreamReader reader ) throws XMLStreamException
+	{
+		int depth = 1;
+		while ( depth > 0 && reader.hasNext() )
+		{
+			final int event = reader.next();
+			if ( event == START_ELEMENT )
+				depth++;
+			else if ( event == END_ELEMENT )
+				depth--;
+		}
+	}
+
+	private int readInt( final XMLStreamReader reader, final String name, final int defaultValue, final boolean report )
+	{
+		final String str = reader.getAttributeValue( null, name );
+		if ( null == str )
+		{
+			if ( report )
+				error( "Could not find attribute " + name + " for element " + reader.getLocalName() + ", substituting default value: " + defaultValue + ".\n" );
+			return defaultValue;
+		}
+		return parseInt( str, name, reader.getLocalName(), defaultValue, report );
+	}
+
+	private int parseInt( final String str, final String name, final String element, final int defaultValue, final boolean report )
+	{
+		try
+		{
+			return Integer.parseInt( str.trim() );
+		}
+		catch ( final NumberFormatException e )
+		{
+			if ( report )
+				error( "Cannot read the attribute " + name + " of the element " + element + ", substituting default value: " + defaultValue + ".\n" );
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Parses a double the way JDOM attributes do, accepting the XML schema
+	 * notation for infinities.
+	 */
+	private static double parseDouble( final String str )
+	{
+		final String s = str.trim();
+		if ( "INF".equals( s ) )
+			return Double.POSITIVE_INFINITY;
+		if ( "-INF".equals( s ) )
+			return Double.NEGATIVE_INFINITY;
+		return Double.parseDouble( s );
+	}
+
+	/**
+	 * Logs an error and flags this parser as failed. May be called from the
+	 * spot conversion threads.
+	 */
+	private void error( final String message )
+	{
+		synchronized ( logger )
+		{
+			logger.error( message );
+		}
+		ok = false;
+	}
+
+	/**
+	 * The edges and features of a single track, as read from the file. Edges
+	 * are stored as the IDs of their source and target spots, in the order of
+	 * the file.
+	 */
+	static final class TrackContent
+	{
+
+		final int trackID;
+
+		final String name;
+
+		/**
+		 * The track features, or <code>null</code> if they could not be read.
+		 */
+		final Map< String, Double > features;
+
+		private final int nFeatures;
+
+		private int nEdges;
+
+		int[] sources = new int[ 8 ];
+
+		int[] targets = new int[ 8 ];
+
+		double[] costs = new double[ 8 ];
+
+		private double[] values;
+
+		private final BitSet present = new BitSet();
+
+		private TrackContent( final int trackID, final String name, final Map< String, Double > features, final int nFeatures )
+		{
+			this.trackID = trackID;
+			this.name = name;
+			this.features = features;
+			this.nFeatures = nFeatures;
+			this.values = new double[ 8 * nFeatures ];
+		}
+
+		int getNEdges()
+		{
+			return nEdges;
+		}
+
+		/**
+		 * Returns <code>true</code> if the specified edge has a value for the
+		 * specified edge feature index.
+		 */
+		boolean hasEdgeFeature( final int edge, final int feature )
+		{
+			return present.get( edge * nFeatures + feature );
+		}
+
+		double getEdgeFeature( final int edge, final int feature )
+		{
+			return values[ edge * nFeatures + feature ];
+		}
+
+		private int addEdge( final int sourceID, final int targetID )
+		{
+			if ( nEdges == sources.length )
+			{
+				final int capacity = 2 * nEdges;
+				sources = Arrays.copyOf( sources, capacity );
+				targets = Arrays.copyOf( targets, capacity );
+				costs = Arrays.copyOf( costs, capacity );
+				values = Arrays.copyOf( values, capacity * nFeatures );
+			}
+			sources[ nEdges ] = sourceID;
+			targets[ nEdges ] = targetID;
+			return nEdges++;
+		}
+
+		private void setEdgeFeature( final int edge, final int feature, final double value )
+		{
+			values[ edge * nFeatures + feature ] = value;
+			present.set( edge * nFeatures + feature );
+		}
+	}
+}
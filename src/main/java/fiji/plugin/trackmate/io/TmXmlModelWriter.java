@@ -0,0 +1,494 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.io;
+
+import static fiji.plugin.trackmate.io.TmXmlKeys.FILTERED_TRACK_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FRAME_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.ROI_N_POINTS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_FRAME_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ID_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_NAME_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_EDGE_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ID_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_NAME_ATTRIBUTE_NAME;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.jdom2.Attribute;
+import org.jdom2.Element;
+import org.jdom2.output.XMLOutputter;
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.SpotRoi;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.features.edges.EdgeTargetAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackIndexAnalyzer;
+import fiji.plugin.trackmate.util.Threads;
+
+/**
+ * Streaming writer for the model section of a TrackMate XML file.
+ * <p>
+ * The spots, tracks and filtered track IDs of a model are formatted straight
+ * to a {@link Writer}, without building a DOM for them. Spots are formatted in
+ * chunks of a single frame and tracks one by one, on a thread pool. The
+ * formatted chunks are written in the order of the file, and only a bounded
+ * number of them are in flight at any time, so that the memory used does not
+ * depend on the model size.
+ * <p>
+ * The output follows the schema read by {@link TmXmlReader}, with the
+ * indentation of the JDOM pretty format.
+ */
+class TmXmlModelWriter
+{
+
+	/**
+	 * How many spots are formatted in a single task.
+	 */
+	private static final int CHUNK_SIZE = 2048;
+
+	private final Model model;
+
+	private final Logger logger;
+
+	private final int numThreads;
+
+	private final String indent;
+
+	private final String nl;
+
+	TmXmlModelWriter( final Model model, final Logger logger, final int numThreads, final String indent, final String lineSeparator )
+	{
+		this.model = model;
+		this.logger = logger;
+		this.numThreads = Math.max( 1, numThreads );
+		this.indent = indent;
+		this.nl = lineSeparator;
+	}
+
+	/**
+	 * Writes the model element at indentation level 1. The attributes and the
+	 * children of the specified element, such as the feature declarations,
+	 * are written first, followed by the streamed spots and tracks.
+	 *
+	 * @param modelElement
+	 *            the element holding the small sections of the model.
+	 * @param outputter
+	 *            the outputter to use for the children of this element.
+	 * @param writer
+	 *            the writer to write to.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	void write( final Element modelElement, final XMLOutputter outputter, final Writer writer ) throws IOException
+	{
+		final StringBuilder str = new StringBuilder();
+		indent( str, 1 );
+		startTag( str, modelElement );
+		str.append( '>' ).append( nl );
+		writer.write( str.toString() );
+
+		for ( final Element child : modelElement.getChildren() )
+		{
+			writer.write( indentString( 2 ) );
+			outputter.output( child, writer );
+			writer.write( nl );
+		}
+
+		final ExecutorService executor = Threads.newFixedThreadPool( numThreads );
+		try
+		{
+			final OrderedOutput out = new OrderedOutput( executor, writer, 2 * numThreads );
+			writeSpots( out );
+			writeTracks( out );
+			out.flush();
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+		writeFilteredTracks( writer );
+
+		writer.write( indentString( 1 ) + "</" + modelElement.getName() + ">" + nl );
+	}
+
+	private void writeSpots( final OrderedOutput out ) throws IOException
+	{
+		final SpotCollection spots = model.getSpots();
+		final Map< String, Boolean > isInt = new HashMap<>( model.getFeatureModel().getSpotFeatureIsInt() );
+
+		final int nspots = spots.getNSpots( false );
+		out.write( indentString( 2 ) + "<" + SPOT_COLLECTION_ELEMENT_KEY + " " + SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME + "=\"" + nspots + "\">" + nl );
+		for ( final int frame : spots.keySet() )
+		{
+			out.write( indentString( 3 ) + "<" + SPOT_FRAME_COLLECTION_ELEMENT_KEY + " " + FRAME_ATTRIBUTE_NAME + "=\"" + frame + "\">" + nl );
+			List< Spot > chunk = new ArrayList<>( CHUNK_SIZE );
+			for ( final Iterator< Spot > it = spots.iterator( frame, false ); it.hasNext(); )
+			{
+				chunk.add( it.next() );
+				if ( chunk.size() >= CHUNK_SIZE )
+				{
+					final List< Spot > c = chunk;
+					out.submit( () -> formatSpots( c, isInt ) );
+					chunk = new ArrayList<>( CHUNK_SIZE );
+				}
+			}
+			if ( !chunk.isEmpty() )
+			{
+				final List< Spot > c = chunk;
+				out.submit( () -> formatSpots( c, isInt ) );
+			}
+			out.write( indentString( 3 ) + "</" + SPOT_FRAME_COLLECTION_ELEMENT_KEY + ">" + nl );
+		}
+		out.write( indentString( 2 ) + "</" + SPOT_COLLECTION_ELEMENT_KEY + ">" + nl );
+		logger.log( "  Added " + nspots + " spots.\n" );
+	}
+
+	private String formatSpots( final List< Spot > spots, final Map< String, Boolean > isInt )
+	{
+		final StringBuilder str = new StringBuilder( 512 * spots.size() );
+		for ( final Spot spot : spots )
+		{
+			indent( str, 4 );
+			str.append( '<' ).append( SPOT_ELEMENT_KEY );
+			attribute( str, SPOT_ID_ATTRIBUTE_NAME, Integer.toString( spot.ID() ) );
+			attribute( str, SPOT_NAME_ATTRIBUTE_NAME, spot.getName() );
+			for ( final Map.Entry< String, Double > entry : spot.getFeatures().entrySet() )
+			{
+				final Double val = entry.getValue();
+				if ( null == val )
+					continue;
+
+				final String feature = entry.getKey();
+				if ( isInt.getOrDefault( feature, Boolean.FALSE ).booleanValue() )
+					attribute( str, feature, Integer.toString( val.intValue() ) );
+				else
+					attribute( str, feature, val.toString() );
+			}
+
+			final SpotRoi roi = spot.getRoi();
+			if ( roi == null )
+			{
+				str.append( " />" ).append( nl );
+				continue;
+			}
+
+			final int nPoints = roi.x.length;
+			attribute( str, ROI_N_POINTS_ATTRIBUTE_NAME, Integer.toString( nPoints ) );
+			str.append( '>' );
+			for ( int i = 0; i < nPoints; i++ )
+			{
+				if ( i > 0 )
+					str.append( ' ' );
+				str.append( roi.x[ i ] ).append( ' ' ).append( roi.y[ i ] );
+			}
+			str.append( "</" ).append( SPOT_ELEMENT_KEY ).append( '>' ).append( nl );
+		}
+		return str.toString();
+	}
+
+	/*
+	 * Some numerical features are REQUIRED to be able to save to XML. Namely:
+	 * the track ID feature for track and the edge spot source and spot target
+	 * for edges. Whether the model provides them as features or not, we get
+	 * them from the model and put them in the XML.
+	 */
+	private void writeTracks( final OrderedOutput out ) throws IOException
+	{
+		final FeatureModel fm = model.getFeatureModel();
+
+		// TrackID is treated separately.
+		final List< String > trackFeatures = new ArrayList<>( fm.getTrackFeatures() );
+		trackFeatures.remove( TrackIndexAnalyzer.TRACK_ID );
+		final Map< String, Boolean > trackIsInt = new HashMap<>( fm.getTrackFeatureIsInt() );
+
+		// We will treat edge source and target separately.
+		final List< String > edgeFeatures = new ArrayList<>( fm.getEdgeFeatures() );
+		edgeFeatures.remove( EdgeTargetAnalyzer.SPOT_SOURCE_ID );
+		edgeFeatures.remove( EdgeTargetAnalyzer.SPOT_TARGET_ID );
+		final Map< String, Boolean > edgeIsInt = new HashMap<>( fm.getEdgeFeatureIsInt() );
+
+		out.write( indentString( 2 ) + "<" + TRACK_COLLECTION_ELEMENT_KEY + ">" + nl );
+		for ( final Integer trackID : model.getTrackModel().trackIDs( false ) )
+		{
+			/*
+			 * Special case: the track has only one spot in it, therefore no
+			 * edge. It just should not be, since the model never returns a
+			 * track with less than one edge. So we skip writing it.
+			 */
+			if ( model.getTrackModel().trackEdges( trackID ).isEmpty() )
+				continue;
+
+			out.submit( () -> formatTrack( trackID, trackFeatures, trackIsInt, edgeFeatures, edgeIsInt ) );
+		}
+		out.write( indentString( 2 ) + "</" + TRACK_COLLECTION_ELEMENT_KEY + ">" + nl );
+		logger.log( "  Added tracks.\n" );
+	}
+
+	private String formatTrack(
+			final Integer trackID,
+			final List< String > trackFeatures,
+			final Map< String, Boolean > trackIsInt,
+			final List< String > edgeFeatures,
+			final Map< String, Boolean > edgeIsInt )
+	{
+		final TrackModel trackModel = model.getTrackModel();
+		final FeatureModel fm = model.getFeatureModel();
+		final Set< DefaultWeightedEdge > track = trackModel.trackEdges( trackID );
+		final StringBuilder str = new StringBuilder( 256 * ( track.size() + 1 ) );
+
+		indent( str, 3 );
+		str.append( '<' ).append( TRACK_ELEMENT_KEY );
+		attribute( str, TRACK_NAME_ATTRIBUTE_NAME, trackModel.name( trackID ) );
+		attribute( str, TrackIndexAnalyzer.TRACK_ID, trackID.toString() );
+		for ( final String feature : trackFeatures )
+		{
+			final Double val = fm.getTrackFeature( trackID, feature );
+			if ( null == val )
+				continue;
+
+			if ( trackIsInt.get( feature ).booleanValue() )
+				attribute( str, feature, Integer.toString( val.intValue() ) );
+			else
+				attribute( str, feature, val.toString() );
+		}
+		str.append( '>' ).append( nl );
+
+		for ( final DefaultWeightedEdge edge : track )
+		{
+			indent( str, 4 );
+			str.append( '<' ).append( TRACK_EDGE_ELEMENT_KEY );
+
+			/*
+			 * Make sure the edge has the right orientation: forward in time.
+			 */
+			final Spot source = trackModel.getEdgeSource( edge );
+			final Spot target = trackModel.getEdgeTarget( edge );
+			final int sourceFrame = source.getFeature( Spot.FRAME ).intValue();
+			final int targetFrame = target.getFeature( Spot.FRAME ).intValue();
+			final int sourceID;
+			final int targetID;
+			if ( targetFrame >= sourceFrame )
+			{
+				sourceID = source.ID();
+				targetID = target.ID();
+			}
+			else
+			{
+				sourceID = target.ID();
+				targetID = source.ID();
+			}
+			attribute( str, EdgeTargetAnalyzer.SPOT_SOURCE_ID, Integer.toString( sourceID ) );
+			attribute( str, EdgeTargetAnalyzer.SPOT_TARGET_ID, Integer.toString( targetID ) );
+
+			for ( final String feature : edgeFeatures )
+			{
+				final Double val = fm.getEdgeFeature( edge, feature );
+				if ( null == val )
+					continue;
+
+				if ( edgeIsInt.get( feature ).booleanValue() )
+					attribute( str, feature, Integer.toString( val.intValue() ) );
+				else
+					attribute( str, feature, val.toString() );
+			}
+			str.append( " />" ).append( nl );
+		}
+
+		indent( str, 3 );
+		str.append( "</" ).append( TRACK_ELEMENT_KEY ).append( '>' ).append( nl );
+		return str.toString();
+	}
+
+	private void writeFilteredTracks( final Writer writer ) throws IOException
+	{
+		final StringBuilder str = new StringBuilder();
+		indent( str, 2 );
+		str.append( '<' ).append( FILTERED_TRACK_ELEMENT_KEY ).append( '>' ).append( nl );
+		for ( final Integer trackID : model.getTrackModel().trackIDs( true ) )
+		{
+			indent( str, 3 );
+			str.append( '<' ).append( TRACK_ID_ELEMENT_KEY );
+			attribute( str, TrackIndexAnalyzer.TRACK_ID, trackID.toString() );
+			str.append( " />" ).append( nl );
+		}
+		indent( str, 2 );
+		str.append( "</" ).append( FILTERED_TRACK_ELEMENT_KEY ).append( '>' ).append( nl );
+		writer.write( str.toString() );
+		logger.log( "  Added filtered tracks.\n" );
+	}
+
+	/*
+	 * FORMATTING UTILITIES.
+	 */
+
+	private String indentString( final int level )
+	{
+		final StringBuilder str = new StringBuilder();
+		indent( str, level );
+		return str.toString();
+	}
+
+	private void indent( final StringBuilder str, final int level )
+	{
+		for ( int i = 0; i < level; i++ )
+			str.append( indent );
+	}
+
+	/**
+	 * Appends the start tag of the specified element with its attributes,
+	 * without the closing bracket.
+	 */
+	static void startTag( final StringBuilder str, final Element element )
+	{
+		str.append( '<' ).append( element.getName() );
+		for ( final Attribute att : element.getAttributes() )
+			attribute( str, att.getName(), att.getValue() );
+	}
+
+	static void attribute( final StringBuilder str, final String name, final String value )
+	{
+		str.append( ' ' ).append( name ).append( "=\"" );
+		escape( str, value );
+		str.append( '"' );
+	}
+
+	private static void escape( final StringBuilder str, final String value )
+	{
+		for ( int i = 0; i < value.length(); i++ )
+		{
+			final char c = value.charAt( i );
+			switch ( c )
+			{
+			case '&':
+				str.append( "&amp;" );
+				break;
+			case '<':
+				str.append( "&lt;" );
+				break;
+			case '>':
+				str.append( "&gt;" );
+				break;
+			case '"':
+				str.append( "&quot;" );
+				break;
+			case '\n':
+				str.append( "&#xA;" );
+				break;
+			case '\r':
+				str.append( "&#xD;" );
+				break;
+			case '\t':
+				str.append( "&#x9;" );
+				break;
+			default:
+				str.append( c );
+			}
+		}
+	}
+
+	/**
+	 * Writes text in order, whether it is available right away or formatted
+	 * by a task. At most <code>capacity</code> pieces are pending at any
+	 * time.
+	 */
+	private static final class OrderedOutput
+	{
+
+		private final ExecutorService executor;
+
+		private final Writer writer;
+
+		private final int capacity;
+
+		private final ArrayDeque< Future< String > > pending = new ArrayDeque<>();
+
+		private OrderedOutput( final ExecutorService executor, final Writer writer, final int capacity )
+		{
+			this.executor = executor;
+			this.writer = writer;
+			this.capacity = capacity;
+		}
+
+		private void submit( final Callable< String > task ) throws IOException
+		{
+			drain( capacity - 1 );
+			pending.add( executor.submit( task ) );
+		}
+
+		private void write( final String str ) throws IOException
+		{
+			if ( pending.isEmpty() )
+				writer.write( str );
+			else
+				pending.add( CompletableFuture.completedFuture( str ) );
+		}
+
+		private void flush() throws IOException
+		{
+			drain( 0 );
+		}
+
+		private void drain( final int keep ) throws IOException
+		{
+			while ( pending.size() > keep )
+			{
+				try
+				{
+					writer.write( pending.poll().get() );
+				}
+				catch ( final InterruptedException e )
+				{
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException( "Writing the model was interrupted." );
+				}
+				catch ( final ExecutionException e )
+				{
+					throw new IOException( "Problem formatting the model.", e.getCause() );
+				}
+			}
+		}
+	}
+}
@@ -44,12 +44,10 @@ import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_ISINT_ATTRIBUTE;
 import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_NAME_ATTRIBUTE;
 import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_SHORT_NAME_ATTRIBUTE;
-import static fiji.plugin.trackmate.io.TmXmlKeys.FILTERED_TRACK_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.FILTER_ABOVE_ATTRIBUTE_NAME;
 import static fiji.plugin.trackmate.io.TmXmlKeys.FILTER_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.FILTER_FEATURE_ATTRIBUTE_NAME;
 import static fiji.plugin.trackmate.io.TmXmlKeys.FILTER_VALUE_ATTRIBUTE_NAME;
-import static fiji.plugin.trackmate.io.TmXmlKeys.FRAME_ATTRIBUTE_NAME;
 import static fiji.plugin.trackmate.io.TmXmlKeys.GUI_STATE_ATTRIBUTE;
 import static fiji.plugin.trackmate.io.TmXmlKeys.GUI_STATE_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.GUI_VIEW_ATTRIBUTE;
@@ -69,71 +67,61 @@ import static fiji.plugin.trackmate.io.TmXmlKeys.INITIAL_SPOT_FILTER_ELEMENT_KEY
 import static fiji.plugin.trackmate.io.TmXmlKeys.LOG_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.MODEL_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.PLUGIN_VERSION_ATTRIBUTE_NAME;
-import static fiji.plugin.trackmate.io.TmXmlKeys.ROI_N_POINTS_ATTRIBUTE_NAME;
 import static fiji.plugin.trackmate.io.TmXmlKeys.SETTINGS_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.SPATIAL_UNITS_ATTRIBUTE_NAME;
 import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ANALYSERS_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_COLLECTION_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME;
-import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_FEATURES_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_FILTER_COLLECTION_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_FRAME_COLLECTION_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ID_ATTRIBUTE_NAME;
-import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_NAME_ATTRIBUTE_NAME;
 import static fiji.plugin.trackmate.io.TmXmlKeys.TIME_UNITS_ATTRIBUTE_NAME;
 import static fiji.plugin.trackmate.io.TmXmlKeys.TRACKER_SETTINGS_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ANALYSERS_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_COLLECTION_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_EDGE_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_FEATURES_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_FILTER_COLLECTION_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ID_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_NAME_ATTRIBUTE_NAME;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.XML_ATTRIBUTE_TRACKER_NAME;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.jdom2.Attribute;
-import org.jdom2.DataConversionException;
 import org.jdom2.Document;
 import org.jdom2.Element;
-import org.jdom2.JDOMException;
-import org.jdom2.input.SAXBuilder;
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.jgrapht.graph.SimpleWeightedGraph;
 
 import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.FeatureModel;
-import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Logger.StringBuilderLogger;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.SelectionModel;
 import fiji.plugin.trackmate.Settings;
 import fiji.plugin.trackmate.Spot;
-import fiji.plugin.trackmate.SpotCollection;
-import fiji.plugin.trackmate.SpotRoi;
 import fiji.plugin.trackmate.detection.SpotDetectorFactoryBase;
 import fiji.plugin.trackmate.features.FeatureFilter;
 import fiji.plugin.trackmate.features.edges.EdgeAnalyzer;
-import fiji.plugin.trackmate.features.edges.EdgeTargetAnalyzer;
 import fiji.plugin.trackmate.features.spot.SpotAnalyzerFactoryBase;
 import fiji.plugin.trackmate.features.track.TrackAnalyzer;
-import fiji.plugin.trackmate.features.track.TrackIndexAnalyzer;
 import fiji.plugin.trackmate.gui.displaysettings.DisplaySettings;
 import fiji.plugin.trackmate.gui.displaysettings.DisplaySettingsIO;
 import fiji.plugin.trackmate.gui.wizard.descriptors.ConfigureViewsDescriptor;
+import fiji.plugin.trackmate.io.TmXmlModelParser.TrackContent;
 import fiji.plugin.trackmate.providers.DetectorProvider;
 import fiji.plugin.trackmate.providers.EdgeAnalyzerProvider;
 import fiji.plugin.trackmate.providers.SpotAnalyzerProvider;
@@ -172,6 +160,13 @@ public class TmXmlReader
 
 	protected final Element root;
 
+	/**
+	 * The content of the model section, as streamed from the file. It is
+	 * consumed by the first call to {@link #getModel()}; later calls read the
+	 * model section again so that each returns a new instance.
+	 */
+	private TmXmlModelParser modelParser;
+
 	/**
 	 * If <code>false</code>, an error occurred during reading.
 	 *
@@ -185,18 +180,25 @@ public class TmXmlReader
 
 	/**
 	 * Initialize this reader to read the file given in argument.
+	 * <p>
+	 * The file is scanned once with a streaming parser. The settings, the log
+	 * and the GUI state are kept as small JDOM elements, while the spots and
+	 * tracks of the model are read directly into the structures
+	 * {@link #getModel()} builds upon.
 	 */
 	public TmXmlReader( final File file )
 	{
 		this.file = file;
-		final SAXBuilder sb = new SAXBuilder();
 		Element r = null;
 		try
 		{
-			document = sb.build( file );
-			r = document.getRootElement();
+			modelParser = new TmXmlModelParser( logger, Runtime.getRuntime().availableProcessors() );
+			r = parse( modelParser, false );
+			if ( !modelParser.isOk() )
+				ok = false;
+			document = new Document( r );
 		}
-		catch ( final JDOMException e )
+		catch ( final XMLStreamException e )
 		{
 			ok = false;
 			logger.error( "Problem parsing " + file.getName() + ", it is not a valid TrackMate XML file.\nError message is:\n"
@@ -362,25 +364,27 @@ public class TmXmlReader
 		// Feature declarations
 		readFeatureDeclarations( modelElement, model );
 
+		final TmXmlModelParser content = takeModelContent();
+		if ( null == content )
+			return model;
+
 		// Spots
-		final SpotCollection spots = getSpots( modelElement );
-		model.setSpots( spots, false );
+		cache = content.getCache();
+		model.setSpots( content.getSpots(), false );
 
 		// Tracks
-		if ( !readTracks( modelElement, model ) )
+		if ( !readTracks( content, model ) )
 			ok = false;
 
 		// Track features
-
 		try
 		{
-			final Map< Integer, Map< String, Double > > savedFeatureMap = readTrackFeatures( modelElement );
-			for ( final Integer savedKey : savedFeatureMap.keySet() )
+			for ( final TrackContent track : content.getTracks() )
 			{
-
-				final Map< String, Double > savedFeatures = savedFeatureMap.get( savedKey );
-				for ( final String feature : savedFeatures.keySet() )
-					model.getFeatureModel().putTrackFeature( savedKey, feature, savedFeatures.get( feature ) );
+				if ( null == track.features )
+					continue;
+				for ( final Map.Entry< String, Double > entry : track.features.entrySet() )
+					model.getFeatureModel().putTrackFeature( Integer.valueOf( track.trackID ), entry.getKey(), entry.getValue() );
 			}
 		}
 		catch ( final RuntimeException re )
@@ -406,6 +410,128 @@ public class TmXmlReader
 		return new Model();
 	}
 
+	/**
+	 * Returns the streamed content of the model section. The content read by
+	 * the constructor is handed out once; afterwards the file is streamed
+	 * again.
+	 */
+	private TmXmlModelParser takeModelContent()
+	{
+		if ( null != modelParser )
+		{
+			final TmXmlModelParser content = modelParser;
+			modelParser = null;
+			return content;
+		}
+
+		try
+		{
+			final TmXmlModelParser content = new TmXmlModelParser( logger, Runtime.getRuntime().availableProcessors() );
+			parse( content, true );
+			if ( !content.isOk() )
+				ok = false;
+			return content;
+		}
+		catch ( final XMLStreamException | IOException e )
+		{
+			logger.error( "Problem reading the model in " + file.getName()
+					+ ".\nError message is:\n" + e.getLocalizedMessage() + '\n' );
+			ok = false;
+			return null;
+		}
+	}
+
+	/**
+	 * Opens a buffered stream on the specified file, decompressing it if it
+	 * was written gzip-compressed.
+	 */
+	private static InputStream open( final File file ) throws IOException
+	{
+		final InputStream is = new BufferedInputStream( new FileInputStream( file ), 1 << 16 );
+		is.mark( 2 );
+		final int b0 = is.read();
+		final int b1 = is.read();
+		is.reset();
+		if ( b0 != ( GZIPInputStream.GZIP_MAGIC & 0xff ) || b1 != ( GZIPInputStream.GZIP_MAGIC >> 8 ) )
+			return is;
+
+		try
+		{
+			return new BufferedInputStream( new GZIPInputStream( is, 1 << 16 ), 1 << 16 );
+		}
+		catch ( final IOException e )
+		{
+			is.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Streams the file. The model section is handed to the specified parser,
+	 * and all other sections are built as JDOM elements under the returned
+	 * root element.
+	 *
+	 * @param parser
+	 *            the parser for the model section.
+	 * @param modelOnly
+	 *            if <code>true</code>, the other sections are skipped and the
+	 *            stream is closed right after the model section.
+	 * @return the root element.
+	 */
+	private Element parse( final TmXmlModelParser parser, final boolean modelOnly ) throws XMLStreamException, IOException
+	{
+		final XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty( XMLInputFactory.IS_COALESCING, Boolean.TRUE );
+		try (InputStream is = open( file ))
+		{
+			final XMLStreamReader reader = factory.createXMLStreamReader( is );
+			try
+			{
+				while ( reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT )
+					;
+				if ( !reader.isStartElement() )
+					throw new XMLStreamException( "Premature end of file." );
+
+				final Element r = new Element( reader.getLocalName() );
+				for ( int i = 0; i < reader.getAttributeCount(); i++ )
+					r.setAttribute( reader.getAttributeLocalName( i ), reader.getAttributeValue( i ) );
+
+				while ( reader.hasNext() )
+				{
+					final int event = reader.next();
+					if ( event == XMLStreamConstants.END_ELEMENT )
+						break;
+					if ( event != XMLStreamConstants.START_ELEMENT )
+						continue;
+
+					if ( MODEL_ELEMENT_KEY.equals( reader.getLocalName() ) )
+					{
+						final Element modelElement = new Element( MODEL_ELEMENT_KEY );
+						for ( int i = 0; i < reader.getAttributeCount(); i++ )
+							modelElement.setAttribute( reader.getAttributeLocalName( i ), reader.getAttributeValue( i ) );
+						r.addContent( modelElement );
+						parser.parse( reader, modelElement );
+						if ( modelOnly )
+							break;
+					}
+					else if ( modelOnly )
+					{
+						TmXmlModelParser.skipElement( reader );
+					}
+					else
+					{
+						r.addContent( TmXmlModelParser.readElement( reader ) );
+					}
+				}
+				return r;
+			}
+			finally
+			{
+				reader.close();
+			}
+		}
+	}
+
 	public ImagePlus readImage()
 	{
 		final Element settingsElement = root.getChild( SETTINGS_ELEMENT_KEY );
@@ -578,72 +704,6 @@ public class TmXmlReader
 		return IJ.openImage( imageFile.getAbsolutePath() );
 	}
 
-	/**
-	 * Returns a map of the saved track features, as they appear in the file
-	 */
-	private Map< Integer, Map< String, Double > > readTrackFeatures( final Element modelElement )
-	{
-
-		final HashMap< Integer, Map< String, Double > > featureMap = new HashMap<>();
-
-		final Element allTracksElement = modelElement.getChild( TRACK_COLLECTION_ELEMENT_KEY );
-		if ( null == allTracksElement )
-		{
-			logger.error( "Cannot find the track collection in file.\n" );
-			ok = false;
-			return null;
-		}
-
-		// Load tracks
-		final List< Element > trackElements = allTracksElement.getChildren( TRACK_ELEMENT_KEY );
-		for ( final Element trackElement : trackElements )
-		{
-
-			int trackID = -1;
-			try
-			{
-				trackID = trackElement.getAttribute( TrackIndexAnalyzer.TRACK_ID ).getIntValue();
-			}
-			catch ( final DataConversionException e1 )
-			{
-				logger.error( "Found a track with invalid trackID for " + trackElement + ". Skipping.\n" );
-				ok = false;
-				continue;
-			}
-
-			final HashMap< String, Double > trackMap = new HashMap<>();
-
-			final List< Attribute > attributes = trackElement.getAttributes();
-			for ( final Attribute attribute : attributes )
-			{
-
-				final String attName = attribute.getName();
-				if ( attName.equals( TRACK_NAME_ATTRIBUTE_NAME ) )
-					continue; // Skip trackID attribute
-
-				Double attVal = Double.NaN;
-				try
-				{
-					attVal = attribute.getDoubleValue();
-				}
-				catch ( final DataConversionException e )
-				{
-					logger.error( "Track " + trackID + ": Cannot read the feature " + attName + " value. Skipping.\n" );
-					ok = false;
-					continue;
-				}
-
-				trackMap.put( attName, attVal );
-
-			}
-
-			featureMap.put( trackID, trackMap );
-		}
-
-		return featureMap;
-
-	}
-
 	/**
 	 * Return the initial filter value on quality stored in this file. Return
 	 * <code>null</code> if the initial threshold data cannot be found in the
@@ -868,117 +928,44 @@ public class TmXmlReader
 	}
 
 	/**
-	 * Read the list of all spots stored in this file.
-	 * <p>
-	 * Internally, this methods also builds the cache field, which will be
-	 * required by the other methods.
-	 *
-	 * It is therefore sensible to call this method first, just after parsing
-	 * the file. If not called, this method will be called anyway by the other
-	 * methods to build the cache.
-	 *
-	 * @param modelElement
-	 *            the {@link Element} in which the model content was written.
-	 * @return a new {@link SpotCollection}.
-	 */
-	private SpotCollection getSpots( final Element modelElement )
-	{
-		// Root element for collection
-		final Element spotCollection = modelElement.getChild( SPOT_COLLECTION_ELEMENT_KEY );
-
-		// Retrieve children elements for each frame
-		final List< Element > frameContent = spotCollection.getChildren( SPOT_FRAME_COLLECTION_ELEMENT_KEY );
-
-		// Determine total number of spots
-		int nspots = readIntAttribute( spotCollection, SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME, Logger.VOID_LOGGER );
-		if ( nspots == 0 )
-		{
-			/*
-			 * Could not find it or read it. Determine it by quick sweeping
-			 * through children element.
-			 */
-			for ( final Element currentFrameContent : frameContent )
-				nspots += currentFrameContent.getChildren( SPOT_ELEMENT_KEY ).size();
-		}
-
-		// Instantiate cache
-		cache = new ConcurrentHashMap<>( nspots );
-
-		// Load collection and build cache
-		int currentFrame = 0;
-		final Map< Integer, Set< Spot > > content = new HashMap<>( frameContent.size() );
-		for ( final Element currentFrameContent : frameContent )
-		{
-
-			currentFrame = readIntAttribute( currentFrameContent, FRAME_ATTRIBUTE_NAME, logger );
-			final List< Element > spotContent = currentFrameContent.getChildren( SPOT_ELEMENT_KEY );
-			final Set< Spot > spotSet = new HashSet<>( spotContent.size() );
-			for ( final Element spotElement : spotContent )
-			{
-				final Spot spot = createSpotFrom( spotElement );
-				spotSet.add( spot );
-				cache.put( spot.ID(), spot );
-			}
-			content.put( currentFrame, spotSet );
-		}
-		final SpotCollection allSpots = SpotCollection.fromMap( content );
-		return allSpots;
-	}
-
-	/**
-	 * Load the tracks, the track features and the ID of the filtered tracks
-	 * into the model specified. The track collection element is expected to be
-	 * found as a child of the specified element.
+	 * Load the tracks and the ID of the filtered tracks into the model
+	 * specified, from the content streamed from the file.
 	 *
 	 * @return true if reading tracks was successful, false otherwise.
 	 */
-	protected boolean readTracks( final Element modelElement, final Model model )
+	private boolean readTracks( final TmXmlModelParser content, final Model model )
 	{
-
-		final Element allTracksElement = modelElement.getChild( TRACK_COLLECTION_ELEMENT_KEY );
-		final List< Element > trackElements = allTracksElement.getChildren( TRACK_ELEMENT_KEY );
+		final List< TrackContent > tracks = content.getTracks();
 
 		// What we have to flesh out from the file
 		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
-		final Map< Integer, Set< Spot > > connectedVertexSet = new HashMap<>( trackElements.size() );
-		final Map< Integer, Set< DefaultWeightedEdge > > connectedEdgeSet = new HashMap<>( trackElements.size() );
-		final Map< Integer, String > savedTrackNames = new HashMap<>( trackElements.size() );
+		final Map< Integer, Set< Spot > > connectedVertexSet = new HashMap<>( tracks.size() );
+		final Map< Integer, Set< DefaultWeightedEdge > > connectedEdgeSet = new HashMap<>( tracks.size() );
+		final Map< Integer, String > savedTrackNames = new HashMap<>( tracks.size() );
 
-		// The list of edge features. that we will set.
+		// The edge features, declared in the model, that we will set.
 		final FeatureModel fm = model.getFeatureModel();
-		final Collection< String > edgeFeatures = fm.getEdgeFeatures();
-		final Map< String, Boolean > edgeFeatureIsInt = fm.getEdgeFeatureIsInt();
+		final Collection< String > declaredEdgeFeatures = fm.getEdgeFeatures();
+		final String[] edgeFeatures = content.getEdgeFeatures();
+		final boolean[] isDeclared = new boolean[ edgeFeatures.length ];
+		for ( int f = 0; f < edgeFeatures.length; f++ )
+			isDeclared[ f ] = declaredEdgeFeatures.contains( edgeFeatures[ f ] );
 
-		for ( final Element trackElement : trackElements )
+		for ( final TrackContent track : tracks )
 		{
+			final int trackID = track.trackID;
+			final int nEdges = track.getNEdges();
+			final Set< DefaultWeightedEdge > edges = new HashSet<>( nEdges );
+			final Set< Spot > spots = new HashSet<>( nEdges );
 
-			// Get track ID as it is saved on disk
-			final int trackID = readIntAttribute( trackElement, TrackIndexAnalyzer.TRACK_ID, logger );
-			String trackName = trackElement.getAttributeValue( TRACK_NAME_ATTRIBUTE_NAME );
-			if ( null == trackName )
-				trackName = "Unnamed";
-
-			// Iterate over edges & spots
-			final List< Element > edgeElements = trackElement.getChildren( TRACK_EDGE_ELEMENT_KEY );
-			final Set< DefaultWeightedEdge > edges = new HashSet<>( edgeElements.size() );
-			final Set< Spot > spots = new HashSet<>( edgeElements.size() );
-
-			for ( final Element edgeElement : edgeElements )
+			for ( int e = 0; e < nEdges; e++ )
 			{
-
-				// Get source and target ID for this edge
-				final int sourceID = readIntAttribute( edgeElement, EdgeTargetAnalyzer.SPOT_SOURCE_ID, logger );
-				final int targetID = readIntAttribute( edgeElement, EdgeTargetAnalyzer.SPOT_TARGET_ID, logger );
-
 				// Get matching spots from the cache
+				final int sourceID = track.sources[ e ];
+				final int targetID = track.targets[ e ];
 				final Spot sourceSpot = cache.get( sourceID );
 				final Spot targetSpot = cache.get( targetID );
 
-				// Get weight
-				double weight = 0;
-				if ( null != edgeElement.getAttribute( EdgeTargetAnalyzer.EDGE_COST ) )
-					weight = readDoubleAttribute( edgeElement, EdgeTargetAnalyzer.EDGE_COST, logger );
-
 				// Error check
 				if ( null == sourceSpot )
 				{
@@ -1016,22 +1003,12 @@ public class TmXmlReader
 					return false;
 				}
 
-				graph.setEdgeWeight( edge, weight );
+				graph.setEdgeWeight( edge, track.costs[ e ] );
 
-				// Put edge features
-				for ( final String feature : edgeFeatures )
-				{
-					if ( null == edgeElement.getAttribute( feature ) )
-						continue; // Skip missing values.
-
-					final double val;
-					if ( edgeFeatureIsInt.get( feature ).booleanValue() )
-						val = readIntAttribute( edgeElement, feature, logger );
-					else
-						val = readDoubleAttribute( edgeElement, feature, logger );
-
-					fm.putEdgeFeature( edge, feature, val );
-				}
+				// Put edge features, skipping missing values.
+				for ( int f = 0; f < edgeFeatures.length; f++ )
+					if ( isDeclared[ f ] && track.hasEdgeFeature( e, f ) )
+						fm.putEdgeFeature( edge, edgeFeatures[ f ], track.getEdgeFeature( e, f ) );
 
 				// Adds the edge to the set
 				edges.add( edge );
@@ -1041,13 +1018,13 @@ public class TmXmlReader
 			// Store one of the spot in the saved trackID key map
 			connectedVertexSet.put( trackID, spots );
 			connectedEdgeSet.put( trackID, edges );
-			savedTrackNames.put( trackID, trackName );
+			savedTrackNames.put( trackID, track.name );
 		}
 
 		/*
 		 * Now on to the visibility.
 		 */
-		final Set< Integer > savedFilteredTrackIDs = readFilteredTrackIDs( modelElement );
+		final Set< Integer > savedFilteredTrackIDs = readFilteredTrackIDs( content, connectedEdgeSet.keySet() );
 		final Map< Integer, Boolean > visibility = new HashMap<>( connectedEdgeSet.size() );
 		final Set< Integer > ids = new HashSet<>( connectedEdgeSet.keySet() );
 		for ( final Integer id : savedFilteredTrackIDs )
@@ -1066,51 +1043,23 @@ public class TmXmlReader
 	}
 
 	/**
-	 * Reads and returns the list of track indices that define the filtered
-	 * track collection.
+	 * Returns the list of track indices that define the filtered track
+	 * collection, checking that they all exist in the track collection.
 	 */
-	private Set< Integer > readFilteredTrackIDs( final Element modelElement )
+	private Set< Integer > readFilteredTrackIDs( final TmXmlModelParser content, final Set< Integer > trackIDs )
 	{
-		final Element filteredTracksElement = modelElement.getChild( FILTERED_TRACK_ELEMENT_KEY );
-		if ( null == filteredTracksElement )
+		final Set< Integer > savedIDs = content.getFilteredTrackIDs();
+		if ( null == savedIDs )
 		{
 			logger.error( "Could not find the filtered track IDs in file.\n" );
 			ok = false;
-			return null;
-		}
-
-		/*
-		 * We double-check that all trackID in the filtered list exist in the
-		 * track list. First, prepare a sorted array of all track IDs.
-		 */
-		final Element allTracksElement = modelElement.getChild( TRACK_COLLECTION_ELEMENT_KEY );
-		if ( null == allTracksElement )
-		{
-			logger.error( "Could not find the track collection in file.\n" );
-			ok = false;
-			return null;
-		}
-
-		final List< Element > trackElements = allTracksElement.getChildren( TRACK_ELEMENT_KEY );
-		final int[] IDs = new int[ trackElements.size() ];
-		int index = 0;
-		for ( final Element trackElement : trackElements )
-		{
-			final int trackID = readIntAttribute( trackElement, TrackIndexAnalyzer.TRACK_ID, logger );
-			IDs[ index ] = trackID;
-			index++;
+			return Collections.emptySet();
 		}
-		Arrays.sort( IDs );
 
-		final List< Element > elements = filteredTracksElement.getChildren( TRACK_ID_ELEMENT_KEY );
-		final HashSet< Integer > filteredTrackIndices = new HashSet<>( elements.size() );
-		for ( final Element indexElement : elements )
+		final Set< Integer > filteredTrackIndices = new HashSet<>( savedIDs.size() );
+		for ( final Integer trackID : savedIDs )
 		{
-			final int trackID = readIntAttribute( indexElement, TrackIndexAnalyzer.TRACK_ID, logger );
-
-			// Check if this one exist in the list
-			final int search = Arrays.binarySearch( IDs, trackID );
-			if ( search < 0 )
+			if ( !trackIDs.contains( trackID ) )
 			{
 				logger.error( "Invalid filtered track index: " + trackID + ". Track ID does not exist.\n" );
 				ok = false;
@@ -1123,58 +1072,6 @@ public class TmXmlReader
 		return filteredTrackIndices;
 	}
 
-	private Spot createSpotFrom( final Element spotEl )
-	{
-		// Read id.
-		final int ID = readIntAttribute( spotEl, SPOT_ID_ATTRIBUTE_NAME, logger );
-		final Spot spot = new Spot( ID );
-
-		final List< Attribute > atts = spotEl.getAttributes();
-		removeAttributeFromName( atts, SPOT_ID_ATTRIBUTE_NAME );
-
-		// Read name.
-		String name = spotEl.getAttributeValue( SPOT_NAME_ATTRIBUTE_NAME );
-		if ( null == name || name.equals( "" ) )
-			name = "ID" + ID;
-
-		spot.setName( name );
-		removeAttributeFromName( atts, SPOT_NAME_ATTRIBUTE_NAME );
-
-		/*
-		 * Try to read ROI if any.
-		 */
-		final int roiNPoints = readIntAttribute( spotEl, ROI_N_POINTS_ATTRIBUTE_NAME, Logger.VOID_LOGGER );
-		if ( roiNPoints > 2 )
-		{
-			final double[] xrois = new double[ roiNPoints ];
-			final double[] yrois = new double[ roiNPoints ];
-			final String str = spotEl.getText();
-			final String[] vals = str.split( "\\s+" );
-			int index = 0;
-			for ( int i = 0; i < roiNPoints; i++ )
-			{
-				final double x = Double.parseDouble( vals[ index++ ] );
-				xrois[ i ] = x;
-				final double y = Double.parseDouble( vals[ index++ ] );
-				yrois[ i ] = y;
-			}
-			spot.setRoi( new SpotRoi( xrois, yrois ) );
-		}
-		removeAttributeFromName( atts, ROI_N_POINTS_ATTRIBUTE_NAME );
-
-		/*
-		 * Read all other attributes -> features.
-		 */
-		for ( final Attribute att : atts )
-		{
-			if ( att.getName().equals( SPOT_NAME_ATTRIBUTE_NAME ) || att.getName().equals( SPOT_ID_ATTRIBUTE_NAME ) )
-				continue;
-
-			spot.putFeature( att.getName(), Double.valueOf( att.getValue() ) );
-		}
-		return spot;
-	}
-
 	protected static final void removeAttributeFromName( final List< Attribute > attributes, final String attributeNameToRemove )
 	{
 		final List< Attribute > toRemove = new ArrayList<>();
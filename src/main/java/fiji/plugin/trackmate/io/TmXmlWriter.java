@@ -45,12 +45,10 @@ import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_ISINT_ATTRIBUTE;
 import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_NAME_ATTRIBUTE;
 import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_SHORT_NAME_ATTRIBUTE;
-import static fiji.plugin.trackmate.io.TmXmlKeys.FILTERED_TRACK_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.FILTER_ABOVE_ATTRIBUTE_NAME;
 import static fiji.plugin.trackmate.io.TmXmlKeys.FILTER_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.FILTER_FEATURE_ATTRIBUTE_NAME;
 import static fiji.plugin.trackmate.io.TmXmlKeys.FILTER_VALUE_ATTRIBUTE_NAME;
-import static fiji.plugin.trackmate.io.TmXmlKeys.FRAME_ATTRIBUTE_NAME;
 import static fiji.plugin.trackmate.io.TmXmlKeys.GUI_STATE_ATTRIBUTE;
 import static fiji.plugin.trackmate.io.TmXmlKeys.GUI_STATE_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.IMAGE_ELEMENT_KEY;
@@ -68,49 +66,38 @@ import static fiji.plugin.trackmate.io.TmXmlKeys.INITIAL_SPOT_FILTER_ELEMENT_KEY
 import static fiji.plugin.trackmate.io.TmXmlKeys.LOG_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.MODEL_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.PLUGIN_VERSION_ATTRIBUTE_NAME;
-import static fiji.plugin.trackmate.io.TmXmlKeys.ROI_N_POINTS_ATTRIBUTE_NAME;
 import static fiji.plugin.trackmate.io.TmXmlKeys.ROOT_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.SETTINGS_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.SPATIAL_UNITS_ATTRIBUTE_NAME;
 import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ANALYSERS_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_COLLECTION_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME;
-import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_FEATURES_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_FILTER_COLLECTION_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_FRAME_COLLECTION_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ID_ATTRIBUTE_NAME;
-import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_NAME_ATTRIBUTE_NAME;
 import static fiji.plugin.trackmate.io.TmXmlKeys.TIME_UNITS_ATTRIBUTE_NAME;
 import static fiji.plugin.trackmate.io.TmXmlKeys.TRACKER_SETTINGS_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ANALYSERS_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_COLLECTION_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_EDGE_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_FEATURES_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_FILTER_COLLECTION_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ID_ELEMENT_KEY;
-import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_NAME_ATTRIBUTE_NAME;
 import static fiji.plugin.trackmate.tracking.TrackerKeys.XML_ATTRIBUTE_TRACKER_NAME;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.StringWriter;
-import java.util.ArrayList;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.zip.GZIPOutputStream;
 
-import org.jdom2.Attribute;
-import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.output.Format;
 import org.jdom2.output.XMLOutputter;
-import org.jgrapht.graph.DefaultWeightedEdge;
 
 import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.FeatureModel;
@@ -118,14 +105,10 @@ import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Settings;
 import fiji.plugin.trackmate.Spot;
-import fiji.plugin.trackmate.SpotCollection;
-import fiji.plugin.trackmate.SpotRoi;
 import fiji.plugin.trackmate.features.FeatureFilter;
 import fiji.plugin.trackmate.features.edges.EdgeAnalyzer;
-import fiji.plugin.trackmate.features.edges.EdgeTargetAnalyzer;
 import fiji.plugin.trackmate.features.spot.SpotAnalyzerFactoryBase;
 import fiji.plugin.trackmate.features.track.TrackAnalyzer;
-import fiji.plugin.trackmate.features.track.TrackIndexAnalyzer;
 import fiji.plugin.trackmate.gui.displaysettings.DisplaySettings;
 import fiji.plugin.trackmate.gui.displaysettings.DisplaySettingsIO;
 
@@ -142,6 +125,15 @@ public class TmXmlWriter
 
 	private final File file;
 
+	private final boolean compress;
+
+	/**
+	 * The models appended to this writer, stored against the element that
+	 * holds their small sections. Their spots and tracks are streamed when the
+	 * document is written.
+	 */
+	private final Map< Element, Model > models = new IdentityHashMap<>();
+
 	/*
 	 * CONSTRUCTORS
 	 */
@@ -158,17 +150,35 @@ public class TmXmlWriter
 	}
 
 	/**
-	 * Creates a new XML file writer for TrackMate.
+	 * Creates a new XML file writer for TrackMate. The file is
+	 * gzip-compressed if its name ends with <code>.gz</code>.
 	 *
 	 * @param file
 	 *            the xml file to write to, will be overwritten.
 	 */
 	public TmXmlWriter( final File file, final Logger logger )
+	{
+		this( file, logger, file.getName().toLowerCase().endsWith( ".gz" ) );
+	}
+
+	/**
+	 * Creates a new XML file writer for TrackMate.
+	 *
+	 * @param file
+	 *            the xml file to write to, will be overwritten.
+	 * @param logger
+	 *            the logger to report progress to.
+	 * @param compress
+	 *            if <code>true</code>, the file is written gzip-compressed.
+	 *            {@link TmXmlReader} reads both forms.
+	 */
+	public TmXmlWriter( final File file, final Logger logger, final boolean compress )
 	{
 		this.root = new Element( ROOT_ELEMENT_KEY );
 		root.setAttribute( PLUGIN_VERSION_ATTRIBUTE_NAME, fiji.plugin.trackmate.TrackMate.PLUGIN_NAME_VERSION );
 		this.logger = logger;
 		this.file = file;
+		this.compress = compress;
 	}
 
 	/*
@@ -177,6 +187,10 @@ public class TmXmlWriter
 
 	/**
 	 * Writes the document to the file. Content must be appended first.
+	 * <p>
+	 * The document is streamed to a buffered output: the spots and tracks of
+	 * the model are formatted as they are written, and are never held in
+	 * memory as a whole.
 	 *
 	 * @see #appendLog(String)
 	 * @see #appendModel(Model)
@@ -184,24 +198,22 @@ public class TmXmlWriter
 	 */
 	public void writeToFile() throws FileNotFoundException, IOException
 	{
-		try (FileOutputStream fos = new FileOutputStream( file ))
+		final OutputStream fos = new FileOutputStream( file );
+		final OutputStream os = compress ? new GZIPOutputStream( fos, 1 << 16 ) : fos;
+		try (Writer writer = new BufferedWriter( new OutputStreamWriter( os, StandardCharsets.UTF_8 ), 1 << 16 ))
 		{
 			logger.log( "  Writing to file.\n" );
-			final Document document = new Document( root );
-			final XMLOutputter outputter = new XMLOutputter( Format.getPrettyFormat() );
-			outputter.output( document, fos );
+			write( writer );
 		}
 	}
 
 	@Override
 	public String toString()
 	{
-		final Document document = new Document( root );
-		final XMLOutputter outputter = new XMLOutputter( Format.getPrettyFormat() );
 		final StringWriter writer = new StringWriter();
 		try
 		{
-			outputter.output( document, writer );
+			write( writer );
 		}
 		catch ( final IOException e )
 		{
@@ -210,6 +222,40 @@ public class TmXmlWriter
 		return writer.toString();
 	}
 
+	/**
+	 * Writes the document with the JDOM pretty format. The small elements are
+	 * output by JDOM, the appended models are streamed.
+	 */
+	private void write( final Writer writer ) throws IOException
+	{
+		final Format format = Format.getPrettyFormat();
+		final String nl = format.getLineSeparator();
+		final XMLOutputter outputter = new XMLOutputter( format );
+
+		final StringBuilder str = new StringBuilder();
+		str.append( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" ).append( nl );
+		TmXmlModelWriter.startTag( str, root );
+		str.append( '>' ).append( nl );
+		writer.write( str.toString() );
+
+		for ( final Element child : root.getChildren() )
+		{
+			final Model model = models.get( child );
+			if ( null != model )
+			{
+				new TmXmlModelWriter( model, logger, Runtime.getRuntime().availableProcessors(), format.getIndent(), nl )
+						.write( child, outputter, writer );
+			}
+			else
+			{
+				writer.write( format.getIndent() );
+				outputter.output( child, writer );
+				writer.write( nl );
+			}
+		}
+		writer.write( "</" + root.getName() + ">" + nl );
+	}
+
 	/**
 	 * Appends the content of a {@link Model} to the file generated by this
 	 * writer.
@@ -226,14 +272,11 @@ public class TmXmlWriter
 		final Element featureDeclarationElement = echoFeaturesDeclaration( model );
 		modelElement.addContent( featureDeclarationElement );
 
-		final Element spotElement = echoSpots( model );
-		modelElement.addContent( spotElement );
-
-		final Element trackElement = echoTracks( model );
-		modelElement.addContent( trackElement );
-
-		final Element filteredTrackElement = echoFilteredTracks( model );
-		modelElement.addContent( filteredTrackElement );
+		/*
+		 * Spots, tracks and filtered tracks are not added to the document:
+		 * they are streamed from the model when the document is written.
+		 */
+		models.put( modelElement, model );
 
 		root.addContent( modelElement );
 	}
@@ -379,128 +422,6 @@ public class TmXmlWriter
 		return el;
 	}
 
-	private Element echoTracks( final Model model )
-	{
-
-		/*
-		 * Some numerical features are REQUIRED to be able to save to XML.
-		 * Namely: the track ID feature for track and the edge spot source and
-		 * spot target for edges. Whether the model provides them as features or
-		 * not, we get them from the model and put them in the XML.
-		 */
-
-		final Element allTracksElement = new Element( TRACK_COLLECTION_ELEMENT_KEY );
-
-		// Prepare track features for writing: we separate ints from doubles
-		final List< String > trackFeatures = new ArrayList<>( model.getFeatureModel().getTrackFeatures() );
-		// TrackID is treated separately.
-		trackFeatures.remove( TrackIndexAnalyzer.TRACK_ID );
-
-		// Same thing for edge features
-		final List< String > edgeFeatures = new ArrayList<>( model.getFeatureModel().getEdgeFeatures() );
-		// We will treat edge source and target separately.
-		edgeFeatures.remove( EdgeTargetAnalyzer.SPOT_SOURCE_ID );
-		edgeFeatures.remove( EdgeTargetAnalyzer.SPOT_TARGET_ID );
-
-		final Set< Integer > trackIDs = model.getTrackModel().trackIDs( false );
-		for ( final int trackID : trackIDs )
-		{
-
-			final Element trackElement = new Element( TRACK_ELEMENT_KEY );
-
-			// Track name.
-			trackElement.setAttribute( TRACK_NAME_ATTRIBUTE_NAME, model.getTrackModel().name( trackID ) );
-			// Track ID.
-			trackElement.setAttribute( TrackIndexAnalyzer.TRACK_ID, Integer.toString( trackID ) );
-
-			for ( final String feature : trackFeatures )
-			{
-				final Double val = model.getFeatureModel().getTrackFeature( trackID, feature );
-				if ( null == val )
-					continue;
-
-				final String str;
-				if ( model.getFeatureModel().getTrackFeatureIsInt().get( feature ).booleanValue() )
-					str = Integer.toString( val.intValue() );
-				else
-					str = val.toString();
-				trackElement.setAttribute( feature, str );
-			}
-
-			// Echo edges
-			final Set< DefaultWeightedEdge > track = model.getTrackModel().trackEdges( trackID );
-			if ( track.isEmpty() )
-			{
-				/*
-				 * Special case: the track has only one spot in it, therefore no
-				 * edge. It just should not be, since the model never returns a
-				 * track with less than one edge. So we skip writing it.
-				 */
-				continue;
-			}
-
-			for ( final DefaultWeightedEdge edge : track )
-			{
-				final Element edgeElement = new Element( TRACK_EDGE_ELEMENT_KEY );
-
-				/*
-				 * Make sure the edge has the right orientation: forward in
-				 * time.
-				 */
-				final int sourceFrame = model.getTrackModel().getEdgeSource( edge ).getFeature( Spot.FRAME ).intValue();
-				final int targetFrame = model.getTrackModel().getEdgeTarget( edge ).getFeature( Spot.FRAME ).intValue();
-				final int sourceID;
-				final int targetID;
-				if ( targetFrame >= sourceFrame )
-				{
-					sourceID = model.getTrackModel().getEdgeSource( edge ).ID();
-					targetID = model.getTrackModel().getEdgeTarget( edge ).ID();
-				}
-				else
-				{
-					sourceID = model.getTrackModel().getEdgeTarget( edge ).ID();
-					targetID = model.getTrackModel().getEdgeSource( edge ).ID();
-				}
-				edgeElement.setAttribute( EdgeTargetAnalyzer.SPOT_SOURCE_ID, Integer.toString( sourceID ) );
-				edgeElement.setAttribute( EdgeTargetAnalyzer.SPOT_TARGET_ID, Integer.toString( targetID ) );
-
-				for ( final String feature : edgeFeatures )
-				{
-					final Double val = model.getFeatureModel().getEdgeFeature( edge, feature );
-					if ( null == val )
-						continue;
-
-					final String str;
-					if ( model.getFeatureModel().getEdgeFeatureIsInt().get( feature ).booleanValue() )
-						str = Integer.toString( val.intValue() );
-					else
-						str = val.toString();
-
-					edgeElement.setAttribute( feature, str );
-				}
-
-				trackElement.addContent( edgeElement );
-			}
-			allTracksElement.addContent( trackElement );
-		}
-		logger.log( "  Added tracks.\n" );
-		return allTracksElement;
-	}
-
-	private Element echoFilteredTracks( final Model model )
-	{
-		final Element filteredTracksElement = new Element( FILTERED_TRACK_ELEMENT_KEY );
-		final Set< Integer > filteredTrackKeys = model.getTrackModel().trackIDs( true );
-		for ( final int trackID : filteredTrackKeys )
-		{
-			final Element trackIDElement = new Element( TRACK_ID_ELEMENT_KEY );
-			trackIDElement.setAttribute( TrackIndexAnalyzer.TRACK_ID, "" + trackID );
-			filteredTracksElement.addContent( trackIDElement );
-		}
-		logger.log( "  Added filtered tracks.\n" );
-		return filteredTracksElement;
-	}
-
 	protected Element echoImageInfo( final Settings settings )
 	{
 		final Element imEl = new Element( IMAGE_ELEMENT_KEY );
@@ -521,31 +442,6 @@ public class TmXmlWriter
 		return imEl;
 	}
 
-	private Element echoSpots( final Model model )
-	{
-		final SpotCollection spots = model.getSpots();
-
-		final Element spotCollectionElement = new Element( SPOT_COLLECTION_ELEMENT_KEY );
-		// Store total number of spots
-		spotCollectionElement.setAttribute( SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME, "" + spots.getNSpots( false ) );
-
-		for ( final int frame : spots.keySet() )
-		{
-
-			final Element frameSpotsElement = new Element( SPOT_FRAME_COLLECTION_ELEMENT_KEY );
-			frameSpotsElement.setAttribute( FRAME_ATTRIBUTE_NAME, "" + frame );
-
-			for ( final Iterator< Spot > it = spots.iterator( frame, false ); it.hasNext(); )
-			{
-				final Element spotElement = marshalSpot( it.next(), model.getFeatureModel() );
-				frameSpotsElement.addContent( spotElement );
-			}
-			spotCollectionElement.addContent( frameSpotsElement );
-		}
-		logger.log( "  Added " + spots.getNSpots( false ) + " spots.\n" );
-		return spotCollectionElement;
-	}
-
 	private Element echoFeaturesDeclaration( final Model model )
 	{
 
@@ -699,47 +595,4 @@ public class TmXmlWriter
 	 * STATIC METHODS
 	 */
 
-	private static final Element marshalSpot( final Spot spot, final FeatureModel fm )
-	{
-		final Collection< Attribute > attributes = new ArrayList<>();
-		final Attribute IDattribute = new Attribute( SPOT_ID_ATTRIBUTE_NAME, "" + spot.ID() );
-		attributes.add( IDattribute );
-		final Attribute nameAttribute = new Attribute( SPOT_NAME_ATTRIBUTE_NAME, spot.getName() );
-		attributes.add( nameAttribute );
-
-		for ( final String feature : spot.getFeatures().keySet() )
-		{
-			final Double val = spot.getFeature( feature );
-			if ( null == val )
-				continue;
-
-			final String str;
-			if ( fm.getSpotFeatureIsInt().getOrDefault( feature, Boolean.FALSE ).booleanValue() )
-				str = Integer.toString( val.intValue() );
-			else
-				str = val.toString();
-
-			attributes.add( new Attribute( feature, str ) );
-		}
-		final Element spotElement = new Element( SPOT_ELEMENT_KEY );
-
-		final SpotRoi roi = spot.getRoi();
-		if ( roi != null )
-		{
-			final int nPoints = roi.x.length;
-			attributes.add( new Attribute( ROI_N_POINTS_ATTRIBUTE_NAME, Integer.toString( nPoints ) ) );
-			final StringBuilder str = new StringBuilder();
-			for ( int i = 0; i < nPoints; i++ )
-			{
-				str.append( Double.toString( roi.x[ i ] ) );
-				str.append( ' ' );
-				str.append( Double.toString( roi.y[ i ] ) );
-				str.append( ' ' );
-			}
-			spotElement.setText( str.toString() );
-		}
-
-		spotElement.setAttributes( attributes );
-		return spotElement;
-	}
 }
@@ -21,20 +21,28 @@
  */
 package fiji.plugin.trackmate.tracking.jaqaman;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
 
 import net.imglib2.algorithm.BenchmarkAlgorithm;
+import net.imglib2.algorithm.MultiThreaded;
 import net.imglib2.algorithm.OutputAlgorithm;
 import net.imglib2.util.Util;
 import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.CostMatrixCreator;
 import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.LAPJV;
 import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.SparseCostMatrix;
+import fiji.plugin.trackmate.util.Threads;
 
 /**
  * Links two lists of objects based on the LAP framework described in Jaqaman
@@ -47,7 +55,7 @@ import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.SparseCostMatrix;
  * @param <J>
  *            the type of the target objects to link.
  */
-public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J > > extends BenchmarkAlgorithm implements OutputAlgorithm< Map< K, J > >
+public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J > > extends BenchmarkAlgorithm implements OutputAlgorithm< Map< K, J > >, MultiThreaded
 {
 	private Map< K, J > assignments;
 
@@ -57,6 +65,13 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 
 	private final Logger logger;
 
+	/**
+	 * The number of threads used to solve the independent sub-problems of the
+	 * cost matrix. 1 by default, since linkers are often run from the
+	 * workers of a pool already.
+	 */
+	private int numThreads = 1;
+
 	/**
 	 * Creates a new linker for the specified cost matrix creator. See Jaqaman
 	 * <i>et al.</i>, Nature Methods, <b>2008</b>, Figure 1b.
@@ -143,11 +158,210 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 		}
 
 		/*
-		 * Complement the cost matrix with alternative no linking cost matrix.
+		 * Alternative no linking costs.
+		 */
+
+		final int nCols = tl.getNCols();
+		final int nRows = tl.getNRows();
+
+		final double[] sourceAltCosts = new double[ nRows ];
+		for ( int i = 0; i < nRows; i++ )
+			sourceAltCosts[ i ] = costMatrixCreator.getAlternativeCostForSource( matrixRows.get( i ) );
+
+		final double[] targetAltCosts = new double[ nCols ];
+		for ( int j = 0; j < nCols; j++ )
+			targetAltCosts[ j ] = costMatrixCreator.getAlternativeCostForTarget( matrixCols.get( j ) );
+
+		/*
+		 * Alt. cost for the bottom-right block is the overall min of
+		 * alternative costs. This deviate or extend a bit the u-track code. It
+		 * is computed over the whole problem so that splitting it in
+		 * independent sub-problems does not change the solution.
+		 */
+		final double minCost = Math.min( Util.min( sourceAltCosts ), Util.min( targetAltCosts ) );
+
+		/*
+		 * Split the problem in independent sub-problems. Rows and columns
+		 * that are not connected by a finite cost can be solved separately,
+		 * which is much cheaper than solving one large problem.
 		 */
 
-		logger.setStatus( "Completing the cost matrix..." );
+		logger.setStatus( "Splitting the cost matrix..." );
+		final int[] labels = tl.connectedComponents();
+		int maxLabel = -1;
+		for ( final int label : labels )
+			maxLabel = Math.max( maxLabel, label );
+		final int nComponents = maxLabel + 1;
+
+		final int[] nRowsPerComponent = new int[ nComponents ];
+		for ( int i = 0; i < nRows; i++ )
+			nRowsPerComponent[ labels[ i ] ]++;
+		final int[] nColsPerComponent = new int[ nComponents ];
+		for ( int j = 0; j < nCols; j++ )
+			nColsPerComponent[ labels[ nRows + j ] ]++;
+
+		final int[][] componentRows = new int[ nComponents ][];
+		final int[][] componentCols = new int[ nComponents ][];
+		for ( int c = 0; c < nComponents; c++ )
+		{
+			componentRows[ c ] = new int[ nRowsPerComponent[ c ] ];
+			componentCols[ c ] = new int[ nColsPerComponent[ c ] ];
+		}
+		final int[] index = new int[ nComponents ];
+		for ( int i = 0; i < nRows; i++ )
+		{
+			final int c = labels[ i ];
+			componentRows[ c ][ index[ c ]++ ] = i;
+		}
+		Arrays.fill( index, 0 );
+		for ( int j = 0; j < nCols; j++ )
+		{
+			final int c = labels[ nRows + j ];
+			componentCols[ c ][ index[ c ]++ ] = j;
+		}
+		logger.setProgress( 0.6 );
+
+		/*
+		 * Solve each sub-problem.
+		 */
 
+		logger.setStatus( "Solving the cost matrix..." );
+		final int[][] componentAssignments = new int[ nComponents ][];
+		final double[][] componentCosts = new double[ nComponents ][];
+		final String[] componentErrors = new String[ nComponents ];
+		final IntConsumer solve = c -> {
+			final int[] rows = componentRows[ c ];
+			final int[] cols = componentCols[ c ];
+			final SparseCostMatrix subTl = ( nComponents == 1 ) ? tl : tl.subMatrix( rows, cols );
+			final double[] subSourceAltCosts = new double[ rows.length ];
+			for ( int li = 0; li < rows.length; li++ )
+				subSourceAltCosts[ li ] = sourceAltCosts[ rows[ li ] ];
+			final double[] subTargetAltCosts = new double[ cols.length ];
+			for ( int lj = 0; lj < cols.length; lj++ )
+				subTargetAltCosts[ lj ] = targetAltCosts[ cols[ lj ] ];
+
+			final SparseCostMatrix full = complete( subTl, subSourceAltCosts, subTargetAltCosts, minCost );
+			final LAPJV solver = new LAPJV( full );
+			if ( !solver.checkInput() || !solver.process() )
+			{
+				componentErrors[ c ] = solver.getErrorMessage();
+				return;
+			}
+			final int[] assgn = solver.getResult();
+			componentAssignments[ c ] = assgn;
+			final double[] assgnCosts = new double[ rows.length ];
+			for ( int li = 0; li < rows.length; li++ )
+			{
+				final int lj = assgn[ li ];
+				assgnCosts[ li ] = ( lj < cols.length ) ? subTl.get( li, lj, Double.POSITIVE_INFINITY ) : Double.NaN;
+			}
+			componentCosts[ c ] = assgnCosts;
+		};
+
+		final int nTasks = Math.min( numThreads, nComponents );
+		if ( nTasks <= 1 )
+		{
+			for ( int c = 0; c < nComponents; c++ )
+				solve.accept( c );
+		}
+		else
+		{
+			final AtomicInteger nextComponent = new AtomicInteger( 0 );
+			final ExecutorService executors = Threads.newFixedThreadPool( nTasks );
+			final List< Future< ? > > futures = new ArrayList<>( nTasks );
+			for ( int t = 0; t < nTasks; t++ )
+				futures.add( executors.submit( () -> {
+					int c;
+					while ( ( c = nextComponent.getAndIncrement() ) < nComponents )
+						solve.accept( c );
+				} ) );
+			executors.shutdown();
+			try
+			{
+				for ( final Future< ? > future : futures )
+					future.get();
+			}
+			catch ( InterruptedException | ExecutionException e )
+			{
+				executors.shutdownNow();
+				errorMessage = "Problem solving the cost matrix: " + e.getMessage();
+				return false;
+			}
+		}
+
+		/*
+		 * Merge the assignments.
+		 */
+
+		assignments = new HashMap<>();
+		costs = new HashMap<>();
+		for ( int c = 0; c < nComponents; c++ )
+		{
+			if ( componentErrors[ c ] != null )
+			{
+				errorMessage = componentErrors[ c ];
+				return false;
+			}
+
+			final int[] rows = componentRows[ c ];
+			final int[] cols = componentCols[ c ];
+			final int[] assgn = componentAssignments[ c ];
+			for ( int li = 0; li < rows.length; li++ )
+			{
+				final int lj = assgn[ li ];
+				if ( lj < cols.length )
+				{
+					final K source = matrixRows.get( rows[ li ] );
+					final J target = matrixCols.get( cols[ lj ] );
+					assignments.put( source, target );
+					costs.put( source, Double.valueOf( componentCosts[ c ][ li ] ) );
+				}
+			}
+		}
+
+		logger.setProgress( 1 );
+		logger.setStatus( "" );
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
+
+		return true;
+	}
+
+	@Override
+	public void setNumThreads()
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = numThreads;
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	/**
+	 * Complements the specified linking cost matrix with the alternative no
+	 * linking costs, as in Jaqaman <i>et al.</i>, Nature Methods, <b>2008</b>,
+	 * Figure 1b.
+	 * 
+	 * @param tl
+	 *            the linking cost matrix.
+	 * @param sourceAltCosts
+	 *            the alternative cost of each row.
+	 * @param targetAltCosts
+	 *            the alternative cost of each column.
+	 * @param minCost
+	 *            the cost to use in the bottom-right block.
+	 * @return a new, square, sparse cost matrix.
+	 */
+	private static SparseCostMatrix complete( final SparseCostMatrix tl, final double[] sourceAltCosts, final double[] targetAltCosts, final double minCost )
+	{
 		final int nCols = tl.getNCols();
 		final int nRows = tl.getNRows();
 
@@ -155,13 +369,10 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 		 * Top right
 		 */
 
-		final double[] cctr = new double[ nRows ];
+		final double[] cctr = Arrays.copyOf( sourceAltCosts, nRows );
 		final int[] kktr = new int[ nRows ];
 		for ( int i = 0; i < nRows; i++ )
-		{
 			kktr[ i ] = i;
-			cctr[ i ] = costMatrixCreator.getAlternativeCostForSource( matrixRows.get( i ) );
-		}
 		final int[] numbertr = new int[ nRows ];
 		Arrays.fill( numbertr, 1 );
 		final SparseCostMatrix tr = new SparseCostMatrix( cctr, kktr, numbertr, nRows );
@@ -169,67 +380,26 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 		/*
 		 * Bottom left
 		 */
-		final double[] ccbl = new double[ nCols ];
+
+		final double[] ccbl = Arrays.copyOf( targetAltCosts, nCols );
 		final int[] kkbl = new int[ nCols ];
 		for ( int i = 0; i < kkbl.length; i++ )
-		{
 			kkbl[ i ] = i;
-			ccbl[ i ] = costMatrixCreator.getAlternativeCostForTarget( matrixCols.get( i ) );
-		}
 		final int[] numberbl = new int[ nCols ];
 		Arrays.fill( numberbl, 1 );
 		final SparseCostMatrix bl = new SparseCostMatrix( ccbl, kkbl, numberbl, nCols );
 
 		/*
 		 * Bottom right.
-		 * 
-		 * Alt. cost is the overall min of alternative costs. This deviate or
-		 * extend a bit the u-track code.
 		 */
-		final double minCost = Math.min( Util.min( ccbl ), Util.min( cctr ) );
+
 		final SparseCostMatrix br = tl.transpose();
 		br.fillWith( minCost );
 
 		/*
 		 * Stitch them together
 		 */
-		final SparseCostMatrix full = ( tl.hcat( tr ) ).vcat( bl.hcat( br ) );
-		logger.setProgress( 0.6 );
-
-		/*
-		 * Solve the full cost matrix.
-		 */
-		logger.setStatus( "Solving the cost matrix..." );
-		final LAPJV solver = new LAPJV( full );
-		if ( !solver.checkInput() || !solver.process() )
-		{
-			errorMessage = solver.getErrorMessage();
-			return false;
-		}
-
-		final int[] assgn = solver.getResult();
-		assignments = new HashMap<>();
-		costs = new HashMap<>();
-		for ( int i = 0; i < assgn.length; i++ )
-		{
-			final int j = assgn[ i ];
-			if ( i < matrixRows.size() && j < matrixCols.size() )
-			{
-				final K source = matrixRows.get( i );
-				final J target = matrixCols.get( j );
-				assignments.put( source, target );
-
-				final double cost = full.get( i, j, Double.POSITIVE_INFINITY );
-				costs.put( source, Double.valueOf( cost ) );
-			}
-		}
-
-		logger.setProgress( 1 );
-		logger.setStatus( "" );
-		final long end = System.currentTimeMillis();
-		processingTime = end - start;
-
-		return true;
+		return ( tl.hcat( tr ) ).vcat( bl.hcat( br ) );
 	}
 
 	public String resultToString()
@@ -33,6 +33,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
@@ -50,7 +51,7 @@ import fiji.plugin.trackmate.tracking.SpotTracker;
 import fiji.plugin.trackmate.tracking.jaqaman.costfunction.CostFunction;
 import fiji.plugin.trackmate.tracking.jaqaman.costfunction.FeaturePenaltyCostFunction;
 import fiji.plugin.trackmate.tracking.jaqaman.costfunction.SquareDistCostFunction;
-import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.JaqamanLinkingCostMatrixCreator;
+import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.KDTreeLinkingCostMatrixCreator;
 import fiji.plugin.trackmate.util.Threads;
 import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
 
@@ -175,7 +176,7 @@ public class SparseLAPFrameToFrameTracker extends MultiThreadedBenchmarkAlgorith
 		// Prepare workers.
 		final AtomicInteger progress = new AtomicInteger( 0 );
 		final AtomicBoolean ok = new AtomicBoolean( true );
-		final ExecutorService executors = Threads.newFixedThreadPool( numThreads );
+		final ExecutorService executors = Threads.newFixedThreadPool( numThreads, this );
 		final List< Future< Void > > futures = new ArrayList<>( framePairs.size() );
 		for ( final int[] framePair : framePairs )
 		{
@@ -209,7 +210,7 @@ public class SparseLAPFrameToFrameTracker extends MultiThreadedBenchmarkAlgorith
 					 * Run the linker.
 					 */
 
-					final JaqamanLinkingCostMatrixCreator< Spot, Spot > creator = new JaqamanLinkingCostMatrixCreator<>( sources, targets, costFunction, costThreshold, alternativeCostFactor, 1d );
+					final KDTreeLinkingCostMatrixCreator< Spot, Spot > creator = new KDTreeLinkingCostMatrixCreator<>( sources, targets, costFunction, costThreshold, alternativeCostFactor, 1d );
 					final JaqamanLinker< Spot, Spot > linker = new JaqamanLinker<>( creator );
 					if ( !linker.checkInput() || !linker.process() )
 					{
@@ -248,7 +249,16 @@ public class SparseLAPFrameToFrameTracker extends MultiThreadedBenchmarkAlgorith
 		try
 		{
 			for ( final Future< ? > future : futures )
-				future.get();
+			{
+				try
+				{
+					future.get();
+				}
+				catch ( final CancellationException e )
+				{
+					// Not started before cancellation.
+				}
+			}
 
 			executors.shutdown();
 		}
@@ -24,6 +24,7 @@ package fiji.plugin.trackmate.tracking.jaqaman.costfunction;
 import java.util.Map;
 
 import fiji.plugin.trackmate.Spot;
+import net.imglib2.RealLocalizable;
 
 /**
  * A cost function that tempers a square distance cost by difference in feature
@@ -65,7 +66,26 @@ public class FeaturePenaltyCostFunction implements CostFunction< Spot, Spot >
 	@Override
 	public double linkingCost( final Spot source, final Spot target )
 	{
-		final double d1 = source.squareDistanceTo( target );
+		return linkingCost( source, source, target );
+	}
+
+	/**
+	 * Returns the cost to link a source spot to a target spot, with the
+	 * distance measured from the specified position rather than from the
+	 * source spot. The feature penalties are still computed with the source
+	 * spot. This is useful when the source position is a prediction.
+	 *
+	 * @param position
+	 *            the position to measure the distance from.
+	 * @param source
+	 *            the spot to read the source feature values from.
+	 * @param target
+	 *            the target spot.
+	 * @return the cost as a double.
+	 */
+	public double linkingCost( final RealLocalizable position, final Spot source, final Spot target )
+	{
+		final double d1 = target.squareDistanceTo( position );
 		final double d2 = ( d1 == 0 ) ? Double.MIN_NORMAL : d1;
 
 		double penalty = 1;
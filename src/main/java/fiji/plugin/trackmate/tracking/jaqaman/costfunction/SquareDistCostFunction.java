@@ -22,6 +22,7 @@
 package fiji.plugin.trackmate.tracking.jaqaman.costfunction;
 
 import fiji.plugin.trackmate.Spot;
+import net.imglib2.RealLocalizable;
 
 /**
  * A cost function that returns cost equal to the square distance. Suited to
@@ -36,7 +37,22 @@ public class SquareDistCostFunction implements CostFunction< Spot, Spot >
 	@Override
 	public double linkingCost( final Spot source, final Spot target )
 	{
-		final double d2 = source.squareDistanceTo( target );
+		return linkingCost( ( RealLocalizable ) source, target );
+	}
+
+	/**
+	 * Returns the cost to link a source position, that need not be a spot,
+	 * to a target spot.
+	 *
+	 * @param source
+	 *            the source position.
+	 * @param target
+	 *            the target spot.
+	 * @return the cost as a double.
+	 */
+	public double linkingCost( final RealLocalizable source, final Spot target )
+	{
+		final double d2 = target.squareDistanceTo( source );
 		return ( d2 == 0 ) ? Double.MIN_NORMAL : d2;
 	}
 
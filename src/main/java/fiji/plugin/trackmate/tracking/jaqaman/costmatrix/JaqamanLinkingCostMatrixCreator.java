@@ -42,11 +42,11 @@ public class JaqamanLinkingCostMatrixCreator< K extends Comparable< K >, J exten
 
 	private static final String BASE_ERROR_MSG = "[JaqamanLinkingCostMatrixCreator] ";
 
-	private final Iterable< K > sources;
+	protected final Iterable< K > sources;
 
-	private final Iterable< J > targets;
+	protected final Iterable< J > targets;
 
-	private final CostFunction< K, J > costFunction;
+	protected final CostFunction< K, J > costFunction;
 
 	private SparseCostMatrix scm;
 
@@ -54,7 +54,7 @@ public class JaqamanLinkingCostMatrixCreator< K extends Comparable< K >, J exten
 
 	private String errorMessage;
 
-	private final double costThreshold;
+	protected final double costThreshold;
 
 	private List< K > sourceList;
 
@@ -100,21 +100,7 @@ public class JaqamanLinkingCostMatrixCreator< K extends Comparable< K >, J exten
 		final List< K > accSources = new ArrayList<>();
 		final List< J > accTargets = new ArrayList<>();
 		final ResizableDoubleArray costs = new ResizableDoubleArray();
-
-		for ( final K source : sources )
-		{
-			for ( final J target : targets )
-			{
-
-				final double cost = costFunction.linkingCost( source, target );
-				if ( cost < costThreshold )
-				{
-					accSources.add( source );
-					accTargets.add( target );
-					costs.add( cost );
-				}
-			}
-		}
+		collectCandidates( accSources, accTargets, costs );
 		costs.trimToSize();
 
 		/*
@@ -153,6 +139,40 @@ public class JaqamanLinkingCostMatrixCreator< K extends Comparable< K >, J exten
 		return true;
 	}
 
+	/**
+	 * Generates the candidate links, and stores the ones with a cost lower
+	 * than the cost threshold in the specified lists. The three lists are
+	 * filled in parallel: the i-th cost is the cost of linking the i-th source
+	 * to the i-th target.
+	 * <p>
+	 * This implementation evaluates the cost function over all possible
+	 * source-target pairs.
+	 * 
+	 * @param accSources
+	 *            the list in which to store the sources of accepted links.
+	 * @param accTargets
+	 *            the list in which to store the targets of accepted links.
+	 * @param costs
+	 *            the array in which to store the costs of accepted links.
+	 */
+	protected void collectCandidates( final List< K > accSources, final List< J > accTargets, final ResizableDoubleArray costs )
+	{
+		for ( final K source : sources )
+		{
+			for ( final J target : targets )
+			{
+
+				final double cost = costFunction.linkingCost( source, target );
+				if ( cost < costThreshold )
+				{
+					accSources.add( source );
+					accTargets.add( target );
+					costs.add( cost );
+				}
+			}
+		}
+	}
+
 	@Override
 	public String getErrorMessage()
 	{
@@ -44,13 +44,19 @@ import fiji.plugin.trackmate.tracking.jaqaman.costfunction.SquareDistCostFunctio
 import fiji.plugin.trackmate.util.Threads;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
 
+import net.imglib2.KDTree;
 import net.imglib2.algorithm.MultiThreaded;
+import net.imglib2.neighborsearch.RadiusNeighborSearchOnKDTree;
 import org.jgrapht.Graph;
 import org.jgrapht.graph.DefaultWeightedEdge;
 
@@ -202,160 +208,111 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 			allMiddles = Collections.emptyList();
 		}
 
-		final Object lock = new Object();
-
 		/*
-		 * Sources and targets.
+		 * Index segment starts and middles by frame, with one KD-tree per
+		 * frame, so that each source only examines the candidates in the
+		 * frames it can be linked to, and within the max distance.
 		 */
-		final ArrayList< Spot > sources = new ArrayList<>();
-		final ArrayList< Spot > targets = new ArrayList<>();
-		// Corresponding costs.
-		final ResizableDoubleArray linkCosts = new ResizableDoubleArray();
+
+		final SpotIndex startIndex = new SpotIndex( segmentStarts );
+		final SpotIndex middleIndex = new SpotIndex( allMiddles );
+		final double gcRadius = Math.nextUp( gcMaxDistance );
+		final double mRadius = Math.nextUp( mMaxDistance );
+		final double sRadius = Math.nextUp( sMaxDistance );
 
 		/*
 		 * A. We iterate over all segment ends, targeting 1st the segment starts
 		 * (gap-closing) then the segment middles (merging).
 		 */
 
-		final ExecutorService executorGCM = Threads.newFixedThreadPool( numThreads );
-		for ( final Spot source : segmentEnds )
-		{
-			executorGCM.submit( new Runnable()
+		final LinkBuffer gcmLinks = collectLinks( segmentEnds, ( source, buffer ) -> {
+			final int sourceFrame = source.getFeature( Spot.FRAME ).intValue();
+			final List< Spot > candidates = new ArrayList<>();
+
+			/*
+			 * Iterate over segment starts - GAP-CLOSING.
+			 */
+
+			if ( allowGapClosing )
 			{
-				@Override
-				public void run()
+				// Frame interval must be within user specification.
+				for ( int targetFrame = sourceFrame + 1; targetFrame <= sourceFrame + maxFrameInterval; targetFrame++ )
+					startIndex.collect( source, targetFrame, gcRadius, candidates );
+
+				for ( final Spot target : candidates )
 				{
-					final int sourceFrame = source.getFeature( Spot.FRAME ).intValue();
-
-					/*
-					 * Iterate over segment starts - GAP-CLOSING.
-					 */
-
-					if ( allowGapClosing )
-					{
-						for ( final Spot target : segmentStarts )
-						{
-							// Check frame interval, must be within user
-							// specification.
-							final int targetFrame = target.getFeature( Spot.FRAME ).intValue();
-							final int tdiff = targetFrame - sourceFrame;
-							if ( tdiff < 1 || tdiff > maxFrameInterval )
-							{
-								continue;
-							}
-
-							// Check max distance
-							final double cost = gcCostFunction.linkingCost( source, target );
-							if ( cost > gcCostThreshold )
-							{
-								continue;
-							}
-
-							synchronized ( lock )
-							{
-								sources.add( source );
-								targets.add( target );
-								linkCosts.add( cost );
-							}
-						}
-					}
-
-					/*
-					 * Iterate over middle points - MERGING.
-					 */
-
-					if ( allowMerging )
-					{
-						for ( final Spot target : allMiddles )
-						{
-							// Check frame interval, must be 1.
-							final int targetFrame = target.getFeature( Spot.FRAME ).intValue();
-							final int tdiff = targetFrame - sourceFrame;
-							if ( tdiff != 1 )
-							{
-								continue;
-							}
-
-							// Check max distance
-							final double cost = mCostFunction.linkingCost( source, target );
-							if ( cost > mCostThreshold )
-							{
-								continue;
-							}
-
-							synchronized ( lock )
-							{
-								sources.add( source );
-								targets.add( target );
-								linkCosts.add( cost );
-							}
-						}
-					}
+					// Check max distance
+					final double cost = gcCostFunction.linkingCost( source, target );
+					if ( cost > gcCostThreshold )
+						continue;
+
+					buffer.add( source, target, cost );
 				}
-			} );
-		}
-		executorGCM.shutdown();
-		try
-		{
-			executorGCM.awaitTermination( 1, TimeUnit.DAYS );
-		}
-		catch ( final InterruptedException e )
-		{
-			errorMessage = BASE_ERROR_MESSAGE + e.getMessage();
+			}
+
+			/*
+			 * Iterate over middle points - MERGING.
+			 */
+
+			if ( allowMerging )
+			{
+				// Frame interval must be 1.
+				candidates.clear();
+				middleIndex.collect( source, sourceFrame + 1, mRadius, candidates );
+				for ( final Spot target : candidates )
+				{
+					// Check max distance
+					final double cost = mCostFunction.linkingCost( source, target );
+					if ( cost > mCostThreshold )
+						continue;
+
+					buffer.add( source, target, cost );
+				}
+			}
+		} );
+		if ( null == gcmLinks )
 			return false;
-		}
 
 		/*
 		 * Iterate over middle points targeting segment starts - SPLITTING
 		 */
+
+		final LinkBuffer sLinks;
 		if ( allowSplitting )
 		{
-			final ExecutorService executorS = Threads.newFixedThreadPool( numThreads );
-			for ( final Spot source : allMiddles )
-			{
-				executorS.submit( new Runnable()
+			sLinks = collectLinks( allMiddles, ( source, buffer ) -> {
+				final int sourceFrame = source.getFeature( Spot.FRAME ).intValue();
+				final List< Spot > candidates = new ArrayList<>();
+
+				// Frame interval must be 1.
+				startIndex.collect( source, sourceFrame + 1, sRadius, candidates );
+				for ( final Spot target : candidates )
 				{
-					@Override
-					public void run()
-					{
-						final int sourceFrame = source.getFeature( Spot.FRAME ).intValue();
-						for ( final Spot target : segmentStarts )
-						{
-							// Check frame interval, must be 1.
-							final int targetFrame = target.getFeature( Spot.FRAME ).intValue();
-							final int tdiff = targetFrame - sourceFrame;
-
-							if ( tdiff != 1 )
-							{
-								continue;
-							}
-
-							// Check max distance
-							final double cost = sCostFunction.linkingCost( source, target );
-							if ( cost > sCostThreshold )
-							{
-								continue;
-							}
-							synchronized ( lock )
-							{
-								sources.add( source );
-								targets.add( target );
-								linkCosts.add( cost );
-							}
-						}
-					}
-				} );
-			}
-			executorS.shutdown();
-			try
-			{
-				executorS.awaitTermination( 1, TimeUnit.DAYS );
-			}
-			catch ( final InterruptedException e )
-			{
-				errorMessage = BASE_ERROR_MESSAGE + e.getMessage();
-			}
+					// Check max distance
+					final double cost = sCostFunction.linkingCost( source, target );
+					if ( cost > sCostThreshold )
+						continue;
+
+					buffer.add( source, target, cost );
+				}
+			} );
+			if ( null == sLinks )
+				return false;
 		}
+		else
+		{
+			sLinks = new LinkBuffer();
+		}
+
+		/*
+		 * Sources and targets.
+		 */
+		final ArrayList< Spot > sources = new ArrayList<>( gcmLinks.sources.size() + sLinks.sources.size() );
+		final ArrayList< Spot > targets = new ArrayList<>( gcmLinks.targets.size() + sLinks.targets.size() );
+		// Corresponding costs.
+		final ResizableDoubleArray linkCosts = new ResizableDoubleArray( gcmLinks.costs.size + sLinks.costs.size );
+		gcmLinks.appendTo( sources, targets, linkCosts );
+		sLinks.appendTo( sources, targets, linkCosts );
 		linkCosts.trimToSize();
 
 		/*
@@ -448,6 +405,119 @@ public class JaqamanSegmentCostMatrixCreator implements CostMatrixCreator< Spot,
 		return processingTime;
 	}
 
+	/**
+	 * Generates candidate links for the specified sources, in parallel. The
+	 * sources are split in as many chunks as there are threads, and each
+	 * chunk stores the links it finds in its own buffer. Buffers are merged
+	 * at the end, in the order of the sources.
+	 * 
+	 * @param sources
+	 *            the sources to generate links for.
+	 * @param linkFinder
+	 *            the function that stores in the buffer the links found for a
+	 *            single source.
+	 * @return a buffer containing all the links found, or <code>null</code>
+	 *         if the computation was interrupted.
+	 */
+	private LinkBuffer collectLinks( final List< Spot > sources, final BiConsumer< Spot, LinkBuffer > linkFinder )
+	{
+		final int nChunks = Math.max( 1, Math.min( numThreads, sources.size() ) );
+		final int chunkSize = ( sources.size() + nChunks - 1 ) / nChunks;
+		final List< Future< LinkBuffer > > futures = new ArrayList<>( nChunks );
+		final ExecutorService executor = Threads.newFixedThreadPool( nChunks );
+		for ( int i = 0; i < nChunks; i++ )
+		{
+			final List< Spot > chunk = sources.subList( Math.min( sources.size(), i * chunkSize ), Math.min( sources.size(), ( i + 1 ) * chunkSize ) );
+			futures.add( executor.submit( () -> {
+				final LinkBuffer buffer = new LinkBuffer();
+				for ( final Spot source : chunk )
+					linkFinder.accept( source, buffer );
+				return buffer;
+			} ) );
+		}
+		executor.shutdown();
+
+		final LinkBuffer links = new LinkBuffer();
+		try
+		{
+			for ( final Future< LinkBuffer > future : futures )
+				future.get().appendTo( links.sources, links.targets, links.costs );
+		}
+		catch ( InterruptedException | ExecutionException e )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + e.getMessage();
+			return null;
+		}
+		return links;
+	}
+
+	/**
+	 * Thread-local storage for candidate links.
+	 */
+	private static final class LinkBuffer
+	{
+
+		private final ArrayList< Spot > sources = new ArrayList<>();
+
+		private final ArrayList< Spot > targets = new ArrayList<>();
+
+		private final ResizableDoubleArray costs = new ResizableDoubleArray();
+
+		private void add( final Spot source, final Spot target, final double cost )
+		{
+			sources.add( source );
+			targets.add( target );
+			costs.add( cost );
+		}
+
+		private void appendTo( final List< Spot > sources, final List< Spot > targets, final ResizableDoubleArray costs )
+		{
+			sources.addAll( this.sources );
+			targets.addAll( this.targets );
+			for ( int i = 0; i < this.costs.size; i++ )
+				costs.add( this.costs.data[ i ] );
+		}
+	}
+
+	/**
+	 * A collection of spots indexed by frame, with one KD-tree per frame.
+	 * Safe to query concurrently.
+	 */
+	private static final class SpotIndex
+	{
+
+		private final Map< Integer, KDTree< Spot > > trees = new HashMap<>();
+
+		private SpotIndex( final Collection< Spot > spots )
+		{
+			final Map< Integer, List< Spot > > spotsByFrame = new HashMap<>();
+			for ( final Spot spot : spots )
+				spotsByFrame.computeIfAbsent( spot.getFeature( Spot.FRAME ).intValue(), k -> new ArrayList<>() ).add( spot );
+
+			for ( final Integer frame : spotsByFrame.keySet() )
+			{
+				final List< Spot > list = spotsByFrame.get( frame );
+				trees.put( frame, new KDTree<>( list, list ) );
+			}
+		}
+
+		/**
+		 * Adds to the specified list the spots of the specified frame that are
+		 * within the specified distance of the source.
+		 */
+		private void collect( final Spot source, final int frame, final double radius, final List< Spot > out )
+		{
+			final KDTree< Spot > tree = trees.get( Integer.valueOf( frame ) );
+			if ( null == tree )
+				return;
+
+			final RadiusNeighborSearchOnKDTree< Spot > search = new RadiusNeighborSearchOnKDTree<>( tree );
+			search.search( source, radius, false );
+			for ( int i = 0; i < search.numNeighbors(); i++ )
+				out.add( search.getSampler( i ).get() );
+		}
+	}
+
 	private static final boolean checkSettingsValidity( final Map< String, Object > settings, final StringBuilder str )
 	{
 		if ( null == settings )
@@ -0,0 +1,90 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.jaqaman.costmatrix;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import fiji.plugin.trackmate.tracking.jaqaman.costfunction.CostFunction;
+import net.imglib2.KDTree;
+import net.imglib2.RealLocalizable;
+import net.imglib2.neighborsearch.RadiusNeighborSearchOnKDTree;
+
+/**
+ * A {@link JaqamanLinkingCostMatrixCreator} that only evaluates the cost
+ * function for targets that are within a certain distance of each source.
+ * <p>
+ * The targets are stored in a KD-tree built once, and each source queries it
+ * for the targets within a radius equal to the square-root of the cost
+ * threshold. The number of cost evaluations then scales with the number of
+ * acceptable candidates rather than with the product of the number of sources
+ * and targets.
+ * <p>
+ * This is only valid for cost functions that never return a cost lower than
+ * the square distance between the source and the target, as is the case for
+ * the cost functions used in TrackMate (e.g. square distance, possibly
+ * tempered with positive feature penalties). Otherwise, some acceptable links
+ * might be missed.
+ *
+ * @param <K>
+ *            the type of the sources.
+ * @param <J>
+ *            the type of the targets.
+ */
+public class KDTreeLinkingCostMatrixCreator< K extends Comparable< K > & RealLocalizable, J extends Comparable< J > & RealLocalizable > extends JaqamanLinkingCostMatrixCreator< K, J >
+{
+
+	public KDTreeLinkingCostMatrixCreator( final Iterable< K > sources, final Iterable< J > targets, final CostFunction< K, J > costFunction, final double costThreshold, final double alternativeCostFactor, final double percentile )
+	{
+		super( sources, targets, costFunction, costThreshold, alternativeCostFactor, percentile );
+	}
+
+	@Override
+	protected void collectCandidates( final List< K > accSources, final List< J > accTargets, final ResizableDoubleArray costs )
+	{
+		final List< J > targetList = new ArrayList<>();
+		for ( final J target : targets )
+			targetList.add( target );
+
+		final KDTree< J > tree = new KDTree<>( targetList, targetList );
+		final RadiusNeighborSearchOnKDTree< J > search = new RadiusNeighborSearchOnKDTree<>( tree );
+		// Tiny bit larger so that rounding does not exclude boundary targets.
+		final double radius = Math.nextUp( Math.sqrt( costThreshold ) );
+
+		for ( final K source : sources )
+		{
+			search.search( source, radius, false );
+			final int nNeighbors = search.numNeighbors();
+			for ( int i = 0; i < nNeighbors; i++ )
+			{
+				final J target = search.getSampler( i ).get();
+				final double cost = costFunction.linkingCost( source, target );
+				if ( cost < costThreshold )
+				{
+					accSources.add( source );
+					accTargets.add( target );
+					costs.add( cost );
+				}
+			}
+		}
+	}
+}
@@ -551,6 +551,106 @@ public class SparseCostMatrix
 		return new SparseCostMatrix( cc2, kk2, number2, nRows );
 	}
 
+	/**
+	 * Labels the connected components of the bipartite graph represented by
+	 * this matrix. A row <code>i</code> and a column <code>j</code> are
+	 * connected if this matrix stores a non-infinite cost at
+	 * <code>(i, j)</code>. Two components can be solved as independent
+	 * assignment problems.
+	 * 
+	 * @return a new <code>int[]</code> array of length
+	 *         <code>nRows + nCols</code>, containing the component label of
+	 *         each row, followed by the component label of each column. Labels
+	 *         are contiguous and start at 0.
+	 */
+	public int[] connectedComponents()
+	{
+		final int n = nRows + nCols;
+		final int[] parent = new int[ n ];
+		for ( int i = 0; i < n; i++ )
+			parent[ i ] = i;
+
+		for ( int i = 0; i < nRows; i++ )
+		{
+			for ( int k = start[ i ]; k < start[ i ] + number[ i ]; k++ )
+			{
+				final int ri = root( parent, i );
+				final int rj = root( parent, nRows + kk[ k ] );
+				if ( ri != rj )
+					parent[ rj ] = ri;
+			}
+		}
+
+		final int[] labels = new int[ n ];
+		final int[] rootLabels = new int[ n ];
+		Arrays.fill( rootLabels, -1 );
+		int nLabels = 0;
+		for ( int i = 0; i < n; i++ )
+		{
+			final int r = root( parent, i );
+			if ( rootLabels[ r ] < 0 )
+				rootLabels[ r ] = nLabels++;
+			labels[ i ] = rootLabels[ r ];
+		}
+		return labels;
+	}
+
+	private static final int root( final int[] parent, int i )
+	{
+		while ( parent[ i ] != i )
+		{
+			parent[ i ] = parent[ parent[ i ] ];
+			i = parent[ i ];
+		}
+		return i;
+	}
+
+	/**
+	 * Returns the sub-matrix made of the specified rows and columns, in the
+	 * order they are specified.
+	 * <p>
+	 * The column array must be sorted in ascending order, and must contain all
+	 * the columns that have a non-infinite cost in the specified rows, which
+	 * is the case for a connected component returned by
+	 * {@link #connectedComponents()}.
+	 * 
+	 * @param rows
+	 *            the indices of the rows to extract.
+	 * @param cols
+	 *            the indices of the columns to extract, sorted.
+	 * @return a new sparse matrix.
+	 * @throws IllegalArgumentException
+	 *             if one of the specified rows has a cost in a column that is
+	 *             not part of the specified columns.
+	 */
+	public final SparseCostMatrix subMatrix( final int[] rows, final int[] cols )
+	{
+		int subCardinality = 0;
+		for ( final int i : rows )
+			subCardinality += number[ i ];
+
+		final double[] cc2 = new double[ subCardinality ];
+		final int[] kk2 = new int[ subCardinality ];
+		final int[] number2 = new int[ rows.length ];
+		int index = 0;
+		for ( int li = 0; li < rows.length; li++ )
+		{
+			final int i = rows[ li ];
+			for ( int k = start[ i ]; k < start[ i ] + number[ i ]; k++ )
+			{
+				final int lj = Arrays.binarySearch( cols, kk[ k ] );
+				if ( lj < 0 )
+					throw new IllegalArgumentException( "The row " + i + " has a cost in the column " + kk[ k ] + ", which is not part of the sub-matrix columns." );
+
+				kk2[ index ] = lj;
+				cc2[ index ] = cc[ k ];
+				index++;
+			}
+			number2[ li ] = number[ i ];
+		}
+		return new SparseCostMatrix( cc2, kk2, number2, cols.length );
+	}
+
 	/**
 	 * Replace all the non-infinite values of this matrix by the specified
 	 * value.
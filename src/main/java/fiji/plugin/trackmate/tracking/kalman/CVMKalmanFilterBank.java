@@ -0,0 +1,355 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.kalman;
+
+import java.util.Arrays;
+
+/**
+ * A bank of Kalman filters that deal with particle motions in 3D with a
+ * constant velocity vector, all sharing the same noise parameters.
+ * <p>
+ * This is the structure-of-arrays equivalent of many
+ * {@link CVMKalmanFilter}s. The states and covariances of all filters are
+ * stored in flat primitive arrays, and a filter is referred to by the
+ * <code>int</code> slot it was given when added to the bank. Slots of removed
+ * filters are recycled.
+ * <p>
+ * With the constant velocity model, the evolution, measurement and noise
+ * matrices act the same way on the X, Y and Z axes, and do not couple them.
+ * Starting from an isotropic state covariance, the 6x6 covariance matrix
+ * therefore stays made of 4 diagonal 3x3 blocks whose diagonals are constant.
+ * It is stored as these 4 scalars, and the prediction and update steps are
+ * computed in closed form, without allocating anything. The operations are
+ * carried out in the same order as the matrix products of
+ * {@link CVMKalmanFilter}, so the results are the same.
+ */
+public class CVMKalmanFilterBank
+{
+
+	/** Number of elements of the state vector. */
+	private static final int NS = 6;
+
+	/** Number of scalars describing the state covariance. */
+	private static final int NP = 4;
+
+	private static final int PP = 0;
+
+	private static final int PV = 1;
+
+	private static final int VP = 2;
+
+	private static final int VV = 3;
+
+	private final double initStateCovariance;
+
+	/** Variance of the process noise on position. */
+	private final double qp;
+
+	/** Variance of the process noise on velocity. */
+	private final double qv;
+
+	/** Variance of the measurement noise. */
+	private final double r;
+
+	/** Current states, <code>x, y, z, vx, vy, vz</code> per slot. */
+	private double[] x;
+
+	/** Predicted states, <code>x, y, z, vx, vy, vz</code> per slot. */
+	private double[] xp;
+
+	/**
+	 * State covariances: position-position, position-velocity,
+	 * velocity-position and velocity-velocity variance per slot.
+	 */
+	private double[] p;
+
+	private int[] nOcclusions;
+
+	/** Slots that can be reused, as a stack. */
+	private int[] free;
+
+	private int nFree;
+
+	/** Number of slots ever used. */
+	private int nSlots;
+
+	/**
+	 * Creates an empty bank of Kalman filters.
+	 *
+	 * @param initialCapacity
+	 *            the number of filters the bank can hold before growing.
+	 * @param initStateCovariance
+	 *            the initial state covariance of the filters.
+	 * @param positionProcessStd
+	 *            the std of the additive white gaussian noise affecting the
+	 *            <b>position</b> evolution.
+	 * @param velocityProcessStd
+	 *            the std of the additive white gaussian noise affecting the
+	 *            <b>velocity</b> evolution, in <code>length/frame</code>
+	 *            units.
+	 * @param positionMeasurementStd
+	 *            the std of the additive white gaussian noise affecting the
+	 *            position <b>measurement</b>.
+	 * @see CVMKalmanFilter#CVMKalmanFilter(double[], double, double, double,
+	 *      double)
+	 */
+	public CVMKalmanFilterBank( final int initialCapacity, final double initStateCovariance, final double positionProcessStd, final double velocityProcessStd, final double positionMeasurementStd )
+	{
+		this.initStateCovariance = initStateCovariance;
+		this.qp = positionProcessStd * positionProcessStd;
+		this.qv = velocityProcessStd * velocityProcessStd;
+		this.r = positionMeasurementStd * positionMeasurementStd;
+		final int capacity = Math.max( 1, initialCapacity );
+		this.x = new double[ NS * capacity ];
+		this.xp = new double[ NS * capacity ];
+		this.p = new double[ NP * capacity ];
+		this.nOcclusions = new int[ capacity ];
+		this.free = new int[ capacity ];
+	}
+
+	/**
+	 * Adds a new filter with the specified initial state.
+	 *
+	 * @param X0
+	 *            initial state estimate, as
+	 *            <code>x0, y0, z0, vx0, vy0, vz0</code> with velocity in
+	 *            <code>length/frame</code> units.
+	 * @return the slot of the new filter.
+	 */
+	public int add( final double[] X0 )
+	{
+		final int slot;
+		if ( nFree > 0 )
+		{
+			slot = free[ --nFree ];
+		}
+		else
+		{
+			if ( nSlots == nOcclusions.length )
+				grow();
+			slot = nSlots++;
+		}
+
+		System.arraycopy( X0, 0, x, NS * slot, NS );
+		System.arraycopy( X0, 0, xp, NS * slot, NS );
+		final int o = NP * slot;
+		p[ o + PP ] = initStateCovariance;
+		p[ o + PV ] = 0.;
+		p[ o + VP ] = 0.;
+		p[ o + VV ] = initStateCovariance;
+		nOcclusions[ slot ] = 0;
+		return slot;
+	}
+
+	/**
+	 * Removes the filter at the specified slot. The slot may be given to a
+	 * filter added later.
+	 *
+	 * @param slot
+	 *            the slot of the filter to remove.
+	 */
+	public void remove( final int slot )
+	{
+		free[ nFree++ ] = slot;
+	}
+
+	/**
+	 * Runs the prediction step of the filter at the specified slot. The
+	 * predicted position can then be read with
+	 * {@link #getPredictedPosition(int, int)}.
+	 *
+	 * @param slot
+	 *            the slot of the filter.
+	 */
+	public void predict( final int slot )
+	{
+		// Xp = A X
+		final int s = NS * slot;
+		for ( int d = 0; d < 3; d++ )
+		{
+			xp[ s + d ] = x[ s + d ] + x[ s + 3 + d ];
+			xp[ s + 3 + d ] = x[ s + 3 + d ];
+		}
+
+		// P = A P A' + Q
+		final int o = NP * slot;
+		final double a = p[ o + PP ];
+		final double b = p[ o + PV ];
+		final double c = p[ o + VP ];
+		final double e = p[ o + VV ];
+		p[ o + PP ] = ( a + b ) + ( c + e ) + qp;
+		p[ o + PV ] = b + e;
+		p[ o + VP ] = c + e;
+		p[ o + VV ] = e + qv;
+	}
+
+	/**
+	 * Runs the update step of the filter at the specified slot with the
+	 * specified measured position.
+	 *
+	 * @param slot
+	 *            the slot of the filter.
+	 * @param mx
+	 *            the measured X position.
+	 * @param my
+	 *            the measured Y position.
+	 * @param mz
+	 *            the measured Z position.
+	 */
+	public void update( final int slot, final double mx, final double my, final double mz )
+	{
+		final int o = NP * slot;
+		final double a = p[ o + PP ];
+		final double b = p[ o + PV ];
+		final double c = p[ o + VP ];
+		final double e = p[ o + VV ];
+
+		// K = P H' ( H P H' + R )^-1
+		final double invS = 1. / ( a + r );
+		final double kp = a * invS;
+		final double kv = c * invS;
+
+		// X = Xp + K ( Xm - H Xp )
+		final int s = NS * slot;
+		final double yx = mx - xp[ s ];
+		final double yy = my - xp[ s + 1 ];
+		final double yz = mz - xp[ s + 2 ];
+		x[ s ] = xp[ s ] + kp * yx;
+		x[ s + 1 ] = xp[ s + 1 ] + kp * yy;
+		x[ s + 2 ] = xp[ s + 2 ] + kp * yz;
+		x[ s + 3 ] = xp[ s + 3 ] + kv * yx;
+		x[ s + 4 ] = xp[ s + 4 ] + kv * yy;
+		x[ s + 5 ] = xp[ s + 5 ] + kv * yz;
+
+		// P = ( I - K H ) P
+		p[ o + PP ] = ( 1. - kp ) * a;
+		p[ o + PV ] = ( 1. - kp ) * b;
+		p[ o + VP ] = -kv * a + c;
+		p[ o + VV ] = -kv * b + e;
+	}
+
+	/**
+	 * Runs the update step of the filter at the specified slot when no
+	 * measurement could be found. The filter then takes the predicted state
+	 * as its current state.
+	 *
+	 * @param slot
+	 *            the slot of the filter.
+	 */
+	public void occlusion( final int slot )
+	{
+		nOcclusions[ slot ]++;
+		System.arraycopy( xp, NS * slot, x, NS * slot, NS );
+	}
+
+	/**
+	 * Returns the position predicted by the last prediction step of the
+	 * filter at the specified slot.
+	 *
+	 * @param slot
+	 *            the slot of the filter.
+	 * @param d
+	 *            the dimension, 0 to 2.
+	 * @return the predicted position along this dimension.
+	 */
+	public double getPredictedPosition( final int slot, final int d )
+	{
+		return xp[ NS * slot + d ];
+	}
+
+	/**
+	 * Returns the current state of the filter at the specified slot.
+	 *
+	 * @param slot
+	 *            the slot of the filter.
+	 * @param i
+	 *            the index in the state vector
+	 *            <code>x, y, z, vx, vy, vz</code>.
+	 * @return the state element.
+	 */
+	public double getState( final int slot, final int i )
+	{
+		return x[ NS * slot + i ];
+	}
+
+	/**
+	 * Returns the number of occlusion events that occurred since the filter at
+	 * the specified slot was added.
+	 *
+	 * @param slot
+	 *            the slot of the filter.
+	 * @return the number of occlusions.
+	 */
+	public int getNOcclusion( final int slot )
+	{
+		return nOcclusions[ slot ];
+	}
+
+	/**
+	 * Return the root mean square error on position estimated through the state
+	 * covariance of the filter at the specified slot.
+	 *
+	 * @param slot
+	 *            the slot of the filter.
+	 * @return the estimated error on position.
+	 */
+	public double getPositionError( final int slot )
+	{
+		final double a = p[ NP * slot + PP ];
+		return Math.sqrt( ( a + a + a ) / 3d );
+	}
+
+	/**
+	 * Return the root mean square error on velocity estimated through the state
+	 * covariance of the filter at the specified slot.
+	 *
+	 * @param slot
+	 *            the slot of the filter.
+	 * @return the estimated error on velocity, in <code>length/frame</code>
+	 *         units.
+	 */
+	public double getVelocityError( final int slot )
+	{
+		final double e = p[ NP * slot + VV ];
+		return Math.sqrt( ( e + e + e ) / 3d );
+	}
+
+	/**
+	 * Returns the number of filters in this bank.
+	 *
+	 * @return the number of filters.
+	 */
+	public int size()
+	{
+		return nSlots - nFree;
+	}
+
+	private void grow()
+	{
+		final int capacity = 2 * nOcclusions.length;
+		x = Arrays.copyOf( x, NS * capacity );
+		xp = Arrays.copyOf( xp, NS * capacity );
+		p = Arrays.copyOf( p, NP * capacity );
+		nOcclusions = Arrays.copyOf( nOcclusions, capacity );
+		free = Arrays.copyOf( free, capacity );
+	}
+}
@@ -23,7 +23,6 @@ package fiji.plugin.trackmate.tracking.kalman;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -42,7 +41,8 @@ import fiji.plugin.trackmate.tracking.jaqaman.JaqamanLinker;
 import fiji.plugin.trackmate.tracking.jaqaman.costfunction.CostFunction;
 import fiji.plugin.trackmate.tracking.jaqaman.costfunction.FeaturePenaltyCostFunction;
 import fiji.plugin.trackmate.tracking.jaqaman.costfunction.SquareDistCostFunction;
-import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.JaqamanLinkingCostMatrixCreator;
+import fiji.plugin.trackmate.tracking.jaqaman.costmatrix.KDTreeLinkingCostMatrixCreator;
+import net.imglib2.RealLocalizable;
 import net.imglib2.algorithm.Benchmark;
 
 public class KalmanTracker implements SpotTracker, Benchmark, Cancelable
@@ -210,8 +210,12 @@ public class KalmanTracker implements SpotTracker, Benchmark, Cancelable
 		meanSpotRadius /= orphanSpots.size();
 		final double positionMeasurementStd = meanSpotRadius / 10d;
 
-		// The master map that contains the currently active KFs.
-		final Map< CVMKalmanFilter, Spot > kalmanFiltersMap = new HashMap<>( orphanSpots.size() );
+		// The bank that holds the Kalman filters of all active tracks.
+		final CVMKalmanFilterBank bank = new CVMKalmanFilterBank( orphanSpots.size(), Double.MIN_NORMAL, positionProcessStd, velocityProcessStd, positionMeasurementStd );
+		// The currently active tracks, one per KF of the bank.
+		List< KalmanTrack > tracks = new ArrayList<>( orphanSpots.size() );
+		// Cost function to link predictions to measurements.
+		final CostFunction< KalmanTrack, Spot > predictionCostFunction = getPredictionCostFunction( featurePenalties );
 
 		/*
 		 * Then loop over time, starting from second frame.
@@ -228,38 +232,24 @@ public class KalmanTracker implements SpotTracker, Benchmark, Cancelable
 			final List< Spot > measurements = generateSpotList( spots, frame );
 
 			/*
-			 * Predict for all Kalman filters, and use it to generate linking
-			 * candidates.
+			 * Predict for all Kalman filters. The tracks expose the predicted
+			 * positions to the linker directly.
 			 */
-			final Map< Spot, CVMKalmanFilter > predictionMap = new HashMap<>( kalmanFiltersMap.size() );
-			for ( final CVMKalmanFilter kf : kalmanFiltersMap.keySet() )
+			for ( final KalmanTrack track : tracks )
 			{
-				final double[] X = kf.predict();
-				final Spot s = kalmanFiltersMap.get( kf );
-				final Spot predSpot = new Spot( X[ 0 ], X[ 1 ], X[ 2 ], s.getFeature( Spot.RADIUS ), s.getFeature( Spot.QUALITY ) );
-				// copy the necessary features of original spot to the predicted
-				// spot
-				if ( null != featurePenalties )
-					predSpot.copyFeatures( s, featurePenalties );
-
-				predictionMap.put( predSpot, kf );
+				bank.predict( track.slot );
+				track.linked = false;
 
 				if ( savePredictions )
 				{
-					final Spot pred = new Spot( X[ 0 ], X[ 1 ], X[ 2 ], s.getFeature( Spot.RADIUS ), s.getFeature( Spot.QUALITY ) );
-					pred.setName( "Pred_" + s.getName() );
-					pred.putFeature( Spot.RADIUS, s.getFeature( Spot.RADIUS ) );
+					// Carries the features the penalties are computed on.
+					final Spot s = track.last;
+					final Spot predSpot = new Spot( track, s.getFeature( Spot.RADIUS ), s.getFeature( Spot.QUALITY ) );
+					if ( null != featurePenalties )
+						predSpot.copyFeatures( s, featurePenalties );
 					predictionsCollection.add( predSpot, frame );
 				}
-
 			}
-			final List< Spot > predictions = new ArrayList<>( predictionMap.keySet() );
-
-			/*
-			 * The KF for which we could not find a measurement in the target
-			 * frame. Is updated later.
-			 */
-			final Collection< CVMKalmanFilter > childlessKFs = new HashSet<>( kalmanFiltersMap.keySet() );
 
 			/*
 			 * Find the global (in space) optimum for associating a prediction
@@ -267,52 +257,75 @@ public class KalmanTracker implements SpotTracker, Benchmark, Cancelable
 			 */
 
 			orphanSpots = new HashSet<>( measurements );
-			if ( !predictions.isEmpty() && !measurements.isEmpty() )
+			if ( !tracks.isEmpty() && !measurements.isEmpty() )
 			{
 				// Only link measurements to predictions if we have predictions.
-				final JaqamanLinkingCostMatrixCreator< Spot, Spot > crm = new JaqamanLinkingCostMatrixCreator<>(
-						predictions,
+				final KDTreeLinkingCostMatrixCreator< KalmanTrack, Spot > crm = new KDTreeLinkingCostMatrixCreator<>(
+						tracks,
 						measurements,
-						costFunction,
+						predictionCostFunction,
 						maxCost,
 						ALTERNATIVE_COST_FACTOR,
 						PERCENTILE );
-				final JaqamanLinker< Spot, Spot > linker = new JaqamanLinker<>( crm );
+				final JaqamanLinker< KalmanTrack, Spot > linker = new JaqamanLinker<>( crm );
 				if ( !linker.checkInput() || !linker.process() )
 				{
 					errorMessage = BASE_ERROR_MSG + "Error linking candidates in frame " + frame + ": " + linker.getErrorMessage();
 					return false;
 				}
-				final Map< Spot, Spot > agnts = linker.getResult();
-				final Map< Spot, Double > costs = linker.getAssignmentCosts();
+				final Map< KalmanTrack, Spot > agnts = linker.getResult();
+				final Map< KalmanTrack, Double > costs = linker.getAssignmentCosts();
 				// Deal with found links.
-				for ( final Spot spotty : agnts.keySet() )
+				for ( final KalmanTrack track : agnts.keySet() )
 				{
-					final CVMKalmanFilter kf = predictionMap.get( spotty );
-
 					// Create links for found match.
-					final Spot source = kalmanFiltersMap.get( kf );
-					final Spot target = agnts.get( spotty );
+					final Spot source = track.last;
+					final Spot target = agnts.get( track );
 
 					graph.addVertex( source );
 					graph.addVertex( target );
 					final DefaultWeightedEdge edge = graph.addEdge( source, target );
-					final double cost = costs.get( spotty );
+					final double cost = costs.get( track );
 					graph.setEdgeWeight( edge, cost );
 
 					// Update Kalman filter
-					kf.update( toMeasurement( target ) );
+					bank.update( track.slot, target.getDoublePosition( 0 ), target.getDoublePosition( 1 ), target.getDoublePosition( 2 ) );
 
 					// Update Kalman track spot
-					kalmanFiltersMap.put( kf, target );
+					track.last = target;
+					track.linked = true;
 
 					// Remove from orphan set
 					orphanSpots.remove( target );
+				}
+			}
 
-					// Remove from childless KF set
-					childlessKFs.remove( kf );
+			/*
+			 * Deal with childless KFs: the KF for which we could not find a
+			 * measurement in the target frame.
+			 */
+			final List< KalmanTrack > survivors = new ArrayList<>( tracks.size() );
+			for ( final KalmanTrack track : tracks )
+			{
+				if ( track.linked )
+				{
+					survivors.add( track );
+					continue;
 				}
+
+				// Echo we missed a measurement
+				bank.occlusion( track.slot );
+
+				/*
+				 * We can bridge a limited number of gaps. If too much, we die.
+				 * If not, we will use predicted state next time.
+				 */
+				if ( bank.getNOcclusion( track.slot ) > maxFrameGap )
+					bank.remove( track.slot );
+				else
+					survivors.add( track );
 			}
+			tracks = survivors;
 
 			/*
 			 * Deal with orphans from the previous frame. (We deal with orphans
@@ -330,7 +343,7 @@ public class KalmanTracker implements SpotTracker, Benchmark, Cancelable
 				 * spots of this frame.
 				 */
 
-				final JaqamanLinkingCostMatrixCreator< Spot, Spot > ic = new JaqamanLinkingCostMatrixCreator<>(
+				final KDTreeLinkingCostMatrixCreator< Spot, Spot > ic = new KDTreeLinkingCostMatrixCreator<>(
 						previousOrphanSpots,
 						orphanSpots,
 						nucleatingCostFunction,
@@ -354,13 +367,10 @@ public class KalmanTracker implements SpotTracker, Benchmark, Cancelable
 					// Remove from orphan collection.
 					orphanSpots.remove( target );
 
-					// Derive initial state and create Kalman filter.
-					final double[] XP = estimateInitialState( source, target );
-					final CVMKalmanFilter kt = new CVMKalmanFilter( XP, Double.MIN_NORMAL, positionProcessStd, velocityProcessStd, positionMeasurementStd );
+					// Derive initial state and add a Kalman filter to the bank.
 					// We trust the initial state a lot.
-
-					// Store filter and source
-					kalmanFiltersMap.put( kt, target );
+					final double[] XP = estimateInitialState( source, target );
+					tracks.add( new KalmanTrack( bank, bank.add( XP ), target ) );
 
 					// Add edge to the graph.
 					graph.addVertex( source );
@@ -372,20 +382,6 @@ public class KalmanTracker implements SpotTracker, Benchmark, Cancelable
 			}
 			previousOrphanSpots = orphanSpots;
 
-			// Deal with childless KFs.
-			for ( final CVMKalmanFilter kf : childlessKFs )
-			{
-				// Echo we missed a measurement
-				kf.update( null );
-
-				/*
-				 * We can bridge a limited number of gaps. If too much, we die.
-				 * If not, we will use predicted state next time.
-				 */
-				if ( kf.getNOcclusion() > maxFrameGap )
-					kalmanFiltersMap.remove( kf );
-			}
-
 			final double progress = ( double ) p / keySet.size();
 			logger.setProgress( progress );
 		}
@@ -454,16 +450,6 @@ public class KalmanTracker implements SpotTracker, Benchmark, Cancelable
 		this.logger = logger;
 	}
 
-	private static final double[] toMeasurement( final Spot spot )
-	{
-		final double[] d = new double[] {
-				spot.getDoublePosition( 0 ),
-				spot.getDoublePosition( 1 ),
-				spot.getDoublePosition( 2 )
-		};
-		return d;
-	}
-
 	private static final double[] estimateInitialState( final Spot first, final Spot second )
 	{
 		final double[] xp = new double[] {
@@ -501,6 +487,28 @@ public class KalmanTracker implements SpotTracker, Benchmark, Cancelable
 		return new FeaturePenaltyCostFunction( featurePenalties );
 	}
 
+	/**
+	 * Creates the cost function that links the positions predicted by the
+	 * Kalman filters to the measurements. It is the square distance, possibly
+	 * tempered by the feature penalties computed with the last spot of the
+	 * track.
+	 *
+	 * @param featurePenalties
+	 *            feature penalties to base costs on. Can be <code>null</code>.
+	 * @return a new {@link CostFunction}.
+	 */
+	private static CostFunction< KalmanTrack, Spot > getPredictionCostFunction( final Map< String, Double > featurePenalties )
+	{
+		if ( null == featurePenalties || featurePenalties.isEmpty() )
+		{
+			final SquareDistCostFunction costFunction = new SquareDistCostFunction();
+			return ( track, target ) -> costFunction.linkingCost( track, target );
+		}
+
+		final FeaturePenaltyCostFunction costFunction = new FeaturePenaltyCostFunction( featurePenalties );
+		return ( track, target ) -> costFunction.linkingCost( track, track.last, target );
+	}
+
 	// --- org.scijava.Cancelable methods ---
 
 	@Override
@@ -521,4 +529,69 @@ public class KalmanTracker implements SpotTracker, Benchmark, Cancelable
 	{
 		return cancelReason;
 	}
+
+	/**
+	 * A track followed by one Kalman filter of the bank. It is located at the
+	 * position predicted by its filter, so that it can be handed to the linker
+	 * without creating a spot for the prediction.
+	 */
+	private static final class KalmanTrack implements RealLocalizable, Comparable< KalmanTrack >
+	{
+
+		private final CVMKalmanFilterBank bank;
+
+		private final int slot;
+
+		/** The last spot linked to this track. */
+		private Spot last;
+
+		/** Whether a measurement was found for this track in this frame. */
+		private boolean linked;
+
+		private KalmanTrack( final CVMKalmanFilterBank bank, final int slot, final Spot last )
+		{
+			this.bank = bank;
+			this.slot = slot;
+			this.last = last;
+			this.linked = true;
+		}
+
+		@Override
+		public int numDimensions()
+		{
+			return 3;
+		}
+
+		@Override
+		public void localize( final float[] position )
+		{
+			for ( int d = 0; d < 3; d++ )
+				position[ d ] = getFloatPosition( d );
+		}
+
+		@Override
+		public void localize( final double[] position )
+		{
+			for ( int d = 0; d < 3; d++ )
+				position[ d ] = getDoublePosition( d );
+		}
+
+		@Override
+		public float getFloatPosition( final int d )
+		{
+			return ( float ) getDoublePosition( d );
+		}
+
+		@Override
+		public double getDoublePosition( final int d )
+		{
+			return bank.getPredictedPosition( slot, d );
+		}
+
+		@Override
+		public int compareTo( final KalmanTrack o )
+		{
+			return Integer.compare( slot, o.slot );
+		}
+	}
 }
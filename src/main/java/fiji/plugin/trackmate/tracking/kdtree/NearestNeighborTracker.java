@@ -36,6 +36,7 @@ import org.scijava.Cancelable;
 
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
@@ -109,7 +110,7 @@ public class NearestNeighborTracker extends MultiThreadedBenchmarkAlgorithm impl
 
         // Prepare executors.
         final AtomicInteger progress = new AtomicInteger(0);
-        final ExecutorService executors = Threads.newFixedThreadPool(numThreads);
+        final ExecutorService executors = Threads.newFixedThreadPool(numThreads, this);
         final List<Future<Void>> futures = new ArrayList<>(frames.size());
         for (int i = frames.first(); i < frames.last(); i++) {
             final int frame = i;
@@ -189,8 +190,13 @@ public class NearestNeighborTracker extends MultiThreadedBenchmarkAlgorithm impl
         logger.setProgress(0);
 
         try {
-            for (final Future<Void> future : futures)
-                future.get();
+            for (final Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (final CancellationException e) {
+                    // Not started before cancellation.
+                }
+            }
 
             executors.shutdown();
         } catch (InterruptedException | ExecutionException e) {
@@ -25,12 +25,11 @@ import static fiji.plugin.trackmate.tracking.overlap.OverlapTrackerFactory.BASE_
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
@@ -47,6 +46,7 @@ import fiji.plugin.trackmate.SpotRoi;
 import fiji.plugin.trackmate.tracking.SpotTracker;
 import fiji.plugin.trackmate.util.Threads;
 import math.geom2d.AffineTransform2D;
+import math.geom2d.Box2D;
 import math.geom2d.Point2D;
 import math.geom2d.conic.Circle2D;
 import math.geom2d.polygon.Polygon2D;
@@ -191,59 +191,74 @@ public class OverlapTracker extends MultiThreadedBenchmarkAlgorithm implements S
 
 		// First frame.
 		final int sourceFrame = frameIterator.next();
-		Map< Spot, Polygon2D > sourceGeometries = createGeometry( spots.iterable( sourceFrame, true ), method, enlargeFactor );
+		SpotGeometry[] sourceGeometries = createGeometry( spots.iterable( sourceFrame, true ), method, enlargeFactor );
+
+		// One pool for all the frame pairs.
+		final ExecutorService executors = Threads.newFixedThreadPool( numThreads, this );
 
 		logger.setStatus( "Frame to frame linking..." );
 		int progress = 0;
-		while ( frameIterator.hasNext() )
+		try
 		{
-			if ( !ok.get() || isCanceled() )
-				break;
-
-			final int targetFrame = frameIterator.next();
-			final Map< Spot, Polygon2D > targetGeometries = createGeometry( spots.iterable( targetFrame, true ), method, enlargeFactor );
-
-			if ( sourceGeometries.isEmpty() || targetGeometries.isEmpty() )
-				continue;
-
-			final ExecutorService executors = Threads.newFixedThreadPool( numThreads );
-			final List< Future< IoULink > > futures = new ArrayList<>();
-
-			// Submit work.
-			for ( final Spot target : targetGeometries.keySet() )
-			{
-				final Polygon2D targetPoly = targetGeometries.get( target );
-				futures.add( executors.submit( new FindBestSourceTask( target, targetPoly, sourceGeometries, minIoU ) ) );
-			}
-
-			// Get results.
-			for ( final Future< IoULink > future : futures )
+			while ( frameIterator.hasNext() )
 			{
 				if ( !ok.get() || isCanceled() )
 					break;
 
-				try
-				{
-					final IoULink link = future.get();
-					if ( link.source == null )
-						continue;
+				final int targetFrame = frameIterator.next();
+				final SpotGeometry[] targetGeometries = createGeometry( spots.iterable( targetFrame, true ), method, enlargeFactor );
 
-					graph.addVertex( link.source );
-					graph.addVertex( link.target );
-					final DefaultWeightedEdge edge = graph.addEdge( link.source, link.target );
-					graph.setEdgeWeight( edge, 1. - link.iou );
+				if ( sourceGeometries.length == 0 || targetGeometries.length == 0 )
+					continue;
 
+				// Index the sources so that targets are only tested against the ones they may overlap.
+				final SourceGrid grid = new SourceGrid( sourceGeometries );
+
+				// Submit work, a few blocks of targets per thread.
+				final int nBlocks = Math.min( targetGeometries.length, 4 * numThreads );
+				final int blockSize = ( targetGeometries.length + nBlocks - 1 ) / nBlocks;
+				final List< Future< List< IoULink > > > futures = new ArrayList<>( nBlocks );
+				for ( int from = 0; from < targetGeometries.length; from += blockSize )
+				{
+					final int to = Math.min( from + blockSize, targetGeometries.length );
+					futures.add( executors.submit( new FindBestSourceTask( targetGeometries, from, to, grid, method, minIoU ) ) );
 				}
-				catch ( InterruptedException | ExecutionException e )
+
+				// Get results.
+				for ( final Future< List< IoULink > > future : futures )
 				{
-					errorMessage = e.getMessage();
-					ok.set( false );
+					if ( !ok.get() || isCanceled() )
+						break;
+
+					try
+					{
+						for ( final IoULink link : future.get() )
+						{
+							graph.addVertex( link.source );
+							graph.addVertex( link.target );
+							final DefaultWeightedEdge edge = graph.addEdge( link.source, link.target );
+							graph.setEdgeWeight( edge, 1. - link.iou );
+						}
+					}
+					catch ( final CancellationException e )
+					{
+						// Not started before cancellation.
+					}
+					catch ( InterruptedException | ExecutionException e )
+					{
+						errorMessage = e.getMessage();
+						ok.set( false );
+					}
 				}
+
+				// The target geometries are reused as the sources of the next frame pair.
+				sourceGeometries = targetGeometries;
+				logger.setProgress( ( double ) progress++ / spots.keySet().size() );
 			}
+		}
+		finally
+		{
 			executors.shutdown();
-
-			sourceGeometries = targetGeometries;
-			logger.setProgress( ( double ) progress++ / spots.keySet().size() );
 		}
 
 		logger.setProgress( 1d );
@@ -273,25 +288,25 @@ public class OverlapTracker extends MultiThreadedBenchmarkAlgorithm implements S
 		return ok;
 	}
 
-	private static Map< Spot, Polygon2D > createGeometry( final Iterable< Spot > spots, final IoUCalculation method, final double scale )
+	private static SpotGeometry[] createGeometry( final Iterable< Spot > spots, final IoUCalculation method, final double scale )
 	{
-		final Map< Spot, Polygon2D > geometries = new HashMap<>();
+		final List< SpotGeometry > geometries = new ArrayList<>();
 		switch ( method )
 		{
 		case FAST:
 			for ( final Spot spot : spots )
-				geometries.put( spot, toBoundingBox( spot, scale ) );
+				geometries.add( new SpotGeometry( spot, toBoundingBox( spot, scale ) ) );
 			break;
 
 		case PRECISE:
 			for ( final Spot spot : spots )
-				geometries.put( spot, toPolygon( spot, scale ) );
+				geometries.add( new SpotGeometry( spot, toPolygon( spot, scale ) ) );
 			break;
 
 		default:
 			throw new IllegalArgumentException( "Do not know how to compute IoU for method " + method );
 		}
-		return Collections.unmodifiableMap( geometries );
+		return geometries.toArray( new SpotGeometry[ geometries.size() ] );
 	}
 
 	private static SimplePolygon2D toPolygon( final Spot spot, final double scale )
@@ -334,47 +349,278 @@ public class OverlapTracker extends MultiThreadedBenchmarkAlgorithm implements S
 		}
 	}
 
-	private static final class FindBestSourceTask implements Callable< IoULink >
+
+	/**
+	 * The geometry of a spot, with its area and bounding box computed once
+	 * and kept for as long as the frame is in use.
+	 */
+	static final class SpotGeometry
 	{
 
-		private final Spot target;
+		private final Spot spot;
+
+		private final Polygon2D polygon;
+
+		private final double area;
+
+		private final double minX;
+
+		private final double minY;
+
+		private final double maxX;
+
+		private final double maxY;
+
+		public SpotGeometry( final Spot spot, final Polygon2D polygon )
+		{
+			this.spot = spot;
+			this.polygon = polygon;
+			this.area = Math.abs( polygon.area() );
+			final Box2D box = polygon.boundingBox();
+			this.minX = box.getMinX();
+			this.minY = box.getMinY();
+			this.maxX = box.getMaxX();
+			this.maxY = box.getMaxY();
+		}
+
+		boolean overlaps( final SpotGeometry other )
+		{
+			return minX < other.maxX && other.minX < maxX && minY < other.maxY && other.minY < maxY;
+		}
+
+		private double intersection( final SpotGeometry other, final IoUCalculation method )
+		{
+			if ( method == IoUCalculation.FAST )
+			{
+				// Both geometries are their own bounding box.
+				final double dx = Math.min( maxX, other.maxX ) - Math.max( minX, other.minX );
+				final double dy = Math.min( maxY, other.maxY ) - Math.max( minY, other.minY );
+				return ( dx > 0. && dy > 0. ) ? dx * dy : 0.;
+			}
+			return Math.abs( Polygons2D.intersection( polygon, other.polygon ).area() );
+		}
+	}
+
+	/**
+	 * A uniform grid over the bounding boxes of the source geometries of a
+	 * frame. Each source is registered in all the cells its bounding box
+	 * spans, and the cell contents are stored contiguously in a single array.
+	 * The cell size is set from the mean spot size, so that a target is only
+	 * tested against the few sources around it.
+	 */
+	static final class SourceGrid
+	{
+
+		private final SpotGeometry[] sources;
+
+		private final double x0;
+
+		private final double y0;
 
-		private final Polygon2D targetPoly;
+		private final double scaleX;
 
-		private final Map< Spot, Polygon2D > sourceGeometries;
+		private final double scaleY;
+
+		private final int nx;
+
+		private final int ny;
+
+		/**
+		 * Offset of the first item of each cell in {@link #items}, plus one
+		 * trailing offset.
+		 */
+		private final int[] offsets;
+
+		private final int[] items;
+
+		public SourceGrid( final SpotGeometry[] sources )
+		{
+			this.sources = sources;
+
+			double minX = Double.POSITIVE_INFINITY;
+			double minY = Double.POSITIVE_INFINITY;
+			double maxX = Double.NEGATIVE_INFINITY;
+			double maxY = Double.NEGATIVE_INFINITY;
+			double sizeSum = 0.;
+			for ( final SpotGeometry g : sources )
+			{
+				minX = Math.min( minX, g.minX );
+				minY = Math.min( minY, g.minY );
+				maxX = Math.max( maxX, g.maxX );
+				maxY = Math.max( maxY, g.maxY );
+				sizeSum += Math.max( g.maxX - g.minX, g.maxY - g.minY );
+			}
+			final double width = maxX - minX;
+			final double height = maxY - minY;
+
+			// Cells about the size of a spot, but no more than 4 per spot.
+			final long maxCells = 4L * sources.length;
+			final double cellSize = sizeSum / sources.length;
+			long lnx = ( cellSize > 0. ) ? ( long ) Math.ceil( width / cellSize ) : 1L;
+			long lny = ( cellSize > 0. ) ? ( long ) Math.ceil( height / cellSize ) : 1L;
+			lnx = Math.max( 1L, Math.min( lnx, maxCells ) );
+			lny = Math.max( 1L, Math.min( lny, maxCells ) );
+			while ( lnx * lny > maxCells )
+			{
+				lnx = ( lnx + 1 ) / 2;
+				lny = ( lny + 1 ) / 2;
+			}
+			this.nx = ( int ) lnx;
+			this.ny = ( int ) lny;
+			this.x0 = minX;
+			this.y0 = minY;
+			this.scaleX = ( width > 0. ) ? nx / width : 0.;
+			this.scaleY = ( height > 0. ) ? ny / height : 0.;
+
+			// Count the items of each cell.
+			this.offsets = new int[ nx * ny + 1 ];
+			for ( final SpotGeometry g : sources )
+			{
+				final int cx0 = cellX( g.minX );
+				final int cx1 = cellX( g.maxX );
+				final int cy0 = cellY( g.minY );
+				final int cy1 = cellY( g.maxY );
+				for ( int cy = cy0; cy <= cy1; cy++ )
+					for ( int cx = cx0; cx <= cx1; cx++ )
+						offsets[ cy * nx + cx + 1 ]++;
+			}
+			for ( int c = 0; c < nx * ny; c++ )
+				offsets[ c + 1 ] += offsets[ c ];
+
+			// Fill them.
+			this.items = new int[ offsets[ nx * ny ] ];
+			final int[] cursors = Arrays.copyOf( offsets, nx * ny );
+			for ( int i = 0; i < sources.length; i++ )
+			{
+				final SpotGeometry g = sources[ i ];
+				final int cx0 = cellX( g.minX );
+				final int cx1 = cellX( g.maxX );
+				final int cy0 = cellY( g.minY );
+				final int cy1 = cellY( g.maxY );
+				for ( int cy = cy0; cy <= cy1; cy++ )
+					for ( int cx = cx0; cx <= cx1; cx++ )
+						items[ cursors[ cy * nx + cx ]++ ] = i;
+			}
+		}
+
+		private int cellX( final double x )
+		{
+			final int c = ( int ) ( ( x - x0 ) * scaleX );
+			return c < 0 ? 0 : c >= nx ? nx - 1 : c;
+		}
+
+		private int cellY( final double y )
+		{
+			final int c = ( int ) ( ( y - y0 ) * scaleY );
+			return c < 0 ? 0 : c >= ny ? ny - 1 : c;
+		}
+
+		/**
+		 * Collects the indices of the sources whose bounding box overlaps the
+		 * one of the specified target, in increasing order.
+		 *
+		 * @param target
+		 *            the target geometry.
+		 * @param marks
+		 *            one stamp per source, used to report each source once.
+		 * @param stamp
+		 *            the stamp of this query, different from all the
+		 *            previous ones made with the same marks.
+		 * @param candidates
+		 *            a holder for the array to store the indices in. The
+		 *            array is replaced by a larger one when full.
+		 * @return the number of candidates.
+		 */
+		int query( final SpotGeometry target, final int[] marks, final int stamp, final int[][] candidates )
+		{
+			int n = 0;
+			int[] out = candidates[ 0 ];
+			final int cx0 = cellX( target.minX );
+			final int cx1 = cellX( target.maxX );
+			final int cy0 = cellY( target.minY );
+			final int cy1 = cellY( target.maxY );
+			for ( int cy = cy0; cy <= cy1; cy++ )
+			{
+				for ( int cx = cx0; cx <= cx1; cx++ )
+				{
+					final int cell = cy * nx + cx;
+					for ( int k = offsets[ cell ]; k < offsets[ cell + 1 ]; k++ )
+					{
+						final int i = items[ k ];
+						if ( marks[ i ] == stamp )
+							continue;
+						marks[ i ] = stamp;
+						if ( !sources[ i ].overlaps( target ) )
+							continue;
+						if ( n == out.length )
+							out = Arrays.copyOf( out, 2 * n );
+						out[ n++ ] = i;
+					}
+				}
+			}
+			Arrays.sort( out, 0, n );
+			candidates[ 0 ] = out;
+			return n;
+		}
+	}
+
+	private static final class FindBestSourceTask implements Callable< List< IoULink > >
+	{
+
+		private final SpotGeometry[] targets;
+
+		private final int from;
+
+		private final int to;
+
+		private final SourceGrid grid;
+
+		private final IoUCalculation method;
 
 		private final double minIoU;
 
-		public FindBestSourceTask( final Spot target, final Polygon2D targetPoly, final Map< Spot, Polygon2D > sourceGeometries, final double minIoU )
+		public FindBestSourceTask( final SpotGeometry[] targets, final int from, final int to, final SourceGrid grid, final IoUCalculation method, final double minIoU )
 		{
-			this.target = target;
-			this.targetPoly = targetPoly;
-			this.sourceGeometries = sourceGeometries;
+			this.targets = targets;
+			this.from = from;
+			this.to = to;
+			this.grid = grid;
+			this.method = method;
 			this.minIoU = minIoU;
 		}
 
 		@Override
-		public IoULink call() throws Exception
+		public List< IoULink > call() throws Exception
 		{
-			final double targetArea = Math.abs( targetPoly.area() );
-			double maxIoU = minIoU;
-			Spot bestSpot = null;
-			for ( final Spot spot : sourceGeometries.keySet() )
+			final List< IoULink > links = new ArrayList<>( to - from );
+			final SpotGeometry[] sources = grid.sources;
+			final int[] marks = new int[ sources.length ];
+			final int[][] candidates = new int[][] { new int[ 16 ] };
+			for ( int t = from; t < to; t++ )
 			{
-				final Polygon2D sourcePoly = sourceGeometries.get( spot );
-				final double intersection = Math.abs( Polygons2D.intersection( targetPoly, sourcePoly ).area() );
-				if ( intersection == 0. )
-					continue;
-
-				final double union = Math.abs( sourcePoly.area() ) + targetArea - intersection;
-				final double iou = intersection / union;
-				if ( iou > maxIoU )
+				final SpotGeometry target = targets[ t ];
+				final int nCandidates = grid.query( target, marks, t - from + 1, candidates );
+				double maxIoU = minIoU;
+				Spot bestSpot = null;
+				for ( int c = 0; c < nCandidates; c++ )
 				{
-					maxIoU = iou;
-					bestSpot = spot;
+					final SpotGeometry source = sources[ candidates[ 0 ][ c ] ];
+					final double intersection = target.intersection( source, method );
+					if ( intersection == 0. )
+						continue;
+
+					final double union = source.area + target.area - intersection;
+					final double iou = intersection / union;
+					if ( iou > maxIoU )
+					{
+						maxIoU = iou;
+						bestSpot = source.spot;
+					}
 				}
+				if ( bestSpot != null )
+					links.add( new IoULink( bestSpot, target.spot, maxIoU ) );
 			}
-			return new IoULink( bestSpot, target, maxIoU );
+			return links;
 		}
 	}
 
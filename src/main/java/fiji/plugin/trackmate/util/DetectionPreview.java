@@ -210,6 +210,7 @@ public class DetectionPreview
 			// Make them visible
 			for ( final Spot spot : spotsToCopy )
 				spot.putFeature( SpotCollection.VISIBILITY, SpotCollection.ONE );
+			targetModel.getSpots().visibilityChanged();
 
 			// Generate event for listener to reflect changes.
 			targetModel.setSpots( targetModel.getSpots(), true );
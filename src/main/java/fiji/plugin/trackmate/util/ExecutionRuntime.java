@@ -0,0 +1,613 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.util;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinPool.ManagedBlocker;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.scijava.Cancelable;
+
+/**
+ * The execution runtime shared by all the TrackMate algorithms.
+ * <p>
+ * It owns a single work-stealing pool whose parallelism is the thread budget
+ * of the whole application. Algorithms do not create threads: they get an
+ * executor from this runtime, bounded by their own number of threads, and
+ * all these executors run their tasks on the shared pool. Executors are
+ * cheap to create and to shut down, and nested parallelism (a detector using
+ * several threads per frame while several frames are processed at once)
+ * does not create more active threads than the budget.
+ * <p>
+ * A task blocked waiting for another task, through the futures returned by
+ * these executors or through {@link #take(BlockingQueue)} and
+ * {@link #put(BlockingQueue, Object)}, lets the pool start a spare worker so
+ * that blocked tasks never starve the others.
+ * <p>
+ * The parallelism of the shared runtime defaults to the number of
+ * processors, and can be set with the <code>trackmate.parallelism</code>
+ * system property or with {@link #configure(int)}.
+ */
+public final class ExecutionRuntime
+{
+
+	/**
+	 * System property to set the parallelism of the shared runtime.
+	 */
+	public static final String PARALLELISM_PROPERTY = "trackmate.parallelism";
+
+	private static volatile ExecutionRuntime shared;
+
+	private final ForkJoinPool pool;
+
+	private ExecutionRuntime( final int parallelism )
+	{
+		this.pool = new ForkJoinPool( parallelism, new WorkerThreadFactory(), null, true );
+	}
+
+	/**
+	 * Returns the runtime shared by the application, creating it if needed.
+	 *
+	 * @return the shared runtime.
+	 */
+	public static ExecutionRuntime getInstance()
+	{
+		ExecutionRuntime runtime = shared;
+		if ( runtime == null )
+		{
+			synchronized ( ExecutionRuntime.class )
+			{
+				runtime = shared;
+				if ( runtime == null )
+				{
+					final int parallelism = Integer.getInteger( PARALLELISM_PROPERTY, Runtime.getRuntime().availableProcessors() );
+					runtime = new ExecutionRuntime( Math.max( 1, parallelism ) );
+					shared = runtime;
+				}
+			}
+		}
+		return runtime;
+	}
+
+	/**
+	 * Replaces the shared runtime by one with the specified parallelism. The
+	 * executors created from the previous runtime keep working on it, and
+	 * its workers exit once they are idle.
+	 *
+	 * @param parallelism
+	 *            the new thread budget, strictly positive.
+	 */
+	public static synchronized void configure( final int parallelism )
+	{
+		if ( parallelism < 1 )
+			throw new IllegalArgumentException( "Parallelism must be strictly positive, was " + parallelism );
+
+		final ExecutionRuntime previous = shared;
+		if ( previous != null && previous.getParallelism() == parallelism )
+			return;
+
+		shared = new ExecutionRuntime( parallelism );
+	}
+
+	/**
+	 * Returns the thread budget of this runtime.
+	 *
+	 * @return the parallelism.
+	 */
+	public int getParallelism()
+	{
+		return pool.getParallelism();
+	}
+
+	/**
+	 * Returns a new executor that runs at most the specified number of tasks
+	 * at once on this runtime. Shutting it down does not affect the runtime.
+	 *
+	 * @param maxParallelism
+	 *            the maximal number of tasks of this executor running
+	 *            concurrently.
+	 * @return a new executor.
+	 */
+	public ExecutorService newExecutor( final int maxParallelism )
+	{
+		return newExecutor( maxParallelism, null );
+	}
+
+	/**
+	 * Returns a new executor that runs at most the specified number of tasks
+	 * at once on this runtime, and that stops starting tasks once the
+	 * specified {@link Cancelable} is canceled. Tasks submitted but not
+	 * started then are canceled. Tasks already running are expected to check
+	 * the cancelable themselves.
+	 *
+	 * @param maxParallelism
+	 *            the maximal number of tasks of this executor running
+	 *            concurrently.
+	 * @param cancelable
+	 *            the cancelable to check before starting each task. Can be
+	 *            <code>null</code>.
+	 * @return a new executor.
+	 */
+	public ExecutorService newExecutor( final int maxParallelism, final Cancelable cancelable )
+	{
+		if ( maxParallelism < 1 )
+			throw new IllegalArgumentException( "Parallelism must be strictly positive, was " + maxParallelism );
+		return new BoundedExecutor( pool, maxParallelism, cancelable );
+	}
+
+	/**
+	 * Returns a new executor for tasks that mostly wait on I/O, such as
+	 * exporters. These tasks do not run on the shared pool, so as not to
+	 * hold its workers while waiting. Each task runs in a virtual thread when
+	 * the JVM supports them, and in a cached daemon thread otherwise. The
+	 * executor must be shut down after use.
+	 *
+	 * @return a new executor.
+	 */
+	public static ExecutorService newIOExecutor()
+	{
+		try
+		{
+			final Method factory = Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" );
+			return ( ExecutorService ) factory.invoke( null );
+		}
+		catch ( final ReflectiveOperationException | RuntimeException e )
+		{
+			// No virtual threads in this JVM.
+		}
+		final AtomicInteger count = new AtomicInteger();
+		return Executors.newCachedThreadPool( r -> {
+			final Thread thread = new Thread( r, "TrackMate-io-" + count.incrementAndGet() );
+			thread.setDaemon( true );
+			return thread;
+		} );
+	}
+
+	/**
+	 * Takes an element from a queue, letting the shared pool compensate for
+	 * the blocked worker if called from one of its tasks.
+	 *
+	 * @param queue
+	 *            the queue to take from.
+	 * @param <T>
+	 *            the type of elements in the queue.
+	 * @return the element taken.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting.
+	 */
+	public static < T > T take( final BlockingQueue< T > queue ) throws InterruptedException
+	{
+		final T polled = queue.poll();
+		if ( polled != null )
+			return polled;
+
+		final QueueTaker< T > taker = new QueueTaker<>( queue );
+		ForkJoinPool.managedBlock( taker );
+		return taker.item;
+	}
+
+	/**
+	 * Puts an element in a queue, letting the shared pool compensate for the
+	 * blocked worker if called from one of its tasks.
+	 *
+	 * @param queue
+	 *            the queue to put in.
+	 * @param item
+	 *            the element to put.
+	 * @param <T>
+	 *            the type of elements in the queue.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting.
+	 */
+	public static < T > void put( final BlockingQueue< T > queue, final T item ) throws InterruptedException
+	{
+		if ( queue.offer( item ) )
+			return;
+
+		ForkJoinPool.managedBlock( new QueuePutter<>( queue, item ) );
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	private static final class WorkerThreadFactory implements ForkJoinWorkerThreadFactory
+	{
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		/**
+		 * The default factory gives workers the system class loader. In Fiji,
+		 * TrackMate and its extensions are loaded by another loader, that
+		 * detectors, analyzers and SciJava or ServiceLoader lookups need as
+		 * the context class loader.
+		 */
+		private final ClassLoader classLoader = ExecutionRuntime.class.getClassLoader();
+
+		@Override
+		public ForkJoinWorkerThread newThread( final ForkJoinPool pool )
+		{
+			final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread( pool );
+			thread.setName( "TrackMate-worker-" + count.incrementAndGet() );
+			thread.setContextClassLoader( classLoader );
+			return thread;
+		}
+	}
+
+	private static final class QueueTaker< T > implements ManagedBlocker
+	{
+
+		private final BlockingQueue< T > queue;
+
+		private T item;
+
+		private QueueTaker( final BlockingQueue< T > queue )
+		{
+			this.queue = queue;
+		}
+
+		@Override
+		public boolean block() throws InterruptedException
+		{
+			if ( item == null )
+				item = queue.take();
+			return true;
+		}
+
+		@Override
+		public boolean isReleasable()
+		{
+			if ( item == null )
+				item = queue.poll();
+			return item != null;
+		}
+	}
+
+	private static final class QueuePutter< T > implements ManagedBlocker
+	{
+
+		private final BlockingQueue< T > queue;
+
+		private final T item;
+
+		private boolean done;
+
+		private QueuePutter( final BlockingQueue< T > queue, final T item )
+		{
+			this.queue = queue;
+			this.item = item;
+		}
+
+		@Override
+		public boolean block() throws InterruptedException
+		{
+			if ( !done )
+				queue.put( item );
+			done = true;
+			return true;
+		}
+
+		@Override
+		public boolean isReleasable()
+		{
+			if ( !done )
+				done = queue.offer( item );
+			return done;
+		}
+	}
+
+	/**
+	 * A future whose blocking methods are managed by the pool.
+	 */
+	private static final class ManagedFutureTask< V > extends FutureTask< V >
+	{
+
+		private ManagedFutureTask( final Callable< V > callable )
+		{
+			super( callable );
+		}
+
+		private ManagedFutureTask( final Runnable runnable, final V value )
+		{
+			super( runnable, value );
+		}
+
+		@Override
+		public V get() throws InterruptedException, ExecutionException
+		{
+			if ( !isDone() )
+			{
+				ForkJoinPool.managedBlock( new ManagedBlocker()
+				{
+					@Override
+					public boolean block() throws InterruptedException
+					{
+						awaitDone();
+						return true;
+					}
+
+					@Override
+					public boolean isReleasable()
+					{
+						return isDone();
+					}
+				} );
+			}
+			return super.get();
+		}
+
+		@Override
+		public V get( final long timeout, final TimeUnit unit ) throws InterruptedException, ExecutionException, TimeoutException
+		{
+			if ( !isDone() )
+			{
+				final long deadline = System.nanoTime() + unit.toNanos( timeout );
+				ForkJoinPool.managedBlock( new ManagedBlocker()
+				{
+					@Override
+					public boolean block() throws InterruptedException
+					{
+						awaitDone( deadline - System.nanoTime() );
+						return true;
+					}
+
+					@Override
+					public boolean isReleasable()
+					{
+						return isDone() || System.nanoTime() >= deadline;
+					}
+				} );
+			}
+			return super.get( 0L, TimeUnit.NANOSECONDS );
+		}
+
+		private void awaitDone() throws InterruptedException
+		{
+			try
+			{
+				super.get();
+			}
+			catch ( final ExecutionException | CancellationException e )
+			{
+				// Reported by get().
+			}
+		}
+
+		private void awaitDone( final long nanos ) throws InterruptedException
+		{
+			try
+			{
+				super.get( nanos, TimeUnit.NANOSECONDS );
+			}
+			catch ( final ExecutionException | CancellationException | TimeoutException e )
+			{
+				// Reported by get().
+			}
+		}
+	}
+
+	/**
+	 * An executor that runs its tasks on a shared pool, at most a fixed
+	 * number at once. Tasks are queued here and drained by at most
+	 * <code>maxParallelism</code> drainer tasks submitted to the pool, so
+	 * that no pool worker ever waits for a permit.
+	 * <p>
+	 * The threads running a task of this executor are tracked, so that
+	 * {@link #shutdownNow()} can interrupt them. A thread is only interrupted
+	 * while it runs a task of this executor, and its interrupt status is
+	 * cleared before it goes back to the pool.
+	 */
+	private static final class BoundedExecutor extends AbstractExecutorService
+	{
+
+		private final ForkJoinPool pool;
+
+		private final int maxParallelism;
+
+		private final Cancelable cancelable;
+
+		private final ArrayDeque< Runnable > queue = new ArrayDeque<>();
+
+		/** Guarded by this. */
+		private int drainers;
+
+		/** Guarded by this. */
+		private boolean shutdown;
+
+		/** The threads running a task of this executor. Guarded by this. */
+		private final Set< Thread > running = new HashSet<>();
+
+		private BoundedExecutor( final ForkJoinPool pool, final int maxParallelism, final Cancelable cancelable )
+		{
+			this.pool = pool;
+			this.maxParallelism = maxParallelism;
+			this.cancelable = cancelable;
+		}
+
+		@Override
+		protected < T > RunnableFuture< T > newTaskFor( final Callable< T > callable )
+		{
+			return new ManagedFutureTask<>( callable );
+		}
+
+		@Override
+		protected < T > RunnableFuture< T > newTaskFor( final Runnable runnable, final T value )
+		{
+			return new ManagedFutureTask<>( runnable, value );
+		}
+
+		@Override
+		public void execute( final Runnable command )
+		{
+			if ( command == null )
+				throw new NullPointerException();
+
+			synchronized ( this )
+			{
+				if ( shutdown )
+					throw new RejectedExecutionException( "Executor has been shut down." );
+				queue.add( command );
+				if ( drainers >= maxParallelism )
+					return;
+				drainers++;
+			}
+			pool.execute( this::drain );
+		}
+
+		private void drain()
+		{
+			while ( true )
+			{
+				final Runnable task;
+				synchronized ( this )
+				{
+					task = queue.poll();
+					if ( task == null )
+					{
+						drainers--;
+						if ( drainers == 0 )
+							notifyAll();
+						return;
+					}
+				}
+
+				if ( cancelable != null && cancelable.isCanceled() && task instanceof FutureTask )
+				{
+					( ( FutureTask< ? > ) task ).cancel( false );
+					continue;
+				}
+
+				final Thread thread = Thread.currentThread();
+				synchronized ( this )
+				{
+					running.add( thread );
+				}
+				try
+				{
+					task.run();
+				}
+				catch ( final RuntimeException | Error e )
+				{
+					// Plain runnables have no future to report to.
+					thread.getUncaughtExceptionHandler().uncaughtException( thread, e );
+				}
+				finally
+				{
+					synchronized ( this )
+					{
+						running.remove( thread );
+						// Do not leak an interrupt from shutdownNow() to the pool.
+						Thread.interrupted();
+					}
+				}
+			}
+		}
+
+		@Override
+		public synchronized void shutdown()
+		{
+			shutdown = true;
+			if ( drainers == 0 )
+				notifyAll();
+		}
+
+		@Override
+		public List< Runnable > shutdownNow()
+		{
+			final List< Runnable > pending;
+			synchronized ( this )
+			{
+				shutdown = true;
+				pending = new ArrayList<>( queue );
+				queue.clear();
+				for ( final Thread thread : running )
+					thread.interrupt();
+				if ( drainers == 0 )
+					notifyAll();
+			}
+			return pending;
+		}
+
+		@Override
+		public synchronized boolean isShutdown()
+		{
+			return shutdown;
+		}
+
+		@Override
+		public synchronized boolean isTerminated()
+		{
+			return shutdown && drainers == 0;
+		}
+
+		@Override
+		public boolean awaitTermination( final long timeout, final TimeUnit unit ) throws InterruptedException
+		{
+			final long deadline = System.nanoTime() + unit.toNanos( timeout );
+			ForkJoinPool.managedBlock( new ManagedBlocker()
+			{
+				@Override
+				public boolean block() throws InterruptedException
+				{
+					synchronized ( BoundedExecutor.this )
+					{
+						while ( !isTerminated() )
+						{
+							final long remaining = deadline - System.nanoTime();
+							if ( remaining <= 0L )
+								break;
+							TimeUnit.NANOSECONDS.timedWait( BoundedExecutor.this, remaining );
+						}
+					}
+					return true;
+				}
+
+				@Override
+				public boolean isReleasable()
+				{
+					return isTerminated() || System.nanoTime() >= deadline;
+				}
+			} );
+			return isTerminated();
+		}
+	}
+}
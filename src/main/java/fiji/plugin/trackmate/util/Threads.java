@@ -26,6 +26,24 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
+import org.scijava.Cancelable;
+
+/**
+ * Entry point for threads and executors in TrackMate.
+ * <p>
+ * The executor factories return executors that run on the shared
+ * {@link ExecutionRuntime}, bounded by the requested number of threads. They
+ * do not create threads, and must still be shut down after use.
+ * <p>
+ * All of them are also capped by the thread budget of the runtime: a task
+ * submitted to any of them may wait for a worker of the shared pool, even if
+ * its executor is below its own bound. In particular,
+ * {@link #newCachedThreadPool()} is not unbounded, but runs at most as many
+ * tasks at once as the runtime parallelism, and
+ * {@link #newWorkStealingPool(int)} is a bounded executor like
+ * {@link #newFixedThreadPool(int)}. Tasks that mostly wait on I/O should use
+ * {@link #newIOExecutor()} instead.
+ */
 public final class Threads {
 
 	public static void run( final Runnable r )
@@ -40,16 +58,50 @@ public final class Threads {
 
 	public static ExecutorService newFixedThreadPool( final int nThreads )
 	{
-		return Executors.newFixedThreadPool( nThreads );
+		return ExecutionRuntime.getInstance().newExecutor( nThreads );
+	}
+
+	/**
+	 * Returns an executor running at most the specified number of tasks at
+	 * once, and that does not start new tasks once the specified
+	 * {@link Cancelable} is canceled.
+	 *
+	 * @param nThreads
+	 *            the maximal number of tasks running concurrently.
+	 * @param cancelable
+	 *            the cancelable to check before starting tasks.
+	 * @return a new executor.
+	 */
+	public static ExecutorService newFixedThreadPool( final int nThreads, final Cancelable cancelable )
+	{
+		return ExecutionRuntime.getInstance().newExecutor( nThreads, cancelable );
+	}
+
+	public static ExecutorService newWorkStealingPool( final int parallelism )
+	{
+		return ExecutionRuntime.getInstance().newExecutor( parallelism );
 	}
+
 	public static ExecutorService newCachedThreadPool()
 	{
-		return Executors.newCachedThreadPool();
+		final ExecutionRuntime runtime = ExecutionRuntime.getInstance();
+		return runtime.newExecutor( runtime.getParallelism() );
 	}
 
 	public static ExecutorService newSingleThreadExecutor()
 	{
-		return Executors.newSingleThreadExecutor();
+		return ExecutionRuntime.getInstance().newExecutor( 1 );
+	}
+
+	/**
+	 * Returns an executor for tasks that mostly wait on I/O. See
+	 * {@link ExecutionRuntime#newIOExecutor()}.
+	 *
+	 * @return a new executor.
+	 */
+	public static ExecutorService newIOExecutor()
+	{
+		return ExecutionRuntime.newIOExecutor();
 	}
 
 	public static ScheduledExecutorService newSingleThreadScheduledExecutor()
@@ -115,6 +115,7 @@ public class HyperStackDisplayer extends AbstractTrackMateModelView
 	@Override
 	public void modelChanged( final ModelChangeEvent event )
 	{
+		trackOverlay.modelChanged( event );
 		switch ( event.getEventID() )
 		{
 		case ModelChangeEvent.MODEL_MODIFIED:
@@ -0,0 +1,271 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.visualization.hyperstack;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+
+/**
+ * A spatio-temporal index of the edges of a model, used by the
+ * {@link TrackOverlay} to visit only the edges that can be seen in the current
+ * viewport and time window.
+ * <p>
+ * Edges are bucketed by the frame of their source spot, and within a frame on
+ * a coarse 2D grid covering the image, in pixel coordinates. An edge is stored
+ * in all the grid cells its bounding box overlaps. The index is maintained
+ * incrementally from the {@link ModelChangeEvent}s it receives, and rebuilt
+ * lazily when the whole model changes.
+ */
+final class TrackEdgeIndex
+{
+
+	/** Number of grid cells along X and Y. */
+	private static final int GRID_SIZE = 16;
+
+	private final Model model;
+
+	private final double[] calibration;
+
+	/** Size of a grid cell, in pixels. */
+	private final double cellSize;
+
+	private final NavigableMap< Integer, FrameBucket > buckets = new TreeMap<>();
+
+	private final Map< DefaultWeightedEdge, Entry > entries = new HashMap<>();
+
+	private boolean dirty = true;
+
+	TrackEdgeIndex( final Model model, final double[] calibration, final int width, final int height )
+	{
+		this.model = model;
+		this.calibration = calibration;
+		this.cellSize = Math.max( 1., Math.ceil( Math.max( width, height ) / ( double ) GRID_SIZE ) );
+	}
+
+	/**
+	 * Updates this index after a change in the model.
+	 *
+	 * @param event
+	 *            the model change event.
+	 */
+	synchronized void modelChanged( final ModelChangeEvent event )
+	{
+		switch ( event.getEventID() )
+		{
+		case ModelChangeEvent.SPOTS_COMPUTED:
+		case ModelChangeEvent.TRACKS_COMPUTED:
+			dirty = true;
+			break;
+
+		case ModelChangeEvent.MODEL_MODIFIED:
+		{
+			// Will be rebuilt anyway.
+			if ( dirty )
+				break;
+
+			final TrackModel trackModel = model.getTrackModel();
+			for ( final DefaultWeightedEdge edge : event.getEdges() )
+			{
+				remove( edge );
+				if ( trackModel.edgeSet().contains( edge ) )
+					add( edge );
+			}
+			for ( final Spot spot : event.getSpots() )
+			{
+				final Integer flag = event.getSpotFlag( spot );
+				if ( null == flag
+						|| ( flag.intValue() != ModelChangeEvent.FLAG_SPOT_MODIFIED
+								&& flag.intValue() != ModelChangeEvent.FLAG_SPOT_FRAME_CHANGED ) )
+					continue;
+
+				for ( final DefaultWeightedEdge edge : trackModel.edgesOf( spot ) )
+				{
+					remove( edge );
+					add( edge );
+				}
+			}
+			break;
+		}
+
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Visits the edges whose source spot is in a frame in
+	 * <code>[minT, maxT[</code>, and whose bounding box overlaps the specified
+	 * rectangle, in pixel coordinates. Each edge is visited at most once.
+	 * Visited edges may still lie outside the rectangle.
+	 *
+	 * @param minT
+	 *            the first frame, inclusive.
+	 * @param maxT
+	 *            the last frame, exclusive.
+	 * @param minx
+	 *            the rectangle min X.
+	 * @param miny
+	 *            the rectangle min Y.
+	 * @param maxx
+	 *            the rectangle max X.
+	 * @param maxy
+	 *            the rectangle max Y.
+	 * @param visitor
+	 *            the edge visitor.
+	 */
+	synchronized void query( final int minT, final int maxT, final double minx, final double miny, final double maxx, final double maxy, final Consumer< DefaultWeightedEdge > visitor )
+	{
+		if ( dirty )
+			rebuild();
+		if ( minT >= maxT )
+			return;
+
+		final int cx0 = cell( minx );
+		final int cy0 = cell( miny );
+		final int cx1 = cell( maxx );
+		final int cy1 = cell( maxy );
+		for ( final FrameBucket bucket : buckets.subMap( minT, true, maxT, false ).values() )
+		{
+			for ( int cy = cy0; cy <= cy1; cy++ )
+			{
+				for ( int cx = cx0; cx <= cx1; cx++ )
+				{
+					final List< Entry > cellEntries = bucket.cells[ cy * GRID_SIZE + cx ];
+					if ( null == cellEntries )
+						continue;
+
+					for ( final Entry entry : cellEntries )
+					{
+						// Report an edge only in the first cell shared by its
+						// bounding box and the query.
+						if ( cx == Math.max( entry.cx0, cx0 ) && cy == Math.max( entry.cy0, cy0 ) )
+							visitor.accept( entry.edge );
+					}
+				}
+			}
+		}
+	}
+
+	private void rebuild()
+	{
+		buckets.clear();
+		entries.clear();
+		for ( final DefaultWeightedEdge edge : model.getTrackModel().edgeSet() )
+			add( edge );
+		dirty = false;
+	}
+
+	private void add( final DefaultWeightedEdge edge )
+	{
+		final TrackModel trackModel = model.getTrackModel();
+		final Spot source = trackModel.getEdgeSource( edge );
+		final Spot target = trackModel.getEdgeTarget( edge );
+		final double x0 = source.getFeature( Spot.POSITION_X ) / calibration[ 0 ] + 0.5;
+		final double y0 = source.getFeature( Spot.POSITION_Y ) / calibration[ 1 ] + 0.5;
+		final double x1 = target.getFeature( Spot.POSITION_X ) / calibration[ 0 ] + 0.5;
+		final double y1 = target.getFeature( Spot.POSITION_Y ) / calibration[ 1 ] + 0.5;
+		final int frame = source.getFeature( Spot.FRAME ).intValue();
+
+		final Entry entry = new Entry( edge, frame,
+				cell( Math.min( x0, x1 ) ), cell( Math.min( y0, y1 ) ),
+				cell( Math.max( x0, x1 ) ), cell( Math.max( y0, y1 ) ) );
+		final FrameBucket bucket = buckets.computeIfAbsent( Integer.valueOf( frame ), f -> new FrameBucket() );
+		for ( int cy = entry.cy0; cy <= entry.cy1; cy++ )
+		{
+			for ( int cx = entry.cx0; cx <= entry.cx1; cx++ )
+			{
+				final int index = cy * GRID_SIZE + cx;
+				if ( null == bucket.cells[ index ] )
+					bucket.cells[ index ] = new ArrayList<>( 4 );
+				bucket.cells[ index ].add( entry );
+			}
+		}
+		entries.put( edge, entry );
+	}
+
+	private void remove( final DefaultWeightedEdge edge )
+	{
+		final Entry entry = entries.remove( edge );
+		if ( null == entry )
+			return;
+
+		final FrameBucket bucket = buckets.get( Integer.valueOf( entry.frame ) );
+		for ( int cy = entry.cy0; cy <= entry.cy1; cy++ )
+			for ( int cx = entry.cx0; cx <= entry.cx1; cx++ )
+				bucket.cells[ cy * GRID_SIZE + cx ].remove( entry );
+	}
+
+	/**
+	 * Returns the grid cell of the specified pixel coordinate. Coordinates
+	 * outside the image are clamped to the border cells.
+	 */
+	private int cell( final double pos )
+	{
+		final int c = ( int ) Math.floor( pos / cellSize );
+		return Math.max( 0, Math.min( GRID_SIZE - 1, c ) );
+	}
+
+	private static final class Entry
+	{
+
+		private final DefaultWeightedEdge edge;
+
+		private final int frame;
+
+		private final int cx0;
+
+		private final int cy0;
+
+		private final int cx1;
+
+		private final int cy1;
+
+		private Entry( final DefaultWeightedEdge edge, final int frame, final int cx0, final int cy0, final int cx1, final int cy1 )
+		{
+			this.edge = edge;
+			this.frame = frame;
+			this.cx0 = cx0;
+			this.cy0 = cy0;
+			this.cx1 = cx1;
+			this.cy1 = cy1;
+		}
+	}
+
+	private static final class FrameBucket
+	{
+
+		@SuppressWarnings( "unchecked" )
+		private final List< Entry >[] cells = new List[ GRID_SIZE * GRID_SIZE ];
+	}
+}
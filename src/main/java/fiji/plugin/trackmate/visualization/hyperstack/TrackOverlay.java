@@ -37,6 +37,7 @@ import java.util.Set;
 import org.jgrapht.graph.DefaultWeightedEdge;
 
 import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.features.FeatureUtils;
 import fiji.plugin.trackmate.gui.displaysettings.DisplaySettings;
@@ -48,6 +49,13 @@ import ij.gui.Roi;
 
 /**
  * The overlay class in charge of drawing the tracks on the hyperstack window.
+ * <p>
+ * The overlay indexes the edges of the model to only draw those in the
+ * viewport. It does not listen to the model itself: its owner must forward
+ * the {@link ModelChangeEvent}s of the model to
+ * {@link #modelChanged(ModelChangeEvent)}, as the {@link HyperStackDisplayer}
+ * does. Otherwise the overlay keeps drawing the edges as they were when it
+ * was created.
  *
  * @author Jean-Yves Tinevez
  */
@@ -63,10 +71,26 @@ public class TrackOverlay extends Roi
 
 	protected final Model model;
 
+	/** Index of the edges, to only visit those in the viewport. */
+	private final TrackEdgeIndex edgeIndex;
+
 	/*
 	 * CONSTRUCTOR
 	 */
 
+	/**
+	 * Creates an overlay drawing the tracks of the specified model. The caller
+	 * must forward the model change events to
+	 * {@link #modelChanged(ModelChangeEvent)} for the overlay to follow the
+	 * model.
+	 *
+	 * @param model
+	 *            the model to draw.
+	 * @param imp
+	 *            the image to draw on.
+	 * @param displaySettings
+	 *            the display settings.
+	 */
 	public TrackOverlay( final Model model, final ImagePlus imp, final DisplaySettings displaySettings )
 	{
 		super( 0, 0, imp );
@@ -74,6 +98,7 @@ public class TrackOverlay extends Roi
 		this.calibration = TMUtils.getSpatialCalibration( imp );
 		this.imp = imp;
 		this.displaySettings = displaySettings;
+		this.edgeIndex = new TrackEdgeIndex( model, calibration, imp.getWidth(), imp.getHeight() );
 	}
 
 	/*
@@ -85,6 +110,18 @@ public class TrackOverlay extends Roi
 		this.highlight = edges;
 	}
 
+	/**
+	 * Notifies this overlay that the model changed, so that it can update its
+	 * edge index. Must be called with every event of the model, in order.
+	 *
+	 * @param event
+	 *            the model change event.
+	 */
+	public void modelChanged( final ModelChangeEvent event )
+	{
+		edgeIndex.modelChanged( event );
+	}
+
 	@Override
 	public final synchronized void drawOverlay( final Graphics g )
 	{
@@ -180,62 +217,51 @@ public class TrackOverlay extends Roi
 		}
 		case FULL:
 		{
-			for ( final Integer trackID : filteredTrackKeys )
-			{
-				final Set< DefaultWeightedEdge > track = new HashSet<>( model.getTrackModel().trackEdges( trackID ) );
-				for ( final DefaultWeightedEdge edge : track )
-				{
-					final Spot source = model.getTrackModel().getEdgeSource( edge );
-					final Spot target = model.getTrackModel().getEdgeTarget( edge );
-					if ( !isOnClip( source, target, minx, miny, maxx, maxy, calibration ) )
-						continue;
-
-					final double zs = source.getFeature( Spot.POSITION_Z ).doubleValue();
-					final double zt = target.getFeature( Spot.POSITION_Z ).doubleValue();
-					if ( doLimitDrawingDepth && Math.abs( zs - zslice ) > drawingDepth && Math.abs( zt - zslice ) > drawingDepth )
-						continue;
-
-					g2d.setColor( colorGenerator.color( edge ) );
-					drawEdge( g2d, source, target, xcorner, ycorner, magnification );
-				}
-			}
+			edgeIndex.query( Integer.MIN_VALUE, Integer.MAX_VALUE, minx, miny, maxx, maxy, edge -> {
+				// Only edges of visible tracks.
+				if ( !filteredTrackKeys.contains( model.getTrackModel().trackIDOf( edge ) ) )
+					return;
+
+				final Spot source = model.getTrackModel().getEdgeSource( edge );
+				final Spot target = model.getTrackModel().getEdgeTarget( edge );
+				if ( !isOnClip( source, target, minx, miny, maxx, maxy, calibration ) )
+					return;
+
+				final double zs = source.getFeature( Spot.POSITION_Z ).doubleValue();
+				final double zt = target.getFeature( Spot.POSITION_Z ).doubleValue();
+				if ( doLimitDrawingDepth && Math.abs( zs - zslice ) > drawingDepth && Math.abs( zt - zslice ) > drawingDepth )
+					return;
+
+				g2d.setColor( colorGenerator.color( edge ) );
+				drawEdge( g2d, source, target, xcorner, ycorner, magnification );
+			} );
 			break;
 		}
 		case LOCAL:
 		case LOCAL_BACKWARD:
 		case LOCAL_FORWARD:
 		{
+			edgeIndex.query( minT, maxT, minx, miny, maxx, maxy, edge -> {
+				// Only edges of visible tracks.
+				if ( !filteredTrackKeys.contains( model.getTrackModel().trackIDOf( edge ) ) )
+					return;
 
-			for ( final Integer trackID : filteredTrackKeys )
-			{
-				final Set< DefaultWeightedEdge > track;
-				synchronized ( model )
-				{
-					track = new HashSet<>( model.getTrackModel().trackEdges( trackID ) );
-				}
-				for ( final DefaultWeightedEdge edge : track )
-				{
-					final Spot source = model.getTrackModel().getEdgeSource( edge );
-					final int sourceFrame = source.getFeature( Spot.FRAME ).intValue();
-					if ( sourceFrame < minT || sourceFrame >= maxT )
-						continue;
-
-					final float transparency = ( float ) ( 1 - Math.abs( ( double ) sourceFrame - currentFrame ) / trackDisplayDepth );
-					final Spot target = model.getTrackModel().getEdgeTarget( edge );
-					if ( !isOnClip( source, target, minx, miny, maxx, maxy, calibration ) )
-						continue;
-
-					final double zs = source.getFeature( Spot.POSITION_Z ).doubleValue();
-					final double zt = target.getFeature( Spot.POSITION_Z ).doubleValue();
-					if ( doLimitDrawingDepth && Math.abs( zs - zslice ) > drawingDepth && Math.abs( zt - zslice ) > drawingDepth )
-						continue;
-
-					g2d.setColor( colorGenerator.color( edge ) );
-					drawEdge( g2d, source, target, xcorner, ycorner, magnification, transparency );
-				}
-			}
-			break;
+				final Spot source = model.getTrackModel().getEdgeSource( edge );
+				final int sourceFrame = source.getFeature( Spot.FRAME ).intValue();
+				final float transparency = ( float ) ( 1 - Math.abs( ( double ) sourceFrame - currentFrame ) / trackDisplayDepth );
+				final Spot target = model.getTrackModel().getEdgeTarget( edge );
+				if ( !isOnClip( source, target, minx, miny, maxx, maxy, calibration ) )
+					return;
+
+				final double zs = source.getFeature( Spot.POSITION_Z ).doubleValue();
+				final double zt = target.getFeature( Spot.POSITION_Z ).doubleValue();
+				if ( doLimitDrawingDepth && Math.abs( zs - zslice ) > drawingDepth && Math.abs( zt - zslice ) > drawingDepth )
+					return;
 
+				g2d.setColor( colorGenerator.color( edge ) );
+				drawEdge( g2d, source, target, xcorner, ycorner, magnification, transparency );
+			} );
+			break;
 		}
 		}
 
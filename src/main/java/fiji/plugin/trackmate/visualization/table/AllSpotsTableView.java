@@ -276,14 +276,12 @@ public class AllSpotsTableView extends JFrame implements TrackMateModelView, Mod
 	{
 		if ( event.getEventID() == ModelChangeEvent.FEATURES_COMPUTED )
 		{
+			spotTable.refreshValues();
 			refresh();
 			return;
 		}
 
-		final List< Spot > spots = new ArrayList<>();
-		for ( final Spot spot : model.getSpots().iterable( true ) )
-			spots.add( spot );
-		spotTable.setObjects( spots );
+		spotTable.setObjects( model.getSpots().iterable( true ) );
 
 		refresh();
 	}
@@ -0,0 +1,278 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.visualization.table;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.BiFunction;
+import java.util.function.IntBinaryOperator;
+
+import fiji.plugin.trackmate.FeatureColumns;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * A snapshot of the objects displayed in a {@link TablePanel}, with their
+ * feature values stored in {@link FeatureColumns}.
+ * <p>
+ * Values are read from the objects by blocks of rows, the first time a row of
+ * the block is needed, and then served from the columns. Displaying the
+ * visible rows of a large table only reads these rows. Missing values are
+ * stored as {@link FeatureColumns#MISSING}, so that they can be told apart
+ * from NaN feature values.
+ *
+ * @param <O>
+ *            the type of objects in the table.
+ */
+class TableFeatureColumns< O >
+{
+
+	/** Rows are read from the objects by blocks of this size. */
+	private static final int BLOCK_BITS = 8;
+
+	/** Below this size, sort slices are sorted with insertion sort. */
+	private static final int INSERTION_SORT_THRESHOLD = 16;
+
+	private final List< O > objects;
+
+	private final TObjectIntHashMap< O > index;
+
+	private final List< String > features;
+
+	private final BiFunction< O, String, Double > featureFun;
+
+	private final FeatureColumns values = new FeatureColumns();
+
+	private final int nBlocks;
+
+	/**
+	 * Whether the values of a block of rows were read, for each feature. The
+	 * flag of a block is at <code>feature * nBlocks + block</code>.
+	 */
+	private final AtomicIntegerArray filled;
+
+	TableFeatureColumns( final Iterable< O > objects, final List< String > features, final BiFunction< O, String, Double > featureFun )
+	{
+		this.objects = new ArrayList<>();
+		this.index = new TObjectIntHashMap<>( 10, 0.5f, -1 );
+		for ( final O o : objects )
+		{
+			index.put( o, this.objects.size() );
+			this.objects.add( o );
+		}
+		this.features = features;
+		this.featureFun = featureFun;
+		this.nBlocks = ( this.objects.size() + ( 1 << BLOCK_BITS ) - 1 ) >>> BLOCK_BITS;
+		this.filled = new AtomicIntegerArray( features.size() * nBlocks );
+	}
+
+	/**
+	 * Returns the number of rows.
+	 */
+	int size()
+	{
+		return objects.size();
+	}
+
+	/**
+	 * Returns the object at the specified row.
+	 */
+	O get( final int row )
+	{
+		return objects.get( row );
+	}
+
+	/**
+	 * Returns the row of the specified object, or -1 if it is not in this
+	 * snapshot.
+	 */
+	int indexOf( final O o )
+	{
+		return index.get( o );
+	}
+
+	/**
+	 * Returns the value of the specified feature for the object at the
+	 * specified row. Only reads the block of rows it belongs to from the
+	 * objects, if this is the first time they are needed.
+	 *
+	 * @param row
+	 *            the row.
+	 * @param feature
+	 *            the feature index.
+	 * @return the value, or {@link FeatureColumns#MISSING}.
+	 */
+	double getValue( final int row, final int feature )
+	{
+		fill( feature, row >>> BLOCK_BITS );
+		return values.get( row, features.get( feature ) );
+	}
+
+	/**
+	 * Returns a copy of the values of the specified feature for all rows,
+	 * reading them from the objects if this is the first time they are
+	 * needed. Meant to be called off the event dispatch thread for large
+	 * tables.
+	 *
+	 * @param feature
+	 *            the feature index.
+	 * @return the column values.
+	 */
+	double[] column( final int feature )
+	{
+		for ( int block = 0; block < nBlocks; block++ )
+			fill( feature, block );
+		return values.getValues( features.get( feature ), objects.size() );
+	}
+
+	/**
+	 * Reads again the values of the object at the specified row, after it
+	 * was modified.
+	 *
+	 * @param row
+	 *            the row.
+	 */
+	synchronized void update( final int row )
+	{
+		if ( row < 0 )
+			return;
+		final O o = objects.get( row );
+		final int block = row >>> BLOCK_BITS;
+		for ( int feature = 0; feature < features.size(); feature++ )
+		{
+			if ( filled.get( feature * nBlocks + block ) != 0 )
+			{
+				final String key = features.get( feature );
+				values.put( row, key, read( o, key ) );
+			}
+		}
+	}
+
+	/**
+	 * Discards the values read so far, so that they are read again from the
+	 * objects when next needed.
+	 */
+	synchronized void clear()
+	{
+		for ( int i = 0; i < filled.length(); i++ )
+			filled.set( i, 0 );
+	}
+
+	/**
+	 * Reads the values of the specified feature for the specified block of
+	 * rows, unless they were already read. The lock is only held for one
+	 * block, so that reading a whole column does not stall the readers of
+	 * single values for long.
+	 */
+	private void fill( final int feature, final int block )
+	{
+		final int flag = feature * nBlocks + block;
+		if ( filled.get( flag ) != 0 )
+			return;
+
+		synchronized ( this )
+		{
+			if ( filled.get( flag ) != 0 )
+				return;
+			final String key = features.get( feature );
+			final int end = Math.min( objects.size(), ( block + 1 ) << BLOCK_BITS );
+			for ( int row = block << BLOCK_BITS; row < end; row++ )
+				values.put( row, key, read( objects.get( row ), key ) );
+			filled.set( flag, 1 );
+		}
+	}
+
+	private double read( final O o, final String feature )
+	{
+		final Double val = featureFun.apply( o, feature );
+		return ( null == val ) ? FeatureColumns.MISSING : val.doubleValue();
+	}
+
+	/**
+	 * Compares two column values. Missing values come first, then values in
+	 * the order of {@link Double#compare(double, double)}.
+	 */
+	static int compare( final double v1, final double v2 )
+	{
+		final boolean m1 = FeatureColumns.isMissing( v1 );
+		final boolean m2 = FeatureColumns.isMissing( v2 );
+		if ( m1 || m2 )
+			return Boolean.compare( m2, m1 );
+		return Double.compare( v1, v2 );
+	}
+
+	/**
+	 * Sorts the specified row indices with a stable merge sort.
+	 *
+	 * @param rows
+	 *            the row indices to sort.
+	 * @param comparator
+	 *            compares two row indices.
+	 */
+	static void sort( final int[] rows, final IntBinaryOperator comparator )
+	{
+		final int[] aux = rows.clone();
+		mergeSort( aux, rows, 0, rows.length, comparator );
+	}
+
+	/**
+	 * Sorts <code>src[lo, hi)</code> into <code>dest[lo, hi)</code>. Both
+	 * ranges must hold the same elements when called.
+	 */
+	private static void mergeSort( final int[] src, final int[] dest, final int lo, final int hi, final IntBinaryOperator comparator )
+	{
+		if ( hi - lo < INSERTION_SORT_THRESHOLD )
+		{
+			for ( int i = lo + 1; i < hi; i++ )
+			{
+				final int r = dest[ i ];
+				int j = i;
+				while ( j > lo && comparator.applyAsInt( dest[ j - 1 ], r ) > 0 )
+				{
+					dest[ j ] = dest[ j - 1 ];
+					j--;
+				}
+				dest[ j ] = r;
+			}
+			return;
+		}
+
+		final int mid = ( lo + hi ) >>> 1;
+		mergeSort( dest, src, lo, mid, comparator );
+		mergeSort( dest, src, mid, hi, comparator );
+
+		// Already in order?
+		if ( comparator.applyAsInt( src[ mid - 1 ], src[ mid ] ) <= 0 )
+		{
+			System.arraycopy( src, lo, dest, lo, hi - lo );
+			return;
+		}
+
+		for ( int i = lo, p = lo, q = mid; i < hi; i++ )
+		{
+			if ( q >= hi || p < mid && comparator.applyAsInt( src[ p ], src[ q ] ) <= 0 )
+				dest[ i ] = src[ p++ ];
+			else
+				dest[ i ] = src[ q++ ];
+		}
+	}
+}
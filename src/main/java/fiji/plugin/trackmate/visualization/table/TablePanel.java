@@ -30,18 +30,20 @@ import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionAdapter;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.IntBinaryOperator;
 import java.util.function.Supplier;
 
 import javax.swing.AbstractCellEditor;
@@ -56,6 +58,8 @@ import javax.swing.JTable;
 import javax.swing.JTextField;
 import javax.swing.KeyStroke;
 import javax.swing.ListSelectionModel;
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
 import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 import javax.swing.border.Border;
@@ -66,20 +70,37 @@ import javax.swing.table.TableCellEditor;
 import javax.swing.table.TableColumn;
 import javax.swing.table.TableColumnModel;
 import javax.swing.table.TableModel;
-import javax.swing.table.TableRowSorter;
 
 import com.opencsv.CSVWriter;
 
+import fiji.plugin.trackmate.FeatureColumns;
 import fiji.plugin.trackmate.gui.GuiUtils;
 import fiji.plugin.trackmate.gui.displaysettings.ColorIcon;
+import fiji.plugin.trackmate.util.Threads;
 import fiji.plugin.trackmate.visualization.FeatureColorGenerator;
-import gnu.trove.map.hash.TObjectIntHashMap;
 
+/**
+ * A panel displaying the features of a collection of objects in a table.
+ * <p>
+ * Feature values are snapshotted in primitive column arrays when the objects
+ * are set, and read lazily, one column at a time, when they are first needed.
+ * Call {@link #refreshValues()} after the feature values changed. Sorting is
+ * done on these columns, on a background thread for large tables.
+ *
+ * @param <O>
+ *            the type of objects in the table.
+ */
 public class TablePanel< O >
 {
 
 	private static final int ROW_HEIGHT = 26;
 
+	/** Tables with more rows than this are sorted on a background thread. */
+	private static final int ASYNC_SORT_THRESHOLD = 50_000;
+
+	/** How many columns are considered when sorting. */
+	private static final int MAX_SORT_KEYS = 3;
+
 	private final JTable table;
 
 	private final List< Class< ? > > columnClasses;
@@ -90,7 +111,7 @@ public class TablePanel< O >
 
 	private final BiConsumer< O, String > labelSetter;
 
-	private final List< O > objects;
+	private volatile TableFeatureColumns< O > data;
 
 	private final List< String > features;
 
@@ -102,8 +123,6 @@ public class TablePanel< O >
 
 	private final Map< String, String > featureUnits;
 
-	private final TObjectIntHashMap< O > map;
-
 	private final Supplier< FeatureColorGenerator< O > > colorSupplier;
 
 	private final String manualColorFeature;
@@ -162,9 +181,8 @@ public class TablePanel< O >
 		this.featureUnits = featureUnits;
 		this.colorSupplier = colorSupplier;
 		this.manualColorFeature = manualColorFeature;
-		this.objects = new ArrayList<>();
-		this.map = new TObjectIntHashMap<>( 10, 0.5f, -1 );
 		this.features = features;
+		this.data = new TableFeatureColumns<>( objects, features, featureFun );
 		this.labelGenerator = labelGenerator;
 		this.labelSetter = labelSetter;
 		this.columnClasses = new ArrayList<>();
@@ -192,7 +210,6 @@ public class TablePanel< O >
 			}
 		};
 		table.setColumnModel( tableColumnModel );
-		setObjects( objects );
 
 		table.putClientProperty( "JTable.autoStartsEdit", Boolean.FALSE );
 		table.getInputMap().put( KeyStroke.getKeyStroke( KeyEvent.VK_ENTER, 0 ), "startEditing" );
@@ -250,19 +267,7 @@ public class TablePanel< O >
 		}
 
 		// Sorting.
-		final TableRowSorter< MyTableModel > sorter = new TableRowSorter<>( tableModel );
-		table.setRowSorter( sorter );
-		for ( int c = 0; c < columnClasses.size(); c++ )
-		{
-			if ( columnClasses.get( c ).equals( Integer.class ) )
-				sorter.setComparator( c, ( i1, i2 ) -> Integer.compare( ( int ) i1, ( int ) i2 ) );
-			else if ( columnClasses.get( c ).equals( Double.class ) )
-				sorter.setComparator( c, ( d1, d2 ) -> Double.compare( ( double ) d1, ( double ) d2 ) );
-			else if ( columnClasses.get( c ).equals( Color.class ) )
-				sorter.setComparator( c, ( c1, c2 ) -> c1.toString().compareTo( c2.toString() ) );
-			else
-				sorter.setComparator( c, Comparator.naturalOrder() );
-		}
+		table.setRowSorter( new MyRowSorter() );
 
 		// Pass last line to column headers and set cell renderer.
 		final MyTableCellRenderer cellRenderer = new MyTableCellRenderer();
@@ -293,17 +298,21 @@ public class TablePanel< O >
 	@SuppressWarnings( "unchecked" )
 	public void setObjects( final Iterable< O > objects )
 	{
-		this.objects.clear();
-		this.map.clear();
-		int index = 0;
-		for ( final O o : objects )
-		{
-			this.objects.add( o );
-			map.put( o, index++ );
-		}
+		this.data = new TableFeatureColumns<>( objects, features, featureFun );
 		( ( MyTableModel ) table.getModel() ).fireTableDataChanged();
 	}
 
+	/**
+	 * Reads again the feature values of the objects currently displayed, for
+	 * instance after features were recomputed, and sorts the table again.
+	 */
+	public void refreshValues()
+	{
+		data.clear();
+		( ( MyRowSorter ) table.getRowSorter() ).sort();
+		table.repaint();
+	}
+
 	/**
 	 * The panel in which the table is displayed. This is the component to add
 	 * to client UI.
@@ -338,12 +347,12 @@ public class TablePanel< O >
 		if ( viewRowIndex < 0 )
 			return null;
 		final int modelRow = table.convertRowIndexToModel( viewRowIndex );
-		return objects.get( modelRow );
+		return data.get( modelRow );
 	}
 
 	public int getViewRowForObject( final O o )
 	{
-		final int modelRow = map.get( o );
+		final int modelRow = data.indexOf( o );
 		if ( modelRow < 0 ) // Object not in table.
 			return -1;
 		try
@@ -368,7 +377,7 @@ public class TablePanel< O >
 
 	public void exportToCsv( final File file ) throws IOException
 	{
-		try (CSVWriter writer = new CSVWriter( new FileWriter( file ),
+		try (CSVWriter writer = new CSVWriter( new BufferedWriter( new FileWriter( file ) ),
 				CSVWriter.DEFAULT_SEPARATOR,
 				CSVWriter.NO_QUOTE_CHARACTER,
 				CSVWriter.DEFAULT_ESCAPE_CHARACTER,
@@ -443,32 +452,38 @@ public class TablePanel< O >
 			writer.writeNext( content );
 
 			/*
-			 * Content.
+			 * Content, streamed from the columns in view order.
 			 */
 
+			final TableFeatureColumns< O > columns = data;
+			final double[][] values = new double[ nCols ][];
+			for ( int col = labelColumnShift; col < nCols; col++ )
+				values[ col ] = columns.column( col - labelColumnShift );
+
 			final int nRows = table.getRowCount();
-			final TableModel model = table.getModel();
 			for ( int r = 0; r < nRows; r++ )
 			{
 				final int row = table.convertRowIndexToModel( r );
-				for ( int col = 0; col < nCols; col++ )
+				if ( !skipLabelColumn )
+				{
+					final String label = labelGenerator.apply( columns.get( row ) );
+					content[ 0 ] = ( null == label ) ? "" : label;
+				}
+				for ( int col = labelColumnShift; col < nCols; col++ )
 				{
-					final Object obj = model.getValueAt( row, col );
-					if ( null == obj )
+					final double val = values[ col ][ row ];
+					final Class< ? > pclass = columnClasses.get( col );
+					if ( FeatureColumns.isMissing( val ) )
 						content[ col ] = "";
-					else if ( obj instanceof Integer )
-						content[ col ] = Integer.toString( ( Integer ) obj );
-					else if ( obj instanceof Double )
-						content[ col ] = Double.toString( ( Double ) obj );
-					else if ( obj instanceof Boolean )
-						content[ col ] = ( ( Boolean ) obj ) ? "1" : "0";
-					else if ( obj instanceof Color )
+					else if ( pclass.equals( Integer.class ) )
+						content[ col ] = Integer.toString( ( int ) val );
+					else if ( pclass.equals( Color.class ) )
 					{
-						final Color color = ( Color ) obj;
-						content[ col ] = String.format( "r=%d;g=%d;b=%d", color.getRed(), color.getGreen(), color.getBlue() );
+						final int rgb = ( int ) val;
+						content[ col ] = String.format( "r=%d;g=%d;b=%d", ( rgb >> 16 ) & 0xFF, ( rgb >> 8 ) & 0xFF, rgb & 0xFF );
 					}
 					else
-						content[ col ] = obj.toString();
+						content[ col ] = Double.toString( val );
 				}
 				writer.writeNext( content );
 			}
@@ -512,7 +527,7 @@ public class TablePanel< O >
 		@Override
 		public int getRowCount()
 		{
-			return objects.size();
+			return data.size();
 		}
 
 		@Override
@@ -524,31 +539,29 @@ public class TablePanel< O >
 		@Override
 		public Object getValueAt( final int rowIndex, final int columnIndex )
 		{
-			if ( rowIndex < 0 )
-				return null;
-
-			final O o = objects.get( rowIndex );
-			if ( null == o )
+			final TableFeatureColumns< O > columns = data;
+			if ( rowIndex < 0 || rowIndex >= columns.size() )
 				return null;
 
 			final int skipLabelColumn = labelGenerator == null ? 0 : 1;
 			if ( columnIndex == 0 && labelGenerator != null )
-				return labelGenerator.apply( o );
+			{
+				final O o = columns.get( rowIndex );
+				return ( null == o ) ? null : labelGenerator.apply( o );
+			}
 			else
 			{
-				final String feature = features.get( columnIndex - skipLabelColumn );
-				final Double val = featureFun.apply( o, feature );
-
-				if ( feature.equals( manualColorFeature ) )
-					return val == null ? null : new Color( val.intValue(), true );
-
-				if ( val == null )
+				final double val = columns.getValue( rowIndex, columnIndex - skipLabelColumn );
+				if ( FeatureColumns.isMissing( val ) )
 					return null;
 
-				if ( columnClasses.get( columnIndex ).equals( Integer.class ) )
-					return Integer.valueOf( val.intValue() );
+				final Class< ? > pclass = columnClasses.get( columnIndex );
+				if ( pclass.equals( Color.class ) )
+					return new Color( ( int ) val, true );
+				else if ( pclass.equals( Integer.class ) )
+					return Integer.valueOf( ( int ) val );
 				else
-					return val;
+					return Double.valueOf( val );
 			}
 		}
 
@@ -560,7 +573,7 @@ public class TablePanel< O >
 
 			if ( columnIndex == 0 )
 			{
-				final O o = objects.get( rowIndex );
+				final O o = data.get( rowIndex );
 				if ( null == o )
 					return;
 				labelSetter.accept( o, ( String ) aValue );
@@ -568,6 +581,244 @@ public class TablePanel< O >
 		}
 	}
 
+	/**
+	 * Sorts rows on the primitive feature columns. Row indices are sorted with
+	 * a stable merge sort, on a background thread for large tables. The
+	 * previous order is kept until the new one is ready.
+	 */
+	private class MyRowSorter extends RowSorter< TableModel >
+	{
+
+		private List< SortKey > sortKeys = Collections.emptyList();
+
+		/** View to model row indices, or <code>null</code> if unsorted. */
+		private int[] viewToModel;
+
+		private int[] modelToView;
+
+		/** Incremented at each sort request, to discard outdated results. */
+		private int generation;
+
+		@Override
+		public TableModel getModel()
+		{
+			return table.getModel();
+		}
+
+		@Override
+		public void toggleSortOrder( final int column )
+		{
+			final List< SortKey > keys = new ArrayList<>( sortKeys );
+			SortOrder order = SortOrder.ASCENDING;
+			for ( int i = 0; i < keys.size(); i++ )
+			{
+				if ( keys.get( i ).getColumn() == column )
+				{
+					if ( i == 0 && keys.get( i ).getSortOrder() == SortOrder.ASCENDING )
+						order = SortOrder.DESCENDING;
+					keys.remove( i );
+					break;
+				}
+			}
+			keys.add( 0, new SortKey( column, order ) );
+			if ( keys.size() > MAX_SORT_KEYS )
+				keys.remove( keys.size() - 1 );
+			setSortKeys( keys );
+		}
+
+		@Override
+		public void setSortKeys( final List< ? extends SortKey > keys )
+		{
+			final List< SortKey > old = sortKeys;
+			sortKeys = ( keys == null ) ? Collections.emptyList() : Collections.unmodifiableList( new ArrayList<>( keys ) );
+			if ( !sortKeys.equals( old ) )
+			{
+				fireSortOrderChanged();
+				sort();
+			}
+		}
+
+		@Override
+		public List< ? extends SortKey > getSortKeys()
+		{
+			return sortKeys;
+		}
+
+		@Override
+		public int convertRowIndexToModel( final int index )
+		{
+			if ( index < 0 || index >= getViewRowCount() )
+				throw new IndexOutOfBoundsException( "Invalid view row index: " + index );
+			return ( viewToModel == null ) ? index : viewToModel[ index ];
+		}
+
+		@Override
+		public int convertRowIndexToView( final int index )
+		{
+			if ( index < 0 || index >= getModelRowCount() )
+				throw new IndexOutOfBoundsException( "Invalid model row index: " + index );
+			return ( modelToView == null ) ? index : modelToView[ index ];
+		}
+
+		@Override
+		public int getViewRowCount()
+		{
+			return getModelRowCount();
+		}
+
+		@Override
+		public int getModelRowCount()
+		{
+			return getModel().getRowCount();
+		}
+
+		@Override
+		public void modelStructureChanged()
+		{
+			allRowsChanged();
+		}
+
+		@Override
+		public void allRowsChanged()
+		{
+			// The previous order is meaningless for new rows.
+			viewToModel = null;
+			modelToView = null;
+			sort();
+		}
+
+		@Override
+		public void rowsInserted( final int firstRow, final int endRow )
+		{
+			allRowsChanged();
+		}
+
+		@Override
+		public void rowsDeleted( final int firstRow, final int endRow )
+		{
+			allRowsChanged();
+		}
+
+		@Override
+		public void rowsUpdated( final int firstRow, final int endRow )
+		{
+			sort();
+		}
+
+		@Override
+		public void rowsUpdated( final int firstRow, final int endRow, final int column )
+		{
+			sort();
+		}
+
+		/**
+		 * Sorts the current rows according to the current sort keys.
+		 */
+		private void sort()
+		{
+			final int request = ++generation;
+			final TableFeatureColumns< O > columns = data;
+			final List< SortKey > keys = sortKeys;
+			if ( keys.isEmpty() )
+			{
+				if ( null != viewToModel )
+					apply( null );
+				return;
+			}
+
+			if ( columns.size() < ASYNC_SORT_THRESHOLD )
+			{
+				apply( sortRows( columns, keys ) );
+				return;
+			}
+
+			Threads.run( "TrackMate table sorter", () -> {
+				final int[] rows = sortRows( columns, keys );
+				SwingUtilities.invokeLater( () -> {
+					// Discard if the rows or sort keys changed meanwhile.
+					if ( request == generation && columns == data )
+						apply( rows );
+				} );
+			} );
+		}
+
+		private void apply( final int[] rows )
+		{
+			final int n = getModelRowCount();
+			final int[] previous = new int[ n ];
+			for ( int i = 0; i < n; i++ )
+				previous[ i ] = ( viewToModel == null ) ? i : viewToModel[ i ];
+
+			viewToModel = rows;
+			if ( null == rows )
+			{
+				modelToView = null;
+			}
+			else
+			{
+				modelToView = new int[ rows.length ];
+				for ( int i = 0; i < rows.length; i++ )
+					modelToView[ rows[ i ] ] = i;
+			}
+			fireRowSorterChanged( previous );
+		}
+
+		private int[] sortRows( final TableFeatureColumns< O > columns, final List< SortKey > keys )
+		{
+			IntBinaryOperator comparator = null;
+			for ( int k = keys.size() - 1; k >= 0; k-- )
+			{
+				final SortKey key = keys.get( k );
+				if ( key.getSortOrder() == SortOrder.UNSORTED )
+					continue;
+
+				final IntBinaryOperator c = comparator( columns, key.getColumn() );
+				final IntBinaryOperator ordered = ( key.getSortOrder() == SortOrder.DESCENDING )
+						? ( r1, r2 ) -> c.applyAsInt( r2, r1 )
+						: c;
+				final IntBinaryOperator next = comparator;
+				comparator = ( next == null )
+						? ordered
+						: ( r1, r2 ) -> {
+							final int cmp = ordered.applyAsInt( r1, r2 );
+							return ( cmp != 0 ) ? cmp : next.applyAsInt( r1, r2 );
+						};
+			}
+
+			final int[] rows = new int[ columns.size() ];
+			for ( int i = 0; i < rows.length; i++ )
+				rows[ i ] = i;
+			if ( null != comparator )
+				TableFeatureColumns.sort( rows, comparator );
+			return rows;
+		}
+
+		/**
+		 * Returns an ascending comparator of row indices for the specified
+		 * model column.
+		 */
+		private IntBinaryOperator comparator( final TableFeatureColumns< O > columns, final int column )
+		{
+			if ( column == 0 && labelGenerator != null )
+			{
+				final String[] labels = new String[ columns.size() ];
+				for ( int row = 0; row < labels.length; row++ )
+					labels[ row ] = labelGenerator.apply( columns.get( row ) );
+				return ( r1, r2 ) -> {
+					final String l1 = labels[ r1 ];
+					final String l2 = labels[ r2 ];
+					if ( l1 == null || l2 == null )
+						return Boolean.compare( l2 == null, l1 == null );
+					return l1.compareTo( l2 );
+				};
+			}
+
+			final int labelColumnShift = ( labelGenerator == null ) ? 0 : 1;
+			final double[] values = columns.column( column - labelColumnShift );
+			return ( r1, r2 ) -> TableFeatureColumns.compare( values[ r1 ], values[ r2 ] );
+		}
+	}
+
 	private class MyTableCellRenderer extends DefaultTableCellRenderer
 	{
 
@@ -694,6 +945,7 @@ public class TablePanel< O >
 								{
 									final O o = TablePanel.this.getObjectForViewRow( r );
 									colorSetter.accept( o, c );
+									data.update( data.indexOf( o ) );
 								}
 								panel.repaint();
 							}
@@ -701,6 +953,7 @@ public class TablePanel< O >
 							{
 								final O o = TablePanel.this.getObjectForViewRow( row );
 								colorSetter.accept( o, c );
+								data.update( data.indexOf( o ) );
 							}
 							icon.setColor( c );
 						}
@@ -426,6 +426,9 @@ public class TrackTableView extends JFrame implements TrackMateModelView, ModelC
 	{
 		if ( event.getEventID() == ModelChangeEvent.FEATURES_COMPUTED )
 		{
+			spotTable.refreshValues();
+			edgeTable.refreshValues();
+			trackTable.refreshValues();
 			refresh();
 			return;
 		}
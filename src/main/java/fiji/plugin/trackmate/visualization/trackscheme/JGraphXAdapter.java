@@ -46,6 +46,7 @@ public class JGraphXAdapter extends mxGraph implements GraphListener<Spot, Defau
     private final HashMap<mxCell, Spot> cellToVertexMap = new HashMap<>();
     private final HashMap<mxCell, DefaultWeightedEdge> cellToEdgeMap = new HashMap<>();
     private final Model tmm;
+    private SpotThumbnailCache thumbnails;
 
     /*
      * CONSTRUCTOR
@@ -142,6 +143,21 @@ public class JGraphXAdapter extends mxGraph implements GraphListener<Spot, Defau
         return cellToVertexMap.get(cell);
     }
 
+    /**
+     * Returns the cache spot cells take their thumbnail from, when their image
+     * style is {@link SpotThumbnailCache#THUMBNAIL_IMAGE}.
+     *
+     * @return the thumbnail cache, or <code>null</code> if thumbnails are not
+     *         captured.
+     */
+    public SpotThumbnailCache getThumbnails() {
+        return thumbnails;
+    }
+
+    public void setThumbnails(final SpotThumbnailCache thumbnails) {
+        this.thumbnails = thumbnails;
+    }
+
     public DefaultWeightedEdge getEdgeFor(final mxICell cell) {
         return cellToEdgeMap.get(cell);
     }
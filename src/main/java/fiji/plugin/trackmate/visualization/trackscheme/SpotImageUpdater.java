@@ -63,24 +63,50 @@ public class SpotImageUpdater
 	 *            this radius.
 	 * @return the image string.
 	 */
-	@SuppressWarnings( { "rawtypes", "unchecked" } )
 	public String getImageString( final Spot spot, final double radiusFactor )
 	{
 		final int frame = spot.getFeature( Spot.FRAME ).intValue();
-		final int targetChannel = settings.imp.getC() - 1;
+		final int targetChannel = getTargetChannel();
 		if ( frame == previousFrame && targetChannel == previousChannel )
 		{
 			// Keep the same image than in memory
 		}
 		else
 		{
-			final ImgPlus img = TMUtils.rawWraps( settings.imp );
-			final ImgPlus< ? > imgCT = TMUtils.hyperSlice( img, targetChannel, frame );
-
-			grabber = new SpotIconGrabber( imgCT );
+			grabber = createGrabber( frame, targetChannel );
 			previousFrame = frame;
 			previousChannel = targetChannel;
 		}
 		return grabber.getImageString( spot, radiusFactor );
 	}
+
+	/**
+	 * Returns the channel thumbnails are currently taken from: the channel
+	 * currently displayed in the raw image.
+	 *
+	 * @return the 0-based channel index.
+	 */
+	public int getTargetChannel()
+	{
+		return settings.imp.getC() - 1;
+	}
+
+	/**
+	 * Creates a new grabber for the specified frame and channel of the raw
+	 * image. Unlike {@link #getImageString(Spot, double)}, this method does not
+	 * store state and can be called concurrently.
+	 *
+	 * @param frame
+	 *            the frame.
+	 * @param channel
+	 *            the 0-based channel index.
+	 * @return a new grabber.
+	 */
+	@SuppressWarnings( { "rawtypes", "unchecked" } )
+	public SpotIconGrabber< ? > createGrabber( final int frame, final int channel )
+	{
+		final ImgPlus img = TMUtils.rawWraps( settings.imp );
+		final ImgPlus< ? > imgCT = TMUtils.hyperSlice( img, channel, frame );
+		return new SpotIconGrabber( imgCT );
+	}
 }
@@ -0,0 +1,318 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.visualization.trackscheme;
+
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.DoubleSupplier;
+
+import javax.swing.SwingUtilities;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.util.Threads;
+
+/**
+ * A bounded cache of spot thumbnail images for TrackScheme, filled lazily in
+ * the background.
+ * <p>
+ * Cells that display a thumbnail have their
+ * {@link com.mxgraph.util.mxConstants#STYLE_IMAGE} style set to
+ * {@link #THUMBNAIL_IMAGE} rather than to an inlined image. When such a cell
+ * is painted, its thumbnail is taken from this cache. If it is missing, its
+ * generation is scheduled on a background pool, grouped by frame so that the
+ * image of each frame is only wrapped once, and the display is refreshed when
+ * the thumbnails are ready. Only the cells that are actually painted have
+ * their thumbnail generated. The least recently used images are evicted when
+ * the cache is full.
+ * <p>
+ * The cache is cleared when the radius factor or the channel of the raw image
+ * changes.
+ */
+public class SpotThumbnailCache
+{
+
+	/**
+	 * The value of the image style of cells whose thumbnail must be taken from
+	 * the cache.
+	 */
+	public static final String THUMBNAIL_IMAGE = "trackmate:thumbnail";
+
+	/** The default maximal number of thumbnails kept in memory. */
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	/** Marks spots whose thumbnail could not be generated. */
+	private static final BufferedImage FAILED = new BufferedImage( 1, 1, BufferedImage.TYPE_BYTE_GRAY );
+
+	private final SpotImageUpdater updater;
+
+	private final DoubleSupplier radiusFactor;
+
+	private final Runnable onUpdate;
+
+	private final ExecutorService executor;
+
+	private final LinkedHashMap< Spot, BufferedImage > cache;
+
+	/** Spots whose thumbnail generation is scheduled, per frame. */
+	private final Map< Integer, Set< Spot > > pending = new HashMap<>();
+
+	private final AtomicBoolean updateScheduled = new AtomicBoolean( false );
+
+	private double currentRadiusFactor = Double.NaN;
+
+	private int currentChannel = -1;
+
+	private Logger logger = Logger.IJ_LOGGER;
+
+	/**
+	 * Creates a new thumbnail cache.
+	 *
+	 * @param updater
+	 *            the updater that gives access to the raw image.
+	 * @param radiusFactor
+	 *            supplies the factor that determines the size of the
+	 *            thumbnails, relative to the spot diameter.
+	 * @param onUpdate
+	 *            called on the EDT when new thumbnails are ready.
+	 * @param capacity
+	 *            the maximal number of thumbnails kept in memory.
+	 * @param numThreads
+	 *            the number of threads used to generate thumbnails.
+	 */
+	public SpotThumbnailCache( final SpotImageUpdater updater, final DoubleSupplier radiusFactor, final Runnable onUpdate, final int capacity, final int numThreads )
+	{
+		this.updater = updater;
+		this.radiusFactor = radiusFactor;
+		this.onUpdate = onUpdate;
+		this.executor = Threads.newFixedThreadPool( Math.max( 1, numThreads ) );
+		this.cache = new LinkedHashMap< Spot, BufferedImage >( 16, 0.75f, true )
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry( final Map.Entry< Spot, BufferedImage > eldest )
+			{
+				return size() > capacity;
+			}
+		};
+	}
+
+	public SpotThumbnailCache( final SpotImageUpdater updater, final DoubleSupplier radiusFactor, final Runnable onUpdate )
+	{
+		this( updater, radiusFactor, onUpdate, DEFAULT_CAPACITY, Math.max( 1, Runtime.getRuntime().availableProcessors() / 2 ) );
+	}
+
+	/**
+	 * Sets the logger used to report thumbnails that could not be generated.
+	 *
+	 * @param logger
+	 *            the logger.
+	 */
+	public void setLogger( final Logger logger )
+	{
+		this.logger = logger;
+	}
+
+	/**
+	 * Returns the thumbnail of the specified spot, if it is in the cache. If
+	 * not, schedules its generation and returns <code>null</code>.
+	 *
+	 * @param spot
+	 *            the spot.
+	 * @return the thumbnail image, or <code>null</code>.
+	 */
+	public BufferedImage get( final Spot spot )
+	{
+		final BufferedImage image;
+		synchronized ( this )
+		{
+			checkParameters();
+			image = cache.get( spot );
+			if ( null == image )
+				schedule( spot );
+		}
+		return ( image == FAILED ) ? null : image;
+	}
+
+	/**
+	 * Returns the thumbnail of the specified spot, generating it on the
+	 * calling thread if it is not in the cache. Used when rendering the whole
+	 * graph at once, for instance to export it.
+	 *
+	 * @param spot
+	 *            the spot.
+	 * @return the thumbnail image, or <code>null</code> if it cannot be
+	 *         generated.
+	 */
+	public BufferedImage getNow( final Spot spot )
+	{
+		final double rf;
+		final int channel;
+		synchronized ( this )
+		{
+			checkParameters();
+			final BufferedImage image = cache.get( spot );
+			if ( null != image )
+				return ( image == FAILED ) ? null : image;
+			rf = currentRadiusFactor;
+			channel = currentChannel;
+		}
+
+		final BufferedImage image = grab( updater.createGrabber( frameOf( spot ), channel ), spot, rf );
+		store( spot, image, rf, channel );
+		return ( image == FAILED ) ? null : image;
+	}
+
+	/**
+	 * Discards the thumbnail of the specified spot, for instance after it was
+	 * moved or resized.
+	 *
+	 * @param spot
+	 *            the spot.
+	 */
+	public synchronized void invalidate( final Spot spot )
+	{
+		cache.remove( spot );
+	}
+
+	/**
+	 * Discards all the thumbnails.
+	 */
+	public synchronized void clear()
+	{
+		cache.clear();
+	}
+
+	/**
+	 * Stops the background generation of thumbnails and empties the cache.
+	 */
+	public void dispose()
+	{
+		executor.shutdownNow();
+		synchronized ( this )
+		{
+			pending.clear();
+			cache.clear();
+		}
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Clears the cache if the thumbnail size or channel changed. Must be
+	 * called while holding the lock.
+	 */
+	private void checkParameters()
+	{
+		final double rf = radiusFactor.getAsDouble();
+		final int channel = updater.getTargetChannel();
+		if ( rf != currentRadiusFactor || channel != currentChannel )
+		{
+			cache.clear();
+			currentRadiusFactor = rf;
+			currentChannel = channel;
+		}
+	}
+
+	/**
+	 * Schedules the generation of the thumbnail of the specified spot. Must be
+	 * called while holding the lock.
+	 */
+	private void schedule( final Spot spot )
+	{
+		if ( executor.isShutdown() )
+			return;
+
+		final Integer frame = Integer.valueOf( frameOf( spot ) );
+		Set< Spot > spots = pending.get( frame );
+		if ( null == spots )
+		{
+			spots = new HashSet<>();
+			pending.put( frame, spots );
+			executor.execute( () -> generate( frame ) );
+		}
+		spots.add( spot );
+	}
+
+	private void generate( final Integer frame )
+	{
+		final Set< Spot > spots;
+		final double rf;
+		final int channel;
+		synchronized ( this )
+		{
+			spots = pending.remove( frame );
+			rf = currentRadiusFactor;
+			channel = currentChannel;
+		}
+		if ( null == spots || spots.isEmpty() )
+			return;
+
+		final SpotIconGrabber< ? > grabber = updater.createGrabber( frame.intValue(), channel );
+		for ( final Spot spot : spots )
+		{
+			if ( Thread.currentThread().isInterrupted() )
+				return;
+			store( spot, grab( grabber, spot, rf ), rf, channel );
+		}
+
+		if ( updateScheduled.compareAndSet( false, true ) )
+			SwingUtilities.invokeLater( () -> {
+				updateScheduled.set( false );
+				onUpdate.run();
+			} );
+	}
+
+	private synchronized void store( final Spot spot, final BufferedImage image, final double rf, final int channel )
+	{
+		// Discard images made with outdated parameters.
+		if ( rf == currentRadiusFactor && channel == currentChannel )
+			cache.put( spot, image );
+	}
+
+	private BufferedImage grab( final SpotIconGrabber< ? > grabber, final Spot spot, final double radiusFactor )
+	{
+		try
+		{
+			return grabber.getImage( spot, radiusFactor );
+		}
+		catch ( final RuntimeException e )
+		{
+			logger.error( "Could not generate the thumbnail of spot " + spot + ":\n" + e.getMessage() + '\n' );
+			return FAILED;
+		}
+	}
+
+	private static int frameOf( final Spot spot )
+	{
+		return spot.getFeature( Spot.FRAME ).intValue();
+	}
+}
@@ -122,6 +122,13 @@ public class TrackScheme extends AbstractTrackMateModelView {
      * spots imported in this view. If <code>null</code>, nothing is done.
      */
     private SpotImageUpdater spotImageUpdater;
+
+    /**
+     * The cache of spot thumbnails, created when thumbnail capture is first
+     * enabled.
+     */
+    private SpotThumbnailCache thumbnails;
+
     /**
      * If <code>true</code>, thumbnail will be captured and displayed with
      * styles allowing it.
@@ -144,6 +151,14 @@ public class TrackScheme extends AbstractTrackMateModelView {
             @Override
             public void windowClosing(final WindowEvent e) {
                 model.removeModelChangeListener(TrackScheme.this);
+                disposeThumbnails();
+            }
+
+            @Override
+            public void windowClosed(final WindowEvent e) {
+                // Also reached when the frame is disposed programmatically.
+                model.removeModelChangeListener(TrackScheme.this);
+                disposeThumbnails();
             }
         });
         gui.setLocationByPlatform(true);
@@ -156,6 +171,9 @@ public class TrackScheme extends AbstractTrackMateModelView {
      */
 
     public void setSpotImageUpdater(final SpotImageUpdater spotImageUpdater) {
+        // The cache grabs thumbnails from the previous updater.
+        if (spotImageUpdater != this.spotImageUpdater)
+            disposeThumbnails();
         this.spotImageUpdater = spotImageUpdater;
     }
 
@@ -261,11 +279,10 @@ public class TrackScheme extends AbstractTrackMateModelView {
             }
 
             // Update cell look
-            if (spotImageUpdater != null && doThumbnailCapture) {
+            if (null != thumbnails && doThumbnailCapture) {
+                thumbnails.invalidate(spot);
                 String style = cell.getStyle();
-                final double radiusFactor = displaySettings.getSpotDisplayRadius();
-                final String imageStr = spotImageUpdater.getImageString(spot, radiusFactor);
-                style = mxStyleUtils.setStyle(style, mxConstants.STYLE_IMAGE, "data:image/base64," + imageStr);
+                style = mxStyleUtils.setStyle(style, mxConstants.STYLE_IMAGE, SpotThumbnailCache.THUMBNAIL_IMAGE);
                 graph.getModel().setStyle(cell, style);
             }
         } finally {
@@ -294,11 +311,8 @@ public class TrackScheme extends AbstractTrackMateModelView {
         final mxGeometry geometry = new mxGeometry(x, y, DEFAULT_CELL_WIDTH, DEFAULT_CELL_HEIGHT);
         cellAdded.setGeometry(geometry);
         // Set its style
-        final double radiusFactor = displaySettings.getSpotDisplayRadius();
-        if (null != spotImageUpdater && doThumbnailCapture) {
-            final String imageStr = spotImageUpdater.getImageString(spot, radiusFactor);
-            graph.getModel().setStyle(cellAdded, mxConstants.STYLE_IMAGE + "=" + "data:image/base64," + imageStr);
-        }
+        if (null != thumbnails && doThumbnailCapture)
+            graph.getModel().setStyle(cellAdded, mxConstants.STYLE_IMAGE + "=" + SpotThumbnailCache.THUMBNAIL_IMAGE);
         return cellAdded;
     }
 
@@ -467,6 +481,12 @@ public class TrackScheme extends AbstractTrackMateModelView {
      */
     @Override
     public void modelChanged(final ModelChangeEvent event) {
+        // All the spots were replaced: their thumbnails are obsolete.
+        if (event.getEventID() == ModelChangeEvent.SPOTS_COMPUTED) {
+            disposeThumbnails();
+            return;
+        }
+
         // Only catch model changes
         if (event.getEventID() != ModelChangeEvent.MODEL_MODIFIED)
             return;
@@ -623,6 +643,7 @@ public class TrackScheme extends AbstractTrackMateModelView {
         final long start = System.currentTimeMillis();
         // Graph to mirror model
         this.graph = createGraph();
+        graph.setThumbnails(thumbnails);
         gui.logger.setProgress(0.5);
 
         SwingUtilities.invokeLater(new Runnable() {
@@ -842,48 +863,44 @@ public class TrackScheme extends AbstractTrackMateModelView {
     }
 
     /**
-     * Captures and stores the thumbnail image that will be displayed in each
-     * spot cell, when using styles that can display images.
+     * Stops the generation of thumbnails and releases the cache. A new cache
+     * is created if thumbnails are captured again.
      */
-    private void createThumbnails() {
-        // Group spots per frame
-        final Set<Integer> frames = model.getSpots().keySet();
-        final HashMap<Integer, HashSet<Spot>> spotPerFrame = new HashMap<>(frames.size());
-        for (final Integer frame : frames)
-            spotPerFrame.put(frame, new HashSet<Spot>(model.getSpots().getNSpots(frame, true))); // max
-
-        for (final Integer trackID : model.getTrackModel().trackIDs(true)) {
-            for (final Spot spot : model.getTrackModel().trackSpots(trackID)) {
-                final int frame = spot.getFeature(Spot.FRAME).intValue();
-                spotPerFrame.get(frame).add(spot);
-            }
-        }
+    private void disposeThumbnails() {
+        if (null == thumbnails)
+            return;
+        thumbnails.dispose();
+        thumbnails = null;
+        if (null != graph)
+            graph.setThumbnails(null);
+    }
 
-        // Set spot image to cell style
-        if (null != spotImageUpdater) {
-            gui.logger.setStatus("Collecting spot thumbnails.");
-            final double radiusFactor = displaySettings.getSpotDisplayRadius();
-            int index = 0;
-            try {
-                graph.getModel().beginUpdate();
+    /**
+     * Marks the cell of each spot in visible tracks as displaying a thumbnail
+     * image. The thumbnails themselves are generated lazily, when the cells
+     * are painted, and stored in a bounded cache.
+     */
+    private void createThumbnails() {
+        if (null == spotImageUpdater)
+            return;
 
-                // Iterate per frame
-                for (final Integer frame : frames) {
-                    for (final Spot spot : spotPerFrame.get(frame)) {
-                        final mxICell cell = graph.getCellFor(spot);
-                        final String imageStr = spotImageUpdater.getImageString(spot, radiusFactor);
-                        String style = cell.getStyle();
-                        style = mxStyleUtils.setStyle(style, mxConstants.STYLE_IMAGE, "data:image/base64," + imageStr);
-                        graph.getModel().setStyle(cell, style);
+        if (null == thumbnails)
+            thumbnails = new SpotThumbnailCache(spotImageUpdater, displaySettings::getSpotDisplayRadius,
+                    () -> gui.graphComponent.getGraphControl().repaint());
+        graph.setThumbnails(thumbnails);
 
-                    }
-                    gui.logger.setProgress((double) index++ / frames.size());
+        graph.getModel().beginUpdate();
+        try {
+            for (final Integer trackID : model.getTrackModel().trackIDs(true)) {
+                for (final Spot spot : model.getTrackModel().trackSpots(trackID)) {
+                    final mxICell cell = graph.getCellFor(spot);
+                    String style = cell.getStyle();
+                    style = mxStyleUtils.setStyle(style, mxConstants.STYLE_IMAGE, SpotThumbnailCache.THUMBNAIL_IMAGE);
+                    graph.getModel().setStyle(cell, style);
                 }
-            } finally {
-                graph.getModel().endUpdate();
-                gui.logger.setProgress(0d);
-                gui.logger.setStatus("");
             }
+        } finally {
+            graph.getModel().endUpdate();
         }
     }
 
@@ -22,23 +22,74 @@
 package fiji.plugin.trackmate.visualization.trackscheme;
 
 import com.mxgraph.canvas.mxSvgCanvas;
+import com.mxgraph.model.mxICell;
 import com.mxgraph.util.mxConstants;
 import com.mxgraph.util.mxRectangle;
 import com.mxgraph.util.mxUtils;
+import com.mxgraph.view.mxCellState;
+import com.mxgraph.view.mxGraph;
 
+import java.awt.image.BufferedImage;
 import java.util.Map;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
+import fiji.plugin.trackmate.Spot;
+
 public class TrackSchemeSvgCanvas extends mxSvgCanvas
 {
 
+	/** The state of the cell being drawn. */
+	private mxCellState currentState;
+
 	public TrackSchemeSvgCanvas( Document document )
 	{
 		super( document );
 	}
 
+	@Override
+	public Object drawCell( mxCellState state )
+	{
+		currentState = state;
+		try
+		{
+			return super.drawCell( state );
+		}
+		finally
+		{
+			currentState = null;
+		}
+	}
+
+	/**
+	 * Inlines the thumbnail of spot cells that take it from the thumbnail
+	 * cache, generating it if needed.
+	 */
+	@Override
+	public String getImageForStyle( Map< String, Object > style )
+	{
+		String img = mxUtils.getString( style, mxConstants.STYLE_IMAGE );
+		if ( !SpotThumbnailCache.THUMBNAIL_IMAGE.equals( img ) )
+			return super.getImageForStyle( style );
+
+		if ( null == currentState || !( currentState.getCell() instanceof mxICell ) )
+			return null;
+		mxGraph graph = currentState.getView().getGraph();
+		if ( !( graph instanceof JGraphXAdapter ) )
+			return null;
+		JGraphXAdapter adapter = ( JGraphXAdapter ) graph;
+		SpotThumbnailCache thumbnails = adapter.getThumbnails();
+		Spot spot = adapter.getSpotFor( ( mxICell ) currentState.getCell() );
+		if ( null == thumbnails || null == spot )
+			return null;
+
+		BufferedImage image = thumbnails.getNow( spot );
+		if ( null == image )
+			return null;
+		return "data:image/base64," + SpotIconGrabber.toImageString( image );
+	}
+
 	@Override
 	public Element drawShape( int x, int y, int w, int h, Map< String, Object > style )
 	{
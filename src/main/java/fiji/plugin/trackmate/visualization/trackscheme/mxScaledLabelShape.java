@@ -21,14 +21,19 @@
  */
 package fiji.plugin.trackmate.visualization.trackscheme;
 
+import java.awt.GraphicsDevice;
 import java.awt.Image;
 import java.awt.Rectangle;
 
 import com.mxgraph.canvas.mxGraphics2DCanvas;
+import com.mxgraph.model.mxICell;
 import com.mxgraph.shape.mxRectangleShape;
 import com.mxgraph.util.mxConstants;
 import com.mxgraph.util.mxUtils;
 import com.mxgraph.view.mxCellState;
+import com.mxgraph.view.mxGraph;
+
+import fiji.plugin.trackmate.Spot;
 
 /**
  * This is a shape that is made to display a cell in a way that suits for our
@@ -54,7 +59,9 @@ public class mxScaledLabelShape extends mxRectangleShape
 		final String imgStr = mxUtils.getString( state.getStyle(), mxConstants.STYLE_IMAGE );
 		if ( imgStr != null )
 		{
-			final Image img = canvas.loadImage( mxUtils.getString( state.getStyle(), mxConstants.STYLE_IMAGE ) );
+			final Image img = SpotThumbnailCache.THUMBNAIL_IMAGE.equals( imgStr )
+					? getThumbnail( canvas, state )
+					: canvas.loadImage( imgStr );
 			if ( img != null )
 			{
 				final Rectangle bounds = getImageBounds( state );
@@ -71,6 +78,28 @@ public class mxScaledLabelShape extends mxRectangleShape
 		}
 	}
 
+	/**
+	 * Returns the thumbnail of the spot of the specified cell, taken from the
+	 * graph thumbnail cache. When painting on screen, returns
+	 * <code>null</code> if it is not ready yet. When painting to an image, for
+	 * instance to export the graph, waits for it.
+	 */
+	private static Image getThumbnail( final mxGraphics2DCanvas canvas, final mxCellState state )
+	{
+		final mxGraph graph = state.getView().getGraph();
+		if ( !( graph instanceof JGraphXAdapter ) || !( state.getCell() instanceof mxICell ) )
+			return null;
+
+		final JGraphXAdapter adapter = ( JGraphXAdapter ) graph;
+		final SpotThumbnailCache thumbnails = adapter.getThumbnails();
+		final Spot spot = adapter.getSpotFor( ( mxICell ) state.getCell() );
+		if ( null == thumbnails || null == spot )
+			return null;
+
+		final boolean offscreen = canvas.getGraphics().getDeviceConfiguration().getDevice().getType() == GraphicsDevice.TYPE_IMAGE_BUFFER;
+		return offscreen ? thumbnails.getNow( spot ) : thumbnails.get( spot );
+	}
+
 	private final Rectangle getImageBounds( final mxCellState state )
 	{
 		final Rectangle cellR = state.getRectangle();
@@ -0,0 +1,284 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.junit.Test;
+
+public class FeatureModelTest
+{
+
+	@Test
+	public void testEdgeFeatures()
+	{
+		final Model model = new Model();
+		final Spot s1 = new Spot( 0., 0., 0., 1., 1. );
+		final Spot s2 = new Spot( 1., 0., 0., 1., 1. );
+		final Spot s3 = new Spot( 2., 0., 0., 1., 1. );
+		model.beginUpdate();
+		DefaultWeightedEdge e1;
+		DefaultWeightedEdge e2;
+		try
+		{
+			model.addSpotTo( s1, 0 );
+			model.addSpotTo( s2, 1 );
+			model.addSpotTo( s3, 2 );
+			e1 = model.addEdge( s1, s2, 1. );
+			e2 = model.addEdge( s2, s3, 1. );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		final TrackModel trackModel = model.getTrackModel();
+		final FeatureModel fm = model.getFeatureModel();
+		assertEquals( -1, trackModel.edgeIndex( e1 ) );
+		assertNull( fm.getEdgeFeature( e1, "FOO" ) );
+		assertEquals( -1, trackModel.edgeIndex( e1 ) );
+
+		fm.putEdgeFeature( e1, "FOO", 3. );
+		fm.putEdgeFeature( e2, "FOO", 4. );
+		final int i1 = trackModel.edgeIndex( e1 );
+		final int i2 = trackModel.edgeIndex( e2 );
+		assertNotEquals( i1, i2 );
+		assertEquals( i1, trackModel.edgeIndex( e1 ) );
+		assertEquals( 3., fm.getEdgeFeature( e1, "FOO" ), 0. );
+		assertEquals( 4., fm.getEdgeFeature( e2, "FOO" ), 0. );
+		assertNull( fm.getEdgeFeature( e1, "BAR" ) );
+
+		final double[] column = fm.getEdgeFeatureColumn( "FOO" );
+		assertEquals( trackModel.nEdgeIndices(), column.length );
+		assertEquals( 3., column[ i1 ], 0. );
+		assertEquals( 4., column[ i2 ], 0. );
+
+		fm.removeEdgeFeature( e1, "FOO" );
+		assertNull( fm.getEdgeFeature( e1, "FOO" ) );
+		assertEquals( 4., fm.getEdgeFeature( e2, "FOO" ), 0. );
+
+		// NaN values are stored, and are not missing values.
+		fm.putEdgeFeature( e1, "FOO", Double.NaN );
+		assertNotNull( fm.getEdgeFeature( e1, "FOO" ) );
+		assertTrue( Double.isNaN( fm.getEdgeFeature( e1, "FOO" ).doubleValue() ) );
+	}
+
+	@Test
+	public void testEdgeIndexRecycling()
+	{
+		final Model model = new Model();
+		final Spot s1 = new Spot( 0., 0., 0., 1., 1. );
+		final Spot s2 = new Spot( 1., 0., 0., 1., 1. );
+		final Spot s3 = new Spot( 2., 0., 0., 1., 1. );
+		model.beginUpdate();
+		DefaultWeightedEdge e1;
+		try
+		{
+			model.addSpotTo( s1, 0 );
+			model.addSpotTo( s2, 1 );
+			model.addSpotTo( s3, 2 );
+			e1 = model.addEdge( s1, s2, 1. );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		final TrackModel trackModel = model.getTrackModel();
+		final FeatureModel fm = model.getFeatureModel();
+		fm.putEdgeFeature( e1, "FOO", 3. );
+		fm.putEdgeFeature( e1, "BAR", 5. );
+		final int i1 = trackModel.edgeIndex( e1 );
+
+		model.beginUpdate();
+		try
+		{
+			model.removeEdge( e1 );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		assertEquals( -1, trackModel.edgeIndex( e1 ) );
+		assertNull( fm.getEdgeFeature( e1, "FOO" ) );
+
+		DefaultWeightedEdge e2;
+		model.beginUpdate();
+		try
+		{
+			e2 = model.addEdge( s2, s3, 1. );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		fm.putEdgeFeature( e2, "FOO", 4. );
+		assertEquals( i1, trackModel.edgeIndex( e2 ) );
+		assertEquals( 1, trackModel.nEdgeIndices() );
+		assertEquals( 4., fm.getEdgeFeature( e2, "FOO" ), 0. );
+		// Values of the former edge are not inherited.
+		assertNull( fm.getEdgeFeature( e2, "BAR" ) );
+	}
+
+	@Test
+	public void testEdgeFeaturesSetBeforeGraph()
+	{
+		final Model model = new Model();
+		final Spot s1 = new Spot( 0., 0., 0., 1., 1. );
+		final Spot s2 = new Spot( 1., 0., 0., 1., 1. );
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+		graph.addVertex( s1 );
+		graph.addVertex( s2 );
+		final DefaultWeightedEdge edge = graph.addEdge( s1, s2 );
+
+		model.getFeatureModel().putEdgeFeature( edge, "FOO", 3. );
+		model.setTracks( graph, false );
+		assertEquals( 3., model.getFeatureModel().getEdgeFeature( edge, "FOO" ), 0. );
+	}
+
+	@Test
+	public void testTrackFeatureValues()
+	{
+		final Model model = new Model();
+		model.beginUpdate();
+		try
+		{
+			for ( int t = 0; t < 3; t++ )
+			{
+				final Spot a = model.addSpotTo( new Spot( 0., 0., 0., 1., 1. ), 2 * t );
+				final Spot b = model.addSpotTo( new Spot( 0., 0., 0., 1., 1. ), 2 * t + 1 );
+				model.addEdge( a, b, 1. );
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		final FeatureModel fm = model.getFeatureModel();
+		fm.declareTrackFeatures( Collections.singleton( "FOO" ),
+				Collections.singletonMap( "FOO", "Foo" ),
+				Collections.singletonMap( "FOO", "Foo" ),
+				Collections.singletonMap( "FOO", Dimension.NONE ),
+				Collections.singletonMap( "FOO", Boolean.FALSE ) );
+
+		int n = 0;
+		for ( final Integer trackID : model.getTrackModel().trackIDs( false ) )
+		{
+			if ( n < 2 )
+				fm.putTrackFeature( trackID, "FOO", Double.valueOf( 10. + n ) );
+			n++;
+		}
+		assertEquals( 3, n );
+
+		final Map< String, double[] > values = fm.getTrackFeatureValues();
+		assertArrayEquals( new double[] { 10., 11. }, values.get( "FOO" ), 0. );
+
+		// A NaN value is a value: it is returned, not skipped.
+		for ( final Integer trackID : model.getTrackModel().trackIDs( false ) )
+			fm.putTrackFeature( trackID, "FOO", Double.NaN );
+		assertTrue( Double.isNaN( fm.getTrackFeature( model.getTrackModel().trackIDs( false ).iterator().next(), "FOO" ) ) );
+		assertEquals( 3, fm.getTrackFeatureValues().get( "FOO" ).length );
+	}
+
+	@Test
+	public void testTrackFeaturesReleasedOnRemoval()
+	{
+		final Model model = new Model();
+		final Spot a1 = new Spot( 0., 0., 0., 1., 1. );
+		final Spot a2 = new Spot( 0., 0., 0., 1., 1. );
+		final Spot b1 = new Spot( 0., 0., 0., 1., 1. );
+		final Spot b2 = new Spot( 0., 0., 0., 1., 1. );
+		model.beginUpdate();
+		try
+		{
+			model.addSpotTo( a1, 0 );
+			model.addSpotTo( a2, 1 );
+			model.addSpotTo( b1, 2 );
+			model.addSpotTo( b2, 3 );
+			model.addEdge( a1, a2, 1. );
+			model.addEdge( b1, b2, 1. );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		final TrackModel trackModel = model.getTrackModel();
+		final FeatureModel fm = model.getFeatureModel();
+		final Integer idA = trackModel.trackIDOf( a1 );
+		final Integer idB = trackModel.trackIDOf( b1 );
+		fm.putTrackFeature( idA, "FOO", 1. );
+		fm.putTrackFeature( idB, "FOO", 2. );
+
+		// Merging the two tracks removes one of them, and its values.
+		model.beginUpdate();
+		try
+		{
+			model.addEdge( a2, b1, 1. );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		final Integer merged = trackModel.trackIDOf( a1 );
+		final Integer removed = merged.equals( idA ) ? idB : idA;
+		assertNull( fm.getTrackFeature( removed, "FOO" ) );
+		assertNotNull( fm.getTrackFeature( merged, "FOO" ) );
+
+		// Deleting the last track removes its values too.
+		model.beginUpdate();
+		try
+		{
+			for ( final DefaultWeightedEdge edge : new ArrayList<>( trackModel.edgeSet() ) )
+				model.removeEdge( edge );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		assertNull( fm.getTrackFeature( merged, "FOO" ) );
+
+		// A new track does not inherit the values of the removed ones.
+		model.beginUpdate();
+		try
+		{
+			model.addEdge( a1, a2, 1. );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		assertNull( fm.getTrackFeature( trackModel.trackIDOf( a1 ), "FOO" ) );
+	}
+}
@@ -24,10 +24,15 @@ package fiji.plugin.trackmate;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.junit.Test;
@@ -366,6 +371,194 @@ public class ModelTest {
 
 	}
 
+	@Test
+	public void testAsynchronousModelChangeEvents() throws InterruptedException {
+		final Model model = new Model();
+		model.setAsynchronousModelChangeEvents(true);
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<ModelChangeEvent> events = new ArrayList<>();
+		model.addModelChangeListener(new ModelChangeListener() {
+			@Override
+			public void modelChanged(final ModelChangeEvent event) {
+				try {
+					release.await();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				events.add(event);
+			}
+		});
+
+		final Spot s1 = new Spot( 0d, 0d, 0d, 1d, -1d, "S1" );
+		final Spot s2 = new Spot( 0d, 0d, 0d, 1d, -1d, "S2" );
+		final Spot s3 = new Spot( 0d, 0d, 0d, 1d, -1d, "S3" );
+
+		// The first event is held by the listener, the next ones are queued.
+		model.beginUpdate();
+		try {
+			model.addSpotTo(s1, 0);
+		} finally {
+			model.endUpdate();
+		}
+		model.beginUpdate();
+		try {
+			model.addSpotTo(s2, 0);
+		} finally {
+			model.endUpdate();
+		}
+		model.beginUpdate();
+		try {
+			model.addSpotTo(s3, 1);
+		} finally {
+			model.endUpdate();
+		}
+		model.beginUpdate();
+		try {
+			model.removeSpot(s2);
+		} finally {
+			model.endUpdate();
+		}
+
+		release.countDown();
+		model.flushModelChangeEvents();
+		model.setAsynchronousModelChangeEvents(false);
+
+		// The queued events were merged, and s2 added then removed is gone.
+		assertTrue("Expected at most 2 events, got " + events.size(), events.size() <= 2);
+		final ModelChangeEvent last = events.get(events.size() - 1);
+		assertTrue(last.getSpots().contains(s3));
+		assertEquals(ModelChangeEvent.FLAG_SPOT_ADDED, last.getSpotFlag(s3).intValue());
+		assertTrue(!last.getSpots().contains(s2));
+		if (events.size() == 2)
+			assertEquals(1, last.getSpots().size());
+	}
+
+	@Test
+	public void testSwitchingModeWhileFiring() throws InterruptedException {
+		final Model model = new Model();
+		final Set<Spot> added = ConcurrentHashMap.newKeySet();
+		model.addModelChangeListener(new ModelChangeListener() {
+			@Override
+			public void modelChanged(final ModelChangeEvent event) {
+				for (final Spot spot : event.getSpots())
+					if (event.getSpotFlag(spot) == ModelChangeEvent.FLAG_SPOT_ADDED)
+						added.add(spot);
+			}
+		});
+
+		// Switch modes while another thread modifies the model.
+		final int nSpots = 2000;
+		final AtomicReference<Throwable> error = new AtomicReference<>();
+		final Thread writer = new Thread(() -> {
+			try {
+				for (int i = 0; i < nSpots; i++) {
+					model.beginUpdate();
+					try {
+						model.addSpotTo(new Spot(0d, 0d, 0d, 1d, -1d), i % 10);
+					} finally {
+						model.endUpdate();
+					}
+				}
+			} catch (final Throwable e) {
+				error.set(e);
+			}
+		});
+		writer.start();
+		boolean asynchronous = false;
+		while (writer.isAlive()) {
+			asynchronous = !asynchronous;
+			model.setAsynchronousModelChangeEvents(asynchronous);
+		}
+		writer.join();
+		model.setAsynchronousModelChangeEvents(false);
+
+		assertEquals(null, error.get());
+		assertEquals(nSpots, added.size());
+	}
+
+	@Test
+	public void testEdgeIndicesReleasedAfterAsynchronousDelivery() throws InterruptedException {
+		final String feature = "TEST_FEATURE";
+		final Model model = new Model();
+		final FeatureModel fm = model.getFeatureModel();
+		final TrackModel tm = model.getTrackModel();
+
+		final Spot s1 = new Spot( 0d, 0d, 0d, 1d, -1d, "S1" );
+		final Spot s2 = new Spot( 1d, 0d, 0d, 1d, -1d, "S2" );
+		final Spot s3 = new Spot( 2d, 0d, 0d, 1d, -1d, "S3" );
+		final DefaultWeightedEdge e1;
+		model.beginUpdate();
+		try {
+			model.addSpotTo(s1, 0);
+			model.addSpotTo(s2, 1);
+			model.addSpotTo(s3, 2);
+			e1 = model.addEdge(s1, s2, 1.);
+			fm.putEdgeFeature(e1, feature, 1.);
+		} finally {
+			model.endUpdate();
+		}
+
+		model.setAsynchronousModelChangeEvents(true);
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<Double> seen = new ArrayList<>();
+		model.addModelChangeListener(new ModelChangeListener() {
+			@Override
+			public void modelChanged(final ModelChangeEvent event) {
+				try {
+					release.await();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				if (event.getEdges().contains(e1))
+					seen.add(fm.getEdgeFeature(e1, feature));
+			}
+		});
+
+		// Remove e1, then add an edge with a feature before delivery.
+		model.beginUpdate();
+		try {
+			model.removeEdge(e1);
+		} finally {
+			model.endUpdate();
+		}
+		final DefaultWeightedEdge e2;
+		model.beginUpdate();
+		try {
+			e2 = model.addEdge(s2, s3, 1.);
+			fm.putEdgeFeature(e2, feature, 2.);
+		} finally {
+			model.endUpdate();
+		}
+		assertTrue(tm.edgeIndex(e1) != tm.edgeIndex(e2));
+
+		release.countDown();
+		model.flushModelChangeEvents();
+
+		// The listener could read the feature of the removed edge.
+		assertEquals(1, seen.size());
+		assertEquals(1., seen.get(0).doubleValue(), 0.);
+		assertEquals(2., fm.getEdgeFeature(e2, feature).doubleValue(), 0.);
+
+		// Its index was released after delivery, and a late write does not
+		// take a new one.
+		assertEquals(-1, tm.edgeIndex(e1));
+		final int nIndices = tm.nEdgeIndices();
+		fm.putEdgeFeature(e1, feature, 3.);
+		assertEquals(-1, tm.edgeIndex(e1));
+		assertEquals(nIndices, tm.nEdgeIndices());
+
+		// The released index is reused.
+		model.beginUpdate();
+		try {
+			final DefaultWeightedEdge e3 = model.addEdge(s1, s3, 1.);
+			fm.putEdgeFeature(e3, feature, 4.);
+			assertEquals(nIndices, tm.nEdgeIndices());
+		} finally {
+			model.endUpdate();
+		}
+		model.setAsynchronousModelChangeEvents(false);
+	}
+
 	@Test
 	public void testRemovingWholeTracksAtOnce() {
 		final int N_TRACKS = 2;
@@ -214,6 +214,168 @@ public class SpotCollectionTest
 		assertEquals( 3 * 5, sc.getNSpots( true ) );
 	}
 
+	@Test
+	public void testIncrementalFilters()
+	{
+		final Random ran = new Random( 1l );
+		int n = 0;
+		for ( final Spot spot : sc.iterable( false ) )
+		{
+			spot.putFeature( Spot.RADIUS, Double.valueOf( ran.nextInt( 10 ) ) );
+			// NaN values, which are greater than any threshold.
+			if ( n % 13 == 0 )
+				spot.putFeature( Spot.RADIUS, Double.NaN );
+			if ( n % 17 == 0 )
+				spot.putFeature( Spot.QUALITY, Double.NaN );
+			// Missing values, which fail all filters.
+			if ( n % 3 == 0 )
+				spot.putFeature( "FOO", Double.valueOf( ran.nextInt( 10 ) ) );
+			n++;
+		}
+
+		// Move the thresholds, add and remove filters, and check against a
+		// brute-force count every time.
+		for ( int i = 0; i < 50; i++ )
+		{
+			final List< FeatureFilter > filters = new ArrayList<>();
+			filters.add( new FeatureFilter( Spot.QUALITY, ran.nextInt( N_SPOTS ), true ) );
+			if ( i % 7 != 0 )
+				filters.add( new FeatureFilter( Spot.RADIUS, ran.nextInt( 10 ) + 0.5 * ran.nextInt( 2 ), false ) );
+			if ( i % 5 == 0 )
+				filters.add( new FeatureFilter( Spot.FRAME, ran.nextInt( 2 * N_FRAMES ), true ) );
+			if ( i % 11 == 0 )
+				filters.add( new FeatureFilter( "FOO", ran.nextInt( 10 ), ran.nextBoolean() ) );
+			sc.filter( filters );
+
+			int expectedTotal = 0;
+			for ( final Integer frame : frames )
+			{
+				int expected = 0;
+				for ( final Spot spot : sc.iterable( frame, false ) )
+				{
+					boolean visible = true;
+					for ( final FeatureFilter filter : filters )
+					{
+						final Double val = spot.getFeature( filter.feature );
+						if ( null == val || ( filter.isAbove ? val.compareTo( filter.value ) < 0 : val.compareTo( filter.value ) > 0 ) )
+							visible = false;
+					}
+					assertEquals( visible, spot.getFeature( SpotCollection.VISIBILITY ).doubleValue() > 0 );
+					if ( visible )
+						expected++;
+				}
+				assertEquals( expected, sc.getNSpots( frame, true ) );
+				expectedTotal += expected;
+			}
+			assertEquals( expectedTotal, sc.getNSpots( true ) );
+		}
+	}
+
+	@Test
+	public void testVisibilityChangedDirectly()
+	{
+		final int targetFrame = frames.get( 0 );
+		sc.filter( Arrays.asList( new FeatureFilter( Spot.QUALITY, 2d, false ) ) );
+		assertEquals( 3, sc.getNSpots( targetFrame, true ) );
+		assertEquals( 3 * N_FRAMES, sc.getNSpots( true ) );
+
+		// Changing the visibility of a spot directly must be reflected once
+		// signaled.
+		final Spot spot = sc.iterable( targetFrame, true ).iterator().next();
+		spot.putFeature( SpotCollection.VISIBILITY, SpotCollection.ZERO );
+		sc.visibilityChanged();
+		assertEquals( 2, sc.getNSpots( targetFrame, true ) );
+		assertEquals( 3 * N_FRAMES - 1, sc.getNSpots( true ) );
+		for ( final Spot s : sc.iterable( targetFrame, true ) )
+			assertTrue( s != spot );
+
+		sc.setVisible( true );
+		assertEquals( N_SPOTS, sc.getNSpots( targetFrame, true ) );
+	}
+
+	@Test
+	public void testVisibilityChangedWithoutSignal()
+	{
+		final int targetFrame = frames.get( 0 );
+		sc.filter( Arrays.asList( new FeatureFilter( Spot.QUALITY, 2d, false ) ) );
+		assertEquals( 3, sc.getNSpots( targetFrame, true ) );
+
+		// Writes made with putFeature are detected, even if not signaled.
+		final Spot spot = sc.iterable( targetFrame, true ).iterator().next();
+		spot.putFeature( SpotCollection.VISIBILITY, SpotCollection.ZERO );
+		assertEquals( 2, sc.getNSpots( targetFrame, true ) );
+		assertEquals( 3 * N_FRAMES - 1, sc.getNSpots( true ) );
+
+		// Also when there is no filter index.
+		sc.setVisible( false );
+		assertEquals( 0, sc.getNSpots( targetFrame, true ) );
+		spot.putFeature( SpotCollection.VISIBILITY, SpotCollection.ONE );
+		assertEquals( 1, sc.getNSpots( targetFrame, true ) );
+		assertTrue( sc.iterable( targetFrame, true ).iterator().next() == spot );
+	}
+
+	@Test
+	public void testRemoveManyFromFrame()
+	{
+		final int targetFrame = frames.get( 0 );
+		sc.setVisible( true );
+		assertEquals( N_SPOTS, sc.getNSpots( targetFrame, true ) );
+
+		final List< Spot > toRemove = new ArrayList<>();
+		for ( final Spot spot : sc.iterable( targetFrame, false ) )
+			toRemove.add( spot );
+		final Spot kept = toRemove.remove( toRemove.size() / 2 );
+		int expected = N_SPOTS;
+		for ( final Spot spot : toRemove )
+		{
+			assertTrue( sc.remove( spot, targetFrame ) );
+			assertFalse( sc.remove( spot, targetFrame ) );
+			assertEquals( --expected, sc.getNSpots( targetFrame, true ) );
+		}
+		assertTrue( sc.iterable( targetFrame, true ).iterator().next() == kept );
+	}
+
+	@Test
+	public void testAddRemoveAfterFilter()
+	{
+		final int targetFrame = frames.get( 0 );
+		sc.filter( Arrays.asList( new FeatureFilter( Spot.QUALITY, 2d, false ) ) );
+		assertEquals( 3, sc.getNSpots( targetFrame, true ) );
+		assertEquals( 3 * N_FRAMES, sc.getNSpots( true ) );
+
+		// Adding to a collection does not affect the others.
+		final SpotCollection other = new SpotCollection();
+		other.add( new Spot( 0., 0., 0., 1., 1. ), 0 );
+		assertEquals( 3, sc.getNSpots( targetFrame, true ) );
+
+		// Added spots are visible.
+		final Spot added = new Spot( 0., 0., 0., 1., 100. );
+		sc.add( added, targetFrame );
+		assertEquals( 4, sc.getNSpots( targetFrame, true ) );
+		assertEquals( 3 * N_FRAMES + 1, sc.getNSpots( true ) );
+
+		// Removing visible and invisible spots.
+		final Spot visible = sc.iterable( targetFrame, true ).iterator().next();
+		Spot invisible = null;
+		for ( final Spot spot : sc.iterable( targetFrame, false ) )
+			if ( spot.getFeature( SpotCollection.VISIBILITY ).doubleValue() == 0. )
+				invisible = spot;
+		assertTrue( sc.remove( visible, targetFrame ) );
+		assertTrue( sc.remove( invisible, targetFrame ) );
+		assertEquals( 3, sc.getNSpots( targetFrame, true ) );
+		assertEquals( N_SPOTS - 1, sc.getNSpots( targetFrame, false ) );
+		assertEquals( 3 * N_FRAMES, sc.getNSpots( true ) );
+
+		int n = 0;
+		for ( final Spot spot : sc.iterable( targetFrame, true ) )
+		{
+			assertTrue( spot != visible );
+			assertEquals( 1., spot.getFeature( SpotCollection.VISIBILITY ), 0. );
+			n++;
+		}
+		assertEquals( 3, n );
+	}
+
 	@Test
 	public void testGetClosestSpot()
 	{
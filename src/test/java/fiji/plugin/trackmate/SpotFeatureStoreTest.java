@@ -0,0 +1,146 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class SpotFeatureStoreTest
+{
+
+	@Test
+	public void testAttach()
+	{
+		final Spot spot = new Spot( 1., 2., 3., 4., 5. );
+		spot.putFeature( "FOO", 6. );
+
+		final SpotFeatureStore store = new SpotFeatureStore();
+		spot.attachTo( store );
+		assertSame( store, spot.getFeatureStore() );
+		assertEquals( 1, store.size() );
+
+		assertEquals( 1., spot.getDoublePosition( 0 ), 0. );
+		assertEquals( 2., spot.getDoublePosition( 1 ), 0. );
+		assertEquals( 3., spot.getDoublePosition( 2 ), 0. );
+		assertEquals( 4., spot.getFeature( Spot.RADIUS ), 0. );
+		assertEquals( 5., spot.getFeature( Spot.QUALITY ), 0. );
+		assertEquals( 6., spot.getFeature( "FOO" ), 0. );
+		assertNull( spot.getFeature( "BAR" ) );
+
+		spot.putFeature( "BAR", 7. );
+		assertEquals( 7., spot.getFeature( "BAR" ), 0. );
+		assertEquals( 7., store.get( spot.getFeatureStoreIndex(), "BAR" ), 0. );
+	}
+
+	@Test
+	public void testMapView()
+	{
+		final Spot spot = new Spot( 1., 2., 3., 4., 5. );
+		final SpotFeatureStore store = new SpotFeatureStore();
+		spot.attachTo( store );
+
+		final Map< String, Double > features = spot.getFeatures();
+		assertEquals( 5, features.size() );
+		assertTrue( features.containsKey( Spot.POSITION_X ) );
+
+		features.remove( Spot.QUALITY );
+		assertNull( spot.getFeature( Spot.QUALITY ) );
+		assertFalse( features.containsKey( Spot.QUALITY ) );
+		assertEquals( 4, features.size() );
+
+		features.put( "FOO", 8. );
+		assertEquals( 8., spot.getFeature( "FOO" ), 0. );
+	}
+
+	@Test
+	public void testNaN()
+	{
+		final Spot spot = new Spot( 1., 2., 3., 4., 5. );
+		final SpotFeatureStore store = new SpotFeatureStore();
+		spot.attachTo( store );
+
+		spot.putFeature( "FOO", Double.NaN );
+		assertNotNull( spot.getFeature( "FOO" ) );
+		assertTrue( Double.isNaN( spot.getFeature( "FOO" ).doubleValue() ) );
+		assertTrue( spot.getFeatures().containsKey( "FOO" ) );
+		assertTrue( Double.isNaN( store.getValues( "FOO" )[ spot.getFeatureStoreIndex() ] ) );
+	}
+
+	@Test
+	public void testRemovalReleasesIndex()
+	{
+		final SpotFeatureStore store = new SpotFeatureStore();
+		final SpotCollection sc = new SpotCollection();
+		sc.setFeatureStore( store );
+		final Spot s1 = new Spot( 1., 0., 0., 1., 1. );
+		final Spot s2 = new Spot( 2., 0., 0., 1., 2. );
+		sc.add( s1, 0 );
+		sc.add( s2, 0 );
+		s1.putFeature( "FOO", 6. );
+		final int index = s1.getFeatureStoreIndex();
+
+		assertTrue( sc.remove( s1, 0 ) );
+		assertNull( s1.getFeatureStore() );
+		assertEquals( -1, s1.getFeatureStoreIndex() );
+		// The removed spot keeps its values.
+		assertEquals( 6., s1.getFeature( "FOO" ), 0. );
+		assertEquals( 1., s1.getFeature( Spot.QUALITY ), 0. );
+
+		// The index is reused, without the values of the removed spot.
+		final Spot s3 = new Spot( 3., 0., 0., 1., 3. );
+		sc.add( s3, 1 );
+		assertEquals( index, s3.getFeatureStoreIndex() );
+		assertEquals( 2, store.size() );
+		assertNull( s3.getFeature( "FOO" ) );
+		assertEquals( 3., s3.getFeature( Spot.QUALITY ), 0. );
+		assertEquals( 2., s2.getFeature( Spot.QUALITY ), 0. );
+	}
+
+	@Test
+	public void testCollectionValues()
+	{
+		final SpotFeatureStore store = new SpotFeatureStore();
+		final SpotCollection sc = new SpotCollection();
+		sc.setFeatureStore( store );
+		final int nSpots = 10000;
+		for ( int i = 0; i < nSpots; i++ )
+			sc.add( new Spot( i, 0., 0., 1., i ), i % 10 );
+
+		assertEquals( nSpots, store.size() );
+		final double[] qualities = store.getValues( Spot.QUALITY );
+		assertEquals( nSpots, qualities.length );
+		for ( final Spot spot : sc.iterable( false ) )
+		{
+			assertSame( store, spot.getFeatureStore() );
+			assertEquals( spot.getFeature( Spot.QUALITY ), qualities[ spot.getFeatureStoreIndex() ], 0. );
+		}
+		assertEquals( nSpots, sc.getNSpots( true ) );
+	}
+}
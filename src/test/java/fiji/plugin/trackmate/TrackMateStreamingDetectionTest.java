@@ -0,0 +1,162 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.detection.DetectorKeys;
+import fiji.plugin.trackmate.detection.LogDetectorFactory;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.NewImage;
+import ij.process.ImageProcessor;
+
+public class TrackMateStreamingDetectionTest
+{
+
+	private static final int WIDTH = 64;
+
+	private static final int HEIGHT = 64;
+
+	private static final int N_FRAMES = 6;
+
+	private static final int N_BLOBS = 5;
+
+	private static final double RADIUS = 2.5;
+
+	/**
+	 * Blobs of increasing brightness, so that the initial filtering keeps
+	 * some of them only.
+	 */
+	private static ImagePlus createImage()
+	{
+		final ImagePlus imp = NewImage.createShortImage( "Blobs", WIDTH, HEIGHT, N_FRAMES, NewImage.FILL_BLACK );
+		imp.setDimensions( 1, 1, N_FRAMES );
+		final ImageStack stack = imp.getStack();
+		final double sigma = RADIUS / Math.sqrt( 2. );
+		for ( int t = 0; t < N_FRAMES; t++ )
+		{
+			final ImageProcessor ip = stack.getProcessor( t + 1 );
+			for ( int b = 0; b < N_BLOBS; b++ )
+			{
+				final double cx = 8 + 11 * b + 0.5 * t;
+				final double cy = 10 + 9 * b + ( t % 3 );
+				final double amplitude = 200. * ( b + 1 );
+				for ( int y = 0; y < HEIGHT; y++ )
+				{
+					for ( int x = 0; x < WIDTH; x++ )
+					{
+						final double dx = x - cx;
+						final double dy = y - cy;
+						final double val = amplitude * Math.exp( -( dx * dx + dy * dy ) / ( 2 * sigma * sigma ) );
+						ip.putPixelValue( x, y, ip.getPixelValue( x, y ) + val );
+					}
+				}
+			}
+		}
+		return imp;
+	}
+
+	private static TrackMate createTrackMate( final ImagePlus imp, final Double initialSpotFilterValue )
+	{
+		final Settings settings = new Settings( imp );
+		settings.detectorFactory = new LogDetectorFactory<>();
+		settings.detectorSettings = settings.detectorFactory.getDefaultSettings();
+		settings.detectorSettings.put( DetectorKeys.KEY_RADIUS, RADIUS );
+		settings.detectorSettings.put( DetectorKeys.KEY_THRESHOLD, 1. );
+		settings.detectorSettings.put( DetectorKeys.KEY_DO_MEDIAN_FILTERING, false );
+		settings.detectorSettings.put( DetectorKeys.KEY_DO_SUBPIXEL_LOCALIZATION, true );
+		settings.initialSpotFilterValue = initialSpotFilterValue;
+		settings.addAllAnalyzers();
+
+		final TrackMate trackmate = new TrackMate( settings );
+		trackmate.getModel().setLogger( Logger.VOID_LOGGER );
+		trackmate.setNumThreads( 2 );
+		return trackmate;
+	}
+
+	@Test
+	public void testMatchesSequential()
+	{
+		final ImagePlus imp = createImage();
+
+		// Pick an initial filter value that discards some spots.
+		final TrackMate detectionOnly = createTrackMate( imp, null );
+		assertTrue( detectionOnly.execDetection() );
+		final List< Double > qualities = new ArrayList<>();
+		for ( final Spot spot : detectionOnly.getModel().getSpots().iterable( false ) )
+			qualities.add( spot.getFeature( Spot.QUALITY ) );
+		qualities.sort( Comparator.naturalOrder() );
+		assertTrue( qualities.size() >= N_BLOBS * N_FRAMES );
+		final Double threshold = qualities.get( qualities.size() / 2 );
+
+		final TrackMate sequential = createTrackMate( imp, threshold );
+		assertTrue( sequential.execDetection() );
+		assertTrue( sequential.execInitialSpotFiltering() );
+		assertTrue( sequential.computeSpotFeatures( false ) );
+
+		final TrackMate streaming = createTrackMate( imp, threshold );
+		assertTrue( streaming.execStreamingDetection() );
+
+		final SpotCollection expected = sequential.getModel().getSpots();
+		final SpotCollection actual = streaming.getModel().getSpots();
+		assertTrue( expected.getNSpots( false ) < qualities.size() );
+		assertEquals( expected.getNSpots( false ), actual.getNSpots( false ) );
+		assertEquals( expected.getNSpots( true ), actual.getNSpots( true ) );
+		assertEquals( expected.getNSpots( false ), actual.getNSpots( true ) );
+
+		for ( int t = 0; t < N_FRAMES; t++ )
+		{
+			final List< Spot > expectedSpots = sorted( expected.iterable( t, false ) );
+			final List< Spot > actualSpots = sorted( actual.iterable( t, false ) );
+			assertEquals( "Frame " + t, expectedSpots.size(), actualSpots.size() );
+			for ( int i = 0; i < expectedSpots.size(); i++ )
+			{
+				final Map< String, Double > expectedFeatures = expectedSpots.get( i ).getFeatures();
+				final Map< String, Double > actualFeatures = actualSpots.get( i ).getFeatures();
+				assertEquals( "Frame " + t, expectedFeatures.keySet(), actualFeatures.keySet() );
+				for ( final String feature : expectedFeatures.keySet() )
+					assertEquals( "Frame " + t + ", " + feature,
+							expectedFeatures.get( feature ).doubleValue(),
+							actualFeatures.get( feature ).doubleValue(), 1e-9 );
+			}
+		}
+	}
+
+	private static List< Spot > sorted( final Iterable< Spot > spots )
+	{
+		final List< Spot > list = new ArrayList<>();
+		for ( final Spot spot : spots )
+			list.add( spot );
+		list.sort( Comparator.comparingDouble( ( final Spot s ) -> s.getDoublePosition( 0 ) )
+				.thenComparingDouble( s -> s.getDoublePosition( 1 ) ) );
+		return list;
+	}
+}
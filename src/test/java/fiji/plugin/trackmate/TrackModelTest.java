@@ -189,6 +189,77 @@ public class TrackModelTest
 		}
 	}
 
+	@Test
+	public void testRemovingInternalEdge()
+	{
+		// A track with a loop: removing an edge of the loop does not split it.
+		final TrackModel model = new TrackModel();
+		final Spot a = new Spot( 0d, 0d, 0d, 1d, -1d );
+		final Spot b = new Spot( 0d, 0d, 0d, 1d, -1d );
+		final Spot c = new Spot( 0d, 0d, 0d, 1d, -1d );
+		final Spot d = new Spot( 0d, 0d, 0d, 1d, -1d );
+		model.addSpot( a );
+		model.addSpot( b );
+		model.addSpot( c );
+		model.addSpot( d );
+		model.addEdge( a, b, 1 );
+		model.addEdge( b, c, 1 );
+		final DefaultWeightedEdge loop = model.addEdge( a, c, 1 );
+		final DefaultWeightedEdge tail = model.addEdge( c, d, 1 );
+		assertEquals( 1, model.nTracks( false ) );
+
+		model.removeEdge( loop );
+		assertEquals( 1, model.nTracks( false ) );
+		final Integer id = model.trackIDOf( a );
+		assertEquals( 4, model.trackSpots( id ).size() );
+		assertEquals( 3, model.trackEdges( id ).size() );
+
+		// Removing the tail leaves d alone, and the rest keeps its id.
+		model.removeEdge( tail );
+		assertEquals( 1, model.nTracks( false ) );
+		assertEquals( id, model.trackIDOf( a ) );
+		assertEquals( 3, model.trackSpots( id ).size() );
+		assertEquals( null, model.trackIDOf( d ) );
+	}
+
+	@Test
+	public void testSortedTrackIDs()
+	{
+		final TrackModel model = new TrackModel();
+		final List< Integer > ids = new ArrayList<>();
+		for ( int i = 0; i < 3; i++ )
+		{
+			final Spot source = new Spot( 0d, 0d, 0d, 1d, -1d );
+			final Spot target = new Spot( 0d, 0d, 0d, 1d, -1d );
+			model.addSpot( source );
+			model.addSpot( target );
+			model.addEdge( source, target, 1 );
+			ids.add( model.trackIDOf( source ) );
+		}
+		model.setName( ids.get( 0 ), "Track_c" );
+		model.setName( ids.get( 1 ), "Track_a" );
+		model.setName( ids.get( 2 ), "Track_b" );
+
+		final List< Integer > expected = new ArrayList<>();
+		expected.add( ids.get( 1 ) );
+		expected.add( ids.get( 2 ) );
+		expected.add( ids.get( 0 ) );
+		assertEquals( expected, new ArrayList<>( model.trackIDs( false ) ) );
+		assertTrue( model.trackIDs( false ) == model.trackIDs( false ) );
+
+		// Renaming changes the order.
+		model.setName( ids.get( 0 ), "Track_0" );
+		expected.remove( ids.get( 0 ) );
+		expected.add( 0, ids.get( 0 ) );
+		assertEquals( expected, new ArrayList<>( model.trackIDs( false ) ) );
+
+		// Hiding a track removes it from the visible view only.
+		model.setVisibility( ids.get( 2 ), false );
+		assertEquals( 3, model.trackIDs( false ).size() );
+		expected.remove( ids.get( 2 ) );
+		assertEquals( expected, new ArrayList<>( model.trackIDs( true ) ) );
+	}
+
 	@Test
 	public void testVisibility()
 	{
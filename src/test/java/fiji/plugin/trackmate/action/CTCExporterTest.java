@@ -0,0 +1,362 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.action;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.jgrapht.Graphs;
+import org.jgrapht.graph.DefaultEdge;
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleDirectedGraph;
+import org.jgrapht.traverse.BreadthFirstIterator;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackMate;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.action.CTCExporter.ExportType;
+import fiji.plugin.trackmate.action.LabelImgExporter.SpotRoiWriter;
+import fiji.plugin.trackmate.graph.ConvexBranchesDecomposition;
+import fiji.plugin.trackmate.graph.ConvexBranchesDecomposition.TrackBranchDecomposition;
+import fiji.plugin.trackmate.graph.TimeDirectedNeighborIndex;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.NewImage;
+import ij.process.ImageProcessor;
+import net.imagej.ImgPlus;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+public class CTCExporterTest
+{
+
+	private static final int WIDTH = 64;
+
+	private static final int HEIGHT = 64;
+
+	private static final int N_FRAMES = 6;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Builds a model with three tracks:
+	 * <ul>
+	 * <li>a track that divides in frame 2, with a one-frame gap in one of the
+	 * daughter branches;
+	 * <li>a large static spot;
+	 * <li>a small track whose spot in frame 1 lies entirely within the large
+	 * spot, and is erased by the export.
+	 * </ul>
+	 *
+	 * @param sanitized
+	 *            if <code>true</code>, the erased spot is left out and its
+	 *            neighbors are linked directly, as the export is expected to
+	 *            do.
+	 */
+	private static Model createModel( final boolean sanitized )
+	{
+		final Model model = new Model();
+
+		model.beginUpdate();
+		try
+		{
+			final Spot a0 = add( model, "a0", 10, 10, 2, 0 );
+			final Spot a1 = add( model, "a1", 10, 12, 2, 1 );
+			final Spot a2 = add( model, "a2", 10, 14, 2, 2 );
+			final Spot b3 = add( model, "b3", 5, 20, 2, 3 );
+			final Spot b5 = add( model, "b5", 5, 24, 2, 5 );
+			final Spot c3 = add( model, "c3", 15, 20, 2, 3 );
+			final Spot c4 = add( model, "c4", 15, 22, 2, 4 );
+			model.addEdge( a0, a1, 1. );
+			model.addEdge( a1, a2, 1. );
+			model.addEdge( a2, b3, 1. );
+			model.addEdge( a2, c3, 1. );
+			model.addEdge( b3, b5, 1. );
+			model.addEdge( c3, c4, 1. );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		model.beginUpdate();
+		try
+		{
+			Spot previous = null;
+			for ( int t = 0; t < 4; t++ )
+			{
+				final Spot d = add( model, "d" + t, 40, 40, 5, t );
+				if ( null != previous )
+					model.addEdge( previous, d, 1. );
+				previous = d;
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		model.beginUpdate();
+		try
+		{
+			final Spot e0 = add( model, "e0", 50, 50, 1, 0 );
+			final Spot e2 = add( model, "e2", 50, 50, 1, 2 );
+			if ( sanitized )
+			{
+				model.addEdge( e0, e2, 1. );
+			}
+			else
+			{
+				final Spot e1 = add( model, "e1", 41, 40, 1, 1 );
+				model.addEdge( e0, e1, 1. );
+				model.addEdge( e1, e2, 1. );
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		return model;
+	}
+
+	private static Spot add( final Model model, final String name, final double x, final double y, final double radius, final int frame )
+	{
+		final Spot spot = new Spot( x, y, 0., radius, 1., name );
+		model.addSpotTo( spot, frame );
+		return spot;
+	}
+
+	private static TrackMate createTrackMate( final Model model )
+	{
+		final ImagePlus imp = NewImage.createShortImage( "CTC", WIDTH, HEIGHT, N_FRAMES, NewImage.FILL_BLACK );
+		imp.setDimensions( 1, 1, N_FRAMES );
+		return new TrackMate( model, new Settings( imp ) );
+	}
+
+	@Test
+	public void testTrackingExport() throws IOException
+	{
+		final Model model = createModel( false );
+		final List< String > before = describe( model );
+
+		final String root = folder.getRoot().getAbsolutePath();
+		final ExportType exportType = ExportType.RESULTS;
+		final String resultsFolder = CTCExporter.exportTrackingData( root, 1, exportType, createTrackMate( model ), Logger.VOID_LOGGER );
+		assertNotNull( resultsFolder );
+
+		// The model is left untouched.
+		assertEquals( before, describe( model ) );
+
+		/*
+		 * Expected: the convex branch decomposition of the sanitized model,
+		 * without middle links nor gaps, iterated breadth-first.
+		 */
+		final Model expectedModel = createModel( true );
+		final List< int[] > expectedLines = new ArrayList<>();
+		final Map< String, Integer > expectedLabels = new HashMap<>();
+		final List< ImgPlus< UnsignedShortType > > expectedMasks = new ArrayList<>();
+		for ( int t = 0; t < N_FRAMES; t++ )
+			expectedMasks.add( createMask() );
+		baselineExport( expectedModel, expectedLines, expectedLabels, expectedMasks );
+
+		// Exported.
+		final List< int[] > lines = new ArrayList<>();
+		for ( final String line : Files.readAllLines( exportType.getTrackTextFilePath( root, 1 ) ) )
+		{
+			final String[] tokens = line.trim().split( " " );
+			assertEquals( 4, tokens.length );
+			final int[] values = new int[ 4 ];
+			for ( int i = 0; i < 4; i++ )
+				values[ i ] = Integer.parseInt( tokens[ i ] );
+			lines.add( values );
+		}
+		final List< ImageProcessor > masks = new ArrayList<>();
+		for ( int t = 0; t < N_FRAMES; t++ )
+		{
+			final Path path = exportType.getTrackTifFilePath( root, 1, t, N_FRAMES );
+			assertTrue( "Missing mask " + path, Files.exists( path ) );
+			masks.add( IJ.openImage( path.toString() ).getProcessor() );
+		}
+		final Map< String, Integer > labels = new HashMap<>();
+		for ( final Spot spot : model.getSpots().iterable( false ) )
+		{
+			if ( spot.getName().equals( "e1" ) )
+				continue;
+			final int frame = spot.getFeature( Spot.FRAME ).intValue();
+			final int label = masks.get( frame ).get( ( int ) spot.getDoublePosition( 0 ), ( int ) spot.getDoublePosition( 1 ) );
+			labels.put( spot.getName(), Integer.valueOf( label ) );
+		}
+		assertEquals( expectedLabels.keySet(), labels.keySet() );
+
+		// Labels are numbered in the order of the lines, parents first.
+		assertEquals( expectedLines.size(), lines.size() );
+		for ( int i = 0; i < lines.size(); i++ )
+		{
+			assertEquals( i + 1, lines.get( i )[ 0 ] );
+			assertTrue( lines.get( i )[ 3 ] < lines.get( i )[ 0 ] );
+		}
+
+		/*
+		 * Sibling branches may be numbered in a different order: compare the
+		 * branches through the spots they contain.
+		 */
+		assertEquals( branches( expectedLines, expectedLabels ), branches( lines, labels ) );
+
+		// Same masks, up to the numbering of the labels.
+		final Map< Integer, Integer > toExpected = new HashMap<>();
+		toExpected.put( Integer.valueOf( 0 ), Integer.valueOf( 0 ) );
+		for ( final String name : labels.keySet() )
+			toExpected.put( labels.get( name ), expectedLabels.get( name ) );
+		for ( int t = 0; t < N_FRAMES; t++ )
+		{
+			final RandomAccess< UnsignedShortType > ra = expectedMasks.get( t ).randomAccess();
+			for ( int y = 0; y < HEIGHT; y++ )
+			{
+				for ( int x = 0; x < WIDTH; x++ )
+				{
+					ra.setPosition( new long[] { x, y, 0 } );
+					final Integer actual = toExpected.get( Integer.valueOf( masks.get( t ).get( x, y ) ) );
+					assertNotNull( "Unknown label at " + x + ", " + y + " in frame " + t, actual );
+					assertEquals( "Pixel " + x + ", " + y + " in frame " + t, ra.get().get(), actual.intValue() );
+				}
+			}
+		}
+	}
+
+	/**
+	 * Describes the spots and links of a model, to check it is not modified.
+	 */
+	private static List< String > describe( final Model model )
+	{
+		final List< String > description = new ArrayList<>();
+		for ( final Spot spot : model.getSpots().iterable( false ) )
+			description.add( spot.getName() + " " + spot.getFeature( Spot.FRAME ) + " " + spot.getDoublePosition( 0 ) + " " + spot.getDoublePosition( 1 ) );
+		final TrackModel tm = model.getTrackModel();
+		for ( final DefaultWeightedEdge edge : tm.edgeSet() )
+			description.add( tm.getEdgeSource( edge ).getName() + " -> " + tm.getEdgeTarget( edge ).getName() );
+		Collections.sort( description );
+		return description;
+	}
+
+	/**
+	 * Describes each line as the spots of the branch, its first and last
+	 * frames and the spots of its parent branch.
+	 */
+	private static Set< String > branches( final List< int[] > lines, final Map< String, Integer > labels )
+	{
+		final Map< Integer, Set< String > > spotsPerLabel = new HashMap<>();
+		for ( final String name : labels.keySet() )
+			spotsPerLabel.computeIfAbsent( labels.get( name ), k -> new TreeSet<>() ).add( name );
+
+		final Set< String > branches = new HashSet<>();
+		for ( final int[] line : lines )
+		{
+			final Set< String > parent = ( line[ 3 ] == 0 )
+					? Collections.emptySet()
+					: spotsPerLabel.get( Integer.valueOf( line[ 3 ] ) );
+			branches.add( spotsPerLabel.get( Integer.valueOf( line[ 0 ] ) ) + " " + line[ 1 ] + " " + line[ 2 ] + " <- " + parent );
+		}
+		return branches;
+	}
+
+	private static ImgPlus< UnsignedShortType > createMask()
+	{
+		return new ImgPlus<>( ArrayImgs.unsignedShorts( WIDTH, HEIGHT, 1 ), "Mask", new AxisType[] { Axes.X, Axes.Y, Axes.Z } );
+	}
+
+	/**
+	 * The tracking export as it was done before, with the convex branch
+	 * decomposition of each track.
+	 */
+	private static void baselineExport( final Model model, final List< int[] > lines, final Map< String, Integer > labels, final List< ImgPlus< UnsignedShortType > > masks )
+	{
+		final TrackModel trackModel = model.getTrackModel();
+		final TimeDirectedNeighborIndex neighborIndex = trackModel.getDirectedNeighborIndex();
+		final Map< List< Spot >, Integer > branchID = new HashMap<>();
+		int nextID = 1;
+		for ( final Integer trackID : trackModel.trackIDs( true ) )
+		{
+			final TrackBranchDecomposition decomposition = ConvexBranchesDecomposition.processTrack( trackID, trackModel, neighborIndex, true, true );
+			final SimpleDirectedGraph< List< Spot >, DefaultEdge > branchGraph = ConvexBranchesDecomposition.buildBranchGraph( decomposition );
+
+			List< Spot > start = null;
+			for ( final List< Spot > vertex : branchGraph.vertexSet() )
+			{
+				if ( branchGraph.incomingEdgesOf( vertex ).isEmpty() )
+				{
+					start = vertex;
+					break;
+				}
+			}
+
+			final BreadthFirstIterator< List< Spot >, DefaultEdge > bfi = new BreadthFirstIterator<>( branchGraph, start );
+			while ( bfi.hasNext() )
+			{
+				final List< Spot > current = bfi.next();
+				final int currentID = nextID++;
+				branchID.put( current, Integer.valueOf( currentID ) );
+
+				for ( final Spot spot : current )
+				{
+					labels.put( spot.getName(), Integer.valueOf( currentID ) );
+					final int frame = spot.getFeature( Spot.FRAME ).intValue();
+					new SpotRoiWriter( masks.get( frame ) ).write( spot, currentID );
+				}
+
+				int parentID = 0;
+				if ( !branchGraph.incomingEdgesOf( current ).isEmpty() )
+				{
+					final DefaultEdge edge = branchGraph.incomingEdgesOf( current ).iterator().next();
+					final List< Spot > parent = Graphs.getOppositeVertex( branchGraph, edge, current );
+					parentID = branchID.get( parent ).intValue();
+				}
+
+				final int startFrame = current.get( 0 ).getFeature( Spot.FRAME ).intValue();
+				final int endFrame = current.get( current.size() - 1 ).getFeature( Spot.FRAME ).intValue();
+				lines.add( new int[] { currentID, startFrame, endFrame, parentID } );
+			}
+		}
+	}
+}
@@ -0,0 +1,252 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.action.closegaps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackMate;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.detection.DetectorKeys;
+import fiji.plugin.trackmate.detection.LogDetectorFactory;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.NewImage;
+import ij.process.ImageProcessor;
+
+public class CloseGapsByDetectionTest
+{
+
+	private static final int WIDTH = 64;
+
+	private static final int HEIGHT = 64;
+
+	private static final int N_FRAMES = 8;
+
+	private static final double RADIUS = 2.5;
+
+	private static final double RADIUS_FACTOR = 2.;
+
+	/**
+	 * Position of the blob of track A in each frame. It moves linearly.
+	 */
+	private static double[] posA( final int t )
+	{
+		return new double[] { 10 + 2 * t, 20 };
+	}
+
+	/**
+	 * Position of the blob of track B in each frame. It does not move
+	 * linearly, so detected positions differ from interpolated ones, and it
+	 * is missing from frame 3.
+	 */
+	private static double[] posB( final int t )
+	{
+		if ( t == 3 )
+			return null;
+		return new double[] { 45 + ( t % 2 ), 8 + 3 * t };
+	}
+
+	private static ImagePlus createImage()
+	{
+		final ImagePlus imp = NewImage.createShortImage( "Blobs", WIDTH, HEIGHT, N_FRAMES, NewImage.FILL_BLACK );
+		imp.setDimensions( 1, 1, N_FRAMES );
+		final ImageStack stack = imp.getStack();
+		for ( int t = 0; t < N_FRAMES; t++ )
+		{
+			final ImageProcessor ip = stack.getProcessor( t + 1 );
+			drawBlob( ip, posA( t ) );
+			drawBlob( ip, posB( t ) );
+		}
+		return imp;
+	}
+
+	private static void drawBlob( final ImageProcessor ip, final double[] pos )
+	{
+		if ( null == pos )
+			return;
+		final double sigma = RADIUS / Math.sqrt( 2. );
+		for ( int y = 0; y < HEIGHT; y++ )
+		{
+			for ( int x = 0; x < WIDTH; x++ )
+			{
+				final double dx = x - pos[ 0 ];
+				final double dy = y - pos[ 1 ];
+				final double val = 1000. * Math.exp( -( dx * dx + dy * dy ) / ( 2 * sigma * sigma ) );
+				ip.putPixelValue( x, y, ip.getPixelValue( x, y ) + val );
+			}
+		}
+	}
+
+	/**
+	 * Builds a model with the blobs of the image in some frames only, linked
+	 * over the gaps.
+	 */
+	private static TrackMate createTrackMate( final int numThreads )
+	{
+		final Settings settings = new Settings( createImage() );
+		settings.detectorFactory = new LogDetectorFactory<>();
+		settings.detectorSettings = settings.detectorFactory.getDefaultSettings();
+		settings.detectorSettings.put( DetectorKeys.KEY_RADIUS, RADIUS );
+		settings.detectorSettings.put( DetectorKeys.KEY_THRESHOLD, 10. );
+		settings.detectorSettings.put( DetectorKeys.KEY_DO_MEDIAN_FILTERING, false );
+		settings.detectorSettings.put( DetectorKeys.KEY_DO_SUBPIXEL_LOCALIZATION, true );
+
+		final Model model = new Model();
+		model.beginUpdate();
+		try
+		{
+			addTrack( model, new int[] { 0, 1, 5, 7 }, true );
+			addTrack( model, new int[] { 0, 6 }, false );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		final TrackMate trackmate = new TrackMate( model, settings );
+		trackmate.setNumThreads( numThreads );
+		return trackmate;
+	}
+
+	private static void addTrack( final Model model, final int[] frames, final boolean a )
+	{
+		Spot previous = null;
+		for ( final int t : frames )
+		{
+			final double[] pos = a ? posA( t ) : posB( t );
+			final Spot spot = new Spot( pos[ 0 ], pos[ 1 ], 0., RADIUS, 100. );
+			model.addSpotTo( spot, t );
+			if ( null != previous )
+				model.addEdge( previous, spot, 1. );
+			previous = spot;
+		}
+	}
+
+	@Test
+	public void testMatchesSequential()
+	{
+		final TrackMate expected = createTrackMate( 1 );
+		closeGapsSequentially( expected, RADIUS_FACTOR );
+		final Set< String > expectedLinks = describe( expected.getModel() );
+		// Some gaps were closed, not all.
+		assertTrue( expected.getModel().getSpots().getNSpots( false ) > 6 );
+		assertTrue( expected.getModel().getSpots().getNSpots( false ) < 2 * N_FRAMES );
+
+		for ( final int numThreads : new int[] { 1, 4 } )
+		{
+			final TrackMate trackmate = createTrackMate( numThreads );
+			final CloseGapsByDetection gapCloser = new CloseGapsByDetection();
+			gapCloser.getParameters().get( 0 ).value = RADIUS_FACTOR;
+			gapCloser.execute( trackmate, Logger.VOID_LOGGER );
+			assertEquals( "With " + numThreads + " threads:", expectedLinks, describe( trackmate.getModel() ) );
+		}
+	}
+
+	/**
+	 * Returns the links of the model, as strings made of the frame and
+	 * position of their source and target.
+	 */
+	private static Set< String > describe( final Model model )
+	{
+		final TrackModel trackModel = model.getTrackModel();
+		final Set< String > links = new TreeSet<>();
+		for ( final DefaultWeightedEdge edge : trackModel.edgeSet() )
+			links.add( describe( trackModel.getEdgeSource( edge ) ) + " -> " + describe( trackModel.getEdgeTarget( edge ) ) );
+		return links;
+	}
+
+	private static String describe( final Spot spot )
+	{
+		return String.format( "t=%d (%.3f, %.3f)",
+				spot.getFeature( Spot.FRAME ).intValue(),
+				spot.getDoublePosition( 0 ),
+				spot.getDoublePosition( 1 ) );
+	}
+
+	/**
+	 * The original sequential algorithm: one gap at a time, and one full
+	 * TrackMate detection per interpolated spot.
+	 */
+	private static void closeGapsSequentially( final TrackMate trackmate, final double radiusFactor )
+	{
+		final Model model = trackmate.getModel();
+		final TrackModel trackModel = model.getTrackModel();
+		model.beginUpdate();
+		try
+		{
+			final ArrayDeque< DefaultWeightedEdge > gaps = new ArrayDeque<>( GapClosingMethod.getAllGaps( model ) );
+			while ( !gaps.isEmpty() )
+			{
+				final DefaultWeightedEdge gap = gaps.poll();
+				final List< Spot > spots = GapClosingMethod.interpolate( model, gap );
+				final Spot source = trackModel.getEdgeSource( gap );
+				for ( final Spot spot : spots )
+				{
+					final int t = spot.getFeature( Spot.FRAME ).intValue();
+					final Settings settings = GapClosingMethod.makeSettingsForRoiAround( spot, radiusFactor, trackmate.getSettings() );
+					final TrackMate localTM = new TrackMate( settings );
+					localTM.getModel().setLogger( Logger.VOID_LOGGER );
+					localTM.setNumThreads( trackmate.getNumThreads() );
+					if ( !localTM.execDetection() )
+						continue;
+
+					Spot candidate = null;
+					for ( final Spot s : localTM.getModel().getSpots().iterable( t, false ) )
+					{
+						if ( candidate == null || s.diffTo( candidate, Spot.QUALITY ) > 0 )
+							candidate = s;
+					}
+					if ( candidate == null )
+						continue;
+
+					model.addSpotTo( candidate, t );
+					final DefaultWeightedEdge sourceCandidateEdge = model.addEdge( source, candidate, 1.0 );
+					final Spot target = trackModel.getEdgeTarget( gap );
+					final DefaultWeightedEdge candidateTargetEdge = model.addEdge( candidate, target, 1.0 );
+					model.removeEdge( gap );
+
+					if ( GapClosingMethod.countMissingSpots( sourceCandidateEdge, model ) > 1 )
+						gaps.push( sourceCandidateEdge );
+					if ( GapClosingMethod.countMissingSpots( candidateTargetEdge, model ) > 1 )
+						gaps.push( candidateTargetEdge );
+					break;
+				}
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+	}
+}
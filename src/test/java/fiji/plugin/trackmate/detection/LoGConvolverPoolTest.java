@@ -0,0 +1,154 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.detection;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.util.Threads;
+import net.imglib2.algorithm.fft2.FFTConvolution;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypes.FloatArray;
+import net.imglib2.type.numeric.real.FloatType;
+
+public class LoGConvolverPoolTest
+{
+
+	private static final long[] DIMS = new long[] { 57, 43 };
+
+	private static final double RADIUS = 3.;
+
+	private static final double[] CALIBRATION = new double[] { 0.5, 0.5, 1. };
+
+	@Test
+	public void testPooledMatchesFresh()
+	{
+		final Random ran = new Random( 1l );
+		final LoGConvolverPool pool = new LoGConvolverPool( ArrayImgs.floats( DIMS ), RADIUS, CALIBRATION );
+		FFTConvolution< FloatType > previous = null;
+		for ( int frame = 0; frame < 5; frame++ )
+		{
+			final float[] data = randomData( ran );
+
+			// Fresh convolver for this frame only.
+			final LoGConvolverPool freshPool = new LoGConvolverPool( ArrayImgs.floats( DIMS ), RADIUS, CALIBRATION );
+			final float[] expected = convolve( freshPool, data, null );
+
+			// Pooled convolver, reused from frame to frame.
+			final ConvolverHolder holder = new ConvolverHolder();
+			final float[] actual = convolve( pool, data, holder );
+			if ( null != previous )
+				assertSame( "The convolver should have been reused.", previous, holder.convolver );
+			previous = holder.convolver;
+
+			assertArrayEquals( "Frame " + frame + ":", expected, actual, 0f );
+		}
+	}
+
+	@Test
+	public void testConcurrentAcquire()
+	{
+		final Random ran = new Random( 2l );
+		final LoGConvolverPool pool = new LoGConvolverPool( ArrayImgs.floats( DIMS ), RADIUS, CALIBRATION );
+		// Warm the pool up.
+		convolve( pool, randomData( ran ), null );
+
+		final float[] data1 = randomData( ran );
+		final float[] data2 = randomData( ran );
+		final ArrayImg< FloatType, FloatArray > img1 = ArrayImgs.floats( data1.clone(), DIMS );
+		final ArrayImg< FloatType, FloatArray > img2 = ArrayImgs.floats( data2.clone(), DIMS );
+
+		// Two convolvers borrowed at once: one pooled, one new.
+		final FFTConvolution< FloatType > conv1 = pool.acquire( img1 );
+		final FFTConvolution< FloatType > conv2 = pool.acquire( img2 );
+		final ExecutorService service = Threads.newFixedThreadPool( 1 );
+		try
+		{
+			conv2.setExecutorService( service );
+			conv2.convolve();
+			conv1.setExecutorService( service );
+			conv1.convolve();
+		}
+		finally
+		{
+			service.shutdown();
+			pool.release( conv1 );
+			pool.release( conv2 );
+		}
+
+		final LoGConvolverPool freshPool = new LoGConvolverPool( ArrayImgs.floats( DIMS ), RADIUS, CALIBRATION );
+		assertArrayEquals( convolve( freshPool, data1, null ), img1.update( null ).getCurrentStorageArray(), 0f );
+		assertArrayEquals( convolve( freshPool, data2, null ), img2.update( null ).getCurrentStorageArray(), 0f );
+	}
+
+	private static float[] convolve( final LoGConvolverPool pool, final float[] data, final ConvolverHolder holder )
+	{
+		final ArrayImg< FloatType, FloatArray > img = ArrayImgs.floats( data.clone(), DIMS );
+		final FFTConvolution< FloatType > convolver = pool.acquire( img );
+		if ( null != holder )
+			holder.convolver = convolver;
+		final ExecutorService service = Threads.newFixedThreadPool( 1 );
+		try
+		{
+			convolver.setExecutorService( service );
+			convolver.convolve();
+		}
+		finally
+		{
+			service.shutdown();
+			pool.release( convolver );
+		}
+		return img.update( null ).getCurrentStorageArray();
+	}
+
+	/**
+	 * Random noise with a few bright blobs.
+	 */
+	private static float[] randomData( final Random ran )
+	{
+		final int width = ( int ) DIMS[ 0 ];
+		final int height = ( int ) DIMS[ 1 ];
+		final float[] data = new float[ width * height ];
+		for ( int i = 0; i < data.length; i++ )
+			data[ i ] = 10f * ran.nextFloat();
+		for ( int b = 0; b < 4; b++ )
+		{
+			final double xc = width * ran.nextDouble();
+			final double yc = height * ran.nextDouble();
+			for ( int y = 0; y < height; y++ )
+				for ( int x = 0; x < width; x++ )
+					data[ y * width + x ] += ( float ) ( 100. * Math.exp( -( ( x - xc ) * ( x - xc ) + ( y - yc ) * ( y - yc ) ) / 8. ) );
+		}
+		return data;
+	}
+
+	private static final class ConvolverHolder
+	{
+		private FFTConvolution< FloatType > convolver;
+	}
+}
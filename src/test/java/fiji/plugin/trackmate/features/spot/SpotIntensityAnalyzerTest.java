@@ -23,6 +23,11 @@ package fiji.plugin.trackmate.features.spot;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -89,6 +94,47 @@ public class SpotIntensityAnalyzerTest
 		assertEquals( TEST_VAL, spot.getFeature( SpotIntensityMultiCAnalyzerFactory.MIN_INTENSITY + '1' ).doubleValue(), 1e-10 );
 	}
 
+	@Test
+	public void testSelect()
+	{
+		final Random ran = new Random( 1l );
+		for ( int t = 0; t < 100; t++ )
+		{
+			final int n = 1 + ran.nextInt( 200 );
+			final double[] values = new double[ n + 10 ];
+			for ( int i = 0; i < values.length; i++ )
+				values[ i ] = ran.nextInt( 20 );
+
+			final double[] sorted = Arrays.copyOf( values, n );
+			Arrays.sort( sorted );
+			final int k = ran.nextInt( n );
+			assertEquals( sorted[ k ], SpotIntensityMultiCAnalyzer.select( values, n, k ), 0. );
+		}
+	}
+
+	@Test
+	public void testFusedAnalyzers()
+	{
+		final Spot other = new Spot( spot );
+		final SpotIntensityMultiCAnalyzer< UnsignedShortType > intensity = new SpotIntensityMultiCAnalyzer<>( img2D, 0 );
+		final SpotContrastAndSNRAnalyzer< UnsignedShortType > contrast = new SpotContrastAndSNRAnalyzer<>( img2D, 0 );
+		intensity.process( spot );
+		contrast.process( spot );
+
+		final List< SpotAnalyzer< ? > > fused = FusedSpotAnalyzer.fuse( Arrays.< SpotAnalyzer< ? > >asList( intensity, contrast ) );
+		assertEquals( 1, fused.size() );
+		final FusedSpotAnalyzer analyzer = ( FusedSpotAnalyzer ) fused.get( 0 );
+		analyzer.setNumThreads( 1 );
+		analyzer.process( Collections.singletonList( other ) );
+
+		for ( final String feature : new String[] {
+				SpotIntensityMultiCAnalyzerFactory.MEAN_INTENSITY + '1',
+				SpotIntensityMultiCAnalyzerFactory.STD_INTENSITY + '1',
+				SpotContrastAndSNRAnalyzerFactory.CONTRAST + '1',
+				SpotContrastAndSNRAnalyzerFactory.SNR + '1' } )
+			assertEquals( spot.getFeature( feature ), other.getFeature( feature ) );
+	}
+
 	/**
 	 * Interactive test.
 	 */
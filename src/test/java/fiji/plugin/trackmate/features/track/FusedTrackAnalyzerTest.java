@@ -0,0 +1,448 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.features.track;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.util.TMUtils;
+import net.imglib2.util.Util;
+
+public class FusedTrackAnalyzerTest
+{
+
+	private static Model createModel()
+	{
+		final Random ran = new Random( 1l );
+		final Model model = new Model();
+		model.beginUpdate();
+		try
+		{
+			for ( int i = 0; i < 20; i++ )
+			{
+				Spot previous = null;
+				Spot branch = null;
+				final int depth = 4 + ran.nextInt( 30 );
+				for ( int t = 0; t < depth; t++ )
+				{
+					// Leave some gaps.
+					if ( t > 0 && t < depth - 1 && ran.nextInt( 5 ) == 0 )
+						continue;
+					final Spot spot = createSpot( ran, t );
+					model.addSpotTo( spot, t );
+					if ( null != previous )
+						model.addEdge( previous, spot, 1. );
+					if ( null == branch && t >= depth / 2 && t < depth - 2 )
+						branch = spot;
+					previous = spot;
+				}
+				if ( null == branch )
+					continue;
+
+				final int t = branch.getFeature( Spot.FRAME ).intValue();
+				// Split some tracks.
+				if ( ran.nextBoolean() )
+				{
+					final Spot spot = createSpot( ran, t + 1 );
+					model.addSpotTo( spot, t + 1 );
+					model.addEdge( branch, spot, 1. );
+				}
+				// Merge into some tracks.
+				if ( ran.nextBoolean() )
+				{
+					final Spot spot = createSpot( ran, t - 1 );
+					model.addSpotTo( spot, t - 1 );
+					model.addEdge( spot, branch, 1. );
+				}
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		return model;
+	}
+
+	private static Spot createSpot( final Random ran, final int t )
+	{
+		final Spot spot = new Spot( 100 * ran.nextDouble(), 100 * ran.nextDouble(), 10 * ran.nextDouble(), 1., ran.nextDouble() );
+		spot.putFeature( Spot.POSITION_T, Double.valueOf( t ) );
+		return spot;
+	}
+
+	private static List< TrackAnalyzer > createAnalyzers()
+	{
+		return Arrays.asList(
+				new TrackBranchingAnalyzer(),
+				new TrackDurationAnalyzer(),
+				new TrackSpeedStatisticsAnalyzer(),
+				new TrackLocationAnalyzer(),
+				new TrackSpotQualityFeatureAnalyzer(),
+				new TrackMotilityAnalyzer() );
+	}
+
+	private static Map< String, Double > collect( final Model model, final List< TrackAnalyzer > analyzers )
+	{
+		final Map< String, Double > values = new HashMap<>();
+		for ( final Integer trackID : model.getTrackModel().trackIDs( false ) )
+			for ( final TrackAnalyzer analyzer : analyzers )
+				for ( final String feature : analyzer.getFeatures() )
+					values.put( trackID + "-" + feature, model.getFeatureModel().getTrackFeature( trackID, feature ) );
+		return values;
+	}
+
+	private static void assertSameValues( final Map< String, Double > expected, final Map< String, Double > actual )
+	{
+		assertEquals( expected.keySet(), actual.keySet() );
+		for ( final String key : expected.keySet() )
+		{
+			final Double e = expected.get( key );
+			final Double a = actual.get( key );
+			assertNotNull( key, e );
+			assertNotNull( key, a );
+			assertEquals( key, e.doubleValue(), a.doubleValue(), 1e-9 );
+		}
+	}
+
+	@Test
+	public void testSeparateMatchesBaseline()
+	{
+		final Model model = createModel();
+		final Map< String, Double > expected = baseline( model );
+
+		final List< TrackAnalyzer > analyzers = createAnalyzers();
+		for ( final TrackAnalyzer analyzer : analyzers )
+			analyzer.process( model.getTrackModel().trackIDs( false ), model );
+		assertSameValues( expected, collect( model, analyzers ) );
+	}
+
+	@Test
+	public void testFusedMatchesBaseline()
+	{
+		final Model model = createModel();
+		final Map< String, Double > expected = baseline( model );
+
+		final List< TrackAnalyzer > analyzers = createAnalyzers();
+		final List< TrackAnalyzer > fused = FusedTrackAnalyzer.fuse( analyzers );
+		assertEquals( 1, fused.size() );
+		assertTrue( fused.get( 0 ) instanceof FusedTrackAnalyzer );
+		assertEquals( analyzers.size(), ( ( FusedTrackAnalyzer ) fused.get( 0 ) ).size() );
+
+		for ( final int numThreads : new int[] { 1, 4 } )
+		{
+			for ( final Integer trackID : model.getTrackModel().trackIDs( false ) )
+				for ( final TrackAnalyzer analyzer : analyzers )
+					for ( final String feature : analyzer.getFeatures() )
+						model.getFeatureModel().removeTrackFeature( trackID, feature );
+
+			fused.get( 0 ).setNumThreads( numThreads );
+			fused.get( 0 ).process( model.getTrackModel().trackIDs( false ), model );
+			assertNull( ( ( FusedTrackAnalyzer ) fused.get( 0 ) ).getErrorMessage() );
+			assertSameValues( expected, collect( model, analyzers ) );
+		}
+	}
+
+	@Test
+	public void testOverridingProcessIsNotFused()
+	{
+		final TrackAnalyzer custom = new TrackDurationAnalyzer()
+		{
+			@Override
+			public void process( final Collection< Integer > trackIDs, final Model model )
+			{
+				super.process( trackIDs, model );
+			}
+		};
+		final List< TrackAnalyzer > fused = FusedTrackAnalyzer.fuse( Arrays.asList(
+				new TrackBranchingAnalyzer(),
+				custom,
+				new TrackLocationAnalyzer() ) );
+		assertEquals( 3, fused.size() );
+		assertTrue( fused.get( 0 ) instanceof FusedTrackAnalyzer );
+		assertSame( custom, fused.get( 1 ) );
+		assertTrue( fused.get( 2 ) instanceof FusedTrackAnalyzer );
+	}
+
+	@Test
+	public void testErrorsAreReported()
+	{
+		final Model model = createModel();
+		final TrackAnalyzer failing = new TrackDurationAnalyzer()
+		{
+			@Override
+			protected void analyze( final TrackData track )
+			{
+				throw new IllegalStateException( "Failing on purpose." );
+			}
+		};
+		final List< TrackAnalyzer > fused = FusedTrackAnalyzer.fuse( Arrays.asList( failing, new TrackLocationAnalyzer() ) );
+		assertEquals( 1, fused.size() );
+		final FusedTrackAnalyzer analyzer = ( FusedTrackAnalyzer ) fused.get( 0 );
+		analyzer.process( model.getTrackModel().trackIDs( false ), model );
+		assertNotNull( analyzer.getErrorMessage() );
+		assertTrue( analyzer.getErrorMessage().contains( "Failing on purpose." ) );
+
+		// The other analyzer still ran.
+		for ( final Integer trackID : model.getTrackModel().trackIDs( false ) )
+			assertNotNull( model.getFeatureModel().getTrackFeature( trackID, TrackLocationAnalyzer.X_LOCATION ) );
+	}
+
+	@Test
+	public void testTrackData()
+	{
+		final Model model = createModel();
+		for ( final Integer trackID : model.getTrackModel().trackIDs( false ) )
+		{
+			final TrackData track = new TrackData( trackID, model );
+			assertEquals( model.getTrackModel().trackSpots( trackID ).size(), track.getNSpots() );
+			assertEquals( model.getTrackModel().trackEdges( trackID ).size(), track.getNEdges() );
+			for ( int i = 1; i < track.getNSpots(); i++ )
+				assertTrue( track.getSpot( i - 1 ).diffTo( track.getSpot( i ), Spot.FRAME ) <= 0 );
+			for ( int i = 0; i < track.getNEdges(); i++ )
+			{
+				assertEquals( model.getTrackModel().getEdgeSource( track.getEdge( i ) ), track.getEdgeSource( i ) );
+				assertEquals( model.getTrackModel().getEdgeTarget( track.getEdge( i ) ), track.getEdgeTarget( i ) );
+			}
+		}
+		assertFalse( model.getTrackModel().trackIDs( false ).isEmpty() );
+	}
+
+	/*
+	 * BASELINE. The track features computed directly from the track model,
+	 * as the analyzers did before they were fed from a TrackData view.
+	 */
+
+	private static Map< String, Double > baseline( final Model model )
+	{
+		final Map< String, Double > values = new HashMap<>();
+		final TrackModel tm = model.getTrackModel();
+		for ( final Integer trackID : tm.trackIDs( false ) )
+		{
+			final Map< String, Double > v = new HashMap<>();
+			baselineBranching( tm, trackID, v );
+			baselineDuration( tm, trackID, v );
+			baselineSpeed( tm, trackID, v );
+			baselineLocation( tm, trackID, v );
+			baselineQuality( tm, trackID, v );
+			baselineMotility( tm, trackID, v );
+			for ( final String feature : v.keySet() )
+				values.put( trackID + "-" + feature, v.get( feature ) );
+		}
+		return values;
+	}
+
+	private static void baselineBranching( final TrackModel tm, final Integer trackID, final Map< String, Double > v )
+	{
+		final Set< Spot > track = tm.trackSpots( trackID );
+
+		int nmerges = 0;
+		int nsplits = 0;
+		int ncomplex = 0;
+		for ( final Spot spot : track )
+		{
+			final Set< Spot > neighbors = new HashSet<>();
+			for ( final DefaultWeightedEdge edge : tm.edgesOf( spot ) )
+			{
+				neighbors.add( tm.getEdgeSource( edge ) );
+				neighbors.add( tm.getEdgeTarget( edge ) );
+			}
+			neighbors.remove( spot );
+
+			int earlier = 0;
+			int later = 0;
+			for ( final Spot neighbor : neighbors )
+			{
+				if ( spot.diffTo( neighbor, Spot.FRAME ) > 0 )
+					earlier++;
+				else
+					later++;
+			}
+
+			if ( earlier == 1 && later == 1 )
+				continue;
+
+			if ( earlier <= 1 && later > 1 )
+				nsplits++;
+			else if ( later <= 1 && earlier > 1 )
+				nmerges++;
+			else if ( later > 1 && earlier > 1 )
+				ncomplex++;
+		}
+
+		int ngaps = 0, longestgap = 0;
+		for ( final DefaultWeightedEdge edge : tm.trackEdges( trackID ) )
+		{
+			final Spot source = tm.getEdgeSource( edge );
+			final Spot target = tm.getEdgeTarget( edge );
+			final int gaplength = ( int ) Math.abs( target.diffTo( source, Spot.FRAME ) ) - 1;
+			if ( gaplength > 0 )
+			{
+				ngaps++;
+				if ( longestgap < gaplength )
+					longestgap = gaplength;
+			}
+		}
+
+		v.put( TrackBranchingAnalyzer.NUMBER_GAPS, Double.valueOf( ngaps ) );
+		v.put( TrackBranchingAnalyzer.LONGEST_GAP, Double.valueOf( longestgap ) );
+		v.put( TrackBranchingAnalyzer.NUMBER_SPLITS, Double.valueOf( nsplits ) );
+		v.put( TrackBranchingAnalyzer.NUMBER_MERGES, Double.valueOf( nmerges ) );
+		v.put( TrackBranchingAnalyzer.NUMBER_COMPLEX, Double.valueOf( ncomplex ) );
+		v.put( TrackBranchingAnalyzer.NUMBER_SPOTS, Double.valueOf( track.size() ) );
+	}
+
+	private static void baselineDuration( final TrackModel tm, final Integer trackID, final Map< String, Double > v )
+	{
+		double minT = Double.POSITIVE_INFINITY;
+		double maxT = Double.NEGATIVE_INFINITY;
+		Spot startSpot = null;
+		Spot endSpot = null;
+		for ( final Spot spot : tm.trackSpots( trackID ) )
+		{
+			final double t = spot.getFeature( Spot.POSITION_T );
+			if ( t < minT )
+			{
+				minT = t;
+				startSpot = spot;
+			}
+			if ( t > maxT )
+			{
+				maxT = t;
+				endSpot = spot;
+			}
+		}
+		v.put( TrackDurationAnalyzer.TRACK_DURATION, maxT - minT );
+		v.put( TrackDurationAnalyzer.TRACK_START, minT );
+		v.put( TrackDurationAnalyzer.TRACK_STOP, maxT );
+		v.put( TrackDurationAnalyzer.TRACK_DISPLACEMENT, Math.sqrt( startSpot.squareDistanceTo( endSpot ) ) );
+	}
+
+	private static void baselineSpeed( final TrackModel tm, final Integer trackID, final Map< String, Double > v )
+	{
+		final Set< DefaultWeightedEdge > track = tm.trackEdges( trackID );
+		final double[] speeds = new double[ track.size() ];
+		int n = 0;
+		for ( final DefaultWeightedEdge edge : track )
+		{
+			final Spot source = tm.getEdgeSource( edge );
+			final Spot target = tm.getEdgeTarget( edge );
+			final double d2 = source.squareDistanceTo( target );
+			final double dt = source.diffTo( target, Spot.POSITION_T );
+			speeds[ n++ ] = Math.sqrt( d2 ) / Math.abs( dt );
+		}
+
+		Util.quicksort( speeds, 0, track.size() - 1 );
+		v.put( TrackSpeedStatisticsAnalyzer.TRACK_MEDIAN_SPEED, speeds[ track.size() / 2 ] );
+		v.put( TrackSpeedStatisticsAnalyzer.TRACK_MIN_SPEED, speeds[ 0 ] );
+		v.put( TrackSpeedStatisticsAnalyzer.TRACK_MAX_SPEED, speeds[ track.size() - 1 ] );
+		v.put( TrackSpeedStatisticsAnalyzer.TRACK_MEAN_SPEED, Util.average( speeds ) );
+		v.put( TrackSpeedStatisticsAnalyzer.TRACK_STD_SPEED, TMUtils.standardDeviation( speeds ) );
+	}
+
+	private static void baselineLocation( final TrackModel tm, final Integer trackID, final Map< String, Double > v )
+	{
+		final Set< Spot > track = tm.trackSpots( trackID );
+		double x = 0.;
+		double y = 0.;
+		double z = 0.;
+		for ( final Spot spot : track )
+		{
+			x += spot.getFeature( Spot.POSITION_X );
+			y += spot.getFeature( Spot.POSITION_Y );
+			z += spot.getFeature( Spot.POSITION_Z );
+		}
+		v.put( TrackLocationAnalyzer.X_LOCATION, x / track.size() );
+		v.put( TrackLocationAnalyzer.Y_LOCATION, y / track.size() );
+		v.put( TrackLocationAnalyzer.Z_LOCATION, z / track.size() );
+	}
+
+	private static void baselineQuality( final TrackModel tm, final Integer trackID, final Map< String, Double > v )
+	{
+		final double mean = tm.trackSpots( trackID )
+				.stream()
+				.mapToDouble( s -> s.getFeature( Spot.QUALITY ).doubleValue() )
+				.average()
+				.getAsDouble();
+		v.put( TrackSpotQualityFeatureAnalyzer.TRACK_MEAN_QUALITY, mean );
+	}
+
+	/**
+	 * Depends on the duration and speed features, computed first. There is no
+	 * directional change rate on the edges, so the mean rate is NaN.
+	 */
+	private static void baselineMotility( final TrackModel tm, final Integer trackID, final Map< String, Double > v )
+	{
+		final List< Spot > spots = new ArrayList<>( tm.trackSpots( trackID ) );
+		Collections.sort( spots, Spot.frameComparator );
+		final Spot first = spots.get( 0 );
+
+		double totalDistance = 0.;
+		double maxDistanceSq = Double.NEGATIVE_INFINITY;
+		double maxDistance = 0.;
+		for ( final DefaultWeightedEdge edge : tm.trackEdges( trackID ) )
+		{
+			final Spot source = tm.getEdgeSource( edge );
+			final Spot target = tm.getEdgeTarget( edge );
+			totalDistance += Math.sqrt( source.squareDistanceTo( target ) );
+
+			final double dToFirstSq = first.squareDistanceTo( target );
+			if ( dToFirstSq > maxDistanceSq )
+			{
+				maxDistanceSq = dToFirstSq;
+				maxDistance = Math.sqrt( maxDistanceSq );
+			}
+		}
+
+		final double netDistance = v.get( TrackDurationAnalyzer.TRACK_DISPLACEMENT );
+		final double tTotal = v.get( TrackDurationAnalyzer.TRACK_DURATION );
+		final double vMean = v.get( TrackSpeedStatisticsAnalyzer.TRACK_MEAN_SPEED );
+		final double meanStraightLineSpeed = netDistance / tTotal;
+
+		v.put( TrackMotilityAnalyzer.TRACK_TOTAL_DISTANCE_TRAVELED, totalDistance );
+		v.put( TrackMotilityAnalyzer.TRACK_MAX_DISTANCE_TRAVELED, maxDistance );
+		v.put( TrackMotilityAnalyzer.TRACK_CONFINEMENT_RATIO, netDistance / totalDistance );
+		v.put( TrackMotilityAnalyzer.TRACK_MEAN_STRAIGHT_LINE_SPEED, meanStraightLineSpeed );
+		v.put( TrackMotilityAnalyzer.TRACK_LINEARITY_OF_FORWARD_PROGRESSION, meanStraightLineSpeed / vMean );
+		v.put( TrackMotilityAnalyzer.TRACK_MEAN_DIRECTIONAL_CHANGE_RATE, Double.NaN );
+	}
+}
@@ -0,0 +1,193 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotRoi;
+
+public class TmXmlReaderTest
+{
+
+	private static final int N_TRACKS = 20;
+
+	private static final int N_FRAMES = 10;
+
+	/**
+	 * More lone spots than a single conversion chunk holds.
+	 */
+	private static final int N_LONE_SPOTS = 2500;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Model model;
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		final Random ran = new Random( 1l );
+		model = new Model();
+		model.beginUpdate();
+		try
+		{
+			for ( int i = 0; i < N_TRACKS; i++ )
+			{
+				Spot previous = null;
+				for ( int t = 0; t < N_FRAMES; t++ )
+				{
+					final Spot spot = new Spot( ran.nextDouble(), ran.nextDouble(), 0d, 1d, ran.nextDouble() );
+					spot.putFeature( Spot.POSITION_T, Double.valueOf( t ) );
+					model.addSpotTo( spot, t );
+					if ( null != previous )
+						model.addEdge( previous, spot, ran.nextDouble() );
+					previous = spot;
+				}
+			}
+			for ( int i = 0; i < N_LONE_SPOTS; i++ )
+			{
+				final Spot spot = new Spot( ran.nextDouble(), ran.nextDouble(), 0d, 1d, ran.nextDouble() );
+				if ( i == 0 )
+					spot.setRoi( new SpotRoi( new double[] { -1., 1., 1. }, new double[] { -1., -1., 1. } ) );
+				model.addSpotTo( spot, 0 );
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		file = folder.newFile( "model.xml" );
+		write( file );
+	}
+
+	private void write( final File target ) throws IOException
+	{
+		final TmXmlWriter writer = new TmXmlWriter( target );
+		writer.appendLog( "Some log." );
+		writer.appendModel( model );
+		writer.writeToFile();
+	}
+
+	@Test
+	public void testRoundTrip()
+	{
+		final TmXmlReader reader = new TmXmlReader( file );
+		assertTrue( reader.getErrorMessage(), reader.isReadingOk() );
+		assertEquals( "Some log.", reader.getLog() );
+
+		final Model loaded = reader.getModel();
+		assertTrue( reader.getErrorMessage(), reader.isReadingOk() );
+		assertModelEquals( model, loaded );
+	}
+
+	@Test
+	public void testCompressedRoundTrip() throws IOException
+	{
+		final File compressed = folder.newFile( "model.xml.gz" );
+		write( compressed );
+		assertTrue( compressed.length() < file.length() );
+
+		final TmXmlReader reader = new TmXmlReader( compressed );
+		final Model loaded = reader.getModel();
+		assertTrue( reader.getErrorMessage(), reader.isReadingOk() );
+		assertEquals( "Some log.", reader.getLog() );
+		assertModelEquals( model, loaded );
+	}
+
+	@Test
+	public void testModelReadTwice()
+	{
+		final TmXmlReader reader = new TmXmlReader( file );
+		final Model first = reader.getModel();
+		final Model second = reader.getModel();
+		assertTrue( reader.getErrorMessage(), reader.isReadingOk() );
+		assertModelEquals( model, second );
+
+		final Spot spot = first.getSpots().iterator( false ).next();
+		assertNotSame( spot, second.getSpots().search( spot.ID() ) );
+	}
+
+	private static void assertModelEquals( final Model expected, final Model actual )
+	{
+		assertEquals( expected.getSpots().getNSpots( false ), actual.getSpots().getNSpots( false ) );
+		for ( int t = 0; t < N_FRAMES; t++ )
+			assertEquals( expected.getSpots().getNSpots( t, false ), actual.getSpots().getNSpots( t, false ) );
+
+		for ( final Spot spot : expected.getSpots().iterable( false ) )
+		{
+			final Spot other = actual.getSpots().search( spot.ID() );
+			assertNotNull( "Missing spot " + spot, other );
+			assertEquals( spot.getName(), other.getName() );
+			for ( final String feature : new String[] { Spot.POSITION_X, Spot.POSITION_Y, Spot.QUALITY, Spot.FRAME } )
+				assertEquals( spot.getFeature( feature ), other.getFeature( feature ), 1e-12 );
+
+			if ( null != spot.getRoi() )
+			{
+				assertNotNull( other.getRoi() );
+				assertArrayEquals( spot.getRoi().x, other.getRoi().x, 1e-12 );
+				assertArrayEquals( spot.getRoi().y, other.getRoi().y, 1e-12 );
+			}
+		}
+
+		assertEquals( expected.getTrackModel().nTracks( false ), actual.getTrackModel().nTracks( false ) );
+		assertEquals( expected.getTrackModel().edgeSet().size(), actual.getTrackModel().edgeSet().size() );
+
+		final Map< String, Double > weights = new HashMap<>();
+		for ( final DefaultWeightedEdge edge : expected.getTrackModel().edgeSet() )
+			weights.put( key( expected, edge ), expected.getTrackModel().getEdgeWeight( edge ) );
+		for ( final DefaultWeightedEdge edge : actual.getTrackModel().edgeSet() )
+		{
+			final Double weight = weights.get( key( actual, edge ) );
+			assertNotNull( "Unexpected edge " + edge, weight );
+			assertEquals( weight.doubleValue(), actual.getTrackModel().getEdgeWeight( edge ), 1e-12 );
+		}
+
+		for ( final Integer trackID : expected.getTrackModel().trackIDs( false ) )
+			assertEquals( expected.getTrackModel().name( trackID ), actual.getTrackModel().name( trackID ) );
+	}
+
+	private static String key( final Model model, final DefaultWeightedEdge edge )
+	{
+		return model.getTrackModel().getEdgeSource( edge ).ID() + "->" + model.getTrackModel().getEdgeTarget( edge ).ID();
+	}
+}
@@ -0,0 +1,216 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.jaqaman.costmatrix;
+
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_GAP_CLOSING;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_TRACK_MERGING;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_TRACK_SPLITTING;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALTERNATIVE_LINKING_COST_FACTOR;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_CUTOFF_PERCENTILE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_FEATURE_PENALTIES;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_FRAME_GAP;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_MERGING_FEATURE_PENALTIES;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_MERGING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_SPLITTING_FEATURE_PENALTIES;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_SPLITTING_MAX_DISTANCE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.jgrapht.Graph;
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.tracking.jaqaman.costfunction.CostFunction;
+import fiji.plugin.trackmate.tracking.jaqaman.costfunction.FeaturePenaltyCostFunction;
+import fiji.plugin.trackmate.tracking.jaqaman.costfunction.SquareDistCostFunction;
+
+public class JaqamanSegmentCostMatrixCreatorTest
+{
+
+	private static final double GAP_CLOSING_MAX_DISTANCE = 12.;
+
+	private static final int GAP_CLOSING_MAX_FRAME_GAP = 3;
+
+	private static final double MERGING_MAX_DISTANCE = 8.;
+
+	private static final double SPLITTING_MAX_DISTANCE = 6.;
+
+	@Test
+	public void testSameAsExhaustive()
+	{
+		final Graph< Spot, DefaultWeightedEdge > graph = createSegments( new Random( 1l ) );
+		for ( final int numThreads : new int[] { 1, 4 } )
+		{
+			final JaqamanSegmentCostMatrixCreator creator = new JaqamanSegmentCostMatrixCreator( graph, createSettings() );
+			creator.setNumThreads( numThreads );
+			assertTrue( creator.getErrorMessage(), creator.checkInput() && creator.process() );
+			final SparseCostMatrix scm = creator.getResult();
+			assertNotNull( "No link found.", scm );
+
+			final Map< Spot, Map< Spot, Double > > actual = new HashMap<>();
+			final List< Spot > sources = creator.getSourceList();
+			final List< Spot > targets = creator.getTargetList();
+			for ( int i = 0; i < scm.getNRows(); i++ )
+				for ( int j = 0; j < scm.getNCols(); j++ )
+				{
+					final double cost = scm.get( i, j, Double.NaN );
+					if ( !Double.isNaN( cost ) )
+						actual.computeIfAbsent( sources.get( i ), k -> new HashMap<>() ).put( targets.get( j ), cost );
+				}
+
+			final List< Spot > expectedSources = new ArrayList<>();
+			final List< Spot > expectedTargets = new ArrayList<>();
+			final List< Double > expectedCosts = new ArrayList<>();
+			exhaustiveSearch( graph, expectedSources, expectedTargets, expectedCosts );
+			final Map< Spot, Map< Spot, Double > > expected = new HashMap<>();
+			for ( int i = 0; i < expectedSources.size(); i++ )
+				expected.computeIfAbsent( expectedSources.get( i ), k -> new HashMap<>() ).put( expectedTargets.get( i ), expectedCosts.get( i ) );
+
+			assertEquals( "Bad cardinality with " + numThreads + " threads.", expectedCosts.size(), scm.cardinality );
+			assertEquals( "Candidate links differ with " + numThreads + " threads.", expected, actual );
+
+			final double[] costs = new double[ expectedCosts.size() ];
+			for ( int i = 0; i < costs.length; i++ )
+				costs[ i ] = expectedCosts.get( i );
+			final DefaultCostMatrixCreator< Spot, Spot > reference = new DefaultCostMatrixCreator<>( expectedSources, expectedTargets, costs, 1.05, 0.9 );
+			assertTrue( reference.getErrorMessage(), reference.checkInput() && reference.process() );
+			assertEquals( "Alternative costs differ with " + numThreads + " threads.", reference.computeAlternativeCosts(), creator.getAlternativeCostForSource( null ), 1e-9 );
+		}
+	}
+
+	/**
+	 * Collects the gap-closing, merging and splitting candidates by examining
+	 * every pair of segment extremities and middle points.
+	 */
+	private static void exhaustiveSearch( final Graph< Spot, DefaultWeightedEdge > graph, final List< Spot > sources, final List< Spot > targets, final List< Double > costs )
+	{
+		final GraphSegmentSplitter splitter = new GraphSegmentSplitter( graph, true );
+		final List< Spot > middles = new ArrayList<>();
+		for ( final List< Spot > segment : splitter.getSegmentMiddles() )
+			middles.addAll( segment );
+
+		final CostFunction< Spot, Spot > gcCostFunction = new FeaturePenaltyCostFunction( Collections.singletonMap( Spot.QUALITY, 1. ) );
+		final CostFunction< Spot, Spot > costFunction = new SquareDistCostFunction();
+		for ( final Spot end : splitter.getSegmentEnds() )
+		{
+			final int frame = frame( end );
+			for ( final Spot start : splitter.getSegmentStarts() )
+			{
+				final int df = frame( start ) - frame;
+				if ( df < 1 || df > GAP_CLOSING_MAX_FRAME_GAP )
+					continue;
+				final double cost = gcCostFunction.linkingCost( end, start );
+				if ( cost <= GAP_CLOSING_MAX_DISTANCE * GAP_CLOSING_MAX_DISTANCE )
+					add( end, start, cost, sources, targets, costs );
+			}
+			for ( final Spot middle : middles )
+			{
+				if ( frame( middle ) - frame != 1 )
+					continue;
+				final double cost = costFunction.linkingCost( end, middle );
+				if ( cost <= MERGING_MAX_DISTANCE * MERGING_MAX_DISTANCE )
+					add( end, middle, cost, sources, targets, costs );
+			}
+		}
+		for ( final Spot middle : middles )
+		{
+			for ( final Spot start : splitter.getSegmentStarts() )
+			{
+				if ( frame( start ) - frame( middle ) != 1 )
+					continue;
+				final double cost = costFunction.linkingCost( middle, start );
+				if ( cost <= SPLITTING_MAX_DISTANCE * SPLITTING_MAX_DISTANCE )
+					add( middle, start, cost, sources, targets, costs );
+			}
+		}
+	}
+
+	private static void add( final Spot source, final Spot target, final double cost, final List< Spot > sources, final List< Spot > targets, final List< Double > costs )
+	{
+		sources.add( source );
+		targets.add( target );
+		costs.add( cost );
+	}
+
+	private static int frame( final Spot spot )
+	{
+		return spot.getFeature( Spot.FRAME ).intValue();
+	}
+
+	/**
+	 * Creates random walks of 2 to 8 spots, starting at random frames, so
+	 * that many segments can be bridged.
+	 */
+	private static Graph< Spot, DefaultWeightedEdge > createSegments( final Random ran )
+	{
+		final Graph< Spot, DefaultWeightedEdge > graph = new SimpleWeightedGraph<>( DefaultWeightedEdge.class );
+		for ( int i = 0; i < 150; i++ )
+		{
+			final int firstFrame = ran.nextInt( 20 );
+			final int length = 2 + ran.nextInt( 7 );
+			double x = 60. * ran.nextDouble();
+			double y = 60. * ran.nextDouble();
+			Spot previous = null;
+			for ( int t = firstFrame; t < firstFrame + length; t++ )
+			{
+				final Spot spot = new Spot( x, y, 0., 1., 10. * ran.nextDouble() );
+				spot.putFeature( Spot.FRAME, Double.valueOf( t ) );
+				graph.addVertex( spot );
+				if ( null != previous )
+					graph.addEdge( previous, spot );
+				previous = spot;
+				x += 2. * ran.nextGaussian();
+				y += 2. * ran.nextGaussian();
+			}
+		}
+		return graph;
+	}
+
+	private static Map< String, Object > createSettings()
+	{
+		final Map< String, Object > settings = new HashMap<>();
+		settings.put( KEY_ALLOW_GAP_CLOSING, true );
+		settings.put( KEY_GAP_CLOSING_MAX_DISTANCE, GAP_CLOSING_MAX_DISTANCE );
+		settings.put( KEY_GAP_CLOSING_MAX_FRAME_GAP, GAP_CLOSING_MAX_FRAME_GAP );
+		settings.put( KEY_GAP_CLOSING_FEATURE_PENALTIES, new HashMap<>( Collections.singletonMap( Spot.QUALITY, 1. ) ) );
+		settings.put( KEY_ALLOW_TRACK_MERGING, true );
+		settings.put( KEY_MERGING_MAX_DISTANCE, MERGING_MAX_DISTANCE );
+		settings.put( KEY_MERGING_FEATURE_PENALTIES, new HashMap<>() );
+		settings.put( KEY_ALLOW_TRACK_SPLITTING, true );
+		settings.put( KEY_SPLITTING_MAX_DISTANCE, SPLITTING_MAX_DISTANCE );
+		settings.put( KEY_SPLITTING_FEATURE_PENALTIES, new HashMap<>() );
+		settings.put( KEY_ALTERNATIVE_LINKING_COST_FACTOR, 1.05 );
+		settings.put( KEY_CUTOFF_PERCENTILE, 0.9 );
+		return settings;
+	}
+}
@@ -22,6 +22,7 @@ package fiji.plugin.trackmate.tracking.jaqaman.costmatrix;
  */
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 
 import org.junit.Test;
 
@@ -78,4 +79,28 @@ public class SparseCostMatrixTest
 		}
 	}
 
+	@Test
+	public void testConnectedComponents()
+	{
+		// Rows 0 & 2 share column 1, row 1 is alone with column 0.
+		final int[] kk = new int[] { 1, 0, 1, 2 };
+		final double[] cc = new double[] { 0.1, 0.2, 0.3, 0.4 };
+		final int[] number = new int[] { 1, 1, 2 };
+		final SparseCostMatrix A = new SparseCostMatrix( cc, kk, number, 3 );
+		final int[] labels = A.connectedComponents();
+
+		assertEquals( "Bad number of labels.", A.nRows + A.nCols, labels.length );
+		assertEquals( "Rows 0 and 2 should be in the same component.", labels[ 0 ], labels[ 2 ] );
+		assertEquals( "Row 2 and column 2 should be in the same component.", labels[ 2 ], labels[ A.nRows + 2 ] );
+		assertEquals( "Row 1 and column 0 should be in the same component.", labels[ 1 ], labels[ A.nRows + 0 ] );
+		assertNotEquals( "Rows 0 and 1 should not be in the same component.", labels[ 0 ], labels[ 1 ] );
+
+		final SparseCostMatrix B = A.subMatrix( new int[] { 0, 2 }, new int[] { 1, 2 } );
+		assertEquals( "Bad number of rows.", 2, B.nRows );
+		assertEquals( "Bad number of cols.", 2, B.nCols );
+		assertEquals( "Bad cardinality.", 3, B.cardinality );
+		assertEquals( 0.1, B.get( 0, 0, Double.NaN ), Double.MIN_VALUE );
+		assertEquals( 0.3, B.get( 1, 0, Double.NaN ), Double.MIN_VALUE );
+		assertEquals( 0.4, B.get( 1, 1, Double.NaN ), Double.MIN_VALUE );
+	}
 }
@@ -0,0 +1,110 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.kalman;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CVMKalmanFilterBankTest
+{
+
+	private static final int N_FILTERS = 50;
+
+	private static final int N_STEPS = 100;
+
+	private static final double TOLERANCE = 1e-9;
+
+	@Test
+	public void testSameAsSingleFilters()
+	{
+		final Random ran = new Random( 3l );
+		final double initCov = 1e-2;
+		final double positionProcessStd = 2.;
+		final double velocityProcessStd = 1.5;
+		final double positionMeasurementStd = 0.3;
+
+		// Start small to exercise growing.
+		final CVMKalmanFilterBank bank = new CVMKalmanFilterBank( 4, initCov, positionProcessStd, velocityProcessStd, positionMeasurementStd );
+		final CVMKalmanFilter[] filters = new CVMKalmanFilter[ N_FILTERS ];
+		final int[] slots = new int[ N_FILTERS ];
+		for ( int i = 0; i < N_FILTERS; i++ )
+		{
+			final double[] X0 = new double[ 6 ];
+			for ( int j = 0; j < 6; j++ )
+				X0[ j ] = 100. * ran.nextDouble();
+			filters[ i ] = new CVMKalmanFilter( X0, initCov, positionProcessStd, velocityProcessStd, positionMeasurementStd );
+			slots[ i ] = bank.add( X0 );
+		}
+		assertEquals( N_FILTERS, bank.size() );
+
+		for ( int t = 0; t < N_STEPS; t++ )
+		{
+			for ( int i = 0; i < N_FILTERS; i++ )
+			{
+				final double[] Xp = filters[ i ].predict();
+				bank.predict( slots[ i ] );
+				for ( int d = 0; d < 3; d++ )
+					assertEquals( Xp[ d ], bank.getPredictedPosition( slots[ i ], d ), TOLERANCE * Math.max( 1., Math.abs( Xp[ d ] ) ) );
+
+				if ( ran.nextDouble() < 0.2 )
+				{
+					filters[ i ].update( null );
+					bank.occlusion( slots[ i ] );
+				}
+				else
+				{
+					final double[] Xm = new double[] {
+							Xp[ 0 ] + ran.nextGaussian(),
+							Xp[ 1 ] + ran.nextGaussian(),
+							Xp[ 2 ] + ran.nextGaussian() };
+					filters[ i ].update( Xm );
+					bank.update( slots[ i ], Xm[ 0 ], Xm[ 1 ], Xm[ 2 ] );
+				}
+
+				assertEquals( filters[ i ].getNOcclusion(), bank.getNOcclusion( slots[ i ] ) );
+				assertEquals( filters[ i ].getPositionError(), bank.getPositionError( slots[ i ] ), TOLERANCE * Math.max( 1., filters[ i ].getPositionError() ) );
+				assertEquals( filters[ i ].getVelocityError(), bank.getVelocityError( slots[ i ] ), TOLERANCE * Math.max( 1., filters[ i ].getVelocityError() ) );
+			}
+		}
+	}
+
+	@Test
+	public void testSlotsAreRecycled()
+	{
+		final CVMKalmanFilterBank bank = new CVMKalmanFilterBank( 2, 1., 1., 1., 1. );
+		final int a = bank.add( new double[] { 1., 2., 3., 0., 0., 0. } );
+		final int b = bank.add( new double[] { 4., 5., 6., 1., 1., 1. } );
+		bank.occlusion( a );
+		bank.remove( a );
+		assertEquals( 1, bank.size() );
+
+		final int c = bank.add( new double[] { 7., 8., 9., 0., 0., 0. } );
+		assertEquals( a, c );
+		assertEquals( 2, bank.size() );
+		assertEquals( 0, bank.getNOcclusion( c ) );
+		assertEquals( 7., bank.getState( c, 0 ), 0. );
+		assertEquals( 4., bank.getState( b, 0 ), 0. );
+	}
+}
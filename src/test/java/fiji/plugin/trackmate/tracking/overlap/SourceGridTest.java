@@ -0,0 +1,198 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.tracking.overlap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.tracking.overlap.OverlapTracker.SourceGrid;
+import fiji.plugin.trackmate.tracking.overlap.OverlapTracker.SpotGeometry;
+import math.geom2d.Box2D;
+import math.geom2d.Point2D;
+import math.geom2d.polygon.SimplePolygon2D;
+
+public class SourceGridTest
+{
+
+	private static final double EXTENT = 100.;
+
+	@Test
+	public void testRandomPolygons()
+	{
+		final Random ran = new Random( 1l );
+		for ( int trial = 0; trial < 20; trial++ )
+		{
+			final int nSources = 1 + ran.nextInt( 300 );
+			final SpotGeometry[] sources = new SpotGeometry[ nSources ];
+			for ( int i = 0; i < nSources; i++ )
+				sources[ i ] = randomPolygon( ran, 0., EXTENT );
+
+			// Targets also lie around and outside the grid borders.
+			final SpotGeometry[] targets = new SpotGeometry[ 200 ];
+			for ( int i = 0; i < targets.length; i++ )
+				targets[ i ] = randomPolygon( ran, -0.2 * EXTENT, 1.2 * EXTENT );
+
+			assertMatchesBruteForce( sources, targets );
+		}
+	}
+
+	@Test
+	public void testBorders()
+	{
+		final Random ran = new Random( 2l );
+		final SpotGeometry[] sources = new SpotGeometry[ 50 ];
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		for ( int i = 0; i < sources.length; i++ )
+		{
+			final SimplePolygon2D polygon = randomSimplePolygon( ran, 0., EXTENT );
+			final Box2D box = polygon.boundingBox();
+			minX = Math.min( minX, box.getMinX() );
+			minY = Math.min( minY, box.getMinY() );
+			maxX = Math.max( maxX, box.getMaxX() );
+			maxY = Math.max( maxY, box.getMaxY() );
+			sources[ i ] = toGeometry( polygon );
+		}
+
+		// Targets touching the corners and the edges of the source extent.
+		final double[] xs = new double[] { minX, 0.5 * ( minX + maxX ), maxX };
+		final double[] ys = new double[] { minY, 0.5 * ( minY + maxY ), maxY };
+		final SpotGeometry[] targets = new SpotGeometry[ 2 * xs.length * ys.length + 1 ];
+		int k = 0;
+		for ( final double x : xs )
+		{
+			for ( final double y : ys )
+			{
+				targets[ k++ ] = square( x, y, 3. );
+				targets[ k++ ] = square( x, y, 1e-3 );
+			}
+		}
+		// One target covering everything.
+		targets[ k++ ] = square( 0.5 * ( minX + maxX ), 0.5 * ( minY + maxY ), 2 * EXTENT );
+
+		assertMatchesBruteForce( sources, targets );
+	}
+
+	@Test
+	public void testDegenerateSources()
+	{
+		// A single source.
+		final SpotGeometry[] single = new SpotGeometry[] { square( 10., 10., 2. ) };
+		assertMatchesBruteForce( single, new SpotGeometry[] {
+				square( 10., 10., 1. ),
+				square( 11.5, 11.5, 1. ),
+				square( 20., 20., 1. ) } );
+
+		// Identical sources.
+		final SpotGeometry[] same = new SpotGeometry[ 10 ];
+		for ( int i = 0; i < same.length; i++ )
+			same[ i ] = square( 50., 50., 2. );
+		assertMatchesBruteForce( same, new SpotGeometry[] {
+				square( 50., 50., 1. ),
+				square( 49., 51., 1. ),
+				square( 60., 60., 1. ) } );
+
+		// One huge source among small ones.
+		final Random ran = new Random( 3l );
+		final SpotGeometry[] mixed = new SpotGeometry[ 40 ];
+		for ( int i = 0; i < mixed.length - 1; i++ )
+			mixed[ i ] = randomPolygon( ran, 0., EXTENT );
+		mixed[ mixed.length - 1 ] = square( 0.5 * EXTENT, 0.5 * EXTENT, 0.8 * EXTENT );
+		final SpotGeometry[] targets = new SpotGeometry[ 100 ];
+		for ( int i = 0; i < targets.length; i++ )
+			targets[ i ] = randomPolygon( ran, -0.2 * EXTENT, 1.2 * EXTENT );
+		assertMatchesBruteForce( mixed, targets );
+	}
+
+	private static void assertMatchesBruteForce( final SpotGeometry[] sources, final SpotGeometry[] targets )
+	{
+		final SourceGrid grid = new SourceGrid( sources );
+		final int[] marks = new int[ sources.length ];
+		final int[][] candidates = new int[][] { new int[ 1 ] };
+		int stamp = 0;
+		int nFound = 0;
+		for ( final SpotGeometry target : targets )
+		{
+			final int n = grid.query( target, marks, ++stamp, candidates );
+			final int[] actual = Arrays.copyOf( candidates[ 0 ], n );
+
+			final int[] expected = new int[ sources.length ];
+			int m = 0;
+			for ( int i = 0; i < sources.length; i++ )
+				if ( sources[ i ].overlaps( target ) )
+					expected[ m++ ] = i;
+
+			assertArrayEquals( Arrays.copyOf( expected, m ), actual );
+			nFound += n;
+		}
+		// Make sure we tested something.
+		assertTrue( nFound > 0 );
+	}
+
+	/**
+	 * Returns a random star-shaped polygon, centered in the specified range.
+	 */
+	private static SpotGeometry randomPolygon( final Random ran, final double min, final double max )
+	{
+		return toGeometry( randomSimplePolygon( ran, min, max ) );
+	}
+
+	private static SimplePolygon2D randomSimplePolygon( final Random ran, final double min, final double max )
+	{
+		final double xc = min + ( max - min ) * ran.nextDouble();
+		final double yc = min + ( max - min ) * ran.nextDouble();
+		final double radius = 0.1 + 6. * ran.nextDouble();
+		final int n = 3 + ran.nextInt( 10 );
+		final double[] x = new double[ n ];
+		final double[] y = new double[ n ];
+		for ( int i = 0; i < n; i++ )
+		{
+			final double theta = 2. * Math.PI * ( i + 0.9 * ran.nextDouble() ) / n;
+			final double r = radius * ( 0.3 + 0.7 * ran.nextDouble() );
+			x[ i ] = xc + r * Math.cos( theta );
+			y[ i ] = yc + r * Math.sin( theta );
+		}
+		return new SimplePolygon2D( x, y );
+	}
+
+	private static SpotGeometry square( final double xc, final double yc, final double halfSize )
+	{
+		final double[] x = new double[] { xc - halfSize, xc + halfSize, xc + halfSize, xc - halfSize };
+		final double[] y = new double[] { yc - halfSize, yc - halfSize, yc + halfSize, yc + halfSize };
+		return toGeometry( new SimplePolygon2D( x, y ) );
+	}
+
+	private static SpotGeometry toGeometry( final SimplePolygon2D polygon )
+	{
+		final Point2D center = polygon.centroid();
+		final Spot spot = new Spot( center.x(), center.y(), 0., 1., 1. );
+		return new SpotGeometry( spot, polygon );
+	}
+}
@@ -0,0 +1,242 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.scijava.Cancelable;
+
+public class ExecutionRuntimeTest
+{
+
+	@Test( timeout = 20000 )
+	public void testBoundedParallelism() throws Exception
+	{
+		final ExecutorService executor = ExecutionRuntime.getInstance().newExecutor( 2 );
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		final List< Future< ? > > futures = new ArrayList<>();
+		for ( int i = 0; i < 20; i++ )
+		{
+			futures.add( executor.submit( () -> {
+				final int n = running.incrementAndGet();
+				maxRunning.accumulateAndGet( n, Math::max );
+				Thread.sleep( 5 );
+				running.decrementAndGet();
+				return null;
+			} ) );
+		}
+		for ( final Future< ? > future : futures )
+			future.get();
+		executor.shutdown();
+		assertTrue( executor.awaitTermination( 1, TimeUnit.SECONDS ) );
+		assertTrue( "Ran more tasks at once than allowed: " + maxRunning.get(), maxRunning.get() <= 2 );
+	}
+
+	@Test( timeout = 20000 )
+	public void testNestedTasks() throws Exception
+	{
+		// Outer tasks wait for inner tasks submitted to other executors.
+		final ExecutionRuntime runtime = ExecutionRuntime.getInstance();
+		final int n = 4 * runtime.getParallelism();
+		final ExecutorService outer = runtime.newExecutor( n );
+		final AtomicInteger count = new AtomicInteger();
+		final List< Future< ? > > futures = new ArrayList<>();
+		for ( int i = 0; i < n; i++ )
+		{
+			futures.add( outer.submit( () -> {
+				final ExecutorService inner = runtime.newExecutor( 2 );
+				final List< Future< ? > > innerFutures = new ArrayList<>();
+				for ( int j = 0; j < 10; j++ )
+					innerFutures.add( inner.submit( () -> count.incrementAndGet() ) );
+				for ( final Future< ? > future : innerFutures )
+					future.get();
+				inner.shutdown();
+				return null;
+			} ) );
+		}
+		for ( final Future< ? > future : futures )
+			future.get();
+		outer.shutdown();
+		assertEquals( 10 * n, count.get() );
+	}
+
+	@Test( timeout = 20000 )
+	public void testBlockingQueuePipeline() throws Exception
+	{
+		// More blocked consumers than the parallelism of the runtime.
+		final ExecutionRuntime runtime = ExecutionRuntime.getInstance();
+		final int nConsumers = 2 * runtime.getParallelism() + 1;
+		final BlockingQueue< Integer > queue = new ArrayBlockingQueue<>( 1 );
+		final AtomicInteger sum = new AtomicInteger();
+
+		final ExecutorService consumers = runtime.newExecutor( nConsumers );
+		final List< Future< ? > > consumerFutures = new ArrayList<>();
+		for ( int i = 0; i < nConsumers; i++ )
+		{
+			consumerFutures.add( consumers.submit( () -> {
+				while ( true )
+				{
+					final int val = ExecutionRuntime.take( queue ).intValue();
+					if ( val < 0 )
+						return null;
+					sum.addAndGet( val );
+				}
+			} ) );
+		}
+
+		final ExecutorService producers = runtime.newExecutor( 2 );
+		final List< Future< ? > > producerFutures = new ArrayList<>();
+		for ( int i = 1; i <= 100; i++ )
+		{
+			final int val = i;
+			producerFutures.add( producers.submit( () -> {
+				ExecutionRuntime.put( queue, Integer.valueOf( val ) );
+				return null;
+			} ) );
+		}
+		for ( final Future< ? > future : producerFutures )
+			future.get();
+		for ( int i = 0; i < nConsumers; i++ )
+			ExecutionRuntime.put( queue, Integer.valueOf( -1 ) );
+		for ( final Future< ? > future : consumerFutures )
+			future.get();
+
+		producers.shutdown();
+		consumers.shutdown();
+		assertEquals( 5050, sum.get() );
+	}
+
+	@Test( timeout = 20000 )
+	public void testCancellation() throws Exception
+	{
+		final SimpleCancelable cancelable = new SimpleCancelable();
+		final ExecutorService executor = ExecutionRuntime.getInstance().newExecutor( 1, cancelable );
+		final AtomicInteger ran = new AtomicInteger();
+		final List< Future< ? > > futures = new ArrayList<>();
+		for ( int i = 0; i < 10; i++ )
+		{
+			futures.add( executor.submit( () -> {
+				ran.incrementAndGet();
+				cancelable.cancel( "Test" );
+			} ) );
+		}
+		int cancelled = 0;
+		for ( final Future< ? > future : futures )
+		{
+			try
+			{
+				future.get();
+			}
+			catch ( final CancellationException e )
+			{
+				cancelled++;
+			}
+		}
+		executor.shutdown();
+		assertEquals( 1, ran.get() );
+		assertEquals( 9, cancelled );
+	}
+
+	@Test( timeout = 20000 )
+	public void testShutdownNowInterrupts() throws Exception
+	{
+		final ExecutorService executor = ExecutionRuntime.getInstance().newExecutor( 1 );
+		final CountDownLatch started = new CountDownLatch( 1 );
+		final AtomicInteger interrupted = new AtomicInteger();
+		final List< Future< ? > > futures = new ArrayList<>();
+		for ( int i = 0; i < 3; i++ )
+		{
+			futures.add( executor.submit( () -> {
+				started.countDown();
+				try
+				{
+					Thread.sleep( 60000 );
+				}
+				catch ( final InterruptedException e )
+				{
+					interrupted.incrementAndGet();
+				}
+			} ) );
+		}
+		started.await();
+		final List< Runnable > pending = executor.shutdownNow();
+		assertTrue( executor.awaitTermination( 10, TimeUnit.SECONDS ) );
+		assertEquals( 1, interrupted.get() );
+		assertEquals( 2, pending.size() );
+		assertTrue( futures.get( 0 ).isDone() );
+
+		// The pool workers are not left interrupted.
+		final ExecutorService next = ExecutionRuntime.getInstance().newExecutor( 1 );
+		final Future< Boolean > check = next.submit( () -> Thread.currentThread().isInterrupted() );
+		assertFalse( check.get() );
+		next.shutdown();
+	}
+
+	@Test( timeout = 20000 )
+	public void testContextClassLoader() throws Exception
+	{
+		final ExecutorService executor = ExecutionRuntime.getInstance().newExecutor( 1 );
+		final Future< ClassLoader > future = executor.submit( () -> Thread.currentThread().getContextClassLoader() );
+		assertSame( ExecutionRuntime.class.getClassLoader(), future.get() );
+		executor.shutdown();
+	}
+
+	private static final class SimpleCancelable implements Cancelable
+	{
+
+		private volatile String reason;
+
+		@Override
+		public boolean isCanceled()
+		{
+			return reason != null;
+		}
+
+		@Override
+		public void cancel( final String reason )
+		{
+			this.reason = reason;
+		}
+
+		@Override
+		public String getCancelReason()
+		{
+			return reason;
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.visualization.hyperstack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+
+public class TrackEdgeIndexTest
+{
+
+	@Test
+	public void testQuery()
+	{
+		final Model model = new Model();
+		final double[] calibration = new double[] { 1., 1., 1. };
+		final TrackEdgeIndex index = new TrackEdgeIndex( model, calibration, 160, 160 );
+		model.addModelChangeListener( index::modelChanged );
+
+		// One track on the left going down in time, one on the right.
+		final DefaultWeightedEdge[] left = new DefaultWeightedEdge[ 9 ];
+		final DefaultWeightedEdge[] right = new DefaultWeightedEdge[ 9 ];
+		model.beginUpdate();
+		try
+		{
+			Spot pl = model.addSpotTo( new Spot( 10., 10., 0., 1., 1. ), 0 );
+			Spot pr = model.addSpotTo( new Spot( 150., 10., 0., 1., 1. ), 0 );
+			for ( int t = 1; t < 10; t++ )
+			{
+				final Spot sl = model.addSpotTo( new Spot( 10., 10. + 10. * t, 0., 1., 1. ), t );
+				final Spot sr = model.addSpotTo( new Spot( 150., 10. + 10. * t, 0., 1., 1. ), t );
+				left[ t - 1 ] = model.addEdge( pl, sl, 1. );
+				right[ t - 1 ] = model.addEdge( pr, sr, 1. );
+				pl = sl;
+				pr = sr;
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		// Everything.
+		assertEquals( 18, query( index, Integer.MIN_VALUE, Integer.MAX_VALUE, 0., 0., 160., 160. ).size() );
+
+		// Left half, frames 2 to 4.
+		final Set< DefaultWeightedEdge > found = query( index, 2, 5, 0., 0., 40., 160. );
+		assertEquals( 3, found.size() );
+		for ( int t = 2; t < 5; t++ )
+			assertTrue( found.contains( left[ t ] ) );
+
+		// Remove an edge.
+		model.beginUpdate();
+		try
+		{
+			model.removeEdge( left[ 3 ] );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		assertEquals( 2, query( index, 2, 5, 0., 0., 40., 160. ).size() );
+		assertEquals( 17, query( index, Integer.MIN_VALUE, Integer.MAX_VALUE, 0., 0., 160., 160. ).size() );
+	}
+
+	private static Set< DefaultWeightedEdge > query( final TrackEdgeIndex index, final int minT, final int maxT, final double minx, final double miny, final double maxx, final double maxy )
+	{
+		final Set< DefaultWeightedEdge > found = new HashSet<>();
+		index.query( minT, maxT, minx, miny, maxx, maxy, edge -> assertTrue( found.add( edge ) ) );
+		return found;
+	}
+}
@@ -0,0 +1,128 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.visualization.table;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.FeatureColumns;
+
+public class TableFeatureColumnsTest
+{
+
+	@Test
+	public void testColumns()
+	{
+		final Map< String, Double > a = new HashMap<>();
+		a.put( "X", 1. );
+		a.put( "Y", Double.NaN );
+		final Map< String, Double > b = new HashMap<>();
+		b.put( "X", 2. );
+
+		final List< Map< String, Double > > objects = Arrays.asList( a, b );
+		final TableFeatureColumns< Map< String, Double > > columns = new TableFeatureColumns<>( objects, Arrays.asList( "X", "Y" ), ( o, f ) -> o.get( f ) );
+
+		assertEquals( 2, columns.size() );
+		assertEquals( 1, columns.indexOf( b ) );
+		assertEquals( -1, columns.indexOf( new HashMap<>() ) );
+		assertArrayEquals( new double[] { 1., 2. }, columns.column( 0 ), 0. );
+
+		// NaN values and missing values are told apart.
+		assertTrue( Double.isNaN( columns.getValue( 0, 1 ) ) );
+		assertTrue( !FeatureColumns.isMissing( columns.getValue( 0, 1 ) ) );
+		assertTrue( FeatureColumns.isMissing( columns.getValue( 1, 1 ) ) );
+
+		// Snapshot until updated.
+		b.put( "X", 3. );
+		assertEquals( 2., columns.getValue( 1, 0 ), 0. );
+		columns.update( 1 );
+		assertEquals( 3., columns.getValue( 1, 0 ), 0. );
+		b.put( "X", 4. );
+		columns.clear();
+		assertEquals( 4., columns.getValue( 1, 0 ), 0. );
+	}
+
+	@Test
+	public void testReadByBlocks()
+	{
+		final int n = 10000;
+		final List< Integer > objects = new ArrayList<>( n );
+		for ( int i = 0; i < n; i++ )
+			objects.add( Integer.valueOf( i ) );
+		final AtomicInteger nReads = new AtomicInteger( 0 );
+		final TableFeatureColumns< Integer > columns = new TableFeatureColumns<>( objects, Arrays.asList( "X" ), ( o, f ) -> {
+			nReads.incrementAndGet();
+			return Double.valueOf( 2. * o.intValue() );
+		} );
+
+		// Reading one value only reads the rows around it.
+		assertEquals( 2. * 5000, columns.getValue( 5000, 0 ), 0. );
+		assertTrue( nReads.get() > 0 && nReads.get() < n / 10 );
+		final int nBlockReads = nReads.get();
+		assertEquals( 2. * 5001, columns.getValue( 5001, 0 ), 0. );
+		assertEquals( nBlockReads, nReads.get() );
+
+		// The whole column reads every row once.
+		final double[] column = columns.column( 0 );
+		assertEquals( n, nReads.get() );
+		for ( int i = 0; i < n; i++ )
+			assertEquals( 2. * i, column[ i ], 0. );
+	}
+
+	@Test
+	public void testSort()
+	{
+		final double[] values = new double[] { 3., FeatureColumns.MISSING, Double.NaN, 1., 3., -2., FeatureColumns.MISSING, 1. };
+		final int[] rows = new int[ values.length ];
+		for ( int i = 0; i < rows.length; i++ )
+			rows[ i ] = i;
+
+		TableFeatureColumns.sort( rows, ( r1, r2 ) -> TableFeatureColumns.compare( values[ r1 ], values[ r2 ] ) );
+		// Missing first, NaN last, ties in their original order.
+		assertArrayEquals( new int[] { 1, 6, 5, 3, 7, 0, 4, 2 }, rows );
+
+		final int n = 1000;
+		final double[] large = new double[ n ];
+		final int[] sorted = new int[ n ];
+		for ( int i = 0; i < n; i++ )
+		{
+			large[ i ] = ( i * 7919 ) % 101;
+			sorted[ i ] = i;
+		}
+		TableFeatureColumns.sort( sorted, ( r1, r2 ) -> Double.compare( large[ r1 ], large[ r2 ] ) );
+		for ( int i = 1; i < n; i++ )
+		{
+			final int cmp = Double.compare( large[ sorted[ i - 1 ] ], large[ sorted[ i ] ] );
+			assertTrue( cmp < 0 || ( cmp == 0 && sorted[ i - 1 ] < sorted[ i ] ) );
+		}
+	}
+}
@@ -0,0 +1,217 @@
+/*-
+ * #%L
+ * TrackMate: your buddy for everyday tracking.
+ * %%
+ * Copyright (C) 2010 - 2023 TrackMate developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package fiji.plugin.trackmate.visualization.trackscheme;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.Spot;
+
+public class SpotThumbnailCacheTest
+{
+
+	private final CountingUpdater updater = new CountingUpdater();
+
+	private volatile double radiusFactor = 1.;
+
+	private volatile CountDownLatch updated = new CountDownLatch( 1 );
+
+	private final SpotThumbnailCache cache = new SpotThumbnailCache( updater, () -> radiusFactor, () -> updated.countDown(), 3, 2 );
+
+	@After
+	public void tearDown()
+	{
+		cache.dispose();
+	}
+
+	@Test
+	public void testHits()
+	{
+		final Spot spot = spot( 0 );
+		final BufferedImage image = cache.getNow( spot );
+		assertNotNull( image );
+		assertEquals( 1, updater.grabbed.get() );
+
+		assertSame( image, cache.getNow( spot ) );
+		assertSame( image, cache.get( spot ) );
+		assertEquals( 1, updater.grabbed.get() );
+	}
+
+	@Test
+	public void testInvalidation()
+	{
+		final Spot spot = spot( 0 );
+		final Spot other = spot( 1 );
+		final BufferedImage image = cache.getNow( spot );
+		final BufferedImage otherImage = cache.getNow( other );
+
+		// Invalidating a spot only discards its own thumbnail.
+		cache.invalidate( spot );
+		final BufferedImage newImage = cache.getNow( spot );
+		assertNotSame( image, newImage );
+		assertSame( otherImage, cache.getNow( other ) );
+		assertEquals( 3, updater.grabbed.get() );
+
+		// Changing the radius factor discards all the thumbnails.
+		radiusFactor = 2.;
+		assertNotSame( newImage, cache.getNow( spot ) );
+		assertNotSame( otherImage, cache.getNow( other ) );
+		assertEquals( 5, updater.grabbed.get() );
+
+		// So does changing the channel.
+		updater.channel = 1;
+		cache.getNow( spot );
+		assertEquals( 6, updater.grabbed.get() );
+		assertEquals( 1, updater.lastChannel );
+
+		cache.clear();
+		cache.getNow( spot );
+		assertEquals( 7, updater.grabbed.get() );
+	}
+
+	@Test
+	public void testEviction()
+	{
+		final Spot[] spots = new Spot[] { spot( 0 ), spot( 0 ), spot( 0 ), spot( 0 ) };
+		for ( final Spot spot : spots )
+			cache.getNow( spot );
+		assertEquals( 4, updater.grabbed.get() );
+
+		// The capacity is 3: the least recently used one was evicted.
+		cache.getNow( spots[ 3 ] );
+		assertEquals( 4, updater.grabbed.get() );
+		cache.getNow( spots[ 0 ] );
+		assertEquals( 5, updater.grabbed.get() );
+	}
+
+	@Test( timeout = 10000 )
+	public void testBackgroundGeneration() throws InterruptedException
+	{
+		final Spot spot1 = spot( 0 );
+		final Spot spot2 = spot( 0 );
+		// Hold the lock so that both spots are scheduled in the same batch.
+		synchronized ( cache )
+		{
+			assertNull( cache.get( spot1 ) );
+			assertNull( cache.get( spot2 ) );
+		}
+		assertTrue( updated.await( 5, TimeUnit.SECONDS ) );
+
+		assertNotNull( cache.get( spot1 ) );
+		assertNotNull( cache.get( spot2 ) );
+		assertEquals( 2, updater.grabbed.get() );
+		// Both spots are in the same frame: the frame is wrapped once.
+		assertEquals( 1, updater.grabbers.get() );
+	}
+
+	@Test
+	public void testFailure()
+	{
+		final Spot spot = spot( 0 );
+		updater.fail = true;
+		cache.setLogger( Logger.VOID_LOGGER );
+		assertNull( cache.getNow( spot ) );
+		// Failures are cached too.
+		assertNull( cache.getNow( spot ) );
+		assertNull( cache.get( spot ) );
+		assertEquals( 1, updater.grabbed.get() );
+	}
+
+	@Test
+	public void testDispose()
+	{
+		final Spot spot = spot( 0 );
+		cache.getNow( spot );
+		cache.dispose();
+		assertNull( cache.get( spot ) );
+		assertEquals( 1, updater.grabbed.get() );
+		assertEquals( 1, updater.grabbers.get() );
+	}
+
+	private static Spot spot( final int frame )
+	{
+		final Spot spot = new Spot( 10., 10., 0., 2., 1. );
+		spot.putFeature( Spot.FRAME, Double.valueOf( frame ) );
+		return spot;
+	}
+
+	/**
+	 * Counts the thumbnails generated, without any image.
+	 */
+	private static final class CountingUpdater extends SpotImageUpdater
+	{
+
+		private final AtomicInteger grabbers = new AtomicInteger();
+
+		private final AtomicInteger grabbed = new AtomicInteger();
+
+		private volatile int channel = 0;
+
+		private volatile int lastChannel = -1;
+
+		private volatile boolean fail = false;
+
+		private CountingUpdater()
+		{
+			super( new Settings() );
+		}
+
+		@Override
+		public int getTargetChannel()
+		{
+			return channel;
+		}
+
+		@SuppressWarnings( { "rawtypes", "unchecked" } )
+		@Override
+		public SpotIconGrabber< ? > createGrabber( final int frame, final int channel )
+		{
+			grabbers.incrementAndGet();
+			lastChannel = channel;
+			return new SpotIconGrabber( null )
+			{
+				@Override
+				public BufferedImage getImage( final Spot spot, final double radiusFactor )
+				{
+					grabbed.incrementAndGet();
+					if ( fail )
+						throw new IllegalStateException( "Test" );
+					return new BufferedImage( 4, 4, BufferedImage.TYPE_BYTE_GRAY );
+				}
+			};
+		}
+	}
+}